@@ -0,0 +1,128 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import de.javagl.mnist.reader.MnistWriter;
+
+/**
+ * Utility methods for creating synthetic MNIST files for the benchmarks.
+ * The files are created in <code>target/mnist-benchmark-data</code>, 
+ * and reused by later benchmark runs.<br>
+ * <br>
+ * The decompressed images file needs 784 bytes for each entry, which
+ * is about 7.8 GB for 10 million entries. The compressed files are 
+ * much smaller, but while they are written, a temporary decompressed
+ * file of the same size is created in the same directory. So creating
+ * the files for 10 million entries temporarily needs about 16 GB of 
+ * disk space.
+ */
+class MnistBenchmarkData
+{
+    /**
+     * The number of rows and columns of the synthetic images
+     */
+    static final int SIZE = 28;
+
+    /**
+     * The number of entries that are written with one bulk write
+     */
+    private static final int CHUNK_SIZE = 10000;
+
+    /**
+     * Returns the directory that contains the synthetic files for the
+     * given number of entries. If the files do not exist yet, then they
+     * will be created. The directory will contain compressed and 
+     * decompressed files with the default MNIST training file names.
+     * 
+     * @param numberOfEntries The number of entries
+     * @return The directory
+     * @throws IOException If an IO error occurs
+     */
+    static Path obtain(int numberOfEntries) throws IOException
+    {
+        Path directoryPath = Paths.get("target", "mnist-benchmark-data", 
+            String.valueOf(numberOfEntries));
+        Path markerPath = directoryPath.resolve("complete");
+        if (Files.exists(markerPath))
+        {
+            return directoryPath;
+        }
+        Files.createDirectories(directoryPath);
+        System.out.println("Creating " + numberOfEntries 
+            + " synthetic entries in " + directoryPath);
+        try (MnistWriter compressedWriter = MnistWriter.createCompressed(
+                directoryPath.resolve("train-images-idx3-ubyte.gz"), 
+                directoryPath.resolve("train-labels-idx1-ubyte.gz"), 
+                SIZE, SIZE, Deflater.DEFAULT_COMPRESSION);
+            MnistWriter decompressedWriter = MnistWriter.create(
+                directoryPath.resolve("train-images.idx3-ubyte"), 
+                directoryPath.resolve("train-labels.idx1-ubyte"), 
+                SIZE, SIZE))
+        {
+            Random random = new Random(0);
+            byte labels[] = new byte[CHUNK_SIZE];
+            byte imageData[] = new byte[CHUNK_SIZE * SIZE * SIZE];
+            for (int n = 0; n < numberOfEntries; n += CHUNK_SIZE)
+            {
+                int count = Math.min(CHUNK_SIZE, numberOfEntries - n);
+                for (int i = 0; i < count; i++)
+                {
+                    labels[i] = (byte) random.nextInt(10);
+                    fillImage(random, imageData, i * SIZE * SIZE);
+                }
+                compressedWriter.write(labels, imageData, count);
+                decompressedWriter.write(labels, imageData, count);
+            }
+        }
+        Files.createFile(markerPath);
+        return directoryPath;
+    }
+
+    /**
+     * Fill the specified image with a random stroke on a black background,
+     * so that the data compresses roughly like real MNIST digits
+     * 
+     * @param random The random number generator
+     * @param imageData The image data
+     * @param offset The offset of the image
+     */
+    private static void fillImage(Random random, byte imageData[], int offset)
+    {
+        Arrays.fill(imageData, offset, offset + SIZE * SIZE, 
+            (byte) 0);
+        int x = 6 + random.nextInt(SIZE - 12);
+        int y = 6 + random.nextInt(SIZE - 12);
+        for (int s = 0; s < 60; s++)
+        {
+            x = Math.max(4, Math.min(SIZE - 5, x + random.nextInt(3) - 1));
+            y = Math.max(4, Math.min(SIZE - 5, y + random.nextInt(3) - 1));
+            for (int dy = -1; dy <= 1; dy++)
+            {
+                for (int dx = -1; dx <= 1; dx++)
+                {
+                    int value = (dx == 0 && dy == 0) ? 255 : 128;
+                    int index = offset + (y + dy) * SIZE + (x + dx);
+                    int old = imageData[index] & 0xFF;
+                    imageData[index] = (byte) Math.max(old, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private MnistBenchmarkData()
+    {
+        // Private constructor to prevent instantiation
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.javagl.mnist.reader.MnistDataset;
+import de.javagl.mnist.reader.MnistEntry;
+
+/**
+ * Benchmarks for the {@link MnistEntry} class. The throughput is
+ * given in images per second. The allocation rate is reported when the 
+ * benchmark is run with the GC profiler (<code>-prof gc</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MnistEntryBenchmark
+{
+    /**
+     * The entry
+     */
+    private MnistEntry mnistEntry;
+
+    /**
+     * Obtain the entry that is used for the benchmark
+     * 
+     * @throws IOException If an IO error occurs
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        Path directoryPath = MnistBenchmarkData.obtain(60000);
+        mnistEntry = MnistDataset.openTraining(directoryPath).getEntry(0);
+    }
+
+    /**
+     * Benchmark for {@link MnistEntry#createImage()}
+     * 
+     * @return The image
+     */
+    @Benchmark
+    public BufferedImage createImage()
+    {
+        return mnistEntry.createImage();
+    }
+
+}
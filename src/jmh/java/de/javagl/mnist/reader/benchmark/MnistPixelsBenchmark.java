@@ -0,0 +1,149 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.javagl.mnist.reader.MnistPixels;
+
+/**
+ * Benchmarks for the conversion kernels in {@link MnistPixels}. One
+ * operation converts a block of 1000 images with 28x28 pixels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MnistPixelsBenchmark
+{
+    /**
+     * The number of images
+     */
+    private static final int NUMBER_OF_IMAGES = 1000;
+
+    /**
+     * The number of pixels of each image
+     */
+    private static final int IMAGE_SIZE = 
+        MnistBenchmarkData.SIZE * MnistBenchmarkData.SIZE;
+
+    /**
+     * The source pixels
+     */
+    private byte source[];
+
+    /**
+     * The target values
+     */
+    private float target[];
+
+    /**
+     * The per-pixel means
+     */
+    private float mean[];
+
+    /**
+     * The per-pixel standard deviations
+     */
+    private float std[];
+
+    /**
+     * Create the input data
+     */
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Random random = new Random(0);
+        source = new byte[NUMBER_OF_IMAGES * IMAGE_SIZE];
+        random.nextBytes(source);
+        target = new float[source.length];
+        mean = new float[IMAGE_SIZE];
+        std = new float[IMAGE_SIZE];
+        for (int i = 0; i < IMAGE_SIZE; i++)
+        {
+            mean[i] = random.nextFloat() * 255.0f;
+            std[i] = 1.0f + random.nextFloat() * 100.0f;
+        }
+    }
+
+    /**
+     * Benchmark for a plain scalar loop, for comparison
+     * 
+     * @return The target array
+     */
+    @Benchmark
+    public float[] scalarLoop()
+    {
+        for (int i = 0; i < source.length; i++)
+        {
+            target[i] = (source[i] & 0xFF) / 255.0f;
+        }
+        return target;
+    }
+
+    /**
+     * Benchmark for {@link MnistPixels#toUnitRange}
+     * 
+     * @return The target array
+     */
+    @Benchmark
+    public float[] toUnitRange()
+    {
+        MnistPixels.toUnitRange(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    /**
+     * Benchmark for {@link MnistPixels#toSymmetricRange}
+     * 
+     * @return The target array
+     */
+    @Benchmark
+    public float[] toSymmetricRange()
+    {
+        MnistPixels.toSymmetricRange(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    /**
+     * Benchmark for the scalar {@link MnistPixels#standardize}
+     * 
+     * @return The target array
+     */
+    @Benchmark
+    public float[] standardizeScalar()
+    {
+        MnistPixels.standardize(source, 0, target, 0, source.length, 
+            33.3f, 78.5f);
+        return target;
+    }
+
+    /**
+     * Benchmark for the per-pixel {@link MnistPixels#standardize}
+     * 
+     * @return The target array
+     */
+    @Benchmark
+    public float[] standardizePerPixel()
+    {
+        MnistPixels.standardize(source, 0, target, 0, NUMBER_OF_IMAGES, 
+            mean, std);
+        return target;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.javagl.mnist.reader.MnistCompressedReader;
+import de.javagl.mnist.reader.MnistDecompressedReader;
+import de.javagl.mnist.reader.MnistEntry;
+
+/**
+ * Benchmarks for reading the MNIST files with the 
+ * {@link MnistCompressedReader} and the {@link MnistDecompressedReader}.
+ * The files are synthetic files that are created when the benchmark
+ * is run for the first time.<br>
+ * <br>
+ * One benchmark operation reads all entries. The {@link Counters} 
+ * report the throughput in entries per second and (image) bytes per 
+ * second. The allocation rate is reported when the benchmark is run
+ * with the GC profiler (<code>-prof gc</code>), which is also done
+ * by the {@link #main(String[])} method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class MnistReaderBenchmark
+{
+    /**
+     * Counters for the number of entries and bytes that have been read
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters
+    {
+        /**
+         * The number of entries
+         */
+        public long entries;
+
+        /**
+         * The number of image bytes
+         */
+        public long bytes;
+
+        /**
+         * Reset the counters before each iteration
+         */
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            entries = 0;
+            bytes = 0;
+        }
+
+        /**
+         * Count the given entry
+         * 
+         * @param mnistEntry The entry
+         */
+        void count(MnistEntry mnistEntry)
+        {
+            entries++;
+            bytes += mnistEntry.getImageData().length;
+        }
+    }
+
+    /**
+     * The number of entries in the synthetic files. Larger data sets may
+     * be selected on the command line, for example, with 
+     * <code>-p numberOfEntries=10000000</code>. See 
+     * {@link MnistBenchmarkData} for the disk space that they need.
+     */
+    @Param({"60000", "1000000"})
+    public int numberOfEntries;
+
+    /**
+     * The directory containing the synthetic files
+     */
+    private Path directoryPath;
+
+    /**
+     * Create the synthetic files, if they do not exist yet
+     * 
+     * @throws IOException If an IO error occurs
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        directoryPath = MnistBenchmarkData.obtain(numberOfEntries);
+    }
+
+    /**
+     * Benchmark for {@link MnistCompressedReader#readCompressed}
+     * 
+     * @param counters The counters
+     * @param blackhole The blackhole
+     * @throws IOException If an IO error occurs
+     */
+    @Benchmark
+    public void readCompressed(Counters counters, Blackhole blackhole) 
+        throws IOException
+    {
+        MnistCompressedReader reader = new MnistCompressedReader();
+        reader.readCompressedTraining(directoryPath, mnistEntry -> 
+        {
+            counters.count(mnistEntry);
+            blackhole.consume(mnistEntry);
+        });
+    }
+
+    /**
+     * Benchmark for {@link MnistDecompressedReader#readDecompressed}
+     * 
+     * @param counters The counters
+     * @param blackhole The blackhole
+     * @throws IOException If an IO error occurs
+     */
+    @Benchmark
+    public void readDecompressed(Counters counters, Blackhole blackhole) 
+        throws IOException
+    {
+        MnistDecompressedReader reader = new MnistDecompressedReader();
+        reader.readDecompressedTraining(directoryPath, mnistEntry -> 
+        {
+            counters.count(mnistEntry);
+            blackhole.consume(mnistEntry);
+        });
+    }
+
+    /**
+     * Run all benchmarks with the GC profiler
+     * 
+     * @param args Not used
+     * @throws RunnerException If the benchmarks cannot be run
+     */
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include("de.javagl.mnist.reader.benchmark")
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The header of an IDX file, consisting of the {@link IdxType element type}
+ * and the sizes of the dimensions. The first dimension is the number of
+ * items in the file. The remaining dimensions describe the shape of
+ * each item.
+ */
+public final class IdxHeader
+{
+    /**
+     * The element type
+     */
+    private final IdxType type;
+
+    /**
+     * The sizes of the dimensions
+     */
+    private final int dimensions[];
+
+    /**
+     * Creates a new header
+     * 
+     * @param type The element type
+     * @param dimensions The sizes of the dimensions. A copy of the given
+     * array will be stored.
+     * @throws NullPointerException If any argument is <code>null</code>
+     * @throws IllegalArgumentException If there are no dimensions, more
+     * than 255 dimensions, or any dimension is negative
+     */
+    public IdxHeader(IdxType type, int ... dimensions)
+    {
+        this.type = Objects.requireNonNull(type, "The type may not be null");
+        Objects.requireNonNull(dimensions, "The dimensions may not be null");
+        if (dimensions.length < 1 || dimensions.length > 255)
+        {
+            throw new IllegalArgumentException(
+                "Invalid number of dimensions: " + dimensions.length);
+        }
+        for (int dimension : dimensions)
+        {
+            if (dimension < 0)
+            {
+                throw new IllegalArgumentException(
+                    "Invalid dimensions: " + Arrays.toString(dimensions));
+            }
+        }
+        this.dimensions = dimensions.clone();
+    }
+
+    /**
+     * Returns the element type
+     * 
+     * @return The element type
+     */
+    public IdxType getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the magic number of the file, consisting of the type code
+     * and the number of dimensions
+     * 
+     * @return The magic number
+     */
+    public int getMagic()
+    {
+        return (type.getCode() << 8) | dimensions.length;
+    }
+
+    /**
+     * Returns the number of dimensions
+     * 
+     * @return The number of dimensions
+     */
+    public int getNumDimensions()
+    {
+        return dimensions.length;
+    }
+
+    /**
+     * Returns the size of the specified dimension
+     * 
+     * @param index The index of the dimension
+     * @return The size
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the number of dimensions
+     */
+    public int getDimension(int index)
+    {
+        return dimensions[index];
+    }
+
+    /**
+     * Returns a copy of the sizes of all dimensions
+     * 
+     * @return The dimensions
+     */
+    public int[] getDimensions()
+    {
+        return dimensions.clone();
+    }
+
+    /**
+     * Returns the number of items, which is the size of the first dimension
+     * 
+     * @return The number of items
+     */
+    public int getNumberOfItems()
+    {
+        return dimensions[0];
+    }
+
+    /**
+     * Returns the number of elements in each item, which is the product
+     * of the sizes of all dimensions except for the first one
+     * 
+     * @return The number of elements per item
+     */
+    public long getItemSize()
+    {
+        long size = 1;
+        for (int i = 1; i < dimensions.length; i++)
+        {
+            size *= dimensions[i];
+        }
+        return size;
+    }
+
+    /**
+     * Returns the total number of elements in the file
+     * 
+     * @return The number of elements
+     */
+    public long getNumberOfElements()
+    {
+        return getItemSize() * dimensions[0];
+    }
+
+    /**
+     * Returns the size of the header, in bytes
+     * 
+     * @return The header size
+     */
+    public int getHeaderSize()
+    {
+        return 4 + 4 * dimensions.length;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IdxHeader["
+            + "type=" + type + ","
+            + "dimensions=" + Arrays.toString(dimensions) + "]";
+    }
+
+}
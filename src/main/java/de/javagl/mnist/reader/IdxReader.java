@@ -0,0 +1,520 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * A class for reading IDX files from an input stream. The IDX format is 
+ * described at <a href="http://yann.lecun.com/exdb/mnist/">
+ * http://yann.lecun.com/exdb/mnist/</a>. It supports all element types
+ * that are defined in {@link IdxType}, and arbitrary numbers of 
+ * dimensions.<br>
+ * <br>
+ * The {@link #readHeader()} method has to be called first. Afterwards, 
+ * the elements may be read sequentially, with the method that matches
+ * the element type. These methods read the data in large blocks into
+ * an internal buffer, and decode all elements of one call at once.<br>
+ * <br>
+ * When the header is read with {@link #readHeader()}, then the reader
+ * does not read more bytes from the underlying stream than the header
+ * and the elements that it declares, so the stream is positioned after
+ * the IDX data when all elements have been read. Otherwise, the reader
+ * may read more bytes from the underlying stream than it returned, due 
+ * to the internal buffering.<br>
+ * <br>
+ * This class is not thread-safe.
+ */
+public final class IdxReader implements Closeable
+{
+    /**
+     * The default size of the internal buffer
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /**
+     * The underlying input stream
+     */
+    private final InputStream inputStream;
+
+    /**
+     * The internal buffer
+     */
+    private final byte buffer[];
+
+    /**
+     * A big-endian byte buffer that wraps the internal buffer
+     */
+    private final ByteBuffer byteBuffer;
+
+    /**
+     * The position of the next byte in the internal buffer
+     */
+    private int position;
+
+    /**
+     * The number of valid bytes in the internal buffer
+     */
+    private int limit;
+
+    /**
+     * The header, or <code>null</code> if it was not read yet
+     */
+    private IdxHeader header;
+
+    /**
+     * The number of bytes that may still be read from the underlying 
+     * stream. This is only limited when the header is read.
+     */
+    private long streamRemaining;
+
+    /**
+     * Creates a new reader for the given input stream, with a default
+     * buffer size. The caller is responsible for closing the given 
+     * stream, or for closing this reader.
+     * 
+     * @param inputStream The input stream
+     */
+    public IdxReader(InputStream inputStream)
+    {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new reader for the given input stream. The caller is
+     * responsible for closing the given stream, or for closing this
+     * reader.
+     * 
+     * @param inputStream The input stream
+     * @param bufferSize The size of the internal buffer
+     * @throws NullPointerException If the stream is <code>null</code>
+     * @throws IllegalArgumentException If the buffer size is smaller 
+     * than 8
+     */
+    public IdxReader(InputStream inputStream, int bufferSize)
+    {
+        this.inputStream = Objects.requireNonNull(
+            inputStream, "The inputStream may not be null");
+        if (bufferSize < 8)
+        {
+            throw new IllegalArgumentException(
+                "The bufferSize must be at least 8, but is " + bufferSize);
+        }
+        this.buffer = new byte[bufferSize];
+        this.byteBuffer = ByteBuffer.wrap(buffer).order(ByteOrder.BIG_ENDIAN);
+        this.position = 0;
+        this.limit = 0;
+        this.streamRemaining = Long.MAX_VALUE;
+    }
+
+    /**
+     * Read the header. This has to be called once, before any elements 
+     * are read.
+     * 
+     * @return The {@link IdxHeader}
+     * @throws IOException If an IO error occurs, or the data does not 
+     * start with a valid IDX header
+     * @throws IllegalStateException If the header was already read
+     */
+    public IdxHeader readHeader() throws IOException
+    {
+        if (header != null)
+        {
+            throw new IllegalStateException("The header was already read");
+        }
+        boolean limited = limit == 0;
+        if (limited)
+        {
+            streamRemaining = Integer.BYTES;
+        }
+        int magic = readInt();
+        int typeCode = (magic >> 8) & 0xFF;
+        int numDimensions = magic & 0xFF;
+        IdxType type = IdxType.forCode(typeCode);
+        if ((magic >>> 16) != 0 || type == null || numDimensions == 0)
+        {
+            throw new IOException(
+                "Invalid IDX magic number: 0x" + Integer.toHexString(magic));
+        }
+        if (limited)
+        {
+            streamRemaining += numDimensions * Integer.BYTES;
+        }
+        int dimensions[] = new int[numDimensions];
+        for (int i = 0; i < numDimensions; i++)
+        {
+            dimensions[i] = readInt();
+            if (dimensions[i] < 0)
+            {
+                throw new IOException("Invalid size of dimension " + i 
+                    + ": " + dimensions[i]);
+            }
+        }
+        header = new IdxHeader(type, dimensions);
+        if (limited)
+        {
+            try
+            {
+                streamRemaining += Math.multiplyExact(
+                    header.getNumberOfElements(), (long) type.getSize());
+            }
+            catch (ArithmeticException e)
+            {
+                streamRemaining = Long.MAX_VALUE;
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Returns the header that was read with {@link #readHeader()}
+     * 
+     * @return The header, or <code>null</code> if it was not read yet
+     */
+    public IdxHeader getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * Read a single byte. This may be used for the element types
+     * {@link IdxType#UNSIGNED_BYTE} and {@link IdxType#BYTE}.
+     * 
+     * @return The byte
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached
+     */
+    public byte readByte() throws IOException
+    {
+        if (position == limit)
+        {
+            require(1);
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Read the specified number of bytes into the given array. This may
+     * be used for the element types {@link IdxType#UNSIGNED_BYTE} and 
+     * {@link IdxType#BYTE}.
+     * 
+     * @param target The target array
+     * @param offset The offset in the target array
+     * @param length The number of bytes to read
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all bytes have been read
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public void readBytes(byte target[], int offset, int length) 
+        throws IOException
+    {
+        checkRange(target.length, offset, length);
+        int available = limit - position;
+        if (available >= length)
+        {
+            System.arraycopy(buffer, position, target, offset, length);
+            position += length;
+            return;
+        }
+        System.arraycopy(buffer, position, target, offset, available);
+        position = limit;
+        int done = available;
+        
+        // Large remaining blocks are read directly into the target
+        if (length - done >= buffer.length)
+        {
+            while (done < length)
+            {
+                int read = readFromStream(
+                    target, offset + done, length - done);
+                if (read < 0)
+                {
+                    throw new IOException("Tried to read " + length
+                        + " bytes, but only found " + done);
+                }
+                done += read;
+            }
+            return;
+        }
+        require(length - done);
+        System.arraycopy(buffer, position, target, offset + done, 
+            length - done);
+        position += length - done;
+    }
+
+    /**
+     * Read the specified number of elements with type 
+     * {@link IdxType#SHORT} into the given array.
+     * 
+     * @param target The target array
+     * @param offset The offset in the target array
+     * @param length The number of elements to read
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all elements have been read
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public void readShorts(short target[], int offset, int length) 
+        throws IOException
+    {
+        checkRange(target.length, offset, length);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Short.BYTES);
+            byteBuffer.asShortBuffer().get(target, offset + done, n);
+            position += n * Short.BYTES;
+            done += n;
+        }
+    }
+
+    /**
+     * Read the specified number of elements with type 
+     * {@link IdxType#INT} into the given array.
+     * 
+     * @param target The target array
+     * @param offset The offset in the target array
+     * @param length The number of elements to read
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all elements have been read
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public void readInts(int target[], int offset, int length) 
+        throws IOException
+    {
+        checkRange(target.length, offset, length);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Integer.BYTES);
+            byteBuffer.asIntBuffer().get(target, offset + done, n);
+            position += n * Integer.BYTES;
+            done += n;
+        }
+    }
+
+    /**
+     * Read the specified number of elements with type 
+     * {@link IdxType#FLOAT} into the given array.
+     * 
+     * @param target The target array
+     * @param offset The offset in the target array
+     * @param length The number of elements to read
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all elements have been read
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public void readFloats(float target[], int offset, int length) 
+        throws IOException
+    {
+        checkRange(target.length, offset, length);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Float.BYTES);
+            byteBuffer.asFloatBuffer().get(target, offset + done, n);
+            position += n * Float.BYTES;
+            done += n;
+        }
+    }
+
+    /**
+     * Read the specified number of elements with type 
+     * {@link IdxType#DOUBLE} into the given array.
+     * 
+     * @param target The target array
+     * @param offset The offset in the target array
+     * @param length The number of elements to read
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all elements have been read
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public void readDoubles(double target[], int offset, int length) 
+        throws IOException
+    {
+        checkRange(target.length, offset, length);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Double.BYTES);
+            byteBuffer.asDoubleBuffer().get(target, offset + done, n);
+            position += n * Double.BYTES;
+            done += n;
+        }
+    }
+
+    /**
+     * Skip the specified number of bytes
+     * 
+     * @param n The number of bytes to skip
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all bytes have been skipped
+     */
+    public void skipBytes(long n) throws IOException
+    {
+        long remaining = n;
+        int available = limit - position;
+        if (available >= remaining)
+        {
+            position += (int) remaining;
+            return;
+        }
+        position = limit;
+        remaining -= available;
+        while (remaining > 0)
+        {
+            long skipped = 
+                inputStream.skip(Math.min(remaining, streamRemaining));
+            if (skipped <= 0)
+            {
+                // The stream may not support skipping, or reached its end
+                int read = readFromStream(
+                    buffer, 0, (int) Math.min(remaining, buffer.length));
+                if (read < 0)
+                {
+                    throw new IOException("Tried to skip " + n
+                        + " bytes, but only found " + (n - remaining));
+                }
+                skipped = read;
+            }
+            else
+            {
+                streamRemaining -= skipped;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Read a single big-endian integer
+     * 
+     * @return The integer
+     * @throws IOException If an IO error occurs
+     */
+    private int readInt() throws IOException
+    {
+        require(Integer.BYTES);
+        int result = byteBuffer.getInt(position);
+        position += Integer.BYTES;
+        return result;
+    }
+
+    /**
+     * Make sure that the internal buffer contains at least one, and at
+     * most the given number of complete elements with the given size, 
+     * and prepare the byte buffer for reading them, starting at the 
+     * current position.
+     * 
+     * @param elements The number of elements
+     * @param elementSize The size of one element
+     * @return The number of complete elements that are available
+     * @throws IOException If an IO error occurs
+     */
+    private int prepare(int elements, int elementSize) throws IOException
+    {
+        if (limit - position < elementSize)
+        {
+            require(elementSize);
+        }
+        int n = Math.min(elements, (limit - position) / elementSize);
+
+        // Note: The casts to Buffer are required for the code to run on
+        // Java 8 when it was compiled with a later JDK
+        ((Buffer) byteBuffer).limit(position + n * elementSize);
+        ((Buffer) byteBuffer).position(position);
+        return n;
+    }
+
+    /**
+     * Make sure that the internal buffer contains at least the given
+     * number of bytes, starting at the current position. The given 
+     * number must not be larger than the size of the buffer.
+     * 
+     * @param n The number of bytes
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before the bytes could be read
+     */
+    private void require(int n) throws IOException
+    {
+        int available = limit - position;
+        if (available >= n)
+        {
+            return;
+        }
+        System.arraycopy(buffer, position, buffer, 0, available);
+        position = 0;
+        limit = available;
+        while (limit < n)
+        {
+            int read = readFromStream(buffer, limit, buffer.length - limit);
+            if (read < 0)
+            {
+                throw new IOException("Tried to read " + n
+                    + " bytes, but only found " + limit);
+            }
+            limit += read;
+        }
+    }
+
+    /**
+     * Read up to the given number of bytes from the underlying stream,
+     * but not more than the number of bytes that may still be read
+     * 
+     * @param target The target array
+     * @param offset The offset in the target array
+     * @param length The maximum number of bytes to read
+     * @return The number of bytes that have been read, or -1 if no
+     * more bytes may be read
+     * @throws IOException If an IO error occurs
+     */
+    private int readFromStream(byte target[], int offset, int length)
+        throws IOException
+    {
+        if (streamRemaining <= 0)
+        {
+            return -1;
+        }
+        int read = inputStream.read(
+            target, offset, (int) Math.min(length, streamRemaining));
+        if (read > 0)
+        {
+            streamRemaining -= read;
+        }
+        return read;
+    }
+
+    /**
+     * Make sure that the specified range is valid for an array with
+     * the given length
+     * 
+     * @param arrayLength The array length
+     * @param offset The offset
+     * @param length The length
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    private static void checkRange(int arrayLength, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset > arrayLength - length)
+        {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", "
+                + offset + "+" + length + ") is not valid for an array "
+                + "with length " + arrayLength);
+        }
+    }
+
+    /**
+     * Closes the underlying input stream
+     */
+    @Override
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+
+}
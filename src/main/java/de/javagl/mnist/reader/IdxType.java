@@ -0,0 +1,102 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+/**
+ * The element types that may be contained in IDX files. The type is 
+ * stored in the third byte of the magic number of an IDX file.
+ */
+public enum IdxType
+{
+    /**
+     * Unsigned bytes (type code 0x08)
+     */
+    UNSIGNED_BYTE(0x08, 1),
+
+    /**
+     * Signed bytes (type code 0x09)
+     */
+    BYTE(0x09, 1),
+
+    /**
+     * Signed 16 bit integers (type code 0x0B)
+     */
+    SHORT(0x0B, 2),
+
+    /**
+     * Signed 32 bit integers (type code 0x0C)
+     */
+    INT(0x0C, 4),
+
+    /**
+     * 32 bit floating point values (type code 0x0D)
+     */
+    FLOAT(0x0D, 4),
+
+    /**
+     * 64 bit floating point values (type code 0x0E)
+     */
+    DOUBLE(0x0E, 8);
+
+    /**
+     * The type code
+     */
+    private final int code;
+
+    /**
+     * The size of one element, in bytes
+     */
+    private final int size;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param code The type code
+     * @param size The size of one element, in bytes
+     */
+    private IdxType(int code, int size)
+    {
+        this.code = code;
+        this.size = size;
+    }
+
+    /**
+     * Returns the type code, as it is stored in the magic number
+     * 
+     * @return The type code
+     */
+    public int getCode()
+    {
+        return code;
+    }
+
+    /**
+     * Returns the size of one element, in bytes
+     * 
+     * @return The size
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the type for the given type code
+     * 
+     * @param code The type code
+     * @return The type, or <code>null</code> if the given code is not
+     * a valid type code
+     */
+    public static IdxType forCode(int code)
+    {
+        for (IdxType type : values())
+        {
+            if (type.code == code)
+            {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,628 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A class for writing IDX files. The IDX format is described at 
+ * <a href="http://yann.lecun.com/exdb/mnist/">
+ * http://yann.lecun.com/exdb/mnist/</a>.<br>
+ * <br>
+ * A writer is created for a certain {@link IdxType element type} and
+ * the dimensions of each item. The elements are written sequentially,
+ * with the method that matches the element type. The number of items 
+ * does not have to be known in advance: It is computed from the number
+ * of elements that have been written, and written into the header
+ * when the writer is closed.<br>
+ * <br>
+ * The data is collected in a large buffer, and written to a file 
+ * channel in large blocks. For compressed output, the data is first
+ * written to a temporary file, which is compressed into the target
+ * file with GZIP when the writer is closed. The compressed data is
+ * also written to a temporary file first, and only moved to the target
+ * file when it was written completely.<br>
+ * <br>
+ * This class is not thread-safe.
+ */
+public final class IdxWriter implements Closeable
+{
+    /**
+     * The size of the internal buffer
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Creates a new writer for an uncompressed IDX file. An existing
+     * file will be overwritten.
+     * 
+     * @param path The path of the file
+     * @param type The element type
+     * @param itemDimensions The sizes of the dimensions of each item.
+     * For MNIST images, these are the number of rows and columns. For
+     * MNIST labels, this is empty.
+     * @return The writer
+     * @throws IOException If the file cannot be created
+     * @throws IllegalArgumentException If any dimension is not positive, 
+     * or there are more than 254 dimensions
+     */
+    public static IdxWriter create(Path path, IdxType type, 
+        int ... itemDimensions) throws IOException
+    {
+        long itemSize = computeItemSize(type, itemDimensions);
+        return new IdxWriter(path, null, -1, type, itemDimensions, itemSize);
+    }
+
+    /**
+     * Creates a new writer for a GZIP-compressed IDX file. An existing
+     * file will be overwritten. The data will be written to a temporary
+     * file in the same directory, and compressed into the given file
+     * when the writer is closed.
+     * 
+     * @param path The path of the file
+     * @param compressionLevel The compression level, in [0,9], or -1 
+     * for the default compression level
+     * @param type The element type
+     * @param itemDimensions The sizes of the dimensions of each item.
+     * For MNIST images, these are the number of rows and columns. For
+     * MNIST labels, this is empty.
+     * @return The writer
+     * @throws IOException If the file cannot be created
+     * @throws IllegalArgumentException If the compression level is not
+     * valid, any dimension is not positive, or there are more than 254 
+     * dimensions
+     */
+    public static IdxWriter createCompressed(Path path, int compressionLevel,
+        IdxType type, int ... itemDimensions) throws IOException
+    {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && 
+            (compressionLevel < 0 || compressionLevel > 9))
+        {
+            throw new IllegalArgumentException(
+                "Invalid compression level: " + compressionLevel);
+        }
+        long itemSize = computeItemSize(type, itemDimensions);
+        Path absolutePath = path.toAbsolutePath();
+        Path temporaryPath = Files.createTempFile(absolutePath.getParent(), 
+            absolutePath.getFileName().toString(), ".tmp");
+        try
+        {
+            return new IdxWriter(temporaryPath, absolutePath, 
+                compressionLevel, type, itemDimensions, itemSize);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Validate the given type and item dimensions, and compute the 
+     * number of elements in each item
+     * 
+     * @param type The element type
+     * @param itemDimensions The dimensions of each item
+     * @return The number of elements in each item
+     * @throws NullPointerException If the type is <code>null</code>
+     * @throws IllegalArgumentException If any dimension is not positive, 
+     * or there are more than 254 dimensions
+     */
+    private static long computeItemSize(IdxType type, int itemDimensions[])
+    {
+        Objects.requireNonNull(type, "The type may not be null");
+        if (itemDimensions.length > 254)
+        {
+            throw new IllegalArgumentException(
+                "Invalid number of dimensions: " + (itemDimensions.length + 1));
+        }
+        long size = 1;
+        for (int itemDimension : itemDimensions)
+        {
+            if (itemDimension <= 0)
+            {
+                throw new IllegalArgumentException(
+                    "Invalid item dimension: " + itemDimension);
+            }
+            size *= itemDimension;
+        }
+        return size;
+    }
+
+    /**
+     * The element type
+     */
+    private final IdxType type;
+
+    /**
+     * The number of elements in each item
+     */
+    private final long itemSize;
+
+    /**
+     * The path of the file that the channel writes to
+     */
+    private final Path channelPath;
+
+    /**
+     * The path of the compressed file, or <code>null</code> if the
+     * output is not compressed
+     */
+    private final Path compressedPath;
+
+    /**
+     * The compression level
+     */
+    private final int compressionLevel;
+
+    /**
+     * The channel
+     */
+    private final FileChannel channel;
+
+    /**
+     * The buffer
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of elements that have been written
+     */
+    private long numberOfElements;
+
+    /**
+     * Whether this writer was closed
+     */
+    private boolean closed;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param channelPath The path of the file that the channel writes to
+     * @param compressedPath The path of the compressed file, or 
+     * <code>null</code> if the output is not compressed
+     * @param compressionLevel The compression level
+     * @param type The element type
+     * @param itemDimensions The dimensions of each item
+     * @param itemSize The number of elements in each item
+     * @throws IOException If the file cannot be created
+     */
+    private IdxWriter(Path channelPath, Path compressedPath, 
+        int compressionLevel, IdxType type, int itemDimensions[], 
+        long itemSize) throws IOException
+    {
+        this.type = type;
+        this.itemSize = itemSize;
+        this.channelPath = channelPath;
+        this.compressedPath = compressedPath;
+        this.compressionLevel = compressionLevel;
+        this.channel = FileChannel.open(channelPath, 
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+            StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE)
+            .order(ByteOrder.BIG_ENDIAN);
+
+        // Write the header, with a placeholder for the number of items
+        buffer.putInt((type.getCode() << 8) | (itemDimensions.length + 1));
+        buffer.putInt(0);
+        for (int itemDimension : itemDimensions)
+        {
+            buffer.putInt(itemDimension);
+        }
+    }
+
+    /**
+     * Returns the number of elements that have been written
+     * 
+     * @return The number of elements
+     */
+    public long getNumberOfElements()
+    {
+        return numberOfElements;
+    }
+
+    /**
+     * Write the specified bytes. This may be used for the element types
+     * {@link IdxType#UNSIGNED_BYTE} and {@link IdxType#BYTE}.
+     * 
+     * @param source The source array
+     * @param offset The offset in the source array
+     * @param length The number of bytes
+     * @throws IOException If an IO error occurs
+     * @throws IllegalStateException If the element type does not match,
+     * or this writer was already closed
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    public void writeBytes(byte source[], int offset, int length)
+        throws IOException
+    {
+        checkType(IdxType.UNSIGNED_BYTE, IdxType.BYTE);
+        if (length > buffer.remaining())
+        {
+            flush();
+            if (length > buffer.remaining())
+            {
+                // Large blocks are written directly
+                writeFully(ByteBuffer.wrap(source, offset, length));
+                numberOfElements += length;
+                return;
+            }
+        }
+        buffer.put(source, offset, length);
+        numberOfElements += length;
+    }
+
+    /**
+     * Write the specified elements with type {@link IdxType#SHORT}
+     * 
+     * @param source The source array
+     * @param offset The offset in the source array
+     * @param length The number of elements
+     * @throws IOException If an IO error occurs
+     * @throws IllegalStateException If the element type does not match,
+     * or this writer was already closed
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    public void writeShorts(short source[], int offset, int length)
+        throws IOException
+    {
+        checkType(IdxType.SHORT);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Short.BYTES);
+            buffer.asShortBuffer().put(source, offset + done, n);
+            advance(n, Short.BYTES);
+            done += n;
+        }
+    }
+
+    /**
+     * Write the specified elements with type {@link IdxType#INT}
+     * 
+     * @param source The source array
+     * @param offset The offset in the source array
+     * @param length The number of elements
+     * @throws IOException If an IO error occurs
+     * @throws IllegalStateException If the element type does not match,
+     * or this writer was already closed
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    public void writeInts(int source[], int offset, int length)
+        throws IOException
+    {
+        checkType(IdxType.INT);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Integer.BYTES);
+            buffer.asIntBuffer().put(source, offset + done, n);
+            advance(n, Integer.BYTES);
+            done += n;
+        }
+    }
+
+    /**
+     * Write the specified elements with type {@link IdxType#FLOAT}
+     * 
+     * @param source The source array
+     * @param offset The offset in the source array
+     * @param length The number of elements
+     * @throws IOException If an IO error occurs
+     * @throws IllegalStateException If the element type does not match,
+     * or this writer was already closed
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    public void writeFloats(float source[], int offset, int length)
+        throws IOException
+    {
+        checkType(IdxType.FLOAT);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Float.BYTES);
+            buffer.asFloatBuffer().put(source, offset + done, n);
+            advance(n, Float.BYTES);
+            done += n;
+        }
+    }
+
+    /**
+     * Write the specified elements with type {@link IdxType#DOUBLE}
+     * 
+     * @param source The source array
+     * @param offset The offset in the source array
+     * @param length The number of elements
+     * @throws IOException If an IO error occurs
+     * @throws IllegalStateException If the element type does not match,
+     * or this writer was already closed
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    public void writeDoubles(double source[], int offset, int length)
+        throws IOException
+    {
+        checkType(IdxType.DOUBLE);
+        int done = 0;
+        while (done < length)
+        {
+            int n = prepare(length - done, Double.BYTES);
+            buffer.asDoubleBuffer().put(source, offset + done, n);
+            advance(n, Double.BYTES);
+            done += n;
+        }
+    }
+
+    /**
+     * Make sure that the buffer has space for at least one element with
+     * the given size, and return how many of the given number of 
+     * elements fit into the buffer
+     * 
+     * @param elements The number of elements
+     * @param elementSize The size of one element
+     * @return The number of elements that fit into the buffer
+     * @throws IOException If an IO error occurs
+     */
+    private int prepare(int elements, int elementSize) throws IOException
+    {
+        if (buffer.remaining() < elementSize)
+        {
+            flush();
+        }
+        return Math.min(elements, buffer.remaining() / elementSize);
+    }
+
+    /**
+     * Advance the position of the buffer after the given number of
+     * elements have been put into a view of the buffer
+     * 
+     * @param elements The number of elements
+     * @param elementSize The size of one element
+     */
+    private void advance(int elements, int elementSize)
+    {
+        // Note: The cast to Buffer is required for the code to run on
+        // Java 8 when it was compiled with a later JDK
+        ((Buffer) buffer).position(buffer.position() + elements * elementSize);
+        numberOfElements += elements;
+    }
+
+    /**
+     * Make sure that the element type is one of the given types, and
+     * that this writer is not closed
+     * 
+     * @param types The types
+     * @throws IllegalStateException If the type does not match, or this
+     * writer was already closed
+     */
+    private void checkType(IdxType ... types)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The writer was already closed");
+        }
+        for (IdxType t : types)
+        {
+            if (t == type)
+            {
+                return;
+            }
+        }
+        throw new IllegalStateException(
+            "Cannot write " + types[0] + " values to a file of type " + type);
+    }
+
+    /**
+     * Write the contents of the buffer to the channel
+     * 
+     * @throws IOException If an IO error occurs
+     */
+    private void flush() throws IOException
+    {
+        ((Buffer) buffer).flip();
+        writeFully(buffer);
+        ((Buffer) buffer).clear();
+    }
+
+    /**
+     * Write all remaining bytes of the given buffer to the channel
+     * 
+     * @param source The source buffer
+     * @throws IOException If an IO error occurs
+     */
+    private void writeFully(ByteBuffer source) throws IOException
+    {
+        while (source.hasRemaining())
+        {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * Finish writing the file. This will write the remaining data, 
+     * and write the number of items into the header. For compressed 
+     * output, the compressed file will be created, and the temporary
+     * file will be deleted, even if an error occurs.
+     * 
+     * @throws IOException If an IO error occurs, or the number of 
+     * elements that have been written is not a multiple of the 
+     * number of elements in one item
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            finish();
+            if (compressedPath != null)
+            {
+                compress(channelPath, compressedPath, compressionLevel);
+            }
+        }
+        finally
+        {
+            if (compressedPath != null)
+            {
+                Files.deleteIfExists(channelPath);
+            }
+        }
+    }
+
+    /**
+     * Abort writing the file. This will close this writer without 
+     * finishing the file, and delete the file that was written until
+     * now. For compressed output, the temporary file will be deleted, 
+     * and the compressed file will not be created. If this writer was
+     * already closed, then this method has no effect.
+     * 
+     * @throws IOException If an IO error occurs
+     */
+    public void abort() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            channel.close();
+        }
+        finally
+        {
+            Files.deleteIfExists(channelPath);
+        }
+    }
+
+    /**
+     * Write the remaining data and the number of items into the file
+     * that the channel writes to, and close the channel
+     * 
+     * @throws IOException If an IO error occurs, or the number of 
+     * elements that have been written is not a multiple of the 
+     * number of elements in one item
+     */
+    private void finish() throws IOException
+    {
+        try
+        {
+            flush();
+            if (numberOfElements % itemSize != 0)
+            {
+                throw new IOException("Wrote " + numberOfElements 
+                    + " elements, which is not a multiple of the item size " 
+                    + itemSize);
+            }
+            long numberOfItems = numberOfElements / itemSize;
+            if (numberOfItems > Integer.MAX_VALUE)
+            {
+                throw new IOException("Wrote " + numberOfItems 
+                    + " items, which is too many for an IDX file");
+            }
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES)
+                .order(ByteOrder.BIG_ENDIAN);
+            count.putInt(0, (int) numberOfItems);
+            while (count.hasRemaining())
+            {
+                channel.write(count, Integer.BYTES + count.position());
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Compress the given source file into the given target file. The 
+     * compressed data is written into a temporary file in the directory
+     * of the target file, which is moved to the target file when it was
+     * written completely, so that no partial target file is left behind
+     * when an error occurs.
+     * 
+     * @param sourcePath The source file
+     * @param targetPath The target file
+     * @param compressionLevel The compression level
+     * @throws IOException If an IO error occurs
+     */
+    private static void compress(Path sourcePath, Path targetPath, 
+        int compressionLevel) throws IOException
+    {
+        Path temporaryPath = Files.createTempFile(targetPath.getParent(), 
+            targetPath.getFileName().toString(), ".gz.tmp");
+        try
+        {
+            compressInto(sourcePath, temporaryPath, compressionLevel);
+            try
+            {
+                Files.move(temporaryPath, targetPath, 
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                // The temporary file is complete, so a plain move will
+                // at most expose a file that is being moved
+                Files.move(temporaryPath, targetPath, 
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Compress the given source file into the given target file
+     * 
+     * @param sourcePath The source file
+     * @param targetPath The target file
+     * @param compressionLevel The compression level
+     * @throws IOException If an IO error occurs
+     */
+    private static void compressInto(Path sourcePath, Path targetPath, 
+        int compressionLevel) throws IOException
+    {
+        try (InputStream inputStream = Files.newInputStream(sourcePath);
+            OutputStream outputStream = new GZIPOutputStream(
+                Files.newOutputStream(targetPath), BUFFER_SIZE)
+            {
+                {
+                    def.setLevel(compressionLevel);
+                }
+            })
+        {
+            byte data[] = new byte[BUFFER_SIZE];
+            while (true)
+            {
+                int read = inputStream.read(data);
+                if (read < 0)
+                {
+                    break;
+                }
+                outputStream.write(data, 0, read);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,307 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A consumer for {@link MnistEntry} instances that tiles the images of 
+ * the entries into large sprite sheet PNG files ("atlases"), and writes
+ * a label index that describes the position of each entry.<br>
+ * <br>
+ * Each sheet contains a grid of <code>columns x rows</code> tiles, 
+ * filled in row-major order. The sheets are written into the output
+ * directory as <code>NAME-SSSSS.png</code>, where <code>NAME</code> is
+ * the base name that was given in the constructor and <code>SSSSS</code>
+ * is the zero-padded number of the sheet. The last sheet may be only
+ * partially filled. The label index is written as 
+ * <code>NAME-labels.csv</code>, with one line
+ * <pre><code>
+ * sheet,x,y,index,label
+ * </code></pre>
+ * for each entry, where <code>x</code> and <code>y</code> are the
+ * pixel coordinates of the upper left corner of the tile.<br>
+ * <br>
+ * The image data is copied on the calling thread, so this consumer may
+ * also be used with the <code>...Reusing</code> reading methods. Full 
+ * sheets are encoded and written on a pool of worker threads. When these
+ * threads cannot keep up, then {@link #accept(MnistEntry)} blocks. The 
+ * exporter must be closed in order to write the last sheet and wait for
+ * all sheets to be written.<br>
+ * <br>
+ * This class is not thread-safe.
+ */
+public final class MnistAtlasExporter 
+    implements Consumer<MnistEntry>, AutoCloseable
+{
+    /**
+     * The number of sheets that may be pending for each worker thread
+     */
+    private static final int PENDING_PER_THREAD = 2;
+
+    /**
+     * The output directory
+     */
+    private final Path outputDirectoryPath;
+
+    /**
+     * The base name of the output files
+     */
+    private final String baseName;
+
+    /**
+     * The number of tiles in each row of a sheet
+     */
+    private final int columns;
+
+    /**
+     * The number of tiles in each column of a sheet
+     */
+    private final int rows;
+
+    /**
+     * The writer for the label index
+     */
+    private final Writer labelsWriter;
+
+    /**
+     * The pool that writes the sheets
+     */
+    private final MnistImageWriterPool mnistImageWriterPool;
+
+    /**
+     * The number of rows of each tile. This is initialized with the
+     * size of the first entry.
+     */
+    private int tileRows;
+
+    /**
+     * The number of columns of each tile. This is initialized with the
+     * size of the first entry.
+     */
+    private int tileCols;
+
+    /**
+     * The sheet that is currently filled
+     */
+    private BufferedImage sheet;
+
+    /**
+     * The pixel data of the current sheet
+     */
+    private byte sheetData[];
+
+    /**
+     * The number of the current sheet
+     */
+    private int sheetNumber;
+
+    /**
+     * The number of tiles in the current sheet
+     */
+    private int numberOfTiles;
+
+    /**
+     * Reusable builder for the lines of the label index
+     */
+    private final StringBuilder line;
+
+    /**
+     * Creates a new instance that uses one worker thread for each 
+     * available processor
+     * 
+     * @param outputDirectoryPath The output directory. This will be
+     * created if it does not exist.
+     * @param baseName The base name of the output files
+     * @param columns The number of tiles in each row of a sheet
+     * @param rows The number of tiles in each column of a sheet
+     * @throws IOException If the output directory or label index cannot
+     * be created
+     * @throws IllegalArgumentException If the number of columns or rows
+     * is not positive
+     */
+    public MnistAtlasExporter(Path outputDirectoryPath, String baseName, 
+        int columns, int rows) throws IOException
+    {
+        this(outputDirectoryPath, baseName, columns, rows, 
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance
+     * 
+     * @param outputDirectoryPath The output directory. This will be
+     * created if it does not exist.
+     * @param baseName The base name of the output files
+     * @param columns The number of tiles in each row of a sheet
+     * @param rows The number of tiles in each column of a sheet
+     * @param numberOfThreads The number of worker threads
+     * @throws IOException If the output directory or label index cannot
+     * be created
+     * @throws IllegalArgumentException If the number of columns, rows or
+     * threads is not positive
+     */
+    public MnistAtlasExporter(Path outputDirectoryPath, String baseName, 
+        int columns, int rows, int numberOfThreads) throws IOException
+    {
+        this.outputDirectoryPath = Objects.requireNonNull(outputDirectoryPath,
+            "The outputDirectoryPath may not be null");
+        this.baseName = Objects.requireNonNull(baseName,
+            "The baseName may not be null");
+        if (columns <= 0 || rows <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Invalid sheet size: " + columns + "x" + rows);
+        }
+        if (numberOfThreads <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfThreads must be positive, but is "
+                + numberOfThreads);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.line = new StringBuilder(64);
+        Files.createDirectories(outputDirectoryPath);
+        this.labelsWriter = Files.newBufferedWriter(
+            outputDirectoryPath.resolve(baseName + "-labels.csv"), 
+            StandardCharsets.US_ASCII);
+        this.labelsWriter.write("sheet,x,y,index,label\n");
+        this.mnistImageWriterPool = new MnistImageWriterPool(numberOfThreads,
+            numberOfThreads * PENDING_PER_THREAD, "MnistAtlasExporter");
+    }
+
+    /**
+     * Copy the image of the given entry into the current sheet, and add
+     * it to the label index. If the sheet is full, then it is submitted
+     * to be written. This may block until there is room for another 
+     * pending sheet.
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @throws IllegalArgumentException If the size of the image of the 
+     * entry is different from the size of the first entry
+     * @throws UncheckedIOException If an IO error occurs
+     */
+    @Override
+    public void accept(MnistEntry mnistEntry)
+    {
+        if (sheet == null)
+        {
+            if (tileRows == 0)
+            {
+                tileRows = mnistEntry.getNumRows();
+                tileCols = mnistEntry.getNumCols();
+            }
+            sheet = new BufferedImage(columns * tileCols, rows * tileRows, 
+                BufferedImage.TYPE_BYTE_GRAY);
+            sheetData = ((DataBufferByte) 
+                sheet.getRaster().getDataBuffer()).getData();
+        }
+        if (mnistEntry.getNumRows() != tileRows || 
+            mnistEntry.getNumCols() != tileCols)
+        {
+            throw new IllegalArgumentException("Expected an image of size "
+                + tileCols + "x" + tileRows + ", but found " 
+                + mnistEntry.getNumCols() + "x" + mnistEntry.getNumRows());
+        }
+        int x = (numberOfTiles % columns) * tileCols;
+        int y = (numberOfTiles / columns) * tileRows;
+        int sheetWidth = columns * tileCols;
+        byte imageData[] = mnistEntry.getImageData();
+        for (int r = 0; r < tileRows; r++)
+        {
+            System.arraycopy(imageData, r * tileCols, 
+                sheetData, (y + r) * sheetWidth + x, tileCols);
+        }
+        try
+        {
+            line.setLength(0);
+            line.append(sheetNumber).append(',')
+                .append(x).append(',')
+                .append(y).append(',')
+                .append(mnistEntry.getIndex()).append(',')
+                .append(mnistEntry.getLabel()).append('\n');
+            labelsWriter.append(line);
+            numberOfTiles++;
+            if (numberOfTiles == columns * rows)
+            {
+                submitSheet();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Submit the current sheet to be written, and prepare for the
+     * next sheet
+     * 
+     * @throws IOException If a previous sheet could not be written
+     */
+    private void submitSheet() throws IOException
+    {
+        StringBuilder sb = new StringBuilder(baseName.length() + 16);
+        sb.append(baseName).append('-');
+        MnistPngExporter.appendPadded(sb, sheetNumber, 5);
+        sb.append(".png");
+        BufferedImage submitted = sheet;
+        sheet = null;
+        sheetData = null;
+        sheetNumber++;
+        numberOfTiles = 0;
+        mnistImageWriterPool.submit(
+            submitted, outputDirectoryPath.resolve(sb.toString()));
+    }
+
+    /**
+     * Returns the number of sheets that have been started so far
+     * 
+     * @return The number of sheets
+     */
+    public int getNumberOfSheets()
+    {
+        return sheet == null ? sheetNumber : sheetNumber + 1;
+    }
+
+    /**
+     * Write the last sheet, if it contains any tiles, and the label 
+     * index, wait until all sheets have been written, and shut down the 
+     * worker threads
+     * 
+     * @throws IOException If an IO error occurs
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            try
+            {
+                if (numberOfTiles > 0)
+                {
+                    submitSheet();
+                }
+            }
+            finally
+            {
+                mnistImageWriterPool.close();
+            }
+        }
+        finally
+        {
+            labelsWriter.close();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * A consumer for {@link MnistEntry} instances that creates augmented
+ * versions of the entries with a {@link MnistAugmenter}, on a pool of
+ * worker threads, and passes them to an output consumer.<br>
+ * <br>
+ * The stage may be used as the consumer of the reading methods:
+ * <pre><code>
+ * MnistAugmenter augmenter = new MnistAugmenter(seed);
+ * augmenter.setMaxShift(2.0f);
+ * augmenter.setMaxRotation(15.0f);
+ * try (MnistAugmentationStage stage =
+ *     new MnistAugmentationStage(augmenter, 4, output))
+ * {
+ *     mnistReader.readCompressedTraining(inputPath, stage);
+ * }
+ * </code></pre>
+ * The image data of each entry is copied on the calling thread, into
+ * the array of the resulting entry, so this consumer may also be used
+ * with the <code>...Reusing</code> reading methods. The workers then
+ * transform this array in place, using their own scratch buffers.<br>
+ * <br>
+ * The augmented entries are passed to the output consumer on the thread
+ * that calls {@link #accept(MnistEntry)} or {@link #close()}, in the
+ * same order in which the original entries have been passed to this
+ * stage. When the workers cannot keep up, then {@link #accept(MnistEntry)}
+ * blocks, so that the number of pending entries remains bounded. The
+ * stage must be closed in order to pass the remaining entries to the
+ * output consumer.<br>
+ * <br>
+ * With {@link #createBatching(MnistAugmenter, int, int, Consumer)},
+ * a stage may be created that passes the augmented entries to the
+ * output consumer in batches, as {@link MnistDataBlock} instances.<br>
+ * <br>
+ * This class is not thread-safe.
+ */
+public final class MnistAugmentationStage
+    implements Consumer<MnistEntry>, AutoCloseable
+{
+    /**
+     * A consumer that collects entries into {@link MnistDataBlock}
+     * instances
+     */
+    private static final class BatchCollector implements Consumer<MnistEntry>
+    {
+        /**
+         * The maximum number of entries in each batch
+         */
+        private final int batchSize;
+
+        /**
+         * The consumer for the batches
+         */
+        private final Consumer<? super MnistDataBlock> output;
+
+        /**
+         * The labels of the current batch
+         */
+        private byte labels[];
+
+        /**
+         * The image data of the current batch
+         */
+        private byte imageData[];
+
+        /**
+         * The number of rows of the entries in the current batch
+         */
+        private int numRows;
+
+        /**
+         * The number of columns of the entries in the current batch
+         */
+        private int numCols;
+
+        /**
+         * The number of entries in the current batch
+         */
+        private int count;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param batchSize The maximum number of entries in each batch
+         * @param output The consumer for the batches
+         */
+        BatchCollector(int batchSize, Consumer<? super MnistDataBlock> output)
+        {
+            this.batchSize = batchSize;
+            this.output = output;
+        }
+
+        @Override
+        public void accept(MnistEntry mnistEntry)
+        {
+            if (count > 0 && (mnistEntry.getNumRows() != numRows
+                || mnistEntry.getNumCols() != numCols))
+            {
+                flush();
+            }
+            if (count == 0)
+            {
+                numRows = mnistEntry.getNumRows();
+                numCols = mnistEntry.getNumCols();
+                labels = new byte[batchSize];
+                imageData = new byte[batchSize * numRows * numCols];
+            }
+            int imageSize = numRows * numCols;
+            labels[count] = mnistEntry.getLabel();
+            System.arraycopy(mnistEntry.getImageData(), 0,
+                imageData, count * imageSize, imageSize);
+            count++;
+            if (count == batchSize)
+            {
+                flush();
+            }
+        }
+
+        /**
+         * Pass the current batch to the output consumer, if it is
+         * not empty
+         */
+        void flush()
+        {
+            if (count == 0)
+            {
+                return;
+            }
+            byte batchLabels[] = labels;
+            byte batchImageData[] = imageData;
+            if (count < batchSize)
+            {
+                int imageSize = numRows * numCols;
+                batchLabels = new byte[count];
+                System.arraycopy(labels, 0, batchLabels, 0, count);
+                batchImageData = new byte[count * imageSize];
+                System.arraycopy(imageData, 0,
+                    batchImageData, 0, count * imageSize);
+            }
+            count = 0;
+            labels = null;
+            imageData = null;
+            output.accept(new MnistDataBlock(
+                numRows, numCols, batchLabels, batchImageData));
+        }
+    }
+
+    /**
+     * The number of entries that may be pending for each worker thread
+     */
+    private static final int PENDING_PER_THREAD = 64;
+
+    /**
+     * The {@link MnistAugmenter}
+     */
+    private final MnistAugmenter augmenter;
+
+    /**
+     * The consumer for the augmented entries
+     */
+    private final Consumer<? super MnistEntry> output;
+
+    /**
+     * The optional collector for batches, which is also the output
+     */
+    private final BatchCollector batchCollector;
+
+    /**
+     * The executor service that augments the entries
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * The futures of the pending entries, in their original order
+     */
+    private final ArrayDeque<Future<MnistEntry>> pending;
+
+    /**
+     * The maximum number of pending entries
+     */
+    private final int maxPending;
+
+    /**
+     * Whether this stage was closed
+     */
+    private boolean closed;
+
+    /**
+     * Creates a new instance that uses one worker thread for each
+     * available processor
+     * 
+     * @param augmenter The {@link MnistAugmenter}
+     * @param output The consumer for the augmented entries
+     * @throws NullPointerException If any argument is <code>null</code>
+     */
+    public MnistAugmentationStage(MnistAugmenter augmenter,
+        Consumer<? super MnistEntry> output)
+    {
+        this(augmenter, Runtime.getRuntime().availableProcessors(), output);
+    }
+
+    /**
+     * Creates a new instance
+     * 
+     * @param augmenter The {@link MnistAugmenter}
+     * @param numberOfThreads The number of worker threads
+     * @param output The consumer for the augmented entries
+     * @throws NullPointerException If any argument is <code>null</code>
+     * @throws IllegalArgumentException If the number of threads is not
+     * positive
+     */
+    public MnistAugmentationStage(MnistAugmenter augmenter,
+        int numberOfThreads, Consumer<? super MnistEntry> output)
+    {
+        this(augmenter, numberOfThreads, output, null);
+    }
+
+    /**
+     * Creates a new instance
+     * 
+     * @param augmenter The {@link MnistAugmenter}
+     * @param numberOfThreads The number of worker threads
+     * @param output The consumer for the augmented entries
+     * @param batchCollector The optional {@link BatchCollector}
+     * @throws NullPointerException If the augmenter or the output
+     * is <code>null</code>
+     * @throws IllegalArgumentException If the number of threads is not
+     * positive
+     */
+    private MnistAugmentationStage(MnistAugmenter augmenter,
+        int numberOfThreads, Consumer<? super MnistEntry> output,
+        BatchCollector batchCollector)
+    {
+        this.augmenter = Objects.requireNonNull(
+            augmenter, "The augmenter may not be null");
+        this.output = Objects.requireNonNull(
+            output, "The output may not be null");
+        if (numberOfThreads <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfThreads must be positive, but is "
+                + numberOfThreads);
+        }
+        this.batchCollector = batchCollector;
+        this.maxPending = numberOfThreads * PENDING_PER_THREAD;
+        this.pending = new ArrayDeque<Future<MnistEntry>>(maxPending);
+        this.executorService = Executors.newFixedThreadPool(
+            numberOfThreads, r ->
+            {
+                Thread thread = new Thread(r, "MnistAugmentationStage");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Creates a new stage that passes the augmented entries to the given
+     * consumer in batches. Each batch is a {@link MnistDataBlock} with
+     * the given number of entries, except for the last one, which may
+     * contain fewer entries, and which is passed to the consumer when
+     * the stage is closed.
+     * 
+     * @param augmenter The {@link MnistAugmenter}
+     * @param numberOfThreads The number of worker threads
+     * @param batchSize The maximum number of entries in each batch
+     * @param output The consumer for the batches
+     * @return The stage
+     * @throws NullPointerException If any argument is <code>null</code>
+     * @throws IllegalArgumentException If the number of threads or the
+     * batch size is not positive
+     */
+    public static MnistAugmentationStage createBatching(
+        MnistAugmenter augmenter, int numberOfThreads, int batchSize,
+        Consumer<? super MnistDataBlock> output)
+    {
+        Objects.requireNonNull(output, "The output may not be null");
+        if (batchSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The batchSize must be positive, but is " + batchSize);
+        }
+        BatchCollector batchCollector = new BatchCollector(batchSize, output);
+        return new MnistAugmentationStage(
+            augmenter, numberOfThreads, batchCollector, batchCollector);
+    }
+
+    /**
+     * Submit the given entry to be augmented. The image data of the
+     * entry is copied before this method returns. This may block until
+     * there is room for another pending entry. All augmented entries
+     * that are already available are passed to the output consumer.
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @throws IllegalStateException If this stage was closed, or the
+     * calling thread was interrupted while waiting
+     */
+    @Override
+    public void accept(MnistEntry mnistEntry)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The stage was closed");
+        }
+        int index = mnistEntry.getIndex();
+        byte label = mnistEntry.getLabel();
+        int numRows = mnistEntry.getNumRows();
+        int numCols = mnistEntry.getNumCols();
+        byte imageData[] = mnistEntry.getImageData().clone();
+        while (pending.size() >= maxPending)
+        {
+            deliver(pending.removeFirst());
+        }
+        pending.addLast(executorService.submit(() ->
+        {
+            augmenter.augment(index, numRows, numCols,
+                imageData, 0, imageData, 0);
+            return new MnistEntry(index, label, numRows, numCols, imageData);
+        }));
+        while (!pending.isEmpty() && pending.peekFirst().isDone())
+        {
+            deliver(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Wait for the given future, and pass its result to the output
+     * 
+     * @param future The future
+     * @throws IllegalStateException If the calling thread was interrupted
+     * while waiting, or the augmentation caused an exception that is
+     * not a runtime exception
+     */
+    private void deliver(Future<MnistEntry> future)
+    {
+        MnistEntry mnistEntry;
+        try
+        {
+            mnistEntry = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while waiting for augmented entries", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(
+                "Could not augment an entry", cause);
+        }
+        output.accept(mnistEntry);
+    }
+
+    /**
+     * Wait until all pending entries have been augmented, and pass them
+     * (and the last, incomplete batch, if applicable) to the output
+     * consumer. Afterwards, stop the worker threads. If this stage was
+     * already closed, then nothing is done.
+     * 
+     * @throws IllegalStateException If the calling thread was interrupted
+     * while waiting
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            while (!pending.isEmpty())
+            {
+                deliver(pending.removeFirst());
+            }
+            if (batchCollector != null)
+            {
+                batchCollector.flush();
+            }
+        }
+        finally
+        {
+            for (Future<MnistEntry> future : pending)
+            {
+                future.cancel(true);
+            }
+            pending.clear();
+            executorService.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,647 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A class for creating randomly distorted versions of MNIST images, in
+ * order to enlarge the training data.<br>
+ * <br>
+ * The supported distortions are a random shift, rotation and scaling,
+ * which are combined into a single affine transform around the center
+ * of the image, and an elastic distortion, which is a smoothed random
+ * displacement field as described by Simard, Steinkraus and Platt in
+ * "Best Practices for Convolutional Neural Networks Applied to Visual
+ * Document Analysis" (2003). All distortions are applied together, with
+ * a single bilinear resampling step. Pixels that are mapped to positions
+ * outside of the source image become 0.<br>
+ * <br>
+ * The random values for each image are computed from the seed that is
+ * given in the constructor and the index of the entry. They do not
+ * depend on the thread or the order in which the images are processed,
+ * so the same seed and index cause the same distortion on every
+ * machine. The intermediate data is stored in scratch buffers that are
+ * allocated once for each thread.<br>
+ * <br>
+ * By default, no distortions are enabled. The distortions are configured
+ * with the setter methods. The configuration may not be changed while
+ * the augmenter is used by other threads, for example, in a
+ * {@link MnistAugmentationStage}. Otherwise, this class is thread-safe.
+ */
+public final class MnistAugmenter
+{
+    /**
+     * Package-private class containing the scratch buffers for the
+     * augmentation of one image at a time
+     */
+    static final class Scratch
+    {
+        /**
+         * The random number generator
+         */
+        final Random random = new Random(0);
+
+        /**
+         * The copy of the source image data
+         */
+        byte source[] = new byte[0];
+
+        /**
+         * The horizontal displacements
+         */
+        float dx[] = new float[0];
+
+        /**
+         * The vertical displacements
+         */
+        float dy[] = new float[0];
+
+        /**
+         * The temporary buffer for the smoothing of the displacements
+         */
+        float temp[] = new float[0];
+
+        /**
+         * Make sure that the buffers can store the given number of pixels
+         * 
+         * @param size The number of pixels
+         */
+        void ensureCapacity(int size)
+        {
+            if (source.length < size)
+            {
+                source = new byte[size];
+                dx = new float[size];
+                dy = new float[size];
+                temp = new float[2 * size];
+            }
+        }
+    }
+
+    /**
+     * The seed
+     */
+    private final long seed;
+
+    /**
+     * The scratch buffers for each thread
+     */
+    private final ThreadLocal<Scratch> scratches;
+
+    /**
+     * The maximum shift, in pixels
+     */
+    private float maxShift;
+
+    /**
+     * The maximum rotation, in degrees
+     */
+    private float maxRotation;
+
+    /**
+     * The minimum scaling factor
+     */
+    private float minScale;
+
+    /**
+     * The maximum scaling factor
+     */
+    private float maxScale;
+
+    /**
+     * The intensity of the elastic distortion, in pixels
+     */
+    private float elasticAlpha;
+
+    /**
+     * The standard deviation of the Gaussian that is used for smoothing
+     * the elastic displacement field, in pixels
+     */
+    private float elasticSigma;
+
+    /**
+     * The (normalized) Gaussian kernel for the elastic distortion,
+     * containing the weights for the offsets
+     * <code>-radius...radius</code>
+     */
+    private float elasticKernel[];
+
+    /**
+     * Creates a new instance
+     * 
+     * @param seed The seed for the random distortions
+     */
+    public MnistAugmenter(long seed)
+    {
+        this.seed = seed;
+        this.scratches = ThreadLocal.withInitial(Scratch::new);
+        this.minScale = 1.0f;
+        this.maxScale = 1.0f;
+        this.elasticKernel = new float[0];
+    }
+
+    /**
+     * Set the maximum shift. The image will be shifted by a random
+     * amount in <code>[-maxShift, maxShift]</code> in each direction.
+     * 
+     * @param maxShift The maximum shift, in pixels
+     * @throws IllegalArgumentException If the value is negative or
+     * not finite
+     */
+    public void setMaxShift(float maxShift)
+    {
+        if (!(maxShift >= 0.0f) || Float.isInfinite(maxShift))
+        {
+            throw new IllegalArgumentException(
+                "The maxShift must be a non-negative value, but is "
+                    + maxShift);
+        }
+        this.maxShift = maxShift;
+    }
+
+    /**
+     * Returns the maximum shift
+     * 
+     * @return The maximum shift, in pixels
+     */
+    public float getMaxShift()
+    {
+        return maxShift;
+    }
+
+    /**
+     * Set the maximum rotation. The image will be rotated by a random
+     * angle in <code>[-maxRotation, maxRotation]</code> degrees.
+     * 
+     * @param maxRotation The maximum rotation, in degrees
+     * @throws IllegalArgumentException If the value is negative or
+     * larger than 180
+     */
+    public void setMaxRotation(float maxRotation)
+    {
+        if (!(maxRotation >= 0.0f && maxRotation <= 180.0f))
+        {
+            throw new IllegalArgumentException(
+                "The maxRotation must be in [0,180], but is " + maxRotation);
+        }
+        this.maxRotation = maxRotation;
+    }
+
+    /**
+     * Returns the maximum rotation
+     * 
+     * @return The maximum rotation, in degrees
+     */
+    public float getMaxRotation()
+    {
+        return maxRotation;
+    }
+
+    /**
+     * Set the range of the scaling factor. The image will be scaled by
+     * a random factor in <code>[minScale, maxScale]</code>.
+     * 
+     * @param minScale The minimum scaling factor
+     * @param maxScale The maximum scaling factor
+     * @throws IllegalArgumentException If the minimum is not positive,
+     * or larger than the maximum, or the maximum is not finite
+     */
+    public void setScaleRange(float minScale, float maxScale)
+    {
+        if (!(minScale > 0.0f && minScale <= maxScale)
+            || Float.isInfinite(maxScale))
+        {
+            throw new IllegalArgumentException(
+                "Invalid scale range: [" + minScale + "," + maxScale + "]");
+        }
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+    }
+
+    /**
+     * Returns the minimum scaling factor
+     * 
+     * @return The minimum scaling factor
+     */
+    public float getMinScale()
+    {
+        return minScale;
+    }
+
+    /**
+     * Returns the maximum scaling factor
+     * 
+     * @return The maximum scaling factor
+     */
+    public float getMaxScale()
+    {
+        return maxScale;
+    }
+
+    /**
+     * Set the parameters of the elastic distortion. A random displacement
+     * field with values in [-1,1] is smoothed with a Gaussian with the
+     * given standard deviation, and scaled with the given intensity.
+     * Typical values for MNIST are an intensity of 34 and a standard
+     * deviation of 4. An intensity of 0 disables the elastic distortion.
+     * 
+     * @param alpha The intensity, in pixels
+     * @param sigma The standard deviation of the Gaussian, in pixels
+     * @throws IllegalArgumentException If the intensity is negative or
+     * not finite, or the standard deviation is not in (0,64]
+     */
+    public void setElasticDistortion(float alpha, float sigma)
+    {
+        if (!(alpha >= 0.0f) || Float.isInfinite(alpha))
+        {
+            throw new IllegalArgumentException(
+                "The alpha must be a non-negative value, but is " + alpha);
+        }
+        if (!(sigma > 0.0f && sigma <= 64.0f))
+        {
+            throw new IllegalArgumentException(
+                "The sigma must be in (0,64], but is " + sigma);
+        }
+        int radius = (int) Math.ceil(3.0 * sigma);
+        float kernel[] = new float[2 * radius + 1];
+        float sum = 0.0f;
+        for (int i = -radius; i <= radius; i++)
+        {
+            float w = (float) Math.exp(-(i * i) / (2.0 * sigma * sigma));
+            kernel[i + radius] = w;
+            sum += w;
+        }
+        for (int i = 0; i < kernel.length; i++)
+        {
+            kernel[i] /= sum;
+        }
+        this.elasticAlpha = alpha;
+        this.elasticSigma = sigma;
+        this.elasticKernel = alpha > 0.0f ? kernel : new float[0];
+    }
+
+    /**
+     * Returns the intensity of the elastic distortion
+     * 
+     * @return The intensity, in pixels
+     */
+    public float getElasticAlpha()
+    {
+        return elasticAlpha;
+    }
+
+    /**
+     * Returns the standard deviation of the Gaussian that is used for
+     * smoothing the elastic displacement field
+     * 
+     * @return The standard deviation, in pixels
+     */
+    public float getElasticSigma()
+    {
+        return elasticSigma;
+    }
+
+    /**
+     * Creates a new {@link MnistEntry} that contains the distorted image
+     * of the given entry. The new entry will have the same index and
+     * label as the given entry.
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @return The new {@link MnistEntry}
+     */
+    public MnistEntry augment(MnistEntry mnistEntry)
+    {
+        int numRows = mnistEntry.getNumRows();
+        int numCols = mnistEntry.getNumCols();
+        byte imageData[] = new byte[numRows * numCols];
+        augment(mnistEntry.getIndex(), numRows, numCols,
+            mnistEntry.getImageData(), 0, imageData, 0);
+        return new MnistEntry(mnistEntry.getIndex(), mnistEntry.getLabel(),
+            numRows, numCols, imageData);
+    }
+
+    /**
+     * Write the distorted version of the given image data into the given
+     * target array. The source and the target may be the same array.
+     * 
+     * @param index The index of the entry, which determines the random
+     * distortion
+     * @param numRows The number of rows of the image
+     * @param numCols The number of columns of the image
+     * @param source The source image data
+     * @param sourceOffset The offset in the source array
+     * @param target The target image data
+     * @param targetOffset The offset in the target array
+     * @throws IllegalArgumentException If the number of rows or columns
+     * is not positive
+     * @throws IndexOutOfBoundsException If the image does not fit into
+     * the given source or target array at the given offsets
+     */
+    public void augment(int index, int numRows, int numCols,
+        byte source[], int sourceOffset, byte target[], int targetOffset)
+    {
+        augment(index, numRows, numCols,
+            source, sourceOffset, target, targetOffset, scratches.get());
+    }
+
+    /**
+     * Write the distorted version of the given image data into the given
+     * target array, using the given scratch buffers
+     * 
+     * @param index The index of the entry
+     * @param numRows The number of rows of the image
+     * @param numCols The number of columns of the image
+     * @param source The source image data
+     * @param sourceOffset The offset in the source array
+     * @param target The target image data
+     * @param targetOffset The offset in the target array
+     * @param scratch The {@link Scratch}
+     */
+    void augment(int index, int numRows, int numCols,
+        byte source[], int sourceOffset, byte target[], int targetOffset,
+        Scratch scratch)
+    {
+        Objects.requireNonNull(source, "The source may not be null");
+        Objects.requireNonNull(target, "The target may not be null");
+        if (numRows <= 0 || numCols <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Invalid image size: " + numRows + "x" + numCols);
+        }
+        int size = numRows * numCols;
+        checkRange(source.length, sourceOffset, size);
+        checkRange(target.length, targetOffset, size);
+
+        scratch.ensureCapacity(size);
+        byte src[] = scratch.source;
+        System.arraycopy(source, sourceOffset, src, 0, size);
+
+        Random random = scratch.random;
+        random.setSeed(mix(seed, index));
+        float tx = maxShift * symmetric(random);
+        float ty = maxShift * symmetric(random);
+        double angle = Math.toRadians(maxRotation * symmetric(random));
+        float scale = minScale + (maxScale - minScale) * random.nextFloat();
+
+        boolean elastic = elasticKernel.length > 0;
+        if (elastic)
+        {
+            computeDisplacements(random, numRows, numCols, scratch);
+        }
+
+        // The inverse of the affine transform, mapping target pixels
+        // to source pixels, around the center of the image
+        float a = (float) (Math.cos(angle) / scale);
+        float b = (float) (Math.sin(angle) / scale);
+        float cx = (numCols - 1) * 0.5f;
+        float cy = (numRows - 1) * 0.5f;
+        float dx[] = scratch.dx;
+        float dy[] = scratch.dy;
+        for (int y = 0; y < numRows; y++)
+        {
+            int row = y * numCols;
+            float py = y - cy - ty;
+            for (int x = 0; x < numCols; x++)
+            {
+                float px = x - cx - tx;
+                float sx = a * px + b * py + cx;
+                float sy = -b * px + a * py + cy;
+                if (elastic)
+                {
+                    sx += dx[row + x];
+                    sy += dy[row + x];
+                }
+                target[targetOffset + row + x] =
+                    (byte) sample(src, numRows, numCols, sx, sy);
+            }
+        }
+    }
+
+    /**
+     * Compute the elastic displacement field for one image, and store
+     * it in the displacement buffers of the given scratch.<br>
+     * <br>
+     * The random values of the field are generated with a SplitMix64
+     * generator that is seeded from the given random number generator.
+     * This produces two values from each 64 bit step, which is much 
+     * faster than calling the given generator for each pixel.
+     * 
+     * @param random The random number generator
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     * @param scratch The {@link Scratch}
+     */
+    private void computeDisplacements(Random random,
+        int numRows, int numCols, Scratch scratch)
+    {
+        int size = numRows * numCols;
+        float dx[] = scratch.dx;
+        float dy[] = scratch.dy;
+        long state = random.nextLong();
+        float unit = 1.0f / (1 << 23);
+        for (int i = 0; i < size; i++)
+        {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+            dx[i] = ((int) (z >>> 40)) * unit - 1.0f;
+            dy[i] = ((int) (z & 0xFFFFFF)) * unit - 1.0f;
+        }
+        smooth(dx, dy, scratch.temp, numRows, numCols);
+    }
+
+    /**
+     * Smooth the given fields with the separable Gaussian kernel, treating
+     * all values outside of the fields as 0, and scale the results with 
+     * the intensity of the elastic distortion. 
+     * 
+     * @param fieldX The first field
+     * @param fieldY The second field
+     * @param temp The temporary buffer, with twice the size of a field
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     */
+    private void smooth(float fieldX[], float fieldY[], float temp[], 
+        int numRows, int numCols)
+    {
+        float kernel[] = elasticKernel;
+        int radius = kernel.length / 2;
+        int size = numRows * numCols;
+
+        // Both passes iterate over the kernel in the outer loop, so that 
+        // the inner loops are simple loops over contiguous pixels
+        for (int y = 0; y < numRows; y++)
+        {
+            int row = y * numCols;
+            for (int x = 0; x < numCols; x++)
+            {
+                temp[row + x] = 0.0f;
+                temp[size + row + x] = 0.0f;
+            }
+            for (int k = -radius; k <= radius; k++)
+            {
+                float w = kernel[k + radius];
+                int x0 = Math.max(0, -k);
+                int x1 = Math.min(numCols, numCols - k);
+                for (int x = x0; x < x1; x++)
+                {
+                    temp[row + x] += w * fieldX[row + x + k];
+                    temp[size + row + x] += w * fieldY[row + x + k];
+                }
+            }
+        }
+        for (int y = 0; y < numRows; y++)
+        {
+            int row = y * numCols;
+            for (int x = 0; x < numCols; x++)
+            {
+                fieldX[row + x] = 0.0f;
+                fieldY[row + x] = 0.0f;
+            }
+            int k0 = Math.max(-radius, -y);
+            int k1 = Math.min(radius, numRows - 1 - y);
+            for (int k = k0; k <= k1; k++)
+            {
+                float w = kernel[k + radius] * elasticAlpha;
+                int source = row + k * numCols;
+                for (int x = 0; x < numCols; x++)
+                {
+                    fieldX[row + x] += w * temp[source + x];
+                    fieldY[row + x] += w * temp[size + source + x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Sample the given image at the given position, with bilinear
+     * interpolation, treating all pixels outside of the image as 0
+     * 
+     * @param image The image
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     * @param x The x-coordinate
+     * @param y The y-coordinate
+     * @return The value, in [0,255]
+     */
+    private static int sample(byte image[], int numRows, int numCols,
+        float x, float y)
+    {
+        if (!(x > -1.0f && y > -1.0f && x < numCols && y < numRows))
+        {
+            return 0;
+        }
+        // The coordinates are larger than -1, so this is the floor
+        int x0 = (int) (x + 1.0f) - 1;
+        int y0 = (int) (y + 1.0f) - 1;
+        float fx = x - x0;
+        float fy = y - y0;
+        float v00;
+        float v10;
+        float v01;
+        float v11;
+        if (x0 >= 0 && y0 >= 0 && x0 < numCols - 1 && y0 < numRows - 1)
+        {
+            int i = y0 * numCols + x0;
+            v00 = image[i] & 0xFF;
+            v10 = image[i + 1] & 0xFF;
+            v01 = image[i + numCols] & 0xFF;
+            v11 = image[i + numCols + 1] & 0xFF;
+        }
+        else
+        {
+            v00 = pixel(image, numRows, numCols, x0, y0);
+            v10 = pixel(image, numRows, numCols, x0 + 1, y0);
+            v01 = pixel(image, numRows, numCols, x0, y0 + 1);
+            v11 = pixel(image, numRows, numCols, x0 + 1, y0 + 1);
+        }
+        float v0 = v00 + fx * (v10 - v00);
+        float v1 = v01 + fx * (v11 - v01);
+        int value = (int) (v0 + fy * (v1 - v0) + 0.5f);
+        return Math.min(255, Math.max(0, value));
+    }
+
+    /**
+     * Returns the value of the specified pixel, or 0 if the pixel is
+     * outside of the image
+     * 
+     * @param image The image
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     * @param x The x-coordinate
+     * @param y The y-coordinate
+     * @return The value, in [0,255]
+     */
+    private static int pixel(byte image[], int numRows, int numCols,
+        int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= numCols || y >= numRows)
+        {
+            return 0;
+        }
+        return image[y * numCols + x] & 0xFF;
+    }
+
+    /**
+     * Returns a random value in [-1,1)
+     * 
+     * @param random The random number generator
+     * @return The value
+     */
+    private static float symmetric(Random random)
+    {
+        return random.nextFloat() * 2.0f - 1.0f;
+    }
+
+    /**
+     * Make sure that the specified range is valid for an array with the
+     * given length
+     * 
+     * @param length The length of the array
+     * @param offset The offset
+     * @param size The size of the range
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    private static void checkRange(int length, int offset, int size)
+    {
+        if (offset < 0 || offset > length - size)
+        {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", "
+                + ((long) offset + size) + ") is out of bounds for length "
+                + length);
+        }
+    }
+
+    /**
+     * Compute a seed for a random number generator from the given seed
+     * and index, using the finalizer of the SplitMix64 generator
+     * 
+     * @param seed The seed
+     * @param index The index
+     * @return The seed for the given index
+     */
+    private static long mix(long seed, int index)
+    {
+        long z = seed + (index + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistAugmenter["
+            + "maxShift=" + maxShift + ","
+            + "maxRotation=" + maxRotation + ","
+            + "minScale=" + minScale + ","
+            + "maxScale=" + maxScale + ","
+            + "elasticAlpha=" + elasticAlpha + ","
+            + "elasticSigma=" + elasticSigma + "]";
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A class for iterating over {@link MnistData} in mini-batches, where
+ * each batch is provided as normalized <code>float</code> values.<br>
+ * <br>
+ * For each batch, the image data of all entries is written in row-major
+ * order into a caller-owned array or buffer, with pixel values in [0,1].
+ * The labels are written as one-hot vectors with one element for each
+ * class. The number of classes is {@link #NUMBER_OF_CLASSES} by default,
+ * and entries with labels that are not smaller than the number of 
+ * classes cause an exception.<br>
+ * <br>
+ * The entries of the next batch are gathered on a background thread 
+ * while the caller uses the current batch. The background thread is 
+ * stopped after the last batch, and when it was idle for a while. The
+ * iterator should still be closed when it is no longer used, in order
+ * to stop this thread immediately.<br>
+ * <br>
+ * This class is not thread-safe.
+ */
+public final class MnistBatchIterator implements AutoCloseable
+{
+    /**
+     * The default number of classes for the one-hot encoding of the 
+     * labels, which is the number of digits of MNIST
+     */
+    public static final int NUMBER_OF_CLASSES = 10;
+
+    /**
+     * The time, in milliseconds, after which the idle background thread
+     * is stopped
+     */
+    private static final long KEEP_ALIVE_MILLIS = 1000;
+
+    /**
+     * The data
+     */
+    private final MnistData mnistData;
+
+    /**
+     * The indices of the entries, in the order in which they are
+     * visited, or <code>null</code> if the entries are visited in
+     * their natural order
+     */
+    private final int indices[];
+
+    /**
+     * The total number of entries that are visited
+     */
+    private final int numberOfEntries;
+
+    /**
+     * The maximum number of entries in one batch
+     */
+    private final int batchSize;
+
+    /**
+     * The number of classes for the one-hot encoding of the labels
+     */
+    private final int numberOfClasses;
+
+    /**
+     * The number of pixels of each image
+     */
+    private final int imageSize;
+
+    /**
+     * The raw image data of the current batch
+     */
+    private byte currentImages[];
+
+    /**
+     * The labels of the current batch
+     */
+    private byte currentLabels[];
+
+    /**
+     * The raw image data of the prefetched batch
+     */
+    private byte prefetchedImages[];
+
+    /**
+     * The labels of the prefetched batch
+     */
+    private byte prefetchedLabels[];
+
+    /**
+     * A buffer for converting one image, for writing into buffers that 
+     * do not have an accessible array. This is created lazily.
+     */
+    private float imageBuffer[];
+
+    /**
+     * The executor that prepares the batches
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The future that will provide the number of entries of the
+     * prefetched batch, or <code>null</code> if there are no more batches
+     */
+    private Future<Integer> prefetched;
+
+    /**
+     * The position (in terms of visited entries) of the next batch that
+     * will be prefetched
+     */
+    private int position;
+
+    /**
+     * Creates a new instance that visits all entries of the given data
+     * in their natural order
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param batchSize The maximum number of entries in each batch
+     * @throws NullPointerException If the data is <code>null</code>
+     * @throws IllegalArgumentException If the batch size is not positive
+     */
+    public MnistBatchIterator(MnistData mnistData, int batchSize)
+    {
+        this(mnistData, null, batchSize, NUMBER_OF_CLASSES);
+    }
+
+    /**
+     * Creates a new instance that visits all entries of the given data
+     * in their natural order
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param batchSize The maximum number of entries in each batch
+     * @param numberOfClasses The number of classes for the one-hot 
+     * encoding of the labels
+     * @throws NullPointerException If the data is <code>null</code>
+     * @throws IllegalArgumentException If the batch size is not positive,
+     * or the number of classes is not in [1,256]
+     */
+    public MnistBatchIterator(
+        MnistData mnistData, int batchSize, int numberOfClasses)
+    {
+        this(mnistData, null, batchSize, numberOfClasses);
+    }
+
+    /**
+     * Creates a new instance
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param indices The indices of the entries, in the order in which
+     * they should be visited. If this is <code>null</code>, then all
+     * entries will be visited in their natural order.
+     * @param batchSize The maximum number of entries in each batch
+     * @param numberOfClasses The number of classes for the one-hot 
+     * encoding of the labels
+     * @throws NullPointerException If the data is <code>null</code>
+     * @throws IllegalArgumentException If the batch size is not positive,
+     * or the number of classes is not in [1,256]
+     */
+    MnistBatchIterator(MnistData mnistData, int indices[], int batchSize, 
+        int numberOfClasses)
+    {
+        this.mnistData = Objects.requireNonNull(
+            mnistData, "The mnistData may not be null");
+        if (batchSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The batchSize must be positive, but is " + batchSize);
+        }
+        if (numberOfClasses <= 0 || numberOfClasses > 256)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfClasses must be in [1,256], but is " 
+                + numberOfClasses);
+        }
+        this.indices = indices;
+        this.numberOfEntries =
+            indices == null ? mnistData.size() : indices.length;
+        this.batchSize = batchSize;
+        this.numberOfClasses = numberOfClasses;
+        this.imageSize = mnistData.getNumRows() * mnistData.getNumCols();
+        this.currentImages = new byte[batchSize * imageSize];
+        this.currentLabels = new byte[batchSize];
+        this.prefetchedImages = new byte[batchSize * imageSize];
+        this.prefetchedLabels = new byte[batchSize];
+        this.executor = new ThreadPoolExecutor(1, 1, 
+            KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, 
+            new LinkedBlockingQueue<Runnable>(), r ->
+        {
+            Thread thread = new Thread(r, "MnistBatchIterator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.position = 0;
+        prefetch();
+    }
+
+    /**
+     * Start preparing the next batch, if there is one. Otherwise, stop
+     * the background thread.
+     */
+    private void prefetch()
+    {
+        if (position >= numberOfEntries)
+        {
+            prefetched = null;
+            executor.shutdown();
+            return;
+        }
+        int start = position;
+        int count = Math.min(batchSize, numberOfEntries - start);
+        position += count;
+        byte images[] = prefetchedImages;
+        byte labels[] = prefetchedLabels;
+        prefetched = executor.submit(() -> fill(start, count, images, labels));
+    }
+
+    /**
+     * Fill the given arrays with the image data and labels of the 
+     * specified entries
+     * 
+     * @param start The position of the first entry
+     * @param count The number of entries
+     * @param images The array for the image data
+     * @param labels The array for the labels
+     * @return The number of entries
+     * @throws IllegalStateException If an entry has a label that is not
+     * smaller than the number of classes
+     */
+    private int fill(int start, int count, byte images[], byte labels[])
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int index = indices == null ? start + i : indices[start + i];
+            mnistData.getImageData(index, images, i * imageSize);
+            byte label = mnistData.getLabel(index);
+            if ((label & 0xFF) >= numberOfClasses)
+            {
+                throw new IllegalStateException("The entry at index " 
+                    + index + " has the label " + (label & 0xFF) 
+                    + ", but there are only " + numberOfClasses 
+                    + " classes");
+            }
+            labels[i] = label;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the maximum number of entries in one batch
+     * 
+     * @return The batch size
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Returns the number of classes, which is the number of values that
+     * are written for the label of each entry of a batch
+     * 
+     * @return The number of classes
+     */
+    public int getNumberOfClasses()
+    {
+        return numberOfClasses;
+    }
+
+    /**
+     * Returns the number of pixels of each image, which is the number of
+     * values that are written for each entry of a batch
+     * 
+     * @return The image size
+     */
+    public int getImageSize()
+    {
+        return imageSize;
+    }
+
+    /**
+     * Returns whether there is another batch
+     * 
+     * @return Whether there is another batch
+     */
+    public boolean hasNext()
+    {
+        return prefetched != null;
+    }
+
+    /**
+     * Write the next batch into the given arrays.<br>
+     * <br>
+     * The image data will be written into the given images array, in
+     * row-major order, with <code>imageSize</code> values for each entry.
+     * The one-hot labels will be written into the given labels array,
+     * with {@link #getNumberOfClasses()} values for each entry. The last
+     * batch may contain fewer than <code>batchSize</code> entries.
+     * 
+     * @param images The array for the images. This must have a length
+     * of at least <code>batchSize * imageSize</code>.
+     * @param labels The array for the labels. This must have a length
+     * of at least <code>batchSize * numberOfClasses</code>. If this
+     * is <code>null</code>, then no labels will be written.
+     * @return The number of entries in the batch
+     * @throws NoSuchElementException If there is no next batch
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     * @throws IllegalStateException If an entry of the batch has a label
+     * that is not smaller than the number of classes
+     */
+    public int next(float images[], float labels[])
+    {
+        int count = awaitPrefetched();
+        checkRange(images.length, count * imageSize);
+        if (labels != null)
+        {
+            checkRange(labels.length, count * numberOfClasses);
+        }
+        swap();
+        MnistPixels.toUnitRange(
+            currentImages, 0, images, 0, count * imageSize);
+        if (labels != null)
+        {
+            Arrays.fill(labels, 0, count * numberOfClasses, 0.0f);
+            for (int i = 0; i < count; i++)
+            {
+                int label = currentLabels[i] & 0xFF;
+                labels[i * numberOfClasses + label] = 1.0f;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the next batch into the given buffers, starting at their
+     * current positions, and advancing their positions accordingly.
+     * See {@link #next(float[], float[])} for details about the layout.
+     * 
+     * @param images The buffer for the images
+     * @param labels The buffer for the labels. If this is
+     * <code>null</code>, then no labels will be written.
+     * @return The number of entries in the batch
+     * @throws NoSuchElementException If there is no next batch
+     * @throws BufferOverflowException If the buffers do not have enough
+     * space for the batch
+     * @throws IllegalStateException If an entry of the batch has a label
+     * that is not smaller than the number of classes
+     */
+    public int next(FloatBuffer images, FloatBuffer labels)
+    {
+        int count = awaitPrefetched();
+        if (images.remaining() < count * imageSize || 
+            (labels != null && labels.remaining() < count * numberOfClasses))
+        {
+            throw new BufferOverflowException();
+        }
+        swap();
+        if (images.hasArray())
+        {
+            int position = images.position();
+            MnistPixels.toUnitRange(currentImages, 0, images.array(), 
+                images.arrayOffset() + position, count * imageSize);
+            images.position(position + count * imageSize);
+        }
+        else
+        {
+            if (imageBuffer == null)
+            {
+                imageBuffer = new float[imageSize];
+            }
+            for (int i = 0; i < count; i++)
+            {
+                MnistPixels.toUnitRange(currentImages, i * imageSize, 
+                    imageBuffer, 0, imageSize);
+                images.put(imageBuffer);
+            }
+        }
+        if (labels != null)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                int label = currentLabels[i] & 0xFF;
+                for (int c = 0; c < numberOfClasses; c++)
+                {
+                    labels.put(c == label ? 1.0f : 0.0f);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Make sure that an array with the given length can receive the 
+     * given number of values
+     * 
+     * @param length The length of the array
+     * @param required The number of values
+     * @throws IndexOutOfBoundsException If the array is too small
+     */
+    private static void checkRange(int length, int required)
+    {
+        if (required > length)
+        {
+            throw new IndexOutOfBoundsException(
+                "Index " + (required - 1) + ", size " + length);
+        }
+    }
+
+    /**
+     * Make the prefetched batch the current batch, and start preparing
+     * the next one. The arrays of the current and the prefetched batch 
+     * are swapped, so that the data is not copied.
+     */
+    private void swap()
+    {
+        byte images[] = currentImages;
+        currentImages = prefetchedImages;
+        prefetchedImages = images;
+        byte labels[] = currentLabels;
+        currentLabels = prefetchedLabels;
+        prefetchedLabels = labels;
+        prefetch();
+    }
+
+    /**
+     * Wait until the prefetched batch is available, and return the
+     * number of its entries. If the batch could not be prepared, then
+     * there are no further batches.
+     * 
+     * @return The number of entries
+     * @throws NoSuchElementException If there is no next batch
+     * @throws IllegalStateException If the batch could not be prepared
+     */
+    private int awaitPrefetched()
+    {
+        if (prefetched == null)
+        {
+            throw new NoSuchElementException("No more batches");
+        }
+        try
+        {
+            return prefetched.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while waiting for the next batch", e);
+        }
+        catch (ExecutionException e)
+        {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(
+                "Could not prepare the next batch", cause);
+        }
+    }
+
+    /**
+     * Stop the background thread that prepares the batches. After this
+     * method has been called, no further batches may be obtained.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+        prefetched = null;
+    }
+
+}
@@ -0,0 +1,565 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A compact representation of binarized (black and white) MNIST images,
+ * where each pixel is stored as a single bit.<br>
+ * <br>
+ * A pixel is set when its brightness is greater than or equal to the
+ * threshold that is given at construction time. The pixels of each 
+ * image are packed into <code>ceil(numRows * numCols / 64)</code> 
+ * <code>long</code> values (13 values for 28x28 images), where pixel 
+ * <code>p</code> (in row-major order) is stored in bit 
+ * <code>p % 64</code> of word <code>p / 64</code>. Unused bits of the
+ * last word are always 0. The words of all images are stored in a 
+ * single array, together with the labels.<br>
+ * <br>
+ * Instances of this class may be created from {@link MnistData} with 
+ * {@link #create(MnistData, int)}, or filled incrementally by passing 
+ * them as the consumer to the reading methods of the 
+ * {@link MnistCompressedReader} or {@link MnistDecompressedReader}. 
+ * The distance computations are based on {@link Long#bitCount(long)},
+ * which is usually compiled into a single <code>POPCNT</code> 
+ * instruction.<br>
+ * <br>
+ * This class is not thread-safe while entries are added. Once it is
+ * filled, it may be read by multiple threads.
+ */
+public final class MnistBinaryImages implements Consumer<MnistEntry>
+{
+    /**
+     * The initial capacity, in number of images
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The number of rows of each image
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of each image
+     */
+    private final int numCols;
+
+    /**
+     * The threshold
+     */
+    private final int threshold;
+
+    /**
+     * The number of words for each image
+     */
+    private final int wordsPerImage;
+
+    /**
+     * The number of images
+     */
+    private int numberOfImages;
+
+    /**
+     * The labels of all images
+     */
+    private byte labels[];
+
+    /**
+     * The packed pixels of all images
+     */
+    private long words[];
+
+    /**
+     * Creates a new, empty instance
+     * 
+     * @param numRows The number of rows of each image
+     * @param numCols The number of columns of each image
+     * @param threshold The threshold, in [0,255]. Pixels with a 
+     * brightness that is greater than or equal to this value will be set.
+     * @throws IllegalArgumentException If the number of rows or columns
+     * is not positive, or the threshold is not in [0,255]
+     */
+    public MnistBinaryImages(int numRows, int numCols, int threshold)
+    {
+        this(numRows, numCols, threshold, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty instance
+     * 
+     * @param numRows The number of rows of each image
+     * @param numCols The number of columns of each image
+     * @param threshold The threshold
+     * @param capacity The initial capacity
+     * @throws IllegalArgumentException If the number of rows or columns
+     * is not positive, or the threshold is not in [0,255]
+     */
+    private MnistBinaryImages(int numRows, int numCols, int threshold, 
+        int capacity)
+    {
+        if (numRows <= 0 || numCols <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Invalid image size: " + numRows + "x" + numCols);
+        }
+        if (threshold < 0 || threshold > 255)
+        {
+            throw new IllegalArgumentException(
+                "The threshold must be in [0,255], but is " + threshold);
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.threshold = threshold;
+        this.wordsPerImage = computeWordsPerImage(numRows * numCols);
+        this.labels = new byte[capacity];
+        this.words = new long[capacity * wordsPerImage];
+    }
+
+    /**
+     * Creates a new instance containing the binarized images of all 
+     * entries of the given data
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param threshold The threshold, in [0,255]. Pixels with a 
+     * brightness that is greater than or equal to this value will be set.
+     * @return The {@link MnistBinaryImages}
+     * @throws IllegalArgumentException If the threshold is not in [0,255]
+     */
+    public static MnistBinaryImages create(MnistData mnistData, int threshold)
+    {
+        Objects.requireNonNull(mnistData, "The mnistData may not be null");
+        int n = mnistData.size();
+        MnistBinaryImages result = new MnistBinaryImages(
+            mnistData.getNumRows(), mnistData.getNumCols(), threshold, n);
+        int imageSize = mnistData.getNumRows() * mnistData.getNumCols();
+        if (mnistData instanceof MnistDataBlock)
+        {
+            MnistDataBlock mnistDataBlock = (MnistDataBlock) mnistData;
+            byte imageData[] = mnistDataBlock.getImageData();
+            for (int i = 0; i < n; i++)
+            {
+                result.add(mnistDataBlock.getLabel(i), 
+                    imageData, i * imageSize);
+            }
+        }
+        else
+        {
+            byte imageData[] = new byte[imageSize];
+            for (int i = 0; i < n; i++)
+            {
+                mnistData.getImageData(i, imageData, 0);
+                result.add(mnistData.getLabel(i), imageData, 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compute the number of words that are required for storing the 
+     * given number of bits
+     * 
+     * @param numberOfBits The number of bits
+     * @return The number of words
+     */
+    private static int computeWordsPerImage(int numberOfBits)
+    {
+        return (numberOfBits + 63) >>> 6;
+    }
+
+    /**
+     * Add the binarized image of the given entry. The entry itself is
+     * not stored, so this may also be used with the 
+     * <code>...Reusing</code> reading methods.
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @throws IllegalArgumentException If the size of the image of the 
+     * entry does not match the size of the images in this instance
+     */
+    @Override
+    public void accept(MnistEntry mnistEntry)
+    {
+        if (mnistEntry.getNumRows() != numRows || 
+            mnistEntry.getNumCols() != numCols)
+        {
+            throw new IllegalArgumentException("Expected an image of size "
+                + numCols + "x" + numRows + ", but found " 
+                + mnistEntry.getNumCols() + "x" + mnistEntry.getNumRows());
+        }
+        add(mnistEntry.getLabel(), mnistEntry.getImageData(), 0);
+    }
+
+    /**
+     * Add the binarized version of the given image data
+     * 
+     * @param label The label
+     * @param imageData The image data
+     * @param offset The offset of the image in the given array
+     */
+    private void add(byte label, byte imageData[], int offset)
+    {
+        if (numberOfImages == labels.length)
+        {
+            int newCapacity = Math.max(
+                INITIAL_CAPACITY, labels.length + (labels.length >> 1));
+            labels = Arrays.copyOf(labels, newCapacity);
+            words = Arrays.copyOf(words, newCapacity * wordsPerImage);
+        }
+        labels[numberOfImages] = label;
+        pack(imageData, offset, numRows * numCols, threshold, 
+            words, numberOfImages * wordsPerImage);
+        numberOfImages++;
+    }
+
+    /**
+     * Pack the given image data into the given array of words
+     * 
+     * @param imageData The image data
+     * @param offset The offset of the image data
+     * @param imageSize The number of pixels of the image
+     * @param threshold The threshold
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     */
+    private static void pack(byte imageData[], int offset, int imageSize,
+        int threshold, long target[], int targetOffset)
+    {
+        // Computes (threshold - 1 - value) >>> 31, which is 1 exactly 
+        // when value >= threshold, to avoid unpredictable branches
+        int t = threshold - 1;
+        int w = targetOffset;
+        for (int start = 0; start < imageSize; start += 64)
+        {
+            int end = Math.min(start + 64, imageSize);
+            long bits = 0;
+            for (int p = end - 1; p >= start; p--)
+            {
+                int value = imageData[offset + p] & 0xFF;
+                bits = (bits << 1) | ((t - value) >>> 31);
+            }
+            target[w++] = bits;
+        }
+    }
+
+    /**
+     * Returns the number of images
+     * 
+     * @return The number of images
+     */
+    public int size()
+    {
+        return numberOfImages;
+    }
+
+    /**
+     * Returns the number of rows of each image
+     * 
+     * @return The number of rows
+     */
+    public int getNumRows()
+    {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns of each image
+     * 
+     * @return The number of columns
+     */
+    public int getNumCols()
+    {
+        return numCols;
+    }
+
+    /**
+     * Returns the threshold that was used for binarizing the images
+     * 
+     * @return The threshold
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Returns the number of <code>long</code> values that are used for
+     * storing each image
+     * 
+     * @return The number of words per image
+     */
+    public int getWordsPerImage()
+    {
+        return wordsPerImage;
+    }
+
+    /**
+     * Returns the label of the specified image
+     * 
+     * @param index The index of the image
+     * @return The label
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    public byte getLabel(int index)
+    {
+        checkIndex(index);
+        return labels[index];
+    }
+
+    /**
+     * Returns whether the specified pixel of the specified image is set
+     * 
+     * @param index The index of the image
+     * @param row The row of the pixel
+     * @param col The column of the pixel
+     * @return Whether the pixel is set
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}, or the row or column is not 
+     * valid
+     */
+    public boolean isSet(int index, int row, int col)
+    {
+        checkIndex(index);
+        if (row < 0 || row >= numRows || col < 0 || col >= numCols)
+        {
+            throw new IndexOutOfBoundsException(
+                "Pixel (" + col + "," + row + ") is not in an image of size "
+                + numCols + "x" + numRows);
+        }
+        int p = row * numCols + col;
+        long word = words[index * wordsPerImage + (p >>> 6)];
+        return (word & (1L << p)) != 0;
+    }
+
+    /**
+     * Returns the number of pixels that are set in the specified image
+     * 
+     * @param index The index of the image
+     * @return The number of set pixels
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    public int getCardinality(int index)
+    {
+        checkIndex(index);
+        int offset = index * wordsPerImage;
+        int count = 0;
+        for (int w = 0; w < wordsPerImage; w++)
+        {
+            count += Long.bitCount(words[offset + w]);
+        }
+        return count;
+    }
+
+    /**
+     * Copy the words of the specified image into the given array, 
+     * starting at the given offset. This will write 
+     * {@link #getWordsPerImage()} values into the given array.
+     * 
+     * @param index The index of the image
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}, or the target array is too small
+     */
+    public void getWords(int index, long target[], int targetOffset)
+    {
+        checkIndex(index);
+        System.arraycopy(words, index * wordsPerImage, 
+            target, targetOffset, wordsPerImage);
+    }
+
+    /**
+     * Returns the Hamming distance between the specified images, which
+     * is the number of pixels that are set in only one of them
+     * 
+     * @param index0 The index of the first image
+     * @param index1 The index of the second image
+     * @return The Hamming distance
+     * @throws IndexOutOfBoundsException If an index is negative or not
+     * smaller than the {@link #size()}
+     */
+    public int hammingDistance(int index0, int index1)
+    {
+        checkIndex(index0);
+        checkIndex(index1);
+        return hammingDistance(words, index0 * wordsPerImage, 
+            words, index1 * wordsPerImage, wordsPerImage);
+    }
+
+    /**
+     * Returns the Jaccard distance between the specified images. This
+     * is <code>1 - |A and B| / |A or B|</code>, where <code>A</code> and
+     * <code>B</code> are the sets of pixels that are set in the images.
+     * The distance between two empty images is 0.
+     * 
+     * @param index0 The index of the first image
+     * @param index1 The index of the second image
+     * @return The Jaccard distance, in [0,1]
+     * @throws IndexOutOfBoundsException If an index is negative or not
+     * smaller than the {@link #size()}
+     */
+    public double jaccardDistance(int index0, int index1)
+    {
+        checkIndex(index0);
+        checkIndex(index1);
+        return jaccardDistance(words, index0 * wordsPerImage, 
+            words, index1 * wordsPerImage, wordsPerImage);
+    }
+
+    /**
+     * Returns the index of the image that has the smallest Hamming
+     * distance to the given query image. If multiple images have the
+     * same distance, then the smallest index is returned.
+     * 
+     * @param query The words of the query image
+     * @param queryOffset The offset of the query image in the given array
+     * @return The index of the nearest image, or -1 if this instance
+     * is empty
+     * @throws IndexOutOfBoundsException If the query array is too small
+     */
+    public int findNearest(long query[], int queryOffset)
+    {
+        if (queryOffset < 0 || queryOffset + wordsPerImage > query.length)
+        {
+            throw new IndexOutOfBoundsException("Expected " + wordsPerImage
+                + " words at offset " + queryOffset + ", but the array "
+                + "has a length of " + query.length);
+        }
+        int bestIndex = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < numberOfImages; i++)
+        {
+            int distance = hammingDistance(
+                query, queryOffset, words, i * wordsPerImage, wordsPerImage);
+            if (distance < bestDistance)
+            {
+                bestDistance = distance;
+                bestIndex = i;
+            }
+        }
+        return bestIndex;
+    }
+
+    /**
+     * Computes the Hamming distance between two packed images that are
+     * stored in the given arrays
+     * 
+     * @param words0 The first array
+     * @param offset0 The offset of the first image
+     * @param words1 The second array
+     * @param offset1 The offset of the second image
+     * @param length The number of words of each image
+     * @return The Hamming distance
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static int hammingDistance(long words0[], int offset0, 
+        long words1[], int offset1, int length)
+    {
+        int count = 0;
+        for (int w = 0; w < length; w++)
+        {
+            count += Long.bitCount(words0[offset0 + w] ^ words1[offset1 + w]);
+        }
+        return count;
+    }
+
+    /**
+     * Computes the Jaccard distance between two packed images that are
+     * stored in the given arrays. See 
+     * {@link #jaccardDistance(int, int)} for details.
+     * 
+     * @param words0 The first array
+     * @param offset0 The offset of the first image
+     * @param words1 The second array
+     * @param offset1 The offset of the second image
+     * @param length The number of words of each image
+     * @return The Jaccard distance
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static double jaccardDistance(long words0[], int offset0, 
+        long words1[], int offset1, int length)
+    {
+        int intersection = 0;
+        int union = 0;
+        for (int w = 0; w < length; w++)
+        {
+            long a = words0[offset0 + w];
+            long b = words1[offset1 + w];
+            intersection += Long.bitCount(a & b);
+            union += Long.bitCount(a | b);
+        }
+        if (union == 0)
+        {
+            return 0.0;
+        }
+        return 1.0 - (double) intersection / union;
+    }
+
+    /**
+     * Binarize and pack the given image data into the given array. This
+     * will write <code>ceil(imageSize / 64)</code> values into the given
+     * array. This may be used for creating query images for 
+     * {@link #findNearest(long[], int)}.
+     * 
+     * @param imageData The image data
+     * @param offset The offset of the image data
+     * @param imageSize The number of pixels of the image
+     * @param threshold The threshold, in [0,255]
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IllegalArgumentException If the threshold is not in [0,255]
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static void binarize(byte imageData[], int offset, int imageSize,
+        int threshold, long target[], int targetOffset)
+    {
+        if (threshold < 0 || threshold > 255)
+        {
+            throw new IllegalArgumentException(
+                "The threshold must be in [0,255], but is " + threshold);
+        }
+        pack(imageData, offset, imageSize, threshold, target, targetOffset);
+    }
+
+    /**
+     * Make sure that the given index is valid
+     * 
+     * @param index The index
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= numberOfImages)
+        {
+            throw new IndexOutOfBoundsException(
+                "Index " + index + ", size " + numberOfImages);
+        }
+    }
+
+    /**
+     * Returns the number of bytes that are used for the pixel data and
+     * labels of the images that are currently stored
+     * 
+     * @return The number of bytes
+     */
+    public long getSizeInBytes()
+    {
+        return (long) numberOfImages * (wordsPerImage * 8L + 1L);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistBinaryImages["
+            + "size=" + numberOfImages + ","
+            + "numRows=" + numRows + ","
+            + "numCols=" + numCols + ","
+            + "threshold=" + threshold + "]";
+    }
+
+}
@@ -0,0 +1,784 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A class for reading the MNIST data set from channels.<br>
+ * <br>
+ * The data is read from the channels in large chunks, into a
+ * <code>ByteBuffer</code> for each channel, and the entries are copied
+ * directly out of these buffers. The size of the chunks can be set with
+ * {@link #setChunkSize(int)}. When {@link #setDirect(boolean) direct}
+ * buffers are used, then a <code>FileChannel</code> can read into the
+ * buffers without an intermediate copy. This reduces the number of
+ * system calls and copies, which is mainly relevant for slow storage,
+ * like network file systems. <br>
+ * <br>
+ * Compressed data is decompressed with a <code>GZIPInputStream</code>,
+ * with an input buffer size that can be set with
+ * {@link #setInflateBufferSize(int)}, and the decompressed data is
+ * written directly into the chunk buffers. The methods that receive
+ * paths detect whether a file is compressed, based on its first bytes:
+ * <pre><code>
+ * MnistChannelReader reader = new MnistChannelReader();
+ * reader.setChunkSize(4 * 1024 * 1024);
+ * reader.setDirect(true);
+ * MnistDataBlock mnistDataBlock = reader.readBlock(
+ *     imagesFilePath, labelsFilePath);
+ * </code></pre>
+ * The buffers are allocated for each reading operation. The settings may
+ * be changed at any time, and only affect subsequent reading operations.
+ */
+public final class MnistChannelReader
+{
+    /**
+     * A source for the data of one channel, which reads the data in
+     * chunks into a buffer
+     */
+    private static final class ChunkSource
+    {
+        /**
+         * The channel
+         */
+        private final ReadableByteChannel channel;
+
+        /**
+         * The buffer. Between the calls, the data between its position
+         * and its limit is the data that was read but not consumed yet.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param channel The channel
+         * @param buffer The buffer
+         */
+        ChunkSource(ReadableByteChannel channel, ByteBuffer buffer)
+        {
+            this.channel = channel;
+            this.buffer = buffer;
+            ((Buffer) buffer).limit(0);
+        }
+
+        /**
+         * Make sure that the buffer contains at least the given number
+         * of bytes that have not been consumed yet
+         * 
+         * @param n The number of bytes, at most the buffer capacity
+         * @throws IOException If an IO error occurs, or the end of the
+         * channel was reached before the bytes have been read
+         */
+        void require(int n) throws IOException
+        {
+            if (buffer.remaining() >= n)
+            {
+                return;
+            }
+            buffer.compact();
+            try
+            {
+                while (buffer.position() < n)
+                {
+                    if (channel.read(buffer) < 0)
+                    {
+                        throw new EOFException("Expected " + n
+                            + " bytes, but found only " + buffer.position());
+                    }
+                }
+            }
+            finally
+            {
+                ((Buffer) buffer).flip();
+            }
+        }
+
+        /**
+         * Returns a big-endian buffer that contains the unconsumed data,
+         * starting at index 0
+         * 
+         * @return The buffer
+         */
+        ByteBuffer slice()
+        {
+            return buffer.slice();
+        }
+
+        /**
+         * Mark the given number of bytes as consumed
+         * 
+         * @param n The number of bytes
+         */
+        void consume(int n)
+        {
+            ((Buffer) buffer).position(buffer.position() + n);
+        }
+
+        /**
+         * Read a single byte
+         * 
+         * @return The byte
+         * @throws IOException If an IO error occurs, or the end of the
+         * channel was reached
+         */
+        byte get() throws IOException
+        {
+            if (!buffer.hasRemaining())
+            {
+                require(1);
+            }
+            return buffer.get();
+        }
+
+        /**
+         * Read the specified number of bytes into the given array.<br>
+         * <br>
+         * When the buffer is not direct, and the remaining number of
+         * bytes is larger than the buffer, then the data is read from
+         * the channel directly into the given array.
+         * 
+         * @param target The target array
+         * @param offset The offset in the target array
+         * @param length The number of bytes
+         * @throws IOException If an IO error occurs, or the end of the
+         * channel was reached before the bytes have been read
+         */
+        void get(byte target[], int offset, int length) throws IOException
+        {
+            int position = offset;
+            int end = offset + length;
+            int chunk = Math.min(buffer.remaining(), length);
+            buffer.get(target, position, chunk);
+            position += chunk;
+            while (end - position >= buffer.capacity() && !buffer.isDirect())
+            {
+                ByteBuffer view = ByteBuffer.wrap(
+                    target, position, buffer.capacity());
+                while (view.hasRemaining())
+                {
+                    if (channel.read(view) < 0)
+                    {
+                        throw new EOFException("Expected " + length
+                            + " bytes, but found only "
+                            + (view.position() - offset));
+                    }
+                }
+                position += buffer.capacity();
+            }
+            while (position < end)
+            {
+                require(1);
+                chunk = Math.min(buffer.remaining(), end - position);
+                buffer.get(target, position, chunk);
+                position += chunk;
+            }
+        }
+    }
+
+    /**
+     * A channel that decompresses the data of a GZIP input stream. When
+     * the target buffer is backed by an array, then the data is
+     * decompressed directly into this array.
+     */
+    private static final class InflatingChannel
+        implements ReadableByteChannel
+    {
+        /**
+         * The GZIP input stream
+         */
+        private final InputStream inputStream;
+
+        /**
+         * The buffer for target buffers that are not backed by an array
+         */
+        private final byte transfer[];
+
+        /**
+         * Whether the channel is open
+         */
+        private boolean open;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param inputStream The GZIP input stream
+         * @param transferSize The size of the transfer buffer
+         */
+        InflatingChannel(InputStream inputStream, int transferSize)
+        {
+            this.inputStream = inputStream;
+            this.transfer = new byte[transferSize];
+            this.open = true;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException
+        {
+            if (!open)
+            {
+                throw new ClosedChannelException();
+            }
+            if (target.hasArray())
+            {
+                int n = inputStream.read(target.array(),
+                    target.arrayOffset() + target.position(),
+                    target.remaining());
+                if (n > 0)
+                {
+                    ((Buffer) target).position(target.position() + n);
+                }
+                return n;
+            }
+            int n = inputStream.read(transfer, 0,
+                Math.min(transfer.length, target.remaining()));
+            if (n > 0)
+            {
+                target.put(transfer, 0, n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            open = false;
+            inputStream.close();
+        }
+    }
+
+    /**
+     * An input stream that does not close the stream that it reads from
+     */
+    private static final class NonClosingInputStream 
+        extends FilterInputStream
+    {
+        /**
+         * Creates a new instance
+         * 
+         * @param inputStream The input stream
+         */
+        NonClosingInputStream(InputStream inputStream)
+        {
+            super(inputStream);
+        }
+
+        @Override
+        public void close()
+        {
+            // The stream is closed by the caller
+        }
+    }
+
+    /**
+     * The default size of the chunks that are read from the channels
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The default size of the input buffer for the decompression
+     */
+    public static final int DEFAULT_INFLATE_BUFFER_SIZE = 65536;
+
+    /**
+     * The maximum size of the chunks that are read from the labels
+     * channel, which contains only one byte for each entry
+     */
+    private static final int MAX_LABELS_CHUNK_SIZE = 65536;
+
+    /**
+     * The size of the chunks that are read from the channels
+     */
+    private volatile int chunkSize;
+
+    /**
+     * Whether direct buffers are used
+     */
+    private volatile boolean direct;
+
+    /**
+     * The size of the input buffer for the decompression
+     */
+    private volatile int inflateBufferSize;
+
+    /**
+     * Default constructor
+     */
+    public MnistChannelReader()
+    {
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+        this.direct = false;
+        this.inflateBufferSize = DEFAULT_INFLATE_BUFFER_SIZE;
+    }
+
+    /**
+     * Set the size of the chunks that are read from the channels. This
+     * is the size of the buffer that is allocated for the images channel.
+     * The buffer for the labels channel has the same size, but at most
+     * 64 KB.
+     * 
+     * @param chunkSize The chunk size
+     * @throws IllegalArgumentException If the chunk size is smaller
+     * than 16
+     */
+    public void setChunkSize(int chunkSize)
+    {
+        if (chunkSize < MnistHeader.IMAGES_HEADER_SIZE)
+        {
+            throw new IllegalArgumentException("The chunkSize must be at "
+                + "least " + MnistHeader.IMAGES_HEADER_SIZE + ", but is "
+                + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the size of the chunks that are read from the channels
+     * 
+     * @return The chunk size
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Set whether direct buffers should be used for the chunks. This
+     * is beneficial when reading from a <code>FileChannel</code>, which
+     * otherwise has to read the data into a temporary direct buffer.
+     * When reading compressed data, the decompressed data is written
+     * into a direct buffer with an additional copy.
+     * 
+     * @param direct Whether direct buffers should be used
+     */
+    public void setDirect(boolean direct)
+    {
+        this.direct = direct;
+    }
+
+    /**
+     * Returns whether direct buffers are used for the chunks
+     * 
+     * @return Whether direct buffers are used
+     */
+    public boolean isDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * Set the size of the input buffer for the decompression, which
+     * is the number of compressed bytes that are read at once
+     * 
+     * @param inflateBufferSize The inflate buffer size
+     * @throws IllegalArgumentException If the size is not positive
+     */
+    public void setInflateBufferSize(int inflateBufferSize)
+    {
+        if (inflateBufferSize <= 0)
+        {
+            throw new IllegalArgumentException("The inflateBufferSize must "
+                + "be positive, but is " + inflateBufferSize);
+        }
+        this.inflateBufferSize = inflateBufferSize;
+    }
+
+    /**
+     * Returns the size of the input buffer for the decompression
+     * 
+     * @return The inflate buffer size
+     */
+    public int getInflateBufferSize()
+    {
+        return inflateBufferSize;
+    }
+
+    /**
+     * Read the MNIST data from the specified files, which may either be
+     * compressed or decompressed, and pass the resulting entries to the
+     * given consumer
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param consumer The consumer that will receive the resulting
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     */
+    public void read(Path imagesFilePath, Path labelsFilePath,
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        try (ReadableByteChannel imagesChannel = openFile(imagesFilePath);
+            ReadableByteChannel labelsChannel = openFile(labelsFilePath))
+        {
+            readEntries(imagesChannel, labelsChannel, consumer, false);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the specified files, which may either be
+     * compressed or decompressed, into a single {@link MnistDataBlock}
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the data set is too
+     * large to be stored in a single array
+     */
+    public MnistDataBlock readBlock(Path imagesFilePath, Path labelsFilePath)
+        throws IOException
+    {
+        try (ReadableByteChannel imagesChannel = openFile(imagesFilePath);
+            ReadableByteChannel labelsChannel = openFile(labelsFilePath))
+        {
+            return readBlockData(imagesChannel, labelsChannel);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (decompressed) channels, and
+     * pass the resulting entries to the given consumer. The caller is
+     * responsible for closing the given channels.
+     * 
+     * @param imagesChannel The channel containing the image data
+     * @param labelsChannel The channel containing the label data
+     * @param consumer The consumer that will receive the resulting
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     */
+    public void readDecompressed(ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel,
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        readEntries(imagesChannel, labelsChannel, consumer, false);
+    }
+
+    /**
+     * Read the MNIST data from the given (decompressed) channels, and
+     * pass the resulting entries to the given consumer. <br>
+     * <br>
+     * The same {@link MnistEntry} instance will be passed to the consumer
+     * for all entries, with its index, label and image data updated
+     * accordingly. Clients may not store references to the entry or its
+     * image data. The caller is responsible for closing the given
+     * channels.
+     * 
+     * @param imagesChannel The channel containing the image data
+     * @param labelsChannel The channel containing the label data
+     * @param consumer The consumer that will receive the
+     * {@link MnistEntry}
+     * @throws IOException If an IO error occurs
+     */
+    public void readDecompressedReusing(ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel,
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        readEntries(imagesChannel, labelsChannel, consumer, true);
+    }
+
+    /**
+     * Read the MNIST data from the given (decompressed) channels into a
+     * single {@link MnistDataBlock}. The caller is responsible for
+     * closing the given channels.
+     * 
+     * @param imagesChannel The channel containing the image data
+     * @param labelsChannel The channel containing the label data
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the data set is too
+     * large to be stored in a single array
+     */
+    public MnistDataBlock readDecompressedBlock(
+        ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel) throws IOException
+    {
+        return readBlockData(imagesChannel, labelsChannel);
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) channels, and
+     * pass the resulting entries to the given consumer. The caller is
+     * responsible for closing the given channels.
+     * 
+     * @param imagesChannel The channel containing the compressed image
+     * data
+     * @param labelsChannel The channel containing the compressed label
+     * data
+     * @param consumer The consumer that will receive the resulting
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     */
+    public void readCompressed(ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel,
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        try (ReadableByteChannel images = inflate(imagesChannel, false);
+            ReadableByteChannel labels = inflate(labelsChannel, false))
+        {
+            readEntries(images, labels, consumer, false);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) channels, and
+     * pass the resulting entries to the given consumer, reusing a single
+     * {@link MnistEntry}. See
+     * {@link #readDecompressedReusing(ReadableByteChannel,
+     * ReadableByteChannel, Consumer)} for details.
+     * 
+     * @param imagesChannel The channel containing the compressed image
+     * data
+     * @param labelsChannel The channel containing the compressed label
+     * data
+     * @param consumer The consumer that will receive the
+     * {@link MnistEntry}
+     * @throws IOException If an IO error occurs
+     */
+    public void readCompressedReusing(ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel,
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        try (ReadableByteChannel images = inflate(imagesChannel, false);
+            ReadableByteChannel labels = inflate(labelsChannel, false))
+        {
+            readEntries(images, labels, consumer, true);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) channels into a
+     * single {@link MnistDataBlock}. The caller is responsible for
+     * closing the given channels.
+     * 
+     * @param imagesChannel The channel containing the compressed image
+     * data
+     * @param labelsChannel The channel containing the compressed label
+     * data
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the data set is too
+     * large to be stored in a single array
+     */
+    public MnistDataBlock readCompressedBlock(
+        ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel) throws IOException
+    {
+        try (ReadableByteChannel images = inflate(imagesChannel, false);
+            ReadableByteChannel labels = inflate(labelsChannel, false))
+        {
+            return readBlockData(images, labels);
+        }
+    }
+
+    /**
+     * Open a channel for the specified file. If the file starts with the
+     * GZIP magic number, then the returned channel provides the
+     * decompressed data.
+     * 
+     * @param path The path of the file
+     * @return The channel
+     * @throws IOException If an IO error occurs
+     */
+    private ReadableByteChannel openFile(Path path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining())
+            {
+                if (channel.read(magic, magic.position()) < 0)
+                {
+                    return channel;
+                }
+            }
+            if ((magic.get(0) & 0xFF) == 0x1F && (magic.get(1) & 0xFF) == 0x8B)
+            {
+                return inflate(channel, true);
+            }
+            return channel;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException suppressed)
+            {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Create a channel that provides the decompressed data of the given
+     * channel. Closing the returned channel releases the resources of 
+     * the decompression, and closes the given channel if 
+     * <code>closeChannel</code> is <code>true</code>.
+     * 
+     * @param channel The channel containing the compressed data
+     * @param closeChannel Whether closing the returned channel should
+     * close the given channel
+     * @return The channel
+     * @throws IOException If an IO error occurs, or the data does not
+     * start with a valid GZIP header
+     */
+    private ReadableByteChannel inflate(ReadableByteChannel channel,
+        boolean closeChannel) throws IOException
+    {
+        Objects.requireNonNull(channel, "The channel may not be null");
+        int size = inflateBufferSize;
+        InputStream inputStream = Channels.newInputStream(channel);
+        if (!closeChannel)
+        {
+            inputStream = new NonClosingInputStream(inputStream);
+        }
+        return new InflatingChannel(
+            new GZIPInputStream(inputStream, size), size);
+    }
+
+    /**
+     * Create a {@link ChunkSource} for the given channel
+     * 
+     * @param channel The channel
+     * @param size The size of the buffer
+     * @return The {@link ChunkSource}
+     */
+    private ChunkSource createSource(ReadableByteChannel channel, int size)
+    {
+        Objects.requireNonNull(channel, "The channel may not be null");
+        ByteBuffer buffer = direct ?
+            ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        return new ChunkSource(channel, buffer);
+    }
+
+    /**
+     * Read the headers from the given sources
+     * 
+     * @param imagesSource The images source
+     * @param labelsSource The labels source
+     * @return The {@link MnistHeader}
+     * @throws IOException If an IO error occurs, or the headers are not
+     * valid
+     */
+    private static MnistHeader readHeader(
+        ChunkSource imagesSource, ChunkSource labelsSource)
+            throws IOException
+    {
+        imagesSource.require(MnistHeader.IMAGES_HEADER_SIZE);
+        labelsSource.require(MnistHeader.LABELS_HEADER_SIZE);
+        MnistHeader header = MnistHeader.read(
+            imagesSource.slice(), labelsSource.slice());
+        imagesSource.consume(MnistHeader.IMAGES_HEADER_SIZE);
+        labelsSource.consume(MnistHeader.LABELS_HEADER_SIZE);
+        return header;
+    }
+
+    /**
+     * Read the entries from the given channels
+     * 
+     * @param imagesChannel The images channel
+     * @param labelsChannel The labels channel
+     * @param consumer The consumer for the entries
+     * @param reuse Whether a single {@link MnistEntry} should be reused
+     * for all entries
+     * @throws IOException If an IO error occurs
+     */
+    private void readEntries(ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel,
+        Consumer<? super MnistEntry> consumer, boolean reuse)
+            throws IOException
+    {
+        int size = chunkSize;
+        ChunkSource imagesSource = createSource(imagesChannel, size);
+        ChunkSource labelsSource = createSource(labelsChannel,
+            Math.min(size, MAX_LABELS_CHUNK_SIZE));
+        MnistHeader header = readHeader(imagesSource, labelsSource);
+        int numRows = header.getNumRows();
+        int numCols = header.getNumCols();
+        int imageSize = header.getImageSize();
+        int n = header.getNumberOfEntries();
+        if (reuse)
+        {
+            byte imageData[] = new byte[imageSize];
+            MnistEntry mnistEntry = new MnistEntry(
+                -1, (byte) 0, numRows, numCols, imageData);
+            for (int i = 0; i < n; i++)
+            {
+                byte label = labelsSource.get();
+                imagesSource.get(imageData, 0, imageSize);
+                mnistEntry.set(i, label);
+                consumer.accept(mnistEntry);
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            byte label = labelsSource.get();
+            byte imageData[] = new byte[imageSize];
+            imagesSource.get(imageData, 0, imageSize);
+            consumer.accept(new MnistEntry(
+                i, label, numRows, numCols, imageData));
+        }
+    }
+
+    /**
+     * Read all entries from the given channels into a
+     * {@link MnistDataBlock}
+     * 
+     * @param imagesChannel The images channel
+     * @param labelsChannel The labels channel
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the data set is too
+     * large to be stored in a single array
+     */
+    private MnistDataBlock readBlockData(ReadableByteChannel imagesChannel,
+        ReadableByteChannel labelsChannel) throws IOException
+    {
+        int size = chunkSize;
+        ChunkSource imagesSource = createSource(imagesChannel, size);
+        ChunkSource labelsSource = createSource(labelsChannel,
+            Math.min(size, MAX_LABELS_CHUNK_SIZE));
+        MnistHeader header = readHeader(imagesSource, labelsSource);
+        int n = header.getNumberOfEntries();
+        long totalImageSize = (long) n * header.getImageSize();
+        if (totalImageSize > Integer.MAX_VALUE - 8)
+        {
+            throw new IOException("Found " + n + " images with "
+                + totalImageSize + " bytes, which is too large for a block");
+        }
+        byte labels[] = new byte[n];
+        labelsSource.get(labels, 0, n);
+        byte imageData[] = new byte[(int) totalImageSize];
+        imagesSource.get(imageData, 0, imageData.length);
+        return new MnistDataBlock(
+            header.getNumRows(), header.getNumCols(), labels, imageData);
+    }
+
+}
@@ -3,11 +3,24 @@
  */ 
 package de.javagl.mnist.reader;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -18,17 +31,131 @@ import java.util.zip.GZIPInputStream;
  */
 public class MnistCompressedReader
 {
+    /**
+     * The maximum number of entries that may be queued between the
+     * inflating threads and the consumer, in the pipelined reading mode
+     */
+    private static final int PIPELINE_CAPACITY = 1024;
+
+    /**
+     * The size of the input buffer for the inflation, in the pipelined
+     * reading mode
+     */
+    private static final int PIPELINE_INFLATE_BUFFER_SIZE = 65536;
+
+    /**
+     * The size of the buffer that the skipped data is decompressed into,
+     * in the range reading mode
+     */
+    private static final int SKIP_BUFFER_SIZE = 65536;
+
     /**
      * The {@link MnistDecompressedReader} that will read the decompressed data
      */
     private final MnistDecompressedReader mnistDecompressedReader;
 
+    /**
+     * The optional {@link MnistDecompressionCache}
+     */
+    private final MnistDecompressionCache mnistDecompressionCache;
+
+    /**
+     * The optional {@link MnistReadListener}
+     */
+    private volatile MnistReadListener readListener;
+
+    /**
+     * Whether range reads use a {@link MnistGzipIndex}
+     */
+    private volatile boolean gzipIndexEnabled;
+
     /**
      * Default constructor
      */
     public MnistCompressedReader()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a new instance that uses the given cache. <br>
+     * <br>
+     * When a cache is given, then all methods that read from files will
+     * decompress the files into the cache once, and afterwards read the
+     * decompressed files from the cache. The methods that read from 
+     * input streams always decompress the data.
+     * 
+     * @param mnistDecompressionCache The {@link MnistDecompressionCache}.
+     * This may be <code>null</code>, so that no cache is used.
+     */
+    public MnistCompressedReader(
+        MnistDecompressionCache mnistDecompressionCache)
     {
         this.mnistDecompressedReader = new MnistDecompressedReader();
+        this.mnistDecompressionCache = mnistDecompressionCache;
+    }
+
+    /**
+     * Set the {@link MnistReadListener} that will be informed about the
+     * {@link MnistReadMetrics} of each reading operation. This applies
+     * to the methods that read all entries (including the ones that 
+     * read a {@link MnistDataBlock}, and the pipelined ones), but not 
+     * to the methods that return a stream.<br>
+     * <br>
+     * When the data is read from a {@link MnistDecompressionCache}, then
+     * the metrics will only contain the decompressed bytes that have 
+     * been read from the cache. When no listener is set, the reading 
+     * methods do not record any metrics.
+     * 
+     * @param readListener The listener. This may be <code>null</code>,
+     * to remove the current listener.
+     */
+    public void setReadListener(MnistReadListener readListener)
+    {
+        this.readListener = readListener;
+        mnistDecompressedReader.setReadListener(readListener);
+    }
+
+    /**
+     * Returns the {@link MnistReadListener} that was set with
+     * {@link #setReadListener(MnistReadListener)}
+     * 
+     * @return The listener. This may be <code>null</code>.
+     */
+    public MnistReadListener getReadListener()
+    {
+        return readListener;
+    }
+
+    /**
+     * Set whether the methods that read a range or a shard from files
+     * should use a {@link MnistGzipIndex}. <br>
+     * <br>
+     * When this is enabled, and no {@link MnistDecompressionCache} is
+     * used, then the index for each file is obtained with
+     * {@link MnistGzipIndex#buildOrLoad(Path)}. This means that the
+     * index is built and written next to the file when it is read for
+     * the first time, so the directory of the file must be writable.
+     * Afterwards, the decompression starts at the nearest checkpoint
+     * before the range, instead of at the beginning of the file.
+     * 
+     * @param gzipIndexEnabled Whether the index should be used
+     */
+    public void setGzipIndexEnabled(boolean gzipIndexEnabled)
+    {
+        this.gzipIndexEnabled = gzipIndexEnabled;
+    }
+
+    /**
+     * Returns whether the methods that read a range or a shard from files
+     * use a {@link MnistGzipIndex}
+     * 
+     * @return Whether the index is used
+     * @see #setGzipIndexEnabled(boolean)
+     */
+    public boolean isGzipIndexEnabled()
+    {
+        return gzipIndexEnabled;
     }
 
     /**
@@ -86,6 +213,14 @@ public class MnistCompressedReader
     public void readCompressed(Path imagesFilePath, Path labelsFilePath, 
         Consumer<? super MnistEntry> consumer) throws IOException
     {
+        if (mnistDecompressionCache != null)
+        {
+            mnistDecompressedReader.readDecompressed(
+                mnistDecompressionCache.resolve(imagesFilePath), 
+                mnistDecompressionCache.resolve(labelsFilePath), 
+                consumer);
+            return;
+        }
         try (InputStream compressedImagesInputStream = 
             new FileInputStream(imagesFilePath.toFile());
             InputStream compressedLabelsInputStream = 
@@ -115,10 +250,882 @@ public class MnistCompressedReader
         InputStream compressedLabelsInputStream, 
         Consumer<? super MnistEntry> consumer) throws IOException
     {
-        mnistDecompressedReader.readDecompressed(
-            new GZIPInputStream(compressedImagesInputStream), 
-            new GZIPInputStream(compressedLabelsInputStream),
-            consumer);
+        read(compressedImagesInputStream, compressedLabelsInputStream, 
+            consumer, false);
+    }
+
+    /**
+     * Returns a stream of the MNIST training data from the given directory.
+     * The data is assumed to be located in files with their default names,
+     * <code>train-images-idx3-ubyte.gz</code> and
+     * <code>train-labels-idx1-ubyte.gz</code>.<br>
+     * <br>
+     * See {@link #streamCompressed(Path, Path)} for details.
+     * 
+     * @param inputDirectoryPath The input directory
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    public Stream<MnistEntry> streamCompressedTraining(
+        Path inputDirectoryPath) throws IOException
+    {
+        String trainImagesFileName = "train-images-idx3-ubyte.gz";
+        String trainLabelsFileName = "train-labels-idx1-ubyte.gz";
+        Path imagesFilePath = inputDirectoryPath.resolve(trainImagesFileName);
+        Path labelsFilePath = inputDirectoryPath.resolve(trainLabelsFileName);
+        return streamCompressed(imagesFilePath, labelsFilePath);
+    }
+
+    /**
+     * Returns a stream of the MNIST testing data from the given directory.
+     * The data is assumed to be located in files with their default names,
+     * <code>t10k-images-idx3-ubyte.gz</code> and
+     * <code>t10k-labels-idx1-ubyte.gz</code>.<br>
+     * <br>
+     * See {@link #streamCompressed(Path, Path)} for details.
+     * 
+     * @param inputDirectoryPath The input directory
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    public Stream<MnistEntry> streamCompressedTesting(
+        Path inputDirectoryPath) throws IOException
+    {
+        String testImagesFileName = "t10k-images-idx3-ubyte.gz";
+        String testLabelsFileName = "t10k-labels-idx1-ubyte.gz";
+        Path imagesFilePath = inputDirectoryPath.resolve(testImagesFileName);
+        Path labelsFilePath = inputDirectoryPath.resolve(testLabelsFileName);
+        return streamCompressed(imagesFilePath, labelsFilePath);
+    }
+
+    /**
+     * Returns a stream of the MNIST data from the specified (compressed)
+     * files.<br>
+     * <br>
+     * The entries are decompressed lazily, as they are consumed from 
+     * the stream, so short-circuiting operations do not decompress the
+     * remaining data. The size of the stream is known from the header.
+     * Since the compressed data can only be read sequentially, a parallel
+     * stream will read batches of entries, and process these batches 
+     * in parallel.<br>
+     * <br>
+     * The returned stream has to be closed, in order to close the 
+     * underlying files. It should therefore be used in a 
+     * <code>try</code>-with-resources statement.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    public Stream<MnistEntry> streamCompressed(
+        Path imagesFilePath, Path labelsFilePath) throws IOException
+    {
+        if (mnistDecompressionCache != null)
+        {
+            return mnistDecompressedReader.streamDecompressed(
+                mnistDecompressionCache.resolve(imagesFilePath), 
+                mnistDecompressionCache.resolve(labelsFilePath));
+        }
+        InputStream compressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+        InputStream compressedLabelsInputStream = null;
+        try
+        {
+            compressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile());
+            MnistEntryIterator iterator = new MnistEntryIterator(
+                new GZIPInputStream(compressedImagesInputStream), 
+                new GZIPInputStream(compressedLabelsInputStream));
+            Spliterator<MnistEntry> spliterator = 
+                Spliterators.spliterator(iterator, iterator.size(), 
+                    Spliterator.ORDERED | Spliterator.NONNULL | 
+                    Spliterator.IMMUTABLE);
+            InputStream finalCompressedLabelsInputStream = 
+                compressedLabelsInputStream;
+            return StreamSupport.stream(spliterator, false).onClose(() -> 
+                closeUnchecked(compressedImagesInputStream, 
+                    finalCompressedLabelsInputStream));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                closeUnchecked(compressedImagesInputStream, 
+                    compressedLabelsInputStream);
+            }
+            catch (UncheckedIOException suppressed)
+            {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Close the given input streams, wrapping any IO error into an
+     * unchecked exception
+     * 
+     * @param inputStream0 The first stream
+     * @param inputStream1 The second stream. May be <code>null</code>.
+     * @throws UncheckedIOException If an IO error occurs
+     */
+    private static void closeUnchecked(
+        InputStream inputStream0, InputStream inputStream1)
+    {
+        try
+        {
+            try
+            {
+                inputStream0.close();
+            }
+            finally
+            {
+                if (inputStream1 != null)
+                {
+                    inputStream1.close();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the specified (compressed) files, 
+     * passing a single, reused {@link MnistEntry} to the given consumer.
+     * See {@link MnistDecompressedReader#readDecompressedReusing(
+     * InputStream, InputStream, Consumer)} for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param consumer The consumer that will receive the reused
+     * {@link MnistEntry}
+     * @throws IOException If an IO error occurs
+     */
+    public void readCompressedReusing(
+        Path imagesFilePath, Path labelsFilePath, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        if (mnistDecompressionCache != null)
+        {
+            mnistDecompressedReader.readDecompressedReusing(
+                mnistDecompressionCache.resolve(imagesFilePath), 
+                mnistDecompressionCache.resolve(labelsFilePath), 
+                consumer);
+            return;
+        }
+        try (InputStream compressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+            InputStream compressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile()))
+        {
+            readCompressedReusing(
+                compressedImagesInputStream, 
+                compressedLabelsInputStream, 
+                consumer);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) input streams,
+     * passing a single, reused {@link MnistEntry} to the given consumer.
+     * The caller is responsible for closing the given streams.
+     * See {@link MnistDecompressedReader#readDecompressedReusing(
+     * InputStream, InputStream, Consumer)} for details.
+     * 
+     * @param compressedImagesInputStream The compressed input stream
+     * containing the image data 
+     * @param compressedLabelsInputStream The compressed input stream
+     * containing the label data
+     * @param consumer The consumer that will receive the reused
+     * {@link MnistEntry}
+     * @throws IOException If an IO error occurs
+     */
+    public void readCompressedReusing(
+        InputStream compressedImagesInputStream, 
+        InputStream compressedLabelsInputStream, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        read(compressedImagesInputStream, compressedLabelsInputStream, 
+            consumer, true);
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) input streams.
+     * The caller is responsible for closing the given streams.
+     * 
+     * @param compressedImagesInputStream The compressed input stream
+     * containing the image data 
+     * @param compressedLabelsInputStream The compressed input stream
+     * containing the label data
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @param reuse Whether a single {@link MnistEntry} should be reused
+     * for all entries
+     * @throws IOException If an IO error occurs
+     */
+    private void read(
+        InputStream compressedImagesInputStream, 
+        InputStream compressedLabelsInputStream, 
+        Consumer<? super MnistEntry> consumer, boolean reuse) 
+            throws IOException
+    {
+        MnistReadRecorder recorder = MnistReadRecorder.create(readListener);
+        InputStream imagesInputStream = compressedImagesInputStream;
+        InputStream labelsInputStream = compressedLabelsInputStream;
+        if (recorder != null)
+        {
+            imagesInputStream = recorder.compressedImages(imagesInputStream);
+            labelsInputStream = recorder.compressedLabels(labelsInputStream);
+        }
+        MnistDecompressedReader.read(
+            new GZIPInputStream(imagesInputStream), 
+            new GZIPInputStream(labelsInputStream),
+            consumer, reuse, recorder);
+    }
+
+    /**
+     * Read the MNIST data from the specified (compressed) files into
+     * a single {@link MnistDataBlock}.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     */
+    public MnistDataBlock readCompressedBlock(
+        Path imagesFilePath, Path labelsFilePath) throws IOException
+    {
+        if (mnistDecompressionCache != null)
+        {
+            return mnistDecompressedReader.readDecompressedBlock(
+                mnistDecompressionCache.resolve(imagesFilePath), 
+                mnistDecompressionCache.resolve(labelsFilePath));
+        }
+        try (InputStream compressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+            InputStream compressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile()))
+        {
+            return readCompressedBlock(
+                compressedImagesInputStream, 
+                compressedLabelsInputStream);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) input streams into
+     * a single {@link MnistDataBlock}. The caller is responsible for 
+     * closing the given streams.
+     * 
+     * @param compressedImagesInputStream The compressed input stream
+     * containing the image data 
+     * @param compressedLabelsInputStream The compressed input stream
+     * containing the label data
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     */
+    public MnistDataBlock readCompressedBlock(
+        InputStream compressedImagesInputStream, 
+        InputStream compressedLabelsInputStream) throws IOException
+    {
+        MnistReadRecorder recorder = MnistReadRecorder.create(readListener);
+        InputStream imagesInputStream = compressedImagesInputStream;
+        InputStream labelsInputStream = compressedLabelsInputStream;
+        if (recorder != null)
+        {
+            imagesInputStream = recorder.compressedImages(imagesInputStream);
+            labelsInputStream = recorder.compressedLabels(labelsInputStream);
+        }
+        return MnistDecompressedReader.readBlock(
+            new GZIPInputStream(imagesInputStream), 
+            new GZIPInputStream(labelsInputStream), 
+            recorder);
+    }
+
+    /**
+     * Read the entries with the specified indices from the specified 
+     * (compressed) files. The {@link MnistEntry#getIndex() index} of 
+     * each entry will be its index in the whole data set.<br>
+     * <br>
+     * The compressed data can only be read sequentially, so the data of 
+     * all entries before the start index still has to be decompressed,
+     * but it is skipped without creating any entries. The data after
+     * the end index is not decompressed. When a 
+     * {@link MnistDecompressionCache} is used, then the decompressed 
+     * files are read starting directly at the start index. See 
+     * {@link MnistDecompressedReader#readDecompressedRange(Path, Path, 
+     * int, int, Consumer)}. When the {@link #setGzipIndexEnabled(boolean)
+     * GZIP index is enabled}, then the decompression starts at the 
+     * nearest checkpoint of the {@link MnistGzipIndex} before the start 
+     * index.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param from The index of the first entry, inclusive
+     * @param to The index of the last entry, exclusive
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the start index is negative,
+     * or larger than the end index
+     * @throws IndexOutOfBoundsException If the end index is larger than
+     * the number of entries in the files
+     */
+    public void readCompressedRange(Path imagesFilePath, 
+        Path labelsFilePath, int from, int to, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        MnistRange range = MnistRange.of(from, to);
+        readRange(imagesFilePath, labelsFilePath, n -> range, consumer);
+    }
+
+    /**
+     * Read the entries of the specified shard from the specified 
+     * (compressed) files. The shard is computed with
+     * {@link MnistRange#shard(int, int, int)}, based on the number of
+     * entries in the files. See 
+     * {@link #readCompressedRange(Path, Path, int, int, Consumer)}
+     * for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param shardIndex The index of the shard
+     * @param numberOfShards The number of shards
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the number of shards is not
+     * positive, or the shard index is negative or not smaller than the
+     * number of shards
+     */
+    public void readCompressedShard(Path imagesFilePath, 
+        Path labelsFilePath, int shardIndex, int numberOfShards, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+
+        // Validate the shard before opening the files
+        MnistRange.shard(0, shardIndex, numberOfShards);
+        readRange(imagesFilePath, labelsFilePath, 
+            n -> MnistRange.shard(n, shardIndex, numberOfShards), consumer);
+    }
+
+    /**
+     * Read the entries with the specified indices from the specified 
+     * (compressed) files into a single {@link MnistDataBlock}. See
+     * {@link #readCompressedRange(Path, Path, int, int, Consumer)}
+     * for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param from The index of the first entry, inclusive
+     * @param to The index of the last entry, exclusive
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the start index is negative,
+     * or larger than the end index
+     * @throws IndexOutOfBoundsException If the end index is larger than
+     * the number of entries in the files
+     */
+    public MnistDataBlock readCompressedRangeBlock(Path imagesFilePath, 
+        Path labelsFilePath, int from, int to) throws IOException
+    {
+        MnistRange range = MnistRange.of(from, to);
+        return readRange(imagesFilePath, labelsFilePath, n -> range, null);
+    }
+
+    /**
+     * Read the entries of the specified shard from the specified 
+     * (compressed) files into a single {@link MnistDataBlock}. See
+     * {@link #readCompressedShard(Path, Path, int, int, Consumer)}
+     * for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param shardIndex The index of the shard
+     * @param numberOfShards The number of shards
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the number of shards is not
+     * positive, or the shard index is negative or not smaller than the
+     * number of shards
+     */
+    public MnistDataBlock readCompressedShardBlock(Path imagesFilePath, 
+        Path labelsFilePath, int shardIndex, int numberOfShards) 
+            throws IOException
+    {
+        // Validate the shard before opening the files
+        MnistRange.shard(0, shardIndex, numberOfShards);
+        return readRange(imagesFilePath, labelsFilePath, 
+            n -> MnistRange.shard(n, shardIndex, numberOfShards), null);
+    }
+
+    /**
+     * Read a range of entries from the specified (compressed) files.
+     * The headers are read, and the range is computed from the number
+     * of entries, using the given function. Then, the data of the 
+     * entries before the range is skipped, and the entries of the range
+     * are read.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param rangeFunction The function that receives the number of 
+     * entries, and returns the range that should be read
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances. If this is <code>null</code>, then
+     * the entries will be read into a {@link MnistDataBlock}.
+     * @return The {@link MnistDataBlock}, or <code>null</code> if the
+     * given consumer was not <code>null</code>
+     * @throws IOException If an IO error occurs
+     * @throws IndexOutOfBoundsException If the range is not contained
+     * in the range of entries of the files
+     */
+    private MnistDataBlock readRange(Path imagesFilePath, 
+        Path labelsFilePath, IntFunction<MnistRange> rangeFunction, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        MnistReadRecorder recorder = MnistReadRecorder.create(readListener);
+        if (mnistDecompressionCache != null)
+        {
+            return MnistDecompressedReader.readRange(
+                mnistDecompressionCache.resolve(imagesFilePath), 
+                mnistDecompressionCache.resolve(labelsFilePath), 
+                rangeFunction, consumer, recorder);
+        }
+        if (gzipIndexEnabled)
+        {
+            return readIndexedRange(imagesFilePath, labelsFilePath, 
+                rangeFunction, consumer, recorder);
+        }
+        try (InputStream compressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+            InputStream compressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile()))
+        {
+            InputStream imagesInputStream = compressedImagesInputStream;
+            InputStream labelsInputStream = compressedLabelsInputStream;
+            if (recorder != null)
+            {
+                imagesInputStream = 
+                    recorder.compressedImages(imagesInputStream);
+                labelsInputStream = 
+                    recorder.compressedLabels(labelsInputStream);
+            }
+            imagesInputStream = new GZIPInputStream(imagesInputStream);
+            labelsInputStream = new GZIPInputStream(labelsInputStream);
+            Consumer<? super MnistEntry> target = consumer;
+            if (recorder != null)
+            {
+                imagesInputStream = 
+                    recorder.decompressedImages(imagesInputStream);
+                labelsInputStream = 
+                    recorder.decompressedLabels(labelsInputStream);
+                if (consumer != null)
+                {
+                    target = recorder.wrap(consumer);
+                }
+                recorder.headerStarted();
+            }
+            IdxReader imagesIdxReader = new IdxReader(imagesInputStream);
+            IdxReader labelsIdxReader = new IdxReader(labelsInputStream);
+            MnistHeader header = MnistHeader.read(
+                imagesIdxReader, labelsIdxReader);
+            if (recorder != null)
+            {
+                recorder.headerCompleted();
+            }
+            MnistRange range = 
+                rangeFunction.apply(header.getNumberOfEntries());
+            range.validate(header.getNumberOfEntries());
+
+            byte skipBuffer[] = new byte[SKIP_BUFFER_SIZE];
+            skip(labelsIdxReader, range.getFrom(), skipBuffer);
+            skip(imagesIdxReader, 
+                (long) range.getFrom() * header.getImageSize(), skipBuffer);
+
+            MnistDataBlock mnistDataBlock = null;
+            if (target == null)
+            {
+                mnistDataBlock = MnistDecompressedReader.readBlockData(
+                    imagesIdxReader, labelsIdxReader, header, range.size());
+                if (recorder != null)
+                {
+                    recorder.blockCompleted(range.size());
+                }
+            }
+            else
+            {
+                MnistDecompressedReader.readEntries(
+                    imagesIdxReader, labelsIdxReader, header, 
+                    range.getFrom(), range.getTo(), target, false);
+            }
+            if (recorder != null)
+            {
+                recorder.completed();
+            }
+            return mnistDataBlock;
+        }
+    }
+
+    /**
+     * Read a range of entries from the specified (compressed) files,
+     * using a {@link MnistGzipIndex} for each file. The headers are read,
+     * and the range is computed from the number of entries, using the
+     * given function. Then, the decompression of each file starts at the
+     * checkpoint that is nearest to the start of the range.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param rangeFunction The function that receives the number of 
+     * entries, and returns the range that should be read
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances. If this is <code>null</code>, then
+     * the entries will be read into a {@link MnistDataBlock}.
+     * @param recorder The optional {@link MnistReadRecorder}
+     * @return The {@link MnistDataBlock}, or <code>null</code> if the
+     * given consumer was not <code>null</code>
+     * @throws IOException If an IO error occurs
+     * @throws IndexOutOfBoundsException If the range is not contained
+     * in the range of entries of the files
+     */
+    private static MnistDataBlock readIndexedRange(Path imagesFilePath, 
+        Path labelsFilePath, IntFunction<MnistRange> rangeFunction, 
+        Consumer<? super MnistEntry> consumer, MnistReadRecorder recorder)
+            throws IOException
+    {
+        MnistGzipIndex imagesIndex = 
+            MnistGzipIndex.buildOrLoad(imagesFilePath);
+        MnistGzipIndex labelsIndex = 
+            MnistGzipIndex.buildOrLoad(labelsFilePath);
+        UnaryOperator<InputStream> imagesWrapper = UnaryOperator.identity();
+        UnaryOperator<InputStream> labelsWrapper = UnaryOperator.identity();
+        if (recorder != null)
+        {
+            imagesWrapper = recorder::compressedImages;
+            labelsWrapper = recorder::compressedLabels;
+            recorder.headerStarted();
+        }
+        MnistHeader header;
+        try (InputStream decompressedImagesInputStream = 
+                imagesIndex.open(imagesFilePath, 0, imagesWrapper);
+            InputStream decompressedLabelsInputStream = 
+                labelsIndex.open(labelsFilePath, 0, labelsWrapper))
+        {
+            InputStream imagesInputStream = decompressedImagesInputStream;
+            InputStream labelsInputStream = decompressedLabelsInputStream;
+            if (recorder != null)
+            {
+                imagesInputStream = 
+                    recorder.decompressedImages(imagesInputStream);
+                labelsInputStream = 
+                    recorder.decompressedLabels(labelsInputStream);
+            }
+            header = MnistHeader.read(
+                new IdxReader(imagesInputStream, 
+                    MnistHeader.IMAGES_HEADER_SIZE), 
+                new IdxReader(labelsInputStream, 
+                    MnistHeader.LABELS_HEADER_SIZE));
+        }
+        if (recorder != null)
+        {
+            recorder.headerCompleted();
+        }
+        MnistRange range = rangeFunction.apply(header.getNumberOfEntries());
+        range.validate(header.getNumberOfEntries());
+
+        try (InputStream decompressedImagesInputStream = imagesIndex.open(
+                imagesFilePath, MnistHeader.IMAGES_HEADER_SIZE 
+                + (long) range.getFrom() * header.getImageSize(), 
+                imagesWrapper);
+            InputStream decompressedLabelsInputStream = labelsIndex.open(
+                labelsFilePath, MnistHeader.LABELS_HEADER_SIZE 
+                + range.getFrom(), labelsWrapper))
+        {
+            InputStream imagesInputStream = decompressedImagesInputStream;
+            InputStream labelsInputStream = decompressedLabelsInputStream;
+            Consumer<? super MnistEntry> target = consumer;
+            if (recorder != null)
+            {
+                imagesInputStream = 
+                    recorder.decompressedImages(imagesInputStream);
+                labelsInputStream = 
+                    recorder.decompressedLabels(labelsInputStream);
+                if (consumer != null)
+                {
+                    target = recorder.wrap(consumer);
+                }
+            }
+            IdxReader imagesIdxReader = new IdxReader(imagesInputStream);
+            IdxReader labelsIdxReader = new IdxReader(labelsInputStream);
+
+            MnistDataBlock mnistDataBlock = null;
+            if (target == null)
+            {
+                mnistDataBlock = MnistDecompressedReader.readBlockData(
+                    imagesIdxReader, labelsIdxReader, header, range.size());
+                if (recorder != null)
+                {
+                    recorder.blockCompleted(range.size());
+                }
+            }
+            else
+            {
+                MnistDecompressedReader.readEntries(
+                    imagesIdxReader, labelsIdxReader, header, 
+                    range.getFrom(), range.getTo(), target, false);
+            }
+            if (recorder != null)
+            {
+                recorder.completed();
+            }
+            return mnistDataBlock;
+        }
+    }
+
+    /**
+     * Skip the specified number of bytes in the given reader. <br>
+     * <br>
+     * The data is read into the given buffer. For a stream that 
+     * decompresses its data, this is faster than skipping the data in
+     * the stream, which decompresses the data in small chunks.
+     * 
+     * @param idxReader The reader
+     * @param n The number of bytes to skip
+     * @param buffer The buffer
+     * @throws IOException If an IO error occurs, or the end of the
+     * stream was reached before all bytes have been skipped
+     */
+    private static void skip(IdxReader idxReader, long n, byte buffer[]) 
+        throws IOException
+    {
+        long remaining = n;
+        while (remaining > 0)
+        {
+            int length = (int) Math.min(remaining, buffer.length);
+            idxReader.readBytes(buffer, 0, length);
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Read the MNIST data from the specified (compressed) files, using
+     * background threads for the decompression.
+     * See {@link #readCompressedPipelined(InputStream, InputStream, 
+     * Consumer)} for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     */
+    public void readCompressedPipelined(
+        Path imagesFilePath, Path labelsFilePath, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        if (mnistDecompressionCache != null)
+        {
+            mnistDecompressedReader.readDecompressed(
+                mnistDecompressionCache.resolve(imagesFilePath), 
+                mnistDecompressionCache.resolve(labelsFilePath), 
+                consumer);
+            return;
+        }
+        try (InputStream compressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+            InputStream compressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile()))
+        {
+            readCompressedPipelined(
+                compressedImagesInputStream, 
+                compressedLabelsInputStream, 
+                consumer);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (compressed) input streams, 
+     * using background threads for the decompression. The caller is 
+     * responsible for closing the given streams.<br>
+     * <br>
+     * The images and labels will be decompressed on two background 
+     * threads. The resulting entries are passed to a bounded queue, 
+     * and the given consumer will be called with these entries on the
+     * calling thread. So the decompression and the work of the consumer
+     * can overlap. This method returns when all entries have been
+     * passed to the consumer. If the consumer throws an exception,
+     * then the decompression will be stopped.
+     * 
+     * @param compressedImagesInputStream The compressed input stream
+     * containing the image data 
+     * @param compressedLabelsInputStream The compressed input stream
+     * containing the label data
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     */
+    public void readCompressedPipelined(
+        InputStream compressedImagesInputStream, 
+        InputStream compressedLabelsInputStream, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        MnistReadRecorder recorder = MnistReadRecorder.create(readListener);
+        if (recorder == null)
+        {
+            MnistEntryPipeline.run(
+                sink -> produceEntries(compressedImagesInputStream, 
+                    compressedLabelsInputStream, sink, null),
+                PIPELINE_CAPACITY, "MnistCompressedReader-images", consumer);
+            return;
+        }
+        InputStream imagesInputStream = 
+            recorder.compressedImages(compressedImagesInputStream);
+        InputStream labelsInputStream = 
+            recorder.compressedLabels(compressedLabelsInputStream);
+        MnistEntryPipeline.run(
+            sink -> produceEntries(
+                imagesInputStream, labelsInputStream, sink, recorder),
+            PIPELINE_CAPACITY, "MnistCompressedReader-images", 
+            recorder.wrap(consumer));
+        recorder.completed();
+    }
+
+    /**
+     * Decompress the data from the given streams, and pass the resulting
+     * entries to the given sink. The labels will be decompressed on a 
+     * separate thread, while the images are decompressed on the calling
+     * thread. When this method returns or throws, the labels thread has
+     * terminated.
+     * 
+     * @param compressedImagesInputStream The compressed images stream 
+     * @param compressedLabelsInputStream The compressed labels stream
+     * @param sink The sink for the entries
+     * @param recorder The optional {@link MnistReadRecorder}
+     * @throws IOException If an IO error occurs
+     */
+    private static void produceEntries(
+        InputStream compressedImagesInputStream, 
+        InputStream compressedLabelsInputStream, 
+        Consumer<MnistEntry> sink, MnistReadRecorder recorder) 
+            throws IOException
+    {
+        FutureTask<byte[]> labelsTask = new FutureTask<byte[]>(
+            () -> inflate(compressedLabelsInputStream));
+        Thread labelsThread = 
+            new Thread(labelsTask, "MnistCompressedReader-labels");
+        labelsThread.setDaemon(true);
+        labelsThread.start();
+
+        InputStream imagesInputStream;
+        InputStream labelsInputStream;
+        try
+        {
+            imagesInputStream = new GZIPInputStream(
+                compressedImagesInputStream, PIPELINE_INFLATE_BUFFER_SIZE);
+            labelsInputStream = new ByteArrayInputStream(get(labelsTask));
+        }
+        finally
+        {
+            labelsTask.cancel(true);
+            MnistEntryPipeline.joinUninterruptibly(labelsThread);
+        }
+        if (recorder != null)
+        {
+            imagesInputStream = recorder.decompressedImages(imagesInputStream);
+            labelsInputStream = recorder.decompressedLabels(labelsInputStream);
+            recorder.headerStarted();
+        }
+        IdxReader imagesIdxReader = new IdxReader(imagesInputStream);
+        IdxReader labelsIdxReader = new IdxReader(labelsInputStream);
+
+        MnistHeader header = MnistHeader.read(
+            imagesIdxReader, labelsIdxReader);
+        if (recorder != null)
+        {
+            recorder.headerCompleted();
+        }
+        int numberOfImages = header.getNumberOfEntries();
+        int numRows = header.getNumRows();
+        int numCols = header.getNumCols();
+
+        for (int n = 0; n < numberOfImages; n++)
+        {
+            byte label = labelsIdxReader.readByte();
+            byte imageData[] = new byte[numRows * numCols];
+            imagesIdxReader.readBytes(imageData, 0, imageData.length);
+
+            MnistEntry mnistEntry = new MnistEntry(
+                n, label, numRows, numCols, imageData);
+            sink.accept(mnistEntry);
+        }
+    }
+
+    /**
+     * Decompress all data from the given (compressed) input stream
+     * 
+     * @param compressedInputStream The compressed input stream
+     * @return The decompressed data
+     * @throws IOException If an IO error occurs
+     */
+    private static byte[] inflate(InputStream compressedInputStream) 
+        throws IOException
+    {
+        InputStream inputStream = new GZIPInputStream(
+            compressedInputStream, PIPELINE_INFLATE_BUFFER_SIZE);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte buffer[] = new byte[PIPELINE_INFLATE_BUFFER_SIZE];
+        while (true)
+        {
+            if (Thread.currentThread().isInterrupted())
+            {
+                throw new InterruptedIOException(
+                    "Interrupted while decompressing");
+            }
+            int read = inputStream.read(buffer);
+            if (read < 0)
+            {
+                break;
+            }
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Wait for the given task to complete, and return its result
+     * 
+     * @param task The task
+     * @return The result
+     * @throws IOException If the task caused an IO error, or the
+     * calling thread was interrupted while waiting
+     */
+    private static byte[] get(FutureTask<byte[]> task) throws IOException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException e)
+        {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while decompressing labels");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
 }
@@ -0,0 +1,92 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Interface for classes that offer random access to the entries of 
+ * an MNIST data set. 
+ */
+public interface MnistData
+{
+    /**
+     * Returns the number of entries in this data set
+     * 
+     * @return The number of entries
+     */
+    int size();
+
+    /**
+     * Returns the number of rows of the image data. 
+     * This will usually be 28.
+     * 
+     * @return The number of rows
+     */
+    int getNumRows();
+
+    /**
+     * Returns the number of columns of the image data. 
+     * This will usually be 28.
+     * 
+     * @return The number of columns
+     */
+    int getNumCols();
+
+    /**
+     * Returns the class label of the specified entry
+     * 
+     * @param index The index of the entry
+     * @return The class label
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    byte getLabel(int index);
+
+    /**
+     * Copy the image data of the specified entry into the given array,
+     * starting at the given offset. This will write 
+     * <code>numRows * numCols</code> values into the given array.
+     * 
+     * @param index The index of the entry
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}, or the target array is too small
+     */
+    void getImageData(int index, byte target[], int targetOffset);
+
+    /**
+     * Creates a new {@link MnistEntry} for the specified index. The
+     * image data of the entry will be a copy of the data that is
+     * stored in this data set.
+     * 
+     * @param index The index of the entry
+     * @return The {@link MnistEntry}
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    default MnistEntry getEntry(int index)
+    {
+        byte imageData[] = new byte[getNumRows() * getNumCols()];
+        getImageData(index, imageData, 0);
+        return new MnistEntry(
+            index, getLabel(index), getNumRows(), getNumCols(), imageData);
+    }
+
+    /**
+     * Returns a sequential stream of the entries of this data set. The
+     * stream is backed by a spliterator with a known size, which splits
+     * the range of indices evenly when the stream is processed in 
+     * parallel. Each entry will be created with {@link #getEntry(int)}.
+     * 
+     * @return The stream
+     */
+    default Stream<MnistEntry> stream()
+    {
+        return StreamSupport.stream(
+            new MnistDataSpliterator(this, 0, size()), false);
+    }
+}
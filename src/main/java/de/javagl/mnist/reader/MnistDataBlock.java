@@ -0,0 +1,176 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Objects;
+
+/**
+ * An in-memory representation of an MNIST data set, where the image data
+ * of all entries is stored in a single, contiguous array, and the labels
+ * are stored in a single array.<br>
+ * <br>
+ * The image data of the entry with index <code>i</code> is stored in
+ * the {@link #getImageData() image data array}, starting at offset
+ * <code>i * numRows * numCols</code>, in row-major order.<br>
+ * <br>
+ * Instances of this class may be created with the
+ * {@link MnistDecompressedReader#readDecompressedBlock(java.nio.file.Path,
+ * java.nio.file.Path)} and
+ * {@link MnistCompressedReader#readCompressedBlock(java.nio.file.Path,
+ * java.nio.file.Path)} methods.
+ */
+public final class MnistDataBlock implements MnistData
+{
+    /**
+     * The number of entries
+     */
+    private final int numberOfEntries;
+
+    /**
+     * The number of rows of the image data
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of the image data
+     */
+    private final int numCols;
+
+    /**
+     * The number of bytes of each image
+     */
+    private final int imageSize;
+
+    /**
+     * The labels of all entries
+     */
+    private final byte labels[];
+
+    /**
+     * The image data of all entries
+     */
+    private final byte imageData[];
+
+    /**
+     * Creates a new instance that is backed by the given arrays. The
+     * number of entries is given by the length of the labels array.
+     * The arrays are <b>not</b> copied.
+     * 
+     * @param numRows The number of rows of each image
+     * @param numCols The number of columns of each image
+     * @param labels The labels
+     * @param imageData The image data
+     * @throws NullPointerException If any argument is <code>null</code>
+     * @throws IllegalArgumentException If the number of rows or columns
+     * is not positive, or the length of the image data array is not
+     * <code>labels.length * numRows * numCols</code>
+     */
+    public MnistDataBlock(int numRows, int numCols,
+        byte labels[], byte imageData[])
+    {
+        Objects.requireNonNull(labels, "The labels may not be null");
+        Objects.requireNonNull(imageData, "The imageData may not be null");
+        if (numRows <= 0 || numCols <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Invalid image size: " + numRows + "x" + numCols);
+        }
+        long expectedLength = (long) labels.length * numRows * numCols;
+        if (imageData.length != expectedLength)
+        {
+            throw new IllegalArgumentException("Expected " + expectedLength
+                + " bytes of image data, but found " + imageData.length);
+        }
+        this.numberOfEntries = labels.length;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.imageSize = numRows * numCols;
+        this.labels = labels;
+        this.imageData = imageData;
+    }
+
+    @Override
+    public int size()
+    {
+        return numberOfEntries;
+    }
+
+    @Override
+    public int getNumRows()
+    {
+        return numRows;
+    }
+
+    @Override
+    public int getNumCols()
+    {
+        return numCols;
+    }
+
+    @Override
+    public byte getLabel(int index)
+    {
+        return labels[index];
+    }
+
+    @Override
+    public void getImageData(int index, byte target[], int targetOffset)
+    {
+        System.arraycopy(imageData, getImageOffset(index),
+            target, targetOffset, imageSize);
+    }
+
+    /**
+     * Returns the offset in the {@link #getImageData() image data array}
+     * where the image data of the specified entry starts
+     * 
+     * @param index The index of the entry
+     * @return The offset
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    public int getImageOffset(int index)
+    {
+        if (index < 0 || index >= numberOfEntries)
+        {
+            throw new IndexOutOfBoundsException(
+                "Index " + index + ", size " + numberOfEntries);
+        }
+        return index * imageSize;
+    }
+
+    /**
+     * Returns a <i>reference</i> to the labels of all entries. This will
+     * be an array whose length is the {@link #size()} of this data set.
+     * 
+     * @return The labels
+     */
+    public byte[] getLabels()
+    {
+        return labels;
+    }
+
+    /**
+     * Returns a <i>reference</i> to the image data of all entries. This
+     * will be an array of length <code>size * numRows * numCols</code>,
+     * containing values in [0,255] indicating the brightness of the
+     * pixels.
+     * 
+     * @return The image data
+     */
+    public byte[] getImageData()
+    {
+        return imageData;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistDataBlock["
+            + "size=" + numberOfEntries + ","
+            + "numRows=" + numRows + ","
+            + "numCols=" + numCols + "]";
+    }
+
+}
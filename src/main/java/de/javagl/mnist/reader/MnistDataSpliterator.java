@@ -0,0 +1,99 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Package-private implementation of a spliterator over a range of the 
+ * entries of {@link MnistData}. Splitting is done by dividing the range
+ * of indices, so that each part accesses the data directly, at the
+ * offsets of its entries.
+ */
+final class MnistDataSpliterator implements Spliterator<MnistEntry>
+{
+    /**
+     * The data
+     */
+    private final MnistData mnistData;
+
+    /**
+     * The index of the next entry
+     */
+    private int index;
+
+    /**
+     * The index after the last entry
+     */
+    private final int end;
+
+    /**
+     * Creates a new instance for the specified range
+     * 
+     * @param mnistData The data
+     * @param start The index of the first entry, inclusive
+     * @param end The index of the last entry, exclusive
+     */
+    MnistDataSpliterator(MnistData mnistData, int start, int end)
+    {
+        this.mnistData = Objects.requireNonNull(
+            mnistData, "The mnistData may not be null");
+        this.index = start;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MnistEntry> action)
+    {
+        Objects.requireNonNull(action, "The action may not be null");
+        if (index >= end)
+        {
+            return false;
+        }
+        action.accept(mnistData.getEntry(index));
+        index++;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super MnistEntry> action)
+    {
+        Objects.requireNonNull(action, "The action may not be null");
+        int i = index;
+        index = end;
+        for (; i < end; i++)
+        {
+            action.accept(mnistData.getEntry(i));
+        }
+    }
+
+    @Override
+    public Spliterator<MnistEntry> trySplit()
+    {
+        int middle = (index + end) >>> 1;
+        if (middle <= index)
+        {
+            return null;
+        }
+        MnistDataSpliterator prefix = 
+            new MnistDataSpliterator(mnistData, index, middle);
+        index = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return end - index;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+}
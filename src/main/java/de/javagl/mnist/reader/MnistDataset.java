@@ -0,0 +1,372 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A random-access view on the MNIST data set, backed by memory-mapped
+ * <b>decompressed</b> (unzipped) files.<br>
+ * <br>
+ * The headers of the files are parsed once, when the data set is opened.
+ * All entries, labels and pixels are then read directly from the mapped
+ * files. The data is not copied to the heap, and the operating system
+ * may share the underlying pages between several processes that are
+ * reading the same files.<br>
+ * <br>
+ * Instances of this class are immutable and may be shared between
+ * multiple threads.
+ */
+public final class MnistDataset implements MnistData
+{
+    /**
+     * Open the MNIST training data from the given directory. The data is
+     * assumed to be located in files with their default names,
+     * <b>decompressed</b> from the original files:
+     * <code>train-images.idx3-ubyte</code> and
+     * <code>train-labels.idx1-ubyte</code>.
+     * 
+     * @param inputDirectoryPath The input directory
+     * @return The {@link MnistDataset}
+     * @throws IOException If an IO error occurs
+     */
+    public static MnistDataset openTraining(Path inputDirectoryPath)
+        throws IOException
+    {
+        String trainImagesFileName = "train-images.idx3-ubyte";
+        String trainLabelsFileName = "train-labels.idx1-ubyte";
+        Path imagesFilePath = inputDirectoryPath.resolve(trainImagesFileName);
+        Path labelsFilePath = inputDirectoryPath.resolve(trainLabelsFileName);
+        return open(imagesFilePath, labelsFilePath);
+    }
+
+    /**
+     * Open the MNIST testing data from the given directory. The data is
+     * assumed to be located in files with their default names,
+     * <b>decompressed</b> from the original files:
+     * <code>t10k-images.idx3-ubyte</code> and
+     * <code>t10k-labels.idx1-ubyte</code>.
+     * 
+     * @param inputDirectoryPath The input directory
+     * @return The {@link MnistDataset}
+     * @throws IOException If an IO error occurs
+     */
+    public static MnistDataset openTesting(Path inputDirectoryPath)
+        throws IOException
+    {
+        String testImagesFileName = "t10k-images.idx3-ubyte";
+        String testLabelsFileName = "t10k-labels.idx1-ubyte";
+        Path imagesFilePath = inputDirectoryPath.resolve(testImagesFileName);
+        Path labelsFilePath = inputDirectoryPath.resolve(testLabelsFileName);
+        return open(imagesFilePath, labelsFilePath);
+    }
+
+    /**
+     * Open the MNIST data from the specified (decompressed) files.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The {@link MnistDataset}
+     * @throws IOException If an IO error occurs, or the files do not
+     * contain valid MNIST data
+     */
+    public static MnistDataset open(Path imagesFilePath, Path labelsFilePath)
+        throws IOException
+    {
+        Objects.requireNonNull(imagesFilePath,
+            "The imagesFilePath may not be null");
+        Objects.requireNonNull(labelsFilePath,
+            "The labelsFilePath may not be null");
+        try (FileChannel imagesChannel =
+            FileChannel.open(imagesFilePath, StandardOpenOption.READ);
+            FileChannel labelsChannel =
+                FileChannel.open(labelsFilePath, StandardOpenOption.READ))
+        {
+            return open(imagesChannel, labelsChannel);
+        }
+    }
+
+    /**
+     * Create a new {@link MnistDataset} from the given channels. The
+     * mappings remain valid after the channels have been closed.
+     * 
+     * @param imagesChannel The images channel
+     * @param labelsChannel The labels channel
+     * @return The {@link MnistDataset}
+     * @throws IOException If an IO error occurs, or the channels do not
+     * contain valid MNIST data
+     */
+    private static MnistDataset open(
+        FileChannel imagesChannel, FileChannel labelsChannel)
+            throws IOException
+    {
+        ByteBuffer imagesHeaderBuffer =
+            ByteBuffer.allocate(MnistHeader.IMAGES_HEADER_SIZE);
+        ByteBuffer labelsHeaderBuffer =
+            ByteBuffer.allocate(MnistHeader.LABELS_HEADER_SIZE);
+        readFully(imagesChannel, imagesHeaderBuffer, 0);
+        readFully(labelsChannel, labelsHeaderBuffer, 0);
+        MnistHeader header =
+            MnistHeader.read(imagesHeaderBuffer, labelsHeaderBuffer);
+
+        int numberOfEntries = header.getNumberOfEntries();
+        int imageSize = header.getImageSize();
+        long expectedImagesSize = MnistHeader.IMAGES_HEADER_SIZE
+            + (long) numberOfEntries * imageSize;
+        long expectedLabelsSize = MnistHeader.LABELS_HEADER_SIZE
+            + (long) numberOfEntries;
+        if (imagesChannel.size() < expectedImagesSize)
+        {
+            throw new IOException("Expected " + expectedImagesSize
+                + " bytes for images, but found " + imagesChannel.size());
+        }
+        if (labelsChannel.size() < expectedLabelsSize)
+        {
+            throw new IOException("Expected " + expectedLabelsSize
+                + " bytes for labels, but found " + labelsChannel.size());
+        }
+        if (expectedLabelsSize > Integer.MAX_VALUE)
+        {
+            throw new IOException("Labels file with " + expectedLabelsSize
+                + " bytes is too large to be mapped");
+        }
+
+        // Each mapping may cover at most Integer.MAX_VALUE bytes, so
+        // the images are mapped in chunks that each contain a whole
+        // number of images
+        int entriesPerChunk = Math.max(1, Integer.MAX_VALUE / imageSize);
+        int numberOfChunks = numberOfEntries == 0 ? 0 :
+            (numberOfEntries - 1) / entriesPerChunk + 1;
+        MappedByteBuffer imagesBuffers[] = new MappedByteBuffer[numberOfChunks];
+        for (int c = 0; c < numberOfChunks; c++)
+        {
+            int firstEntry = c * entriesPerChunk;
+            int entries = Math.min(entriesPerChunk, numberOfEntries - firstEntry);
+            long position = MnistHeader.IMAGES_HEADER_SIZE
+                + (long) firstEntry * imageSize;
+            imagesBuffers[c] = imagesChannel.map(
+                MapMode.READ_ONLY, position, (long) entries * imageSize);
+        }
+        MappedByteBuffer labelsBuffer = labelsChannel.map(
+            MapMode.READ_ONLY, MnistHeader.LABELS_HEADER_SIZE,
+            numberOfEntries);
+        return new MnistDataset(header, entriesPerChunk,
+            imagesBuffers, labelsBuffer);
+    }
+
+    /**
+     * Fill the given buffer with data from the given channel, starting
+     * at the given position
+     * 
+     * @param channel The channel
+     * @param buffer The buffer
+     * @param position The position
+     * @throws IOException If the channel does not contain enough bytes
+     * to fill the buffer, or any other IO error occurs
+     */
+    private static void readFully(
+        FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+            {
+                throw new IOException("Tried to read " + buffer.capacity()
+                    + " bytes, but only found " + buffer.position());
+            }
+        }
+    }
+
+    /**
+     * The number of entries
+     */
+    private final int numberOfEntries;
+
+    /**
+     * The number of rows of the image data
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of the image data
+     */
+    private final int numCols;
+
+    /**
+     * The number of bytes of each image
+     */
+    private final int imageSize;
+
+    /**
+     * The number of images that are contained in one mapped chunk
+     */
+    private final int entriesPerChunk;
+
+    /**
+     * The mapped chunks of the images file, without the header
+     */
+    private final ByteBuffer imagesBuffers[];
+
+    /**
+     * The mapped labels file, without the header
+     */
+    private final ByteBuffer labelsBuffer;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param header The header
+     * @param entriesPerChunk The number of images per chunk
+     * @param imagesBuffers The image buffers
+     * @param labelsBuffer The labels buffer
+     */
+    private MnistDataset(MnistHeader header, int entriesPerChunk,
+        ByteBuffer imagesBuffers[], ByteBuffer labelsBuffer)
+    {
+        this.numberOfEntries = header.getNumberOfEntries();
+        this.numRows = header.getNumRows();
+        this.numCols = header.getNumCols();
+        this.imageSize = header.getImageSize();
+        this.entriesPerChunk = entriesPerChunk;
+        this.imagesBuffers = imagesBuffers;
+        this.labelsBuffer = labelsBuffer;
+    }
+
+    /**
+     * Returns the number of entries in this data set
+     * 
+     * @return The number of entries
+     */
+    @Override
+    public int size()
+    {
+        return numberOfEntries;
+    }
+
+    /**
+     * Returns the number of rows of the image data.
+     * This will usually be 28.
+     * 
+     * @return The number of rows
+     */
+    @Override
+    public int getNumRows()
+    {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns of the image data.
+     * This will usually be 28.
+     * 
+     * @return The number of columns
+     */
+    @Override
+    public int getNumCols()
+    {
+        return numCols;
+    }
+
+    /**
+     * Returns the class label of the specified entry
+     * 
+     * @param index The index of the entry
+     * @return The class label
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    @Override
+    public byte getLabel(int index)
+    {
+        checkIndex(index);
+        return labelsBuffer.get(index);
+    }
+
+    /**
+     * Copy the image data of the specified entry into the given array,
+     * starting at the given offset. This will write
+     * <code>numRows * numCols</code> values into the given array.
+     * 
+     * @param index The index of the entry
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}, or the target array is too small
+     */
+    @Override
+    public void getImageData(int index, byte target[], int targetOffset)
+    {
+        checkIndex(index);
+        int chunkIndex = index / entriesPerChunk;
+        int offset = (index - chunkIndex * entriesPerChunk) * imageSize;
+
+        // Only a single duplicate is used for the bulk copy. It does not 
+        // escape, so the JIT can eliminate its allocation. (An absolute
+        // bulk get is only available in Java 13 and later)
+        ByteBuffer imageBuffer = imagesBuffers[chunkIndex].duplicate();
+        ((Buffer) imageBuffer).position(offset);
+        imageBuffer.get(target, targetOffset, imageSize);
+    }
+
+    /**
+     * Returns a read-only buffer that contains the image data of the
+     * specified entry. The returned buffer will be a slice of the
+     * memory-mapped file, with a position of 0 and a limit of
+     * <code>numRows * numCols</code>. No data is copied.
+     * 
+     * @param index The index of the entry
+     * @return The image buffer
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    public ByteBuffer getImageBuffer(int index)
+    {
+        checkIndex(index);
+        int chunkIndex = index / entriesPerChunk;
+        int offset = (index - chunkIndex * entriesPerChunk) * imageSize;
+        ByteBuffer imageBuffer = imagesBuffers[chunkIndex].duplicate();
+
+        // Note: The casts to Buffer are required for the code to run on
+        // Java 8 when it was compiled with a later JDK
+        ((Buffer) imageBuffer).limit(offset + imageSize);
+        ((Buffer) imageBuffer).position(offset);
+        return imageBuffer.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Make sure that the given index is valid for this data set
+     * 
+     * @param index The index
+     * @throws IndexOutOfBoundsException If the index is negative or not
+     * smaller than the {@link #size()}
+     */
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= numberOfEntries)
+        {
+            throw new IndexOutOfBoundsException(
+                "Index " + index + ", size " + numberOfEntries);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistDataset["
+            + "size=" + numberOfEntries + ","
+            + "numRows=" + numRows + ","
+            + "numCols=" + numCols + "]";
+    }
+
+}
@@ -0,0 +1,597 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread-safe registry for MNIST data sets, which loads each data set
+ * only once, and evicts the least recently used data sets when the
+ * memory that is used by the data sets exceeds a budget.<br>
+ * <br>
+ * A data set is identified by the paths of its images- and labels files.
+ * It may either be loaded into the heap, with {@link #get(Path, Path)},
+ * or memory-mapped, with {@link #getMapped(Path, Path)}:
+ * <pre><code>
+ * MnistDatasetRegistry registry =
+ *     new MnistDatasetRegistry(512L * 1024 * 1024);
+ * MnistDatasetRegistry.View training =
+ *     registry.get(imagesFilePath, labelsFilePath);
+ * </code></pre>
+ * When multiple threads request the same data set at the same time,
+ * then one of them loads the data set, and the others wait for it.
+ * All of them receive the same {@link View}, which offers read-only
+ * access to the data.<br>
+ * <br>
+ * Loaded data sets are counted against the memory budget. The size of a
+ * data set is the number of bytes of its labels and image data. For data
+ * sets that are loaded into the heap, these are heap bytes. For mapped
+ * data sets, these are off-heap bytes. When loading a data set causes
+ * the total size to exceed the budget, then the least recently used data
+ * sets are evicted, until the total size is within the budget again. The
+ * data set that was just loaded is never evicted for this reason, even
+ * when it alone exceeds the budget.<br>
+ * <br>
+ * Evicting a data set only removes it from this registry. Views that have
+ * already been handed out remain valid, and the memory is released when
+ * they are no longer referenced. A subsequent request for the data set
+ * loads it again.<br>
+ * <br>
+ * Note that the budget is only an upper bound for the data sets that are
+ * currently registered, and not for the memory that is actually used. 
+ * This is particularly relevant for mapped data sets: A memory mapping 
+ * can not be released explicitly. It remains in place until the mapped
+ * buffers are collected by the garbage collector, which only happens 
+ * after the {@link View} is no longer referenced. When a caller keeps 
+ * a reference to the view of an evicted mapped data set, then its 
+ * mapping remains in place indefinitely, although its off-heap bytes 
+ * are no longer counted against the budget.
+ */
+public final class MnistDatasetRegistry
+{
+    /**
+     * A read-only view on a data set in a {@link MnistDatasetRegistry}
+     */
+    public static final class View implements MnistData
+    {
+        /**
+         * The delegate
+         */
+        private final MnistData delegate;
+
+        /**
+         * The number of heap bytes of the data set
+         */
+        private final long heapBytes;
+
+        /**
+         * The number of off-heap bytes of the data set
+         */
+        private final long offHeapBytes;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param delegate The delegate
+         * @param mapped Whether the data set is memory-mapped
+         */
+        View(MnistData delegate, boolean mapped)
+        {
+            this.delegate = delegate;
+            long bytes = (long) delegate.size()
+                * (delegate.getNumRows() * delegate.getNumCols() + 1);
+            this.heapBytes = mapped ? 0 : bytes;
+            this.offHeapBytes = mapped ? bytes : 0;
+        }
+
+        @Override
+        public int size()
+        {
+            return delegate.size();
+        }
+
+        @Override
+        public int getNumRows()
+        {
+            return delegate.getNumRows();
+        }
+
+        @Override
+        public int getNumCols()
+        {
+            return delegate.getNumCols();
+        }
+
+        @Override
+        public byte getLabel(int index)
+        {
+            return delegate.getLabel(index);
+        }
+
+        @Override
+        public void getImageData(int index, byte target[], int targetOffset)
+        {
+            delegate.getImageData(index, target, targetOffset);
+        }
+
+        /**
+         * Returns the number of bytes of the data set that are stored in
+         * the heap
+         * 
+         * @return The number of heap bytes
+         */
+        public long getHeapBytes()
+        {
+            return heapBytes;
+        }
+
+        /**
+         * Returns the number of bytes of the data set that are stored
+         * outside of the heap, in memory-mapped files
+         * 
+         * @return The number of off-heap bytes
+         */
+        public long getOffHeapBytes()
+        {
+            return offHeapBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "MnistDatasetRegistry.View["
+                + "size=" + size() + ","
+                + "numRows=" + getNumRows() + ","
+                + "numCols=" + getNumCols() + ","
+                + "heapBytes=" + heapBytes + ","
+                + "offHeapBytes=" + offHeapBytes + "]";
+        }
+    }
+
+    /**
+     * The key of a data set
+     */
+    private static final class Key
+    {
+        /**
+         * The absolute, normalized path of the images file
+         */
+        private final Path imagesFilePath;
+
+        /**
+         * The absolute, normalized path of the labels file
+         */
+        private final Path labelsFilePath;
+
+        /**
+         * Whether the data set is memory-mapped
+         */
+        private final boolean mapped;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param imagesFilePath The path of the images file
+         * @param labelsFilePath The path of the labels file
+         * @param mapped Whether the data set is memory-mapped
+         */
+        Key(Path imagesFilePath, Path labelsFilePath, boolean mapped)
+        {
+            this.imagesFilePath = Objects.requireNonNull(imagesFilePath,
+                "The imagesFilePath may not be null")
+                .toAbsolutePath().normalize();
+            this.labelsFilePath = Objects.requireNonNull(labelsFilePath,
+                "The labelsFilePath may not be null")
+                .toAbsolutePath().normalize();
+            this.mapped = mapped;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(imagesFilePath, labelsFilePath, mapped);
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (this == object)
+            {
+                return true;
+            }
+            if (!(object instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) object;
+            return imagesFilePath.equals(other.imagesFilePath)
+                && labelsFilePath.equals(other.labelsFilePath)
+                && mapped == other.mapped;
+        }
+
+        @Override
+        public String toString()
+        {
+            return imagesFilePath + " and " + labelsFilePath
+                + (mapped ? " (mapped)" : "");
+        }
+    }
+
+    /**
+     * The task that loads a data set, and provides its {@link View}
+     */
+    private static final class Slot extends FutureTask<View>
+    {
+        /**
+         * Whether the data set was loaded and counted against the budget
+         */
+        boolean counted;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param key The key of the data set
+         * @param channelReader The reader for data sets in the heap
+         */
+        Slot(Key key, MnistChannelReader channelReader)
+        {
+            super(() -> load(key, channelReader));
+        }
+    }
+
+    /**
+     * The reader that is used for loading data sets into the heap
+     */
+    private final MnistChannelReader channelReader;
+
+    /**
+     * The slots of the data sets, in access order
+     */
+    private final LinkedHashMap<Key, Slot> slots;
+
+    /**
+     * The memory budget, in bytes
+     */
+    private long memoryBudget;
+
+    /**
+     * The number of heap bytes of the loaded data sets
+     */
+    private long heapBytes;
+
+    /**
+     * The number of off-heap bytes of the loaded data sets
+     */
+    private long offHeapBytes;
+
+    /**
+     * The number of data sets that have been evicted
+     */
+    private long evictionCount;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param memoryBudget The memory budget, in bytes
+     * @throws IllegalArgumentException If the budget is negative
+     */
+    public MnistDatasetRegistry(long memoryBudget)
+    {
+        this.channelReader = new MnistChannelReader();
+        this.slots = new LinkedHashMap<Key, Slot>(16, 0.75f, true);
+        setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Set the memory budget. If the data sets that are currently loaded
+     * exceed the new budget, then the least recently used ones are
+     * evicted.
+     * 
+     * @param memoryBudget The memory budget, in bytes
+     * @throws IllegalArgumentException If the budget is negative
+     */
+    public synchronized void setMemoryBudget(long memoryBudget)
+    {
+        if (memoryBudget < 0)
+        {
+            throw new IllegalArgumentException(
+                "The memoryBudget may not be negative, but is "
+                + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        evict(null);
+    }
+
+    /**
+     * Returns the memory budget
+     * 
+     * @return The memory budget, in bytes
+     */
+    public synchronized long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the data set that is stored in the specified files, loading
+     * it into the heap if necessary. The files may either be compressed
+     * or decompressed.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The {@link View} of the data set
+     * @throws IOException If an IO error occurs while loading the data
+     * set, or the calling thread was interrupted while waiting for
+     * another thread to load the data set
+     */
+    public View get(Path imagesFilePath, Path labelsFilePath)
+        throws IOException
+    {
+        return obtain(new Key(imagesFilePath, labelsFilePath, false));
+    }
+
+    /**
+     * Returns the data set that is stored in the specified files, as a
+     * memory-mapped {@link MnistDataset}. The files must be decompressed.
+     * <br>
+     * <br>
+     * The mapping is not released when the data set is evicted. It is
+     * only released when the returned view and the mapped buffers have
+     * been collected by the garbage collector. So the memory budget 
+     * does not limit the number of mapped bytes while callers keep 
+     * references to the views of evicted data sets.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The {@link View} of the data set
+     * @throws IOException If an IO error occurs while loading the data
+     * set, or the calling thread was interrupted while waiting for
+     * another thread to load the data set
+     */
+    public View getMapped(Path imagesFilePath, Path labelsFilePath)
+        throws IOException
+    {
+        return obtain(new Key(imagesFilePath, labelsFilePath, true));
+    }
+
+    /**
+     * Returns the data set with the given key, loading it if necessary
+     * 
+     * @param key The key
+     * @return The {@link View} of the data set
+     * @throws IOException If an IO error occurs
+     */
+    private View obtain(Key key) throws IOException
+    {
+        Slot slot;
+        boolean created = false;
+        synchronized (this)
+        {
+            slot = slots.get(key);
+            if (slot == null)
+            {
+                slot = new Slot(key, channelReader);
+                slots.put(key, slot);
+                created = true;
+            }
+        }
+        if (created)
+        {
+            slot.run();
+        }
+        View view;
+        try
+        {
+            view = slot.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for " + key);
+        }
+        catch (ExecutionException e)
+        {
+            synchronized (this)
+            {
+                slots.remove(key, slot);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        if (created)
+        {
+            synchronized (this)
+            {
+                if (slots.get(key) == slot)
+                {
+                    slot.counted = true;
+                    heapBytes += view.getHeapBytes();
+                    offHeapBytes += view.getOffHeapBytes();
+                    evict(slot);
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Load the data set with the given key
+     * 
+     * @param key The key
+     * @param channelReader The reader for data sets in the heap
+     * @return The {@link View}
+     * @throws IOException If an IO error occurs
+     */
+    private static View load(Key key, MnistChannelReader channelReader)
+        throws IOException
+    {
+        if (key.mapped)
+        {
+            return new View(MnistDataset.open(
+                key.imagesFilePath, key.labelsFilePath), true);
+        }
+        return new View(channelReader.readBlock(
+            key.imagesFilePath, key.labelsFilePath), false);
+    }
+
+    /**
+     * Evict the least recently used data sets until the total size is
+     * within the budget. Only data sets that have been counted against
+     * the budget are evicted. Must be called while holding the monitor
+     * of this registry.
+     * 
+     * @param keep The slot that should not be evicted. This may be
+     * <code>null</code>.
+     */
+    private void evict(Slot keep)
+    {
+        Iterator<Slot> iterator = slots.values().iterator();
+        while (heapBytes + offHeapBytes > memoryBudget && iterator.hasNext())
+        {
+            Slot slot = iterator.next();
+            if (slot != keep && slot.counted)
+            {
+                iterator.remove();
+                uncount(slot);
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * Subtract the size of the data set of the given slot from the
+     * totals, if it was counted. Must be called while holding the
+     * monitor of this registry.
+     * 
+     * @param slot The slot
+     */
+    private void uncount(Slot slot)
+    {
+        if (!slot.counted)
+        {
+            return;
+        }
+        slot.counted = false;
+        View view;
+        try
+        {
+            view = slot.get();
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            // Counted slots have been completed successfully
+            throw new IllegalStateException(e);
+        }
+        heapBytes -= view.getHeapBytes();
+        offHeapBytes -= view.getOffHeapBytes();
+    }
+
+    /**
+     * Remove the data set that is stored in the specified files from
+     * this registry, regardless of whether it was loaded into the heap
+     * or memory-mapped
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return Whether a data set was removed
+     */
+    public synchronized boolean remove(
+        Path imagesFilePath, Path labelsFilePath)
+    {
+        boolean removed = false;
+        for (boolean mapped : new boolean[] { false, true })
+        {
+            Slot slot = slots.remove(
+                new Key(imagesFilePath, labelsFilePath, mapped));
+            if (slot != null)
+            {
+                uncount(slot);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all data sets from this registry
+     */
+    public synchronized void clear()
+    {
+        for (Slot slot : slots.values())
+        {
+            uncount(slot);
+        }
+        slots.clear();
+    }
+
+    /**
+     * Returns the number of data sets in this registry, including the
+     * ones that are currently being loaded
+     * 
+     * @return The number of data sets
+     */
+    public synchronized int size()
+    {
+        return slots.size();
+    }
+
+    /**
+     * Returns the number of heap bytes of all loaded data sets
+     * 
+     * @return The number of heap bytes
+     */
+    public synchronized long getHeapBytes()
+    {
+        return heapBytes;
+    }
+
+    /**
+     * Returns the number of off-heap bytes of all loaded data sets. This
+     * does not include the off-heap bytes of evicted data sets whose 
+     * mappings have not been released yet.
+     * 
+     * @return The number of off-heap bytes
+     */
+    public synchronized long getOffHeapBytes()
+    {
+        return offHeapBytes;
+    }
+
+    /**
+     * Returns the number of data sets that have been evicted because
+     * the memory budget was exceeded
+     * 
+     * @return The number of evictions
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "MnistDatasetRegistry["
+            + "memoryBudget=" + memoryBudget + ","
+            + "heapBytes=" + heapBytes + ","
+            + "offHeapBytes=" + offHeapBytes + ","
+            + "datasets=" + slots.keySet() + "]";
+    }
+}
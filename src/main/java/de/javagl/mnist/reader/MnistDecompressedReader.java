@@ -3,22 +3,41 @@
  */ 
 package de.javagl.mnist.reader;
 
-import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 /**
  * A class for reading the MNIST data set from the <b>decompressed</b> 
  * (unzipped) files that are published at
  * <a href="http://yann.lecun.com/exdb/mnist/">
- * http://yann.lecun.com/exdb/mnist/</a>. 
+ * http://yann.lecun.com/exdb/mnist/</a>. <br>
+ * <br>
+ * The files are read with an {@link IdxReader}, which may also be used
+ * directly for reading IDX files with other element types or numbers
+ * of dimensions.
  */
 public class MnistDecompressedReader
 {
+    /**
+     * The maximum size of the buffers for reading a range of entries
+     */
+    private static final int RANGE_BUFFER_SIZE = 65536;
+
+    /**
+     * The optional {@link MnistReadListener}
+     */
+    private volatile MnistReadListener readListener;
+
     /**
      * Default constructor
      */
@@ -27,6 +46,35 @@ public class MnistDecompressedReader
         // Default constructor
     }
 
+    /**
+     * Set the {@link MnistReadListener} that will be informed about the
+     * {@link MnistReadMetrics} of each reading operation. This applies
+     * to the methods that read all entries (including the ones that 
+     * read a {@link MnistDataBlock}), but not to the methods that 
+     * return a stream.<br>
+     * <br>
+     * When no listener is set, the reading methods do not record any
+     * metrics.
+     * 
+     * @param readListener The listener. This may be <code>null</code>,
+     * to remove the current listener.
+     */
+    public void setReadListener(MnistReadListener readListener)
+    {
+        this.readListener = readListener;
+    }
+
+    /**
+     * Returns the {@link MnistReadListener} that was set with
+     * {@link #setReadListener(MnistReadListener)}
+     * 
+     * @return The listener. This may be <code>null</code>.
+     */
+    public MnistReadListener getReadListener()
+    {
+        return readListener;
+    }
+
     /**
      * Read the MNIST training data from the given directory. The data is 
      * assumed to be located in files with their default names,
@@ -100,7 +148,11 @@ public class MnistDecompressedReader
 
     /**
      * Read the MNIST data from the given (decompressed) input streams.
-     * The caller is responsible for closing the given streams.
+     * The caller is responsible for closing the given streams.<br>
+     * <br>
+     * The streams are only read up to the end of the data that is 
+     * declared in their headers, so they may contain further data
+     * after the MNIST data, which may be read by the caller afterwards.
      * 
      * @param decompressedImagesInputStream The decompressed input stream
      * containing the image data 
@@ -114,81 +166,599 @@ public class MnistDecompressedReader
         InputStream decompressedImagesInputStream, 
         InputStream decompressedLabelsInputStream, 
         Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        read(decompressedImagesInputStream, decompressedLabelsInputStream, 
+            consumer, false, MnistReadRecorder.create(readListener));
+    }
+
+    /**
+     * Returns a stream of the MNIST training data from the given directory.
+     * The data is assumed to be located in files with their default names,
+     * <b>decompressed</b> from the original files: 
+     * <code>train-images.idx3-ubyte</code> and
+     * <code>train-labels.idx1-ubyte</code>.<br>
+     * <br>
+     * See {@link #streamDecompressed(Path, Path)} for details.
+     * 
+     * @param inputDirectoryPath The input directory
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    public Stream<MnistEntry> streamDecompressedTraining(
+        Path inputDirectoryPath) throws IOException
+    {
+        String trainImagesFileName = "train-images.idx3-ubyte";
+        String trainLabelsFileName = "train-labels.idx1-ubyte";
+        Path imagesFilePath = inputDirectoryPath.resolve(trainImagesFileName);
+        Path labelsFilePath = inputDirectoryPath.resolve(trainLabelsFileName);
+        return streamDecompressed(imagesFilePath, labelsFilePath);
+    }
+
+    /**
+     * Returns a stream of the MNIST testing data from the given directory.
+     * The data is assumed to be located in files with their default names,
+     * <b>decompressed</b> from the original files: 
+     * <code>t10k-images.idx3-ubyte</code> and
+     * <code>t10k-labels.idx1-ubyte</code>.<br>
+     * <br>
+     * See {@link #streamDecompressed(Path, Path)} for details.
+     * 
+     * @param inputDirectoryPath The input directory
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    public Stream<MnistEntry> streamDecompressedTesting(
+        Path inputDirectoryPath) throws IOException
+    {
+        String testImagesFileName = "t10k-images.idx3-ubyte";
+        String testLabelsFileName = "t10k-labels.idx1-ubyte";
+        Path imagesFilePath = inputDirectoryPath.resolve(testImagesFileName);
+        Path labelsFilePath = inputDirectoryPath.resolve(testLabelsFileName);
+        return streamDecompressed(imagesFilePath, labelsFilePath);
+    }
+
+    /**
+     * Returns a stream of the MNIST data from the specified (decompressed)
+     * files.<br>
+     * <br>
+     * The files are opened as a {@link MnistDataset}, and the stream
+     * is backed by a spliterator that knows the number of entries from
+     * the header. When the stream is processed in parallel, it is split 
+     * into ranges of indices, and each part reads its entries directly 
+     * from their offsets in the files.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    public Stream<MnistEntry> streamDecompressed(
+        Path imagesFilePath, Path labelsFilePath) throws IOException
+    {
+        return MnistDataset.open(imagesFilePath, labelsFilePath).stream();
+    }
+
+    /**
+     * Read the MNIST data from the specified (decompressed) files, 
+     * passing a single, reused {@link MnistEntry} to the given consumer.<br>
+     * <br>
+     * The contents of the entry are only valid during the call to the
+     * consumer, and will be overwritten with the next entry afterwards.
+     * The consumer may not store the entry or its image data. If the
+     * contents are required later, then the consumer has to create
+     * a {@link MnistEntry#copy() copy} of the entry. Apart from the
+     * single entry, no objects are allocated for the entries.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param consumer The consumer that will receive the reused
+     * {@link MnistEntry} 
+     * @throws IOException If an IO error occurs
+     */
+    public void readDecompressedReusing(
+        Path imagesFilePath, Path labelsFilePath, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        try (InputStream decompressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+            InputStream decompressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile()))
+        {
+            readDecompressedReusing(
+                decompressedImagesInputStream, 
+                decompressedLabelsInputStream, 
+                consumer);
+        }
+    }
+
+    /**
+     * Read the MNIST data from the given (decompressed) input streams,
+     * passing a single, reused {@link MnistEntry} to the given consumer.
+     * The caller is responsible for closing the given streams.<br>
+     * <br>
+     * The contents of the entry are only valid during the call to the
+     * consumer, and will be overwritten with the next entry afterwards.
+     * The consumer may not store the entry or its image data. If the
+     * contents are required later, then the consumer has to create
+     * a {@link MnistEntry#copy() copy} of the entry. Apart from the
+     * single entry, no objects are allocated for the entries.
+     * 
+     * @param decompressedImagesInputStream The decompressed input stream
+     * containing the image data 
+     * @param decompressedLabelsInputStream The decompressed input stream
+     * containing the label data
+     * @param consumer The consumer that will receive the reused
+     * {@link MnistEntry} 
+     * @throws IOException If an IO error occurs
+     */
+    public void readDecompressedReusing(
+        InputStream decompressedImagesInputStream, 
+        InputStream decompressedLabelsInputStream, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        read(decompressedImagesInputStream, decompressedLabelsInputStream, 
+            consumer, true, MnistReadRecorder.create(readListener));
+    }
+
+    /**
+     * Read the entries with the specified indices from the specified 
+     * (decompressed) files.<br>
+     * <br>
+     * The files are not read sequentially. Instead, the reading starts 
+     * directly at the position of the entry with the start index. So 
+     * only the data of the entries in the given range is read. The
+     * {@link MnistEntry#getIndex() index} of each entry will be its
+     * index in the whole data set.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param from The index of the first entry, inclusive
+     * @param to The index of the last entry, exclusive
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the start index is negative,
+     * or larger than the end index
+     * @throws IndexOutOfBoundsException If the end index is larger than
+     * the number of entries in the files
+     */
+    public void readDecompressedRange(Path imagesFilePath, 
+        Path labelsFilePath, int from, int to, 
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        MnistRange range = MnistRange.of(from, to);
+        readRange(imagesFilePath, labelsFilePath, n -> range, consumer,
+            MnistReadRecorder.create(readListener));
+    }
+
+    /**
+     * Read the entries of the specified shard from the specified 
+     * (decompressed) files. The shard is computed with
+     * {@link MnistRange#shard(int, int, int)}, based on the number of
+     * entries in the files. See 
+     * {@link #readDecompressedRange(Path, Path, int, int, Consumer)}
+     * for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param shardIndex The index of the shard
+     * @param numberOfShards The number of shards
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the number of shards is not
+     * positive, or the shard index is negative or not smaller than the
+     * number of shards
+     */
+    public void readDecompressedShard(Path imagesFilePath, 
+        Path labelsFilePath, int shardIndex, int numberOfShards, 
+        Consumer<? super MnistEntry> consumer) throws IOException
     {
         Objects.requireNonNull(consumer, "The consumer may not be null");
 
-        DataInputStream imagesDataInputStream = 
-            new DataInputStream(decompressedImagesInputStream);
-        DataInputStream labelsDataInputStream = 
-            new DataInputStream(decompressedLabelsInputStream);
+        // Validate the shard before opening the files
+        MnistRange.shard(0, shardIndex, numberOfShards);
+        readRange(imagesFilePath, labelsFilePath, 
+            n -> MnistRange.shard(n, shardIndex, numberOfShards), consumer,
+            MnistReadRecorder.create(readListener));
+    }
+
+    /**
+     * Read the entries with the specified indices from the specified 
+     * (decompressed) files into a single {@link MnistDataBlock}. See
+     * {@link #readDecompressedRange(Path, Path, int, int, Consumer)}
+     * for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param from The index of the first entry, inclusive
+     * @param to The index of the last entry, exclusive
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the start index is negative,
+     * or larger than the end index
+     * @throws IndexOutOfBoundsException If the end index is larger than
+     * the number of entries in the files
+     */
+    public MnistDataBlock readDecompressedRangeBlock(Path imagesFilePath, 
+        Path labelsFilePath, int from, int to) throws IOException
+    {
+        MnistRange range = MnistRange.of(from, to);
+        return readRange(imagesFilePath, labelsFilePath, n -> range, null,
+            MnistReadRecorder.create(readListener));
+    }
 
-        int magicImages = imagesDataInputStream.readInt();
-        if (magicImages != 0x803)
+    /**
+     * Read the entries of the specified shard from the specified 
+     * (decompressed) files into a single {@link MnistDataBlock}. See
+     * {@link #readDecompressedShard(Path, Path, int, int, Consumer)}
+     * for details.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param shardIndex The index of the shard
+     * @param numberOfShards The number of shards
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the number of shards is not
+     * positive, or the shard index is negative or not smaller than the
+     * number of shards
+     */
+    public MnistDataBlock readDecompressedShardBlock(Path imagesFilePath, 
+        Path labelsFilePath, int shardIndex, int numberOfShards) 
+            throws IOException
+    {
+        // Validate the shard before opening the files
+        MnistRange.shard(0, shardIndex, numberOfShards);
+        return readRange(imagesFilePath, labelsFilePath, 
+            n -> MnistRange.shard(n, shardIndex, numberOfShards), null,
+            MnistReadRecorder.create(readListener));
+    }
+
+    /**
+     * Read a range of entries from the specified (decompressed) files.
+     * The headers are read, and the range is computed from the number
+     * of entries, using the given function. Then, the file channels are 
+     * positioned at the first entry of the range, and the entries of
+     * the range are read.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param rangeFunction The function that receives the number of 
+     * entries, and returns the range that should be read
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances. If this is <code>null</code>, then
+     * the entries will be read into a {@link MnistDataBlock}.
+     * @param recorder The optional {@link MnistReadRecorder}
+     * @return The {@link MnistDataBlock}, or <code>null</code> if the
+     * given consumer was not <code>null</code>
+     * @throws IOException If an IO error occurs
+     * @throws IndexOutOfBoundsException If the range is not contained
+     * in the range of entries of the files
+     */
+    static MnistDataBlock readRange(Path imagesFilePath, Path labelsFilePath, 
+        IntFunction<MnistRange> rangeFunction, 
+        Consumer<? super MnistEntry> consumer, MnistReadRecorder recorder) 
+            throws IOException
+    {
+        try (FileChannel imagesChannel = FileChannel.open(
+                imagesFilePath, StandardOpenOption.READ);
+            FileChannel labelsChannel = FileChannel.open(
+                labelsFilePath, StandardOpenOption.READ))
+        {
+            if (recorder != null)
+            {
+                recorder.headerStarted();
+            }
+            MnistHeader header = MnistHeader.read(
+                readFully(imagesChannel, MnistHeader.IMAGES_HEADER_SIZE), 
+                readFully(labelsChannel, MnistHeader.LABELS_HEADER_SIZE));
+            if (recorder != null)
+            {
+                recorder.headerCompleted();
+            }
+            MnistRange range = 
+                rangeFunction.apply(header.getNumberOfEntries());
+            range.validate(header.getNumberOfEntries());
+
+            imagesChannel.position(MnistHeader.IMAGES_HEADER_SIZE 
+                + (long) range.getFrom() * header.getImageSize());
+            labelsChannel.position(MnistHeader.LABELS_HEADER_SIZE 
+                + range.getFrom());
+            InputStream imagesInputStream = 
+                Channels.newInputStream(imagesChannel);
+            InputStream labelsInputStream = 
+                Channels.newInputStream(labelsChannel);
+            Consumer<? super MnistEntry> target = consumer;
+            if (recorder != null)
+            {
+                imagesInputStream = 
+                    recorder.decompressedImages(imagesInputStream);
+                labelsInputStream = 
+                    recorder.decompressedLabels(labelsInputStream);
+                if (consumer != null)
+                {
+                    target = recorder.wrap(consumer);
+                }
+            }
+
+            // Small ranges should not cause data beyond the range to be read
+            long imagesSize = (long) range.size() * header.getImageSize();
+            IdxReader imagesIdxReader = new IdxReader(imagesInputStream, 
+                (int) Math.max(8, Math.min(imagesSize, RANGE_BUFFER_SIZE)));
+            IdxReader labelsIdxReader = new IdxReader(labelsInputStream, 
+                Math.max(8, Math.min(range.size(), RANGE_BUFFER_SIZE)));
+
+            MnistDataBlock mnistDataBlock = null;
+            if (target == null)
+            {
+                mnistDataBlock = readBlockData(
+                    imagesIdxReader, labelsIdxReader, header, range.size());
+                if (recorder != null)
+                {
+                    recorder.blockCompleted(range.size());
+                }
+            }
+            else
+            {
+                readEntries(imagesIdxReader, labelsIdxReader, header, 
+                    range.getFrom(), range.getTo(), target, false);
+            }
+            if (recorder != null)
+            {
+                recorder.completed();
+            }
+            return mnistDataBlock;
+        }
+    }
+
+    /**
+     * Read the specified number of bytes from the given channel, starting
+     * at its current position
+     * 
+     * @param channel The channel
+     * @param size The number of bytes
+     * @return The buffer containing the bytes
+     * @throws IOException If an IO error occurs, or the end of the channel
+     * was reached before all bytes have been read
+     */
+    private static ByteBuffer readFully(FileChannel channel, int size) 
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining())
         {
-            throw new IOException("Expected magic header of 0x803 "
-                + "for images, but found " + magicImages);
+            if (channel.read(buffer) < 0)
+            {
+                throw new IOException("Expected at least " + size 
+                    + " bytes, but found " + buffer.position());
+            }
         }
+        return buffer;
+    }
 
-        int magicLabels = labelsDataInputStream.readInt();
-        if (magicLabels != 0x801)
+    /**
+     * Read the MNIST data from the specified (decompressed) files into
+     * a single {@link MnistDataBlock}.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     */
+    public MnistDataBlock readDecompressedBlock(
+        Path imagesFilePath, Path labelsFilePath) throws IOException
+    {
+        try (InputStream decompressedImagesInputStream = 
+            new FileInputStream(imagesFilePath.toFile());
+            InputStream decompressedLabelsInputStream = 
+                new FileInputStream(labelsFilePath.toFile()))
         {
-            throw new IOException("Expected magic header of 0x801 "
-                + "for labels, but found " + magicLabels);
+            return readDecompressedBlock(
+                decompressedImagesInputStream, 
+                decompressedLabelsInputStream);
         }
+    }
 
-        int numberOfImages = imagesDataInputStream.readInt();
-        int numberOfLabels = labelsDataInputStream.readInt();
+    /**
+     * Read the MNIST data from the given (decompressed) input streams into
+     * a single {@link MnistDataBlock}. The image data of all entries will 
+     * be read into one contiguous array, and the labels will be read
+     * into one array. The caller is responsible for closing the given 
+     * streams.
+     * 
+     * @param decompressedImagesInputStream The decompressed input stream
+     * containing the image data 
+     * @param decompressedLabelsInputStream The decompressed input stream
+     * containing the label data
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the data set is too
+     * large to be stored in a single array
+     */
+    public MnistDataBlock readDecompressedBlock(
+        InputStream decompressedImagesInputStream, 
+        InputStream decompressedLabelsInputStream) throws IOException
+    {
+        return readBlock(decompressedImagesInputStream, 
+            decompressedLabelsInputStream, 
+            MnistReadRecorder.create(readListener));
+    }
 
-        if (numberOfImages != numberOfLabels)
+    /**
+     * Read the MNIST data from the given (decompressed) input streams into
+     * a single {@link MnistDataBlock}. The caller is responsible for 
+     * closing the given streams.
+     * 
+     * @param decompressedImagesInputStream The decompressed input stream
+     * containing the image data 
+     * @param decompressedLabelsInputStream The decompressed input stream
+     * containing the label data
+     * @param recorder The optional {@link MnistReadRecorder}
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the data set is too
+     * large to be stored in a single array
+     */
+    static MnistDataBlock readBlock(
+        InputStream decompressedImagesInputStream, 
+        InputStream decompressedLabelsInputStream, 
+        MnistReadRecorder recorder) throws IOException
+    {
+        InputStream imagesInputStream = decompressedImagesInputStream;
+        InputStream labelsInputStream = decompressedLabelsInputStream;
+        if (recorder != null)
         {
-            throw new IOException("Found " + numberOfImages 
-                + " images but " + numberOfLabels + " labels");
+            imagesInputStream = recorder.decompressedImages(imagesInputStream);
+            labelsInputStream = recorder.decompressedLabels(labelsInputStream);
+            recorder.headerStarted();
         }
+        IdxReader imagesIdxReader = new IdxReader(imagesInputStream);
+        IdxReader labelsIdxReader = new IdxReader(labelsInputStream);
 
-        int numRows = imagesDataInputStream.readInt();
-        int numCols = imagesDataInputStream.readInt();
+        MnistHeader header = MnistHeader.read(
+            imagesIdxReader, labelsIdxReader);
+        if (recorder != null)
+        {
+            recorder.headerCompleted();
+        }
+        MnistDataBlock mnistDataBlock = readBlockData(imagesIdxReader, 
+            labelsIdxReader, header, header.getNumberOfEntries());
+        if (recorder != null)
+        {
+            recorder.blockCompleted(mnistDataBlock.size());
+            recorder.completed();
+        }
+        return mnistDataBlock;
+    }
 
-        for (int n = 0; n < numberOfImages; n++)
+    /**
+     * Read the specified number of entries from the given readers into
+     * a single {@link MnistDataBlock}. 
+     * 
+     * @param imagesIdxReader The images reader
+     * @param labelsIdxReader The labels reader
+     * @param header The {@link MnistHeader}
+     * @param numberOfEntries The number of entries
+     * @return The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs, or the entries are too
+     * large to be stored in a single array
+     */
+    static MnistDataBlock readBlockData(
+        IdxReader imagesIdxReader, IdxReader labelsIdxReader, 
+        MnistHeader header, int numberOfEntries) throws IOException
+    {
+        long totalImageSize = (long) numberOfEntries * header.getImageSize();
+        if (totalImageSize > Integer.MAX_VALUE - 8)
         {
-            byte label = labelsDataInputStream.readByte();
-            byte imageData[] = new byte[numRows * numCols];
-            read(imagesDataInputStream, imageData);
+            throw new IOException("Found " + numberOfEntries + " images with "
+                + totalImageSize + " bytes, which is too large for a block");
+        }
+        byte labels[] = new byte[numberOfEntries];
+        labelsIdxReader.readBytes(labels, 0, labels.length);
+        byte imageData[] = new byte[(int) totalImageSize];
+        imagesIdxReader.readBytes(imageData, 0, imageData.length);
+        return new MnistDataBlock(
+            header.getNumRows(), header.getNumCols(), labels, imageData);
+    }
 
-            MnistEntry mnistEntry = new MnistEntry(
-                n, label, numRows, numCols, imageData);
-            consumer.accept(mnistEntry);
+    /**
+     * Read the MNIST data from the given (decompressed) input streams.
+     * The caller is responsible for closing the given streams.
+     * 
+     * @param decompressedImagesInputStream The decompressed input stream
+     * containing the image data 
+     * @param decompressedLabelsInputStream The decompressed input stream
+     * containing the label data
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @param reuse Whether a single {@link MnistEntry} should be reused
+     * for all entries
+     * @param recorder The optional {@link MnistReadRecorder}
+     * @throws IOException If an IO error occurs
+     */
+    static void read(
+        InputStream decompressedImagesInputStream, 
+        InputStream decompressedLabelsInputStream, 
+        Consumer<? super MnistEntry> consumer, boolean reuse, 
+        MnistReadRecorder recorder) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+
+        InputStream imagesInputStream = decompressedImagesInputStream;
+        InputStream labelsInputStream = decompressedLabelsInputStream;
+        Consumer<? super MnistEntry> target = consumer;
+        if (recorder != null)
+        {
+            imagesInputStream = recorder.decompressedImages(imagesInputStream);
+            labelsInputStream = recorder.decompressedLabels(labelsInputStream);
+            target = recorder.wrap(consumer);
+            recorder.headerStarted();
+        }
+        IdxReader imagesIdxReader = new IdxReader(imagesInputStream);
+        IdxReader labelsIdxReader = new IdxReader(labelsInputStream);
+
+        MnistHeader header = MnistHeader.read(
+            imagesIdxReader, labelsIdxReader);
+        if (recorder != null)
+        {
+            recorder.headerCompleted();
+        }
+        readEntries(imagesIdxReader, labelsIdxReader, header, 
+            0, header.getNumberOfEntries(), target, reuse);
+        if (recorder != null)
+        {
+            recorder.completed();
         }
     }
 
     /**
-     * Read bytes from the given input stream, filling the given array
+     * Read the entries with the specified indices from the given readers,
+     * which must be positioned at the entry with the start index, and
+     * pass them to the given consumer.
      * 
-     * @param inputStream The input stream
-     * @param data The array to be filled
-     * @throws IOException If the input stream does not contain enough bytes
-     * to fill the array, or any other IO error occurs
+     * @param imagesIdxReader The images reader
+     * @param labelsIdxReader The labels reader
+     * @param header The {@link MnistHeader}
+     * @param from The index of the first entry, inclusive
+     * @param to The index of the last entry, exclusive
+     * @param consumer The consumer that will receive the resulting 
+     * {@link MnistEntry} instances
+     * @param reuse Whether a single {@link MnistEntry} should be reused
+     * for all entries
+     * @throws IOException If an IO error occurs
      */
-    private static void read(InputStream inputStream, byte data[]) 
-        throws IOException
+    static void readEntries(
+        IdxReader imagesIdxReader, IdxReader labelsIdxReader, 
+        MnistHeader header, int from, int to, 
+        Consumer<? super MnistEntry> consumer, boolean reuse) 
+            throws IOException
     {
-        int offset = 0;
-        while (true)
+        int numRows = header.getNumRows();
+        int numCols = header.getNumCols();
+        if (reuse)
         {
-            int read = inputStream.read(
-                data, offset, data.length - offset);
-            if (read < 0)
-            {
-                break;
-            }
-            offset += read;
-            if (offset == data.length)
+            byte imageData[] = new byte[numRows * numCols];
+            MnistEntry mnistEntry = new MnistEntry(
+                -1, (byte) 0, numRows, numCols, imageData);
+            for (int n = from; n < to; n++)
             {
-                return;
+                byte label = labelsIdxReader.readByte();
+                imagesIdxReader.readBytes(imageData, 0, imageData.length);
+                mnistEntry.set(n, label);
+                consumer.accept(mnistEntry);
             }
+            return;
         }
-        throw new IOException("Tried to read " + data.length
-            + " bytes, but only found " + offset);
-    }
+        for (int n = from; n < to; n++)
+        {
+            byte label = labelsIdxReader.readByte();
+            byte imageData[] = new byte[numRows * numCols];
+            imagesIdxReader.readBytes(imageData, 0, imageData.length);
 
+            MnistEntry mnistEntry = new MnistEntry(
+                n, label, numRows, numCols, imageData);
+            consumer.accept(mnistEntry);
+        }
+    }
 
 }
@@ -0,0 +1,218 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A cache for the decompressed versions of GZIP-compressed files.<br>
+ * <br>
+ * When a compressed file is {@link #resolve(Path) resolved}, then the
+ * cache checks whether a decompressed version of this file exists in
+ * the cache directory. If it does not exist, then the file is 
+ * decompressed into the cache directory. The resulting files may then
+ * be read with the {@link MnistDecompressedReader}, or opened as a
+ * {@link MnistDataset}.<br>
+ * <br>
+ * The name of a cached file is derived from the name, size and last 
+ * modification time of the compressed file, and from the CRC32 checksum
+ * and size of the decompressed data, as they are stored at the end of 
+ * the compressed file. When the compressed file changes, then a new
+ * cache file is created.<br>
+ * <br>
+ * New cache files are first written to a temporary file, and then
+ * moved to their final name atomically. So multiple processes may use
+ * the same cache directory concurrently, and will never see partially
+ * written files. The cache directory must therefore be on a file system
+ * that supports atomic moves. Outdated cache files are not deleted 
+ * automatically.
+ */
+public final class MnistDecompressionCache
+{
+    /**
+     * The size of the buffer for the decompression
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The cache directory
+     */
+    private final Path cacheDirectoryPath;
+
+    /**
+     * Creates a new cache that uses the given directory. The directory 
+     * will be created when the first file is cached.
+     * 
+     * @param cacheDirectoryPath The cache directory
+     */
+    public MnistDecompressionCache(Path cacheDirectoryPath)
+    {
+        this.cacheDirectoryPath = Objects.requireNonNull(cacheDirectoryPath, 
+            "The cacheDirectoryPath may not be null");
+    }
+
+    /**
+     * Returns the cache directory
+     * 
+     * @return The cache directory
+     */
+    public Path getCacheDirectoryPath()
+    {
+        return cacheDirectoryPath;
+    }
+
+    /**
+     * Returns the path of the decompressed version of the given 
+     * (GZIP-compressed) file. If the decompressed file does not yet
+     * exist in the cache, then it will be created.
+     * 
+     * @param compressedFilePath The path of the compressed file
+     * @return The path of the decompressed file
+     * @throws IOException If an IO error occurs, the given file is
+     * not a valid GZIP file, or the file system of the cache directory
+     * does not support atomic moves
+     */
+    public Path resolve(Path compressedFilePath) throws IOException
+    {
+        Path cachedFilePath = 
+            cacheDirectoryPath.resolve(createCacheFileName(compressedFilePath));
+        if (Files.isRegularFile(cachedFilePath))
+        {
+            return cachedFilePath;
+        }
+        Files.createDirectories(cacheDirectoryPath);
+        Path temporaryPath = Files.createTempFile(cacheDirectoryPath, 
+            cachedFilePath.getFileName().toString(), ".tmp");
+        try
+        {
+            decompress(compressedFilePath, temporaryPath);
+            try
+            {
+                Files.move(temporaryPath, cachedFilePath, 
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                // A plain move could expose a partially written file
+                // to other processes
+                throw new IOException("The cache directory " 
+                    + cacheDirectoryPath + " does not support atomic moves", 
+                    e);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temporaryPath);
+        }
+        return cachedFilePath;
+    }
+
+    /**
+     * Open the decompressed versions of the given (compressed) files as
+     * a memory-mapped {@link MnistDataset}, decompressing them into the 
+     * cache if necessary.
+     * 
+     * @param compressedImagesFilePath The path of the compressed images
+     * @param compressedLabelsFilePath The path of the compressed labels
+     * @return The {@link MnistDataset}
+     * @throws IOException If an IO error occurs
+     */
+    public MnistDataset openDataset(
+        Path compressedImagesFilePath, Path compressedLabelsFilePath) 
+            throws IOException
+    {
+        return MnistDataset.open(
+            resolve(compressedImagesFilePath), 
+            resolve(compressedLabelsFilePath));
+    }
+
+    /**
+     * Create the name of the cache file for the given compressed file
+     * 
+     * @param compressedFilePath The compressed file
+     * @return The name of the cache file
+     * @throws IOException If an IO error occurs
+     */
+    private static String createCacheFileName(Path compressedFilePath) 
+        throws IOException
+    {
+        String fileName = compressedFilePath.getFileName().toString();
+        if (fileName.endsWith(".gz"))
+        {
+            fileName = fileName.substring(0, fileName.length() - 3);
+        }
+        long size = Files.size(compressedFilePath);
+        long lastModified = 
+            Files.getLastModifiedTime(compressedFilePath).toMillis();
+
+        // The GZIP trailer contains the CRC32 and the size (modulo 2^32)
+        // of the decompressed data, in little-endian order
+        ByteBuffer trailer = ByteBuffer.allocate(8)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(
+            compressedFilePath, StandardOpenOption.READ))
+        {
+            if (size < 18)
+            {
+                throw new IOException("The file " + compressedFilePath
+                    + " is too small to be a GZIP file");
+            }
+            while (trailer.hasRemaining())
+            {
+                int read = channel.read(
+                    trailer, size - 8 + trailer.position());
+                if (read < 0)
+                {
+                    throw new IOException("Could not read GZIP trailer of "
+                        + compressedFilePath);
+                }
+            }
+        }
+        int crc = trailer.getInt(0);
+        int decompressedSize = trailer.getInt(4);
+        return fileName + "-" + size + "-" + lastModified + "-"
+            + Integer.toHexString(crc) + "-" 
+            + Integer.toUnsignedString(decompressedSize);
+    }
+
+    /**
+     * Decompress the given source file into the given target file
+     * 
+     * @param sourcePath The source file
+     * @param targetPath The target file
+     * @throws IOException If an IO error occurs
+     */
+    private static void decompress(Path sourcePath, Path targetPath)
+        throws IOException
+    {
+        try (InputStream inputStream = new GZIPInputStream(
+                Files.newInputStream(sourcePath), BUFFER_SIZE);
+            OutputStream outputStream = Files.newOutputStream(targetPath))
+        {
+            byte buffer[] = new byte[BUFFER_SIZE];
+            while (true)
+            {
+                int read = inputStream.read(buffer);
+                if (read < 0)
+                {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+}
@@ -3,26 +3,46 @@
  */ 
 package de.javagl.mnist.reader;
 
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 /**
  * An entry of the MNIST data set. Instances of this class will be passed
  * to the consumer that is given to the {@link MnistCompressedReader} and
- * {@link MnistDecompressedReader} reading methods.
+ * {@link MnistDecompressedReader} reading methods.<br>
+ * <br>
+ * The <code>...Reusing</code> reading methods pass the same instance
+ * to the consumer for all entries, and only update its contents. Such
+ * an instance is only valid during the call to the consumer, and may
+ * not be stored. If its contents are required later, then the consumer
+ * has to create a {@link #copy()} of the entry.
  */
 public class MnistEntry
 {
+    /**
+     * The color model for the images that are created with 
+     * {@link #createImageView()}
+     */
+    private static final ColorModel GRAY_COLOR_MODEL = 
+        new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), 
+            false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
     /**
      * The index of the entry
      */
-    private final int index;
+    private int index;
 
     /**
      * The class label of the entry
      */
-    private final byte label;
+    private byte label;
 
     /**
      * The number of rows of the image data
@@ -58,6 +78,32 @@ public class MnistEntry
         this.imageData = imageData;
     }
 
+    /**
+     * Set the index and label of this entry. This is only called by the
+     * readers that reuse a single entry for all elements of the data set,
+     * after the image data of this entry has been filled.
+     * 
+     * @param index The index
+     * @param label The label
+     */
+    void set(int index, byte label)
+    {
+        this.index = index;
+        this.label = label;
+    }
+
+    /**
+     * Creates a deep copy of this entry. This may be used by consumers
+     * that receive a reused entry, in order to store its contents.
+     * 
+     * @return The copy
+     */
+    public MnistEntry copy()
+    {
+        return new MnistEntry(
+            index, label, numRows, numCols, imageData.clone());
+    }
+
     /**
      * Returns the index of the entry
      * 
@@ -130,6 +176,26 @@ public class MnistEntry
         return image;
     }
 
+    /**
+     * Creates a new buffered image that is backed by the image data of
+     * this entry. In contrast to {@link #createImage()}, the image data
+     * is not copied. Changes in the image data will be visible in the
+     * image, and vice versa. For entries that are passed to the consumer
+     * of the <code>...Reusing</code> reading methods, the image will 
+     * show the contents of the entry that is currently passed to the 
+     * consumer.
+     * 
+     * @return The image
+     */
+    public BufferedImage createImageView()
+    {
+        DataBufferByte dataBuffer = 
+            new DataBufferByte(imageData, numRows * numCols);
+        WritableRaster raster = Raster.createInterleavedRaster(dataBuffer, 
+            numCols, numRows, numCols, 1, new int[] { 0 }, null);
+        return new BufferedImage(GRAY_COLOR_MODEL, raster, false, null);
+    }
+
 
     @Override
     public String toString()
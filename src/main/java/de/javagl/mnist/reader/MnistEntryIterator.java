@@ -0,0 +1,98 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Package-private iterator that reads {@link MnistEntry} instances from
+ * (decompressed) input streams, on demand. IO errors will be reported
+ * as {@link UncheckedIOException}s.
+ */
+final class MnistEntryIterator implements Iterator<MnistEntry>
+{
+    /**
+     * The images stream
+     */
+    private final IdxReader imagesIdxReader;
+
+    /**
+     * The labels stream
+     */
+    private final IdxReader labelsIdxReader;
+
+    /**
+     * The header
+     */
+    private final MnistHeader header;
+
+    /**
+     * The index of the next entry
+     */
+    private int index;
+
+    /**
+     * Creates a new instance that reads from the given (decompressed) 
+     * streams. The headers will be read immediately.
+     * 
+     * @param decompressedImagesInputStream The images stream
+     * @param decompressedLabelsInputStream The labels stream
+     * @throws IOException If the headers cannot be read
+     */
+    MnistEntryIterator(
+        InputStream decompressedImagesInputStream, 
+        InputStream decompressedLabelsInputStream) throws IOException
+    {
+        this.imagesIdxReader = 
+            new IdxReader(decompressedImagesInputStream);
+        this.labelsIdxReader = 
+            new IdxReader(decompressedLabelsInputStream);
+        this.header = MnistHeader.read(
+            imagesIdxReader, labelsIdxReader);
+        this.index = 0;
+    }
+
+    /**
+     * Returns the number of entries, as given in the header
+     * 
+     * @return The number of entries
+     */
+    int size()
+    {
+        return header.getNumberOfEntries();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return index < header.getNumberOfEntries();
+    }
+
+    @Override
+    public MnistEntry next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException("No more entries");
+        }
+        try
+        {
+            byte label = labelsIdxReader.readByte();
+            byte imageData[] = new byte[header.getImageSize()];
+            imagesIdxReader.readBytes(imageData, 0, imageData.length);
+            MnistEntry mnistEntry = new MnistEntry(index, label, 
+                header.getNumRows(), header.getNumCols(), imageData);
+            index++;
+            return mnistEntry;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
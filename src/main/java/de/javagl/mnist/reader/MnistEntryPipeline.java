@@ -0,0 +1,199 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Package-private class for passing {@link MnistEntry} instances that
+ * are created by a producer on a background thread to a consumer on the
+ * calling thread, via a bounded queue.
+ */
+final class MnistEntryPipeline
+{
+    /**
+     * Interface for the producer of the pipeline
+     */
+    interface Producer
+    {
+        /**
+         * Produce all entries, and pass them to the given sink
+         * 
+         * @param sink The sink
+         * @throws IOException If an IO error occurs
+         */
+        void produce(Consumer<MnistEntry> sink) throws IOException;
+    }
+
+    /**
+     * The marker that is put into the queue after the last entry
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Run the given producer on a new background thread, and pass all
+     * entries that it produces to the given consumer, on the calling
+     * thread. This method returns when the producer has finished and
+     * all entries have been passed to the consumer.<br>
+     * <br>
+     * If the producer throws an exception, then this exception will be
+     * re-thrown by this method. If the consumer throws an exception,
+     * then the producer will be interrupted, and the exception will
+     * be passed to the caller after the producer has terminated. So 
+     * when this method returns, the producer no longer uses any of the 
+     * resources of the caller.
+     * 
+     * @param producer The producer
+     * @param capacity The maximum number of entries that may be queued
+     * @param threadName The name of the producer thread
+     * @param consumer The consumer
+     * @throws IOException If the producer caused an IO error, or the
+     * calling thread was interrupted
+     */
+    static void run(Producer producer, int capacity, String threadName,
+        Consumer<? super MnistEntry> consumer) throws IOException
+    {
+        Objects.requireNonNull(consumer, "The consumer may not be null");
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(capacity);
+        Throwable failure[] = { null };
+        Thread thread = new Thread(() ->
+        {
+            try
+            {
+                producer.produce(mnistEntry -> put(queue, mnistEntry));
+            }
+            catch (Throwable t)
+            {
+                failure[0] = t;
+            }
+            finally
+            {
+                try
+                {
+                    put(queue, END);
+                }
+                catch (IllegalStateException e)
+                {
+                    // The consumer has already stopped
+                }
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+
+        boolean completed = false;
+        try
+        {
+            while (true)
+            {
+                Object element = queue.take();
+                if (element == END)
+                {
+                    break;
+                }
+                consumer.accept((MnistEntry) element);
+            }
+            completed = true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for entries");
+        }
+        finally
+        {
+            if (!completed)
+            {
+                thread.interrupt();
+                joinUninterruptibly(thread);
+            }
+        }
+
+        // The END marker was received, so the failure (if any) has
+        // been written before, and is visible due to the queue
+        Throwable t = failure[0];
+        if (t == null)
+        {
+            return;
+        }
+        if (t instanceof IOException)
+        {
+            throw (IOException) t;
+        }
+        if (t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error)
+        {
+            throw (Error) t;
+        }
+        throw new IOException(t);
+    }
+
+    /**
+     * Put the given element into the given queue, waiting if necessary.
+     * If the current thread is interrupted while waiting, then an
+     * {@link IllegalStateException} is thrown, which will cause the
+     * producer to terminate.
+     * 
+     * @param queue The queue
+     * @param element The element
+     */
+    private static void put(BlockingQueue<Object> queue, Object element)
+    {
+        try
+        {
+            queue.put(element);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while passing entries to the consumer", e);
+        }
+    }
+
+    /**
+     * Wait until the given thread has terminated. If the calling thread 
+     * is interrupted while waiting, then it continues to wait, and its
+     * interrupted status is restored afterwards.
+     * 
+     * @param thread The thread
+     */
+    static void joinUninterruptibly(Thread thread)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                thread.join();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private MnistEntryPipeline()
+    {
+        // Private constructor to prevent instantiation
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * A class for visiting the entries of {@link MnistData} in a different,
+ * random order in each epoch.<br>
+ * <br>
+ * The order for each epoch is a permutation of the indices of the
+ * entries, which is computed from the seed that is given in the
+ * constructor and the epoch number. It does not depend on the platform
+ * or the JVM, so the same seed and epoch will cause the same order on
+ * every machine. The data itself is not copied.
+ */
+public final class MnistEpochSampler
+{
+    /**
+     * The maximum number of entries that are read ahead in
+     * {@link #forEach(int, Consumer)}
+     */
+    private static final int READ_AHEAD = 256;
+
+    /**
+     * The data
+     */
+    private final MnistData mnistData;
+
+    /**
+     * The seed
+     */
+    private final long seed;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param seed The seed for the random permutations
+     * @throws NullPointerException If the data is <code>null</code>
+     */
+    public MnistEpochSampler(MnistData mnistData, long seed)
+    {
+        this.mnistData = Objects.requireNonNull(
+            mnistData, "The mnistData may not be null");
+        this.seed = seed;
+    }
+
+    /**
+     * Creates the permutation of the indices of all entries for the
+     * given epoch
+     * 
+     * @param epoch The epoch
+     * @return The permutation
+     */
+    public int[] createPermutation(int epoch)
+    {
+        int permutation[] = new int[mnistData.size()];
+        fillPermutation(epoch, permutation);
+        return permutation;
+    }
+
+    /**
+     * Fill the given array with the permutation of the indices of all
+     * entries for the given epoch
+     * 
+     * @param epoch The epoch
+     * @param permutation The array that will store the permutation
+     * @throws IllegalArgumentException If the length of the given array
+     * is not the size of the data
+     */
+    public void fillPermutation(int epoch, int permutation[])
+    {
+        int n = mnistData.size();
+        if (permutation.length != n)
+        {
+            throw new IllegalArgumentException("Expected an array of length "
+                + n + ", but the length is " + permutation.length);
+        }
+        for (int i = 0; i < n; i++)
+        {
+            permutation[i] = i;
+        }
+
+        // Fisher-Yates shuffle. The algorithm of java.util.Random is
+        // part of its specification, so the result is reproducible.
+        Random random = new Random(mix(seed, epoch));
+        for (int i = n - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int t = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = t;
+        }
+    }
+
+    /**
+     * Creates a {@link MnistBatchIterator} that visits all entries in the
+     * order of the permutation for the given epoch. The batch iterator
+     * prepares the next batch in the background, and should be closed
+     * when it is no longer used.
+     * 
+     * @param epoch The epoch
+     * @param batchSize The maximum number of entries in each batch
+     * @return The {@link MnistBatchIterator}
+     * @throws IllegalArgumentException If the batch size is not positive
+     */
+    public MnistBatchIterator createBatchIterator(int epoch, int batchSize)
+    {
+        return createBatchIterator(
+            epoch, batchSize, MnistBatchIterator.NUMBER_OF_CLASSES);
+    }
+
+    /**
+     * Creates a {@link MnistBatchIterator} that visits all entries in the
+     * order of the permutation for the given epoch, and encodes the 
+     * labels for the given number of classes. 
+     * See {@link #createBatchIterator(int, int)} for details.
+     * 
+     * @param epoch The epoch
+     * @param batchSize The maximum number of entries in each batch
+     * @param numberOfClasses The number of classes
+     * @return The {@link MnistBatchIterator}
+     * @throws IllegalArgumentException If the batch size is not positive,
+     * or the number of classes is not in [1,256]
+     */
+    public MnistBatchIterator createBatchIterator(
+        int epoch, int batchSize, int numberOfClasses)
+    {
+        return new MnistBatchIterator(mnistData, 
+            createPermutation(epoch), batchSize, numberOfClasses);
+    }
+
+    /**
+     * Pass all entries to the given consumer, in the order of the
+     * permutation for the given epoch. The entries are read on a
+     * background thread, ahead of the consumer.
+     * 
+     * @param epoch The epoch
+     * @param consumer The consumer that will receive the
+     * {@link MnistEntry} instances
+     * @throws IOException If the calling thread is interrupted
+     */
+    public void forEach(int epoch, Consumer<? super MnistEntry> consumer)
+        throws IOException
+    {
+        int permutation[] = createPermutation(epoch);
+        MnistEntryPipeline.run(sink ->
+        {
+            for (int index : permutation)
+            {
+                sink.accept(mnistData.getEntry(index));
+            }
+        }, READ_AHEAD, "MnistEpochSampler", consumer);
+    }
+
+    /**
+     * Compute a seed for a random number generator from the given seed
+     * and epoch, using the finalizer of the SplitMix64 generator
+     * 
+     * @param seed The seed
+     * @param epoch The epoch
+     * @return The seed for the given epoch
+     */
+    private static long mix(long seed, int epoch)
+    {
+        long z = seed + (epoch + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,810 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A checkpoint index for a GZIP file, which allows reading the
+ * decompressed data starting at any offset, without decompressing all
+ * data before this offset.<br>
+ * <br>
+ * The DEFLATE data of a GZIP file can normally only be decompressed
+ * sequentially, because each part of the data may refer to the 32 KB
+ * of decompressed data before it. The index stores checkpoints at the
+ * starts of DEFLATE blocks, roughly every <code>spacing</code> bytes of
+ * decompressed data. Each checkpoint consists of the position of the
+ * block in the compressed data (in bits), and the 32 KB of decompressed
+ * data before it. The decompression of the data at a certain offset can
+ * then start at the nearest checkpoint before this offset, and only
+ * has to decompress at most <code>spacing</code> bytes that are
+ * skipped. This is the approach of the <code>zran</code> example of
+ * zlib.<br>
+ * <br>
+ * The index is built once, by decompressing the whole file, and may be
+ * stored in a file next to the GZIP file:
+ * <pre><code>
+ * MnistGzipIndex index = MnistGzipIndex.buildOrLoad(gzipFilePath);
+ * try (InputStream inputStream = index.open(gzipFilePath, offset))
+ * {
+ *     ...
+ * }
+ * </code></pre>
+ * The index stores the size of the GZIP file, and the CRC and size from
+ * its trailer, to detect when it does not match the GZIP file any more.
+ * Only GZIP files with a single member are supported.
+ */
+public final class MnistGzipIndex
+{
+    /**
+     * Package-private class describing one checkpoint of the index
+     */
+    static final class Checkpoint
+    {
+        /**
+         * The offset in the decompressed data
+         */
+        final long output;
+
+        /**
+         * The position of the DEFLATE block in the compressed data,
+         * in bits
+         */
+        final long bitPosition;
+
+        /**
+         * The (up to 32 KB of) decompressed data before the checkpoint
+         */
+        final byte window[];
+
+        /**
+         * Creates a new instance
+         * 
+         * @param output The offset in the decompressed data
+         * @param bitPosition The position in the compressed data
+         * @param window The decompressed data before the checkpoint
+         */
+        Checkpoint(long output, long bitPosition, byte window[])
+        {
+            this.output = output;
+            this.bitPosition = bitPosition;
+            this.window = window;
+        }
+    }
+
+    /**
+     * An input stream that decompresses the data of a GZIP file, starting
+     * at a checkpoint. This uses an <code>Inflater</code> that receives 
+     * the window of the checkpoint as its dictionary, and releases the
+     * inflater when the stream is closed.
+     */
+    private static final class CheckpointInputStream
+        extends InflaterInputStream
+    {
+        /**
+         * Creates a new instance
+         * 
+         * @param inputStream The stream that provides the compressed data,
+         * starting at the first block, at a byte boundary
+         * @param inflater The inflater
+         */
+        CheckpointInputStream(InputStream inputStream, Inflater inflater)
+        {
+            super(inputStream, inflater, INFLATER_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * The magic number at the start of an index file
+     */
+    private static final int MAGIC = 0x4D4E475A;
+
+    /**
+     * The version of the index file format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The default minimum number of decompressed bytes between two
+     * checkpoints
+     */
+    public static final long DEFAULT_SPACING = 1L << 20;
+
+    /**
+     * The extension that is appended to the name of a GZIP file, in
+     * order to obtain the name of its index file
+     */
+    private static final String INDEX_FILE_EXTENSION = ".index";
+
+    /**
+     * The size of the buffer that skipped data is decompressed into
+     */
+    private static final int SKIP_BUFFER_SIZE = 65536;
+
+    /**
+     * The size of the input buffer of the inflater for reading the
+     * data at a checkpoint
+     */
+    private static final int INFLATER_BUFFER_SIZE = 65536;
+
+    /**
+     * The number of bits of the empty block that is created with
+     * {@link #putEmptyBlock(byte[], int)}
+     */
+    private static final int EMPTY_BLOCK_BITS = 93;
+
+    /**
+     * The size of the GZIP file
+     */
+    private final long compressedSize;
+
+    /**
+     * The CRC from the GZIP trailer
+     */
+    private final long crc;
+
+    /**
+     * The size of the decompressed data
+     */
+    private final long uncompressedSize;
+
+    /**
+     * The minimum number of decompressed bytes between two checkpoints
+     */
+    private final long spacing;
+
+    /**
+     * The checkpoints, ordered by their offsets
+     */
+    private final Checkpoint checkpoints[];
+
+    /**
+     * Creates a new instance
+     * 
+     * @param compressedSize The size of the GZIP file
+     * @param crc The CRC from the GZIP trailer
+     * @param uncompressedSize The size of the decompressed data
+     * @param spacing The spacing
+     * @param checkpoints The checkpoints
+     */
+    private MnistGzipIndex(long compressedSize, long crc,
+        long uncompressedSize, long spacing, Checkpoint checkpoints[])
+    {
+        this.compressedSize = compressedSize;
+        this.crc = crc;
+        this.uncompressedSize = uncompressedSize;
+        this.spacing = spacing;
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Build the index for the given GZIP file, with the
+     * {@link #DEFAULT_SPACING}
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @return The {@link MnistGzipIndex}
+     * @throws IOException If an IO error occurs, or the file does not
+     * contain valid GZIP data
+     */
+    public static MnistGzipIndex build(Path gzipFilePath) throws IOException
+    {
+        return build(gzipFilePath, DEFAULT_SPACING);
+    }
+
+    /**
+     * Build the index for the given GZIP file. This decompresses the
+     * whole file.
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @param spacing The minimum number of decompressed bytes between two
+     * checkpoints. Smaller values cause faster accesses, but a larger
+     * index, with about 32 KB (before compression) for each checkpoint.
+     * @return The {@link MnistGzipIndex}
+     * @throws IOException If an IO error occurs, or the file does not
+     * contain valid GZIP data
+     * @throws IllegalArgumentException If the spacing is smaller than
+     * 32768
+     */
+    public static MnistGzipIndex build(Path gzipFilePath, long spacing)
+        throws IOException
+    {
+        Objects.requireNonNull(gzipFilePath,
+            "The gzipFilePath may not be null");
+        if (spacing < MnistGzipScanner.WINDOW_SIZE)
+        {
+            throw new IllegalArgumentException("The spacing must be at least "
+                + MnistGzipScanner.WINDOW_SIZE + ", but is " + spacing);
+        }
+        long compressedSize = Files.size(gzipFilePath);
+        long trailer[] = new long[2];
+        List<Checkpoint> checkpoints;
+        try (InputStream inputStream = Files.newInputStream(gzipFilePath))
+        {
+            checkpoints = MnistGzipScanner.scan(inputStream, spacing, trailer);
+        }
+        return new MnistGzipIndex(compressedSize, trailer[0], trailer[1],
+            spacing, checkpoints.toArray(new Checkpoint[0]));
+    }
+
+    /**
+     * Returns the path of the index file for the given GZIP file, which
+     * is a file in the same directory, with the extension
+     * <code>".index"</code> appended to the name of the GZIP file
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @return The path of the index file
+     */
+    public static Path resolveIndexFilePath(Path gzipFilePath)
+    {
+        return gzipFilePath.resolveSibling(
+            gzipFilePath.getFileName() + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the index for the given GZIP file. If the
+     * {@link #resolveIndexFilePath(Path) index file} exists and contains
+     * an index that matches the GZIP file, then the index is read from
+     * this file. Otherwise, the index is {@link #build(Path) built}, and
+     * written to the index file.<br>
+     * <br>
+     * The file is written to a temporary file first, and then moved to
+     * the index file path atomically, so that concurrent processes never
+     * read a partially written file. If the file system does not support
+     * atomic moves, then the index is not written.
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @return The {@link MnistGzipIndex}
+     * @throws IOException If an IO error occurs
+     */
+    public static MnistGzipIndex buildOrLoad(Path gzipFilePath)
+        throws IOException
+    {
+        Path indexFilePath = resolveIndexFilePath(gzipFilePath);
+        try
+        {
+            MnistGzipIndex stored = read(indexFilePath);
+            if (stored.matches(gzipFilePath))
+            {
+                return stored;
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            // The index has not been written yet
+        }
+        catch (IOException e)
+        {
+            // The file is invalid, and will be replaced
+        }
+        MnistGzipIndex built = build(gzipFilePath);
+        Path parent = indexFilePath.toAbsolutePath().getParent();
+        Path temporaryPath = Files.createTempFile(parent,
+            indexFilePath.getFileName().toString(), ".tmp");
+        try
+        {
+            built.write(temporaryPath);
+            try
+            {
+                Files.move(temporaryPath, indexFilePath,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                // A plain move could expose a partially written file
+                // to other processes, so the index is not stored
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temporaryPath);
+        }
+        return built;
+    }
+
+    /**
+     * Returns whether this index matches the given GZIP file. This is
+     * the case when the size of the file and the CRC and size from its
+     * trailer are equal to the ones that have been stored in this index.
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @return Whether the index matches the file
+     * @throws IOException If an IO error occurs
+     */
+    public boolean matches(Path gzipFilePath) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(
+            gzipFilePath, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size != compressedSize || size < 8)
+            {
+                return false;
+            }
+            ByteBuffer trailer =
+                ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (trailer.hasRemaining())
+            {
+                if (channel.read(trailer, size - 8 + trailer.position()) < 0)
+                {
+                    return false;
+                }
+            }
+            long trailerCrc = trailer.getInt(0) & 0xFFFFFFFFL;
+            long trailerSize = trailer.getInt(4) & 0xFFFFFFFFL;
+            return trailerCrc == crc
+                && trailerSize == (uncompressedSize & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Returns an input stream that provides the decompressed data of the
+     * given GZIP file, starting at the given offset. The decompression
+     * starts at the nearest checkpoint before the given offset. The
+     * caller is responsible for closing the returned stream.
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @param offset The offset in the decompressed data
+     * @return The input stream
+     * @throws IOException If an IO error occurs, or this index does not
+     * match the given file
+     * @throws IllegalArgumentException If the offset is negative or
+     * larger than the size of the decompressed data
+     */
+    public InputStream open(Path gzipFilePath, long offset)
+        throws IOException
+    {
+        return open(gzipFilePath, offset, UnaryOperator.identity());
+    }
+
+    /**
+     * Returns an input stream that provides the decompressed data of the
+     * given GZIP file, starting at the given offset.
+     * 
+     * @param gzipFilePath The path of the GZIP file
+     * @param offset The offset in the decompressed data
+     * @param compressedWrapper The function that receives the stream
+     * of the compressed data, and returns the stream that should be
+     * used for reading the compressed data
+     * @return The input stream
+     * @throws IOException If an IO error occurs, or this index does not
+     * match the given file
+     * @throws IllegalArgumentException If the offset is negative or
+     * larger than the size of the decompressed data
+     */
+    InputStream open(Path gzipFilePath, long offset,
+        UnaryOperator<InputStream> compressedWrapper) throws IOException
+    {
+        if (offset < 0 || offset > uncompressedSize)
+        {
+            throw new IllegalArgumentException("The offset must be in [0,"
+                + uncompressedSize + "], but is " + offset);
+        }
+        if (!matches(gzipFilePath))
+        {
+            throw new IOException("The index does not match " + gzipFilePath);
+        }
+        Checkpoint checkpoint = findCheckpoint(offset);
+        FileChannel channel = FileChannel.open(
+            gzipFilePath, StandardOpenOption.READ);
+        InputStream inputStream = null;
+        try
+        {
+            channel.position(checkpoint.bitPosition >>> 3);
+            inputStream = createCheckpointInputStream(
+                compressedWrapper.apply(Channels.newInputStream(channel)),
+                checkpoint);
+            long remaining = offset - checkpoint.output;
+            byte skipBuffer[] = new byte[SKIP_BUFFER_SIZE];
+            while (remaining > 0)
+            {
+                int read = inputStream.read(skipBuffer, 0,
+                    (int) Math.min(remaining, skipBuffer.length));
+                if (read < 0)
+                {
+                    throw new EOFException("Unexpected end of GZIP data");
+                }
+                remaining -= read;
+            }
+            return inputStream;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                if (inputStream != null)
+                {
+                    inputStream.close();
+                }
+                else
+                {
+                    channel.close();
+                }
+            }
+            catch (IOException suppressed)
+            {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the stream that decompresses the data at the given 
+     * checkpoint.<br>
+     * <br>
+     * The block of a checkpoint may start at any bit of a byte, but the 
+     * <code>Inflater</code> can only start decompressing at a byte 
+     * boundary. Shifting the input does not help, because stored blocks 
+     * are aligned to the byte boundaries of the original data. So the 
+     * input is preceded by empty blocks, which end at the same bit of a 
+     * byte as the bits before the block. The first byte of the input is
+     * combined with the last byte of these empty blocks. This is the 
+     * equivalent of <code>inflatePrime</code> in zlib. 
+     * 
+     * @param inputStream The stream that provides the compressed data,
+     * starting at the byte that contains the first bit of the block
+     * @param checkpoint The checkpoint
+     * @return The stream
+     * @throws IOException If an IO error occurs
+     */
+    private static InputStream createCheckpointInputStream(
+        InputStream inputStream, Checkpoint checkpoint) throws IOException
+    {
+        int bitOffset = (int) (checkpoint.bitPosition & 7);
+        InputStream alignedInputStream = inputStream;
+        if (bitOffset != 0)
+        {
+            int first = inputStream.read();
+            if (first < 0)
+            {
+                throw new EOFException("Unexpected end of GZIP data");
+            }
+            // Since 5 * 93 = 465 = 1 (mod 8), this number of empty
+            // blocks has a length of bitOffset bits (mod 8)
+            int numBlocks = (5 * bitOffset) & 7;
+            int numBits = numBlocks * EMPTY_BLOCK_BITS;
+            byte prefix[] = new byte[(numBits + 7) / 8];
+            for (int i = 0; i < numBlocks; i++)
+            {
+                putEmptyBlock(prefix, i * EMPTY_BLOCK_BITS);
+            }
+            prefix[prefix.length - 1] |= first & (0xFF << bitOffset);
+            alignedInputStream = new SequenceInputStream(
+                new ByteArrayInputStream(prefix), inputStream);
+        }
+        Inflater inflater = new Inflater(true);
+        if (checkpoint.window.length > 0)
+        {
+            inflater.setDictionary(checkpoint.window);
+        }
+        return new CheckpointInputStream(alignedInputStream, inflater);
+    }
+
+    /**
+     * Put the bits of an empty DEFLATE block into the given array, 
+     * starting at the given bit. The block is not the last block, and 
+     * has dynamic Huffman codes, where only the end-of-block symbol and
+     * one distance symbol have a code. It has a length of 93 bits.
+     * 
+     * @param data The array
+     * @param bitPosition The position of the first bit
+     */
+    private static void putEmptyBlock(byte data[], int bitPosition)
+    {
+        int p = bitPosition;
+
+        // Not the last block, dynamic Huffman codes
+        p = putBits(data, p, 0, 1);
+        p = putBits(data, p, 2, 2);
+
+        // 257 literal/length codes, 1 distance code, 19 code length codes
+        p = putBits(data, p, 0, 5);
+        p = putBits(data, p, 0, 5);
+        p = putBits(data, p, 15, 4);
+
+        // The code length code, where the symbols 1 and 18 (in the
+        // order 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13,
+        // 2, 14, 1, 15) have a length of 1. So symbol 1 is encoded
+        // as 0, and symbol 18 is encoded as 1.
+        for (int i = 0; i < 19; i++)
+        {
+            p = putBits(data, p, i == 2 || i == 17 ? 1 : 0, 3);
+        }
+
+        // The literals 0...255 have no codes: 138 + 118 zeros with
+        // symbol 18. The end-of-block symbol 256 and the distance
+        // symbol 0 have a length of 1, with symbol 1.
+        p = putBits(data, p, 1, 1);
+        p = putBits(data, p, 138 - 11, 7);
+        p = putBits(data, p, 1, 1);
+        p = putBits(data, p, 118 - 11, 7);
+        p = putBits(data, p, 0, 1);
+        p = putBits(data, p, 0, 1);
+
+        // The end-of-block symbol
+        putBits(data, p, 0, 1);
+    }
+
+    /**
+     * Put the given number of bits of the given value into the given
+     * array, starting at the given bit, with the least significant bit
+     * first
+     * 
+     * @param data The array
+     * @param bitPosition The position of the first bit
+     * @param value The value
+     * @param n The number of bits
+     * @return The position after the last bit
+     */
+    private static int putBits(byte data[], int bitPosition, int value, 
+        int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            int p = bitPosition + i;
+            data[p >> 3] |= ((value >> i) & 1) << (p & 7);
+        }
+        return bitPosition + n;
+    }
+
+    /**
+     * Returns the last checkpoint whose offset is not larger than the
+     * given offset
+     * 
+     * @param offset The offset in the decompressed data
+     * @return The checkpoint
+     */
+    private Checkpoint findCheckpoint(long offset)
+    {
+        int low = 0;
+        int high = checkpoints.length - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if (checkpoints[mid].output <= offset)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        return checkpoints[low];
+    }
+
+    /**
+     * Write this index to the given file. The windows of the checkpoints
+     * are stored in compressed form.
+     * 
+     * @param path The path of the file
+     * @throws IOException If an IO error occurs
+     */
+    public void write(Path path) throws IOException
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(path))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(compressedSize);
+            out.writeLong(crc);
+            out.writeLong(uncompressedSize);
+            out.writeLong(spacing);
+            out.writeInt(checkpoints.length);
+            byte buffer[] = new byte[MnistGzipScanner.WINDOW_SIZE + 1024];
+            for (Checkpoint checkpoint : checkpoints)
+            {
+                out.writeLong(checkpoint.output);
+                out.writeLong(checkpoint.bitPosition);
+                out.writeInt(checkpoint.window.length);
+                deflater.reset();
+                deflater.setInput(checkpoint.window);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished())
+                {
+                    if (length == buffer.length)
+                    {
+                        buffer = Arrays.copyOf(
+                            buffer, buffer.length * 2);
+                    }
+                    length += deflater.deflate(
+                        buffer, length, buffer.length - length);
+                }
+                out.writeInt(length);
+                out.write(buffer, 0, length);
+            }
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read an index from the given file, which must have been written
+     * with {@link #write(Path)}
+     * 
+     * @param path The path of the file
+     * @return The {@link MnistGzipIndex}
+     * @throws IOException If an IO error occurs, or the file does not
+     * contain a valid index
+     */
+    public static MnistGzipIndex read(Path path) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(path))))
+        {
+            int magic = in.readInt();
+            if (magic != MAGIC)
+            {
+                throw new IOException("Expected magic header of 0x"
+                    + Integer.toHexString(MAGIC) + " for GZIP index, "
+                    + "but found 0x" + Integer.toHexString(magic));
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported version of GZIP index "
+                    + "file: " + version);
+            }
+            long compressedSize = in.readLong();
+            long crc = in.readLong();
+            long uncompressedSize = in.readLong();
+            long spacing = in.readLong();
+            int numberOfCheckpoints = in.readInt();
+            if (compressedSize < 0 || uncompressedSize < 0 ||
+                numberOfCheckpoints <= 0)
+            {
+                throw new IOException("Invalid GZIP index header: "
+                    + numberOfCheckpoints + " checkpoints for "
+                    + compressedSize + " bytes");
+            }
+            Checkpoint checkpoints[] = new Checkpoint[numberOfCheckpoints];
+            for (int i = 0; i < numberOfCheckpoints; i++)
+            {
+                long output = in.readLong();
+                long bitPosition = in.readLong();
+                int windowLength = in.readInt();
+                int length = in.readInt();
+                if (windowLength < 0 ||
+                    windowLength > MnistGzipScanner.WINDOW_SIZE ||
+                    length < 0 || output < 0 || output > uncompressedSize ||
+                    bitPosition < 0 || bitPosition >= compressedSize * 8)
+                {
+                    throw new IOException("Invalid checkpoint " + i);
+                }
+                byte data[] = new byte[length];
+                in.readFully(data);
+                byte window[] = new byte[windowLength];
+                inflater.reset();
+                inflater.setInput(data);
+                try
+                {
+                    int n = 0;
+                    while (n < windowLength && !inflater.finished())
+                    {
+                        int inflated = inflater.inflate(
+                            window, n, windowLength - n);
+                        if (inflated == 0 && inflater.needsInput())
+                        {
+                            break;
+                        }
+                        n += inflated;
+                    }
+                    if (n != windowLength)
+                    {
+                        throw new IOException("Invalid window of checkpoint "
+                            + i);
+                    }
+                }
+                catch (DataFormatException e)
+                {
+                    throw new IOException(
+                        "Invalid window of checkpoint " + i, e);
+                }
+                checkpoints[i] = new Checkpoint(output, bitPosition, window);
+            }
+            return new MnistGzipIndex(compressedSize, crc,
+                uncompressedSize, spacing, checkpoints);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the size of the GZIP file
+     * 
+     * @return The compressed size
+     */
+    public long getCompressedSize()
+    {
+        return compressedSize;
+    }
+
+    /**
+     * Returns the size of the decompressed data
+     * 
+     * @return The uncompressed size
+     */
+    public long getUncompressedSize()
+    {
+        return uncompressedSize;
+    }
+
+    /**
+     * Returns the minimum number of decompressed bytes between two
+     * checkpoints
+     * 
+     * @return The spacing
+     */
+    public long getSpacing()
+    {
+        return spacing;
+    }
+
+    /**
+     * Returns the number of checkpoints
+     * 
+     * @return The number of checkpoints
+     */
+    public int getNumberOfCheckpoints()
+    {
+        return checkpoints.length;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistGzipIndex["
+            + "compressedSize=" + compressedSize + ","
+            + "uncompressedSize=" + uncompressedSize + ","
+            + "spacing=" + spacing + ","
+            + "numberOfCheckpoints=" + checkpoints.length + "]";
+    }
+}
@@ -0,0 +1,833 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Package-private class for decompressing a GZIP file in order to build
+ * a {@link MnistGzipIndex}.<br>
+ * <br>
+ * This is a plain implementation of the DEFLATE format (RFC 1951). The
+ * <code>java.util.zip.Inflater</code> can not be used for this purpose,
+ * because it does not report the boundaries of the DEFLATE blocks. The
+ * data at the checkpoints is later decompressed with an 
+ * <code>Inflater</code>.<br>
+ * <br>
+ * With {@link #scan(InputStream, long, long[])}, the scanner decompresses
+ * the whole file, and at the start of each block where at least
+ * <code>spacing</code> bytes have been decompressed since the last
+ * checkpoint, it records a {@link MnistGzipIndex.Checkpoint} with the
+ * position of the block in bits, and the last 32 KB of decompressed
+ * data. The decompressed data itself is only kept in this window. At
+ * the end, the CRC and the size of the decompressed data are compared
+ * to the GZIP trailer.
+ */
+final class MnistGzipScanner
+{
+    /**
+     * The size of the sliding window of the DEFLATE format
+     */
+    static final int WINDOW_SIZE = 32768;
+
+    /**
+     * The maximum length of a Huffman code
+     */
+    private static final int MAX_BITS = 15;
+
+    /**
+     * The number of bits that are decoded with a single table lookup
+     */
+    private static final int FAST_BITS = 9;
+
+    /**
+     * The order of the code length codes in a dynamic block header
+     */
+    private static final int CODE_LENGTH_ORDER[] =
+    {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    /**
+     * The base lengths for the length symbols 257...285
+     */
+    private static final int LENGTH_BASE[] =
+    {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+
+    /**
+     * The number of extra bits for the length symbols 257...285
+     */
+    private static final int LENGTH_EXTRA[] =
+    {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+
+    /**
+     * The base distances for the distance symbols 0...29
+     */
+    private static final int DISTANCE_BASE[] =
+    {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577
+    };
+
+    /**
+     * The number of extra bits for the distance symbols 0...29
+     */
+    private static final int DISTANCE_EXTRA[] =
+    {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    /**
+     * The state before the header of a block
+     */
+    private static final int STATE_HEADER = 0;
+
+    /**
+     * The state inside a stored block
+     */
+    private static final int STATE_STORED = 1;
+
+    /**
+     * The state inside a block with Huffman codes
+     */
+    private static final int STATE_CODES = 2;
+
+    /**
+     * The state after the last block
+     */
+    private static final int STATE_END = 3;
+
+    /**
+     * A canonical Huffman code
+     */
+    private static final class Huffman
+    {
+        /**
+         * The number of codes for each length
+         */
+        final int count[] = new int[MAX_BITS + 1];
+
+        /**
+         * The symbols, ordered by their codes
+         */
+        final int symbol[];
+
+        /**
+         * The lookup table for codes with at most <code>FAST_BITS</code>
+         * bits, indexed by the next (bit-reversed) input bits. Each
+         * entry is <code>(symbol &lt;&lt; 4) | length</code>, or 0 if
+         * the code is longer.
+         */
+        final int fast[] = new int[1 << FAST_BITS];
+
+        /**
+         * Creates a new instance
+         * 
+         * @param maxSymbols The maximum number of symbols
+         */
+        Huffman(int maxSymbols)
+        {
+            this.symbol = new int[maxSymbols];
+        }
+
+        /**
+         * Initialize this code from the given code lengths
+         * 
+         * @param lengths The code lengths
+         * @param offset The offset of the first length
+         * @param n The number of symbols
+         * @throws ZipException If the code lengths are invalid
+         */
+        void build(int lengths[], int offset, int n) throws ZipException
+        {
+            Arrays.fill(count, 0);
+            Arrays.fill(fast, 0);
+            for (int s = 0; s < n; s++)
+            {
+                count[lengths[offset + s]]++;
+            }
+            count[0] = 0;
+            int left = 1;
+            for (int len = 1; len <= MAX_BITS; len++)
+            {
+                left <<= 1;
+                left -= count[len];
+                if (left < 0)
+                {
+                    throw new ZipException("Invalid Huffman code lengths");
+                }
+            }
+            int offsets[] = new int[MAX_BITS + 2];
+            int nextCode[] = new int[MAX_BITS + 2];
+            int code = 0;
+            for (int len = 1; len <= MAX_BITS; len++)
+            {
+                offsets[len + 1] = offsets[len] + count[len];
+                code = (code + count[len - 1]) << 1;
+                nextCode[len] = code;
+            }
+            for (int s = 0; s < n; s++)
+            {
+                int len = lengths[offset + s];
+                if (len == 0)
+                {
+                    continue;
+                }
+                symbol[offsets[len]++] = s;
+                int c = nextCode[len]++;
+                if (len <= FAST_BITS)
+                {
+                    int reversed = Integer.reverse(c) >>> (32 - len);
+                    for (int i = reversed; i < fast.length; i += 1 << len)
+                    {
+                        fast[i] = (s << 4) | len;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The input stream
+     */
+    private final InputStream inputStream;
+
+    /**
+     * The input buffer
+     */
+    private final byte buffer[];
+
+    /**
+     * The position in the input buffer
+     */
+    private int bufferPosition;
+
+    /**
+     * The number of valid bytes in the input buffer
+     */
+    private int bufferLimit;
+
+    /**
+     * The number of bytes that have been fetched from the input stream
+     */
+    private long bytesFetched;
+
+    /**
+     * The bits that have been fetched but not consumed yet
+     */
+    private long bitBuffer;
+
+    /**
+     * The number of bits in the bit buffer
+     */
+    private int bitCount;
+
+    /**
+     * The sliding window of decompressed data
+     */
+    private final byte window[];
+
+    /**
+     * The position in the window
+     */
+    private int windowPosition;
+
+    /**
+     * The start of the data in the window that was not added to the
+     * CRC yet
+     */
+    private int crcStart;
+
+    /**
+     * The total number of decompressed bytes
+     */
+    private long output;
+
+    /**
+     * The CRC of the decompressed data
+     */
+    private final CRC32 crc;
+
+    /**
+     * The current state, one of the <code>STATE_...</code> constants
+     */
+    private int state;
+
+    /**
+     * Whether the current block is the last one
+     */
+    private boolean lastBlock;
+
+    /**
+     * The number of bytes of the current stored block that have not
+     * been decompressed yet
+     */
+    private int storedRemaining;
+
+    /**
+     * The number of bytes of the current length/distance pair that have
+     * not been copied yet
+     */
+    private int copyRemaining;
+
+    /**
+     * The distance of the current length/distance pair
+     */
+    private int copyDistance;
+
+    /**
+     * The literal/length code
+     */
+    private final Huffman literalCode;
+
+    /**
+     * The distance code
+     */
+    private final Huffman distanceCode;
+
+    /**
+     * The code length code of dynamic blocks
+     */
+    private final Huffman codeLengthCode;
+
+    /**
+     * The code lengths of dynamic blocks
+     */
+    private final int lengths[];
+
+    /**
+     * Creates a new instance
+     * 
+     * @param inputStream The input stream
+     */
+    private MnistGzipScanner(InputStream inputStream)
+    {
+        this.inputStream = inputStream;
+        this.buffer = new byte[65536];
+        this.window = new byte[WINDOW_SIZE];
+        this.crc = new CRC32();
+        this.state = STATE_HEADER;
+        this.literalCode = new Huffman(288);
+        this.distanceCode = new Huffman(32);
+        this.codeLengthCode = new Huffman(19);
+        this.lengths = new int[288 + 32];
+    }
+
+    /**
+     * Scan the given GZIP stream, and return the checkpoints. The caller
+     * is responsible for closing the given stream.
+     * 
+     * @param inputStream The stream
+     * @param spacing The minimum number of decompressed bytes between
+     * two checkpoints
+     * @param trailer An array that will store the CRC from the GZIP
+     * trailer, and the size of the decompressed data
+     * @return The checkpoints
+     * @throws IOException If an IO error occurs, or the stream does not
+     * contain valid GZIP data
+     */
+    static List<MnistGzipIndex.Checkpoint> scan(InputStream inputStream,
+        long spacing, long trailer[]) throws IOException
+    {
+        MnistGzipScanner scanner = new MnistGzipScanner(inputStream);
+        scanner.readHeader();
+        List<MnistGzipIndex.Checkpoint> checkpoints =
+            new ArrayList<MnistGzipIndex.Checkpoint>();
+        long lastCheckpoint = 0;
+        while (true)
+        {
+            if (scanner.state == STATE_HEADER && (checkpoints.isEmpty() ||
+                scanner.output - lastCheckpoint >= spacing))
+            {
+                checkpoints.add(scanner.createCheckpoint());
+                lastCheckpoint = scanner.output;
+            }
+            if (scanner.inflate(Integer.MAX_VALUE) < 0)
+            {
+                break;
+            }
+        }
+        scanner.readTrailer(trailer);
+        return checkpoints;
+    }
+
+    /**
+     * Decompress up to the given number of bytes into the window. This 
+     * returns early at the end of each block, so it may also return 0,
+     * for example for an empty block.
+     * 
+     * @param len The maximum number of bytes
+     * @return The number of bytes, or -1 if the last block was completed
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private int inflate(int len) throws IOException
+    {
+        if (state == STATE_END)
+        {
+            return -1;
+        }
+        if (state == STATE_HEADER)
+        {
+            readBlockHeader();
+        }
+        long start = output;
+        if (state == STATE_STORED)
+        {
+            int n = Math.min(storedRemaining, len);
+            for (int i = 0; i < n; i++)
+            {
+                put(bits(8));
+            }
+            storedRemaining -= n;
+            if (storedRemaining == 0)
+            {
+                endBlock();
+            }
+        }
+        else
+        {
+            codes(len);
+        }
+        return (int) (output - start);
+    }
+
+    /**
+     * Read the GZIP header
+     * 
+     * @throws IOException If an IO error occurs, or the header is invalid
+     */
+    private void readHeader() throws IOException
+    {
+        int magic = bits(16);
+        if (magic != 0x8B1F)
+        {
+            throw new ZipException("Not in GZIP format");
+        }
+        int method = bits(8);
+        if (method != 8)
+        {
+            throw new ZipException("Unsupported compression method: "
+                + method);
+        }
+        int flags = bits(8);
+
+        // Skip the modification time, extra flags and operating system
+        for (int i = 0; i < 6; i++)
+        {
+            bits(8);
+        }
+        if ((flags & 4) != 0)
+        {
+            int extraLength = bits(16);
+            for (int i = 0; i < extraLength; i++)
+            {
+                bits(8);
+            }
+        }
+        if ((flags & 8) != 0)
+        {
+            while (bits(8) != 0)
+            {
+                // Skip the file name
+            }
+        }
+        if ((flags & 16) != 0)
+        {
+            while (bits(8) != 0)
+            {
+                // Skip the comment
+            }
+        }
+        if ((flags & 2) != 0)
+        {
+            bits(16);
+        }
+    }
+
+    /**
+     * Read the GZIP trailer, and compare it to the decompressed data
+     * 
+     * @param trailer An array that will store the CRC and the size
+     * of the decompressed data
+     * @throws IOException If an IO error occurs, or the trailer does not
+     * match the decompressed data
+     */
+    private void readTrailer(long trailer[]) throws IOException
+    {
+        bits(bitCount & 7);
+        crc.update(window, crcStart, windowPosition - crcStart);
+        crcStart = windowPosition;
+        long expectedCrc = bits(16) | ((long) bits(16) << 16);
+        long expectedSize = bits(16) | ((long) bits(16) << 16);
+        if (expectedCrc != crc.getValue())
+        {
+            throw new ZipException("Corrupt GZIP trailer: Expected CRC 0x"
+                + Long.toHexString(expectedCrc) + ", but found 0x"
+                + Long.toHexString(crc.getValue()));
+        }
+        if (expectedSize != (output & 0xFFFFFFFFL))
+        {
+            throw new ZipException("Corrupt GZIP trailer: Expected size "
+                + expectedSize + ", but found " + output);
+        }
+        if (fill(16) && (bitBuffer & 0xFFFF) == 0x8B1F)
+        {
+            throw new ZipException("GZIP files with multiple members "
+                + "are not supported");
+        }
+        trailer[0] = expectedCrc;
+        trailer[1] = output;
+    }
+
+    /**
+     * Create a checkpoint at the current position, which is assumed to
+     * be the start of a block
+     * 
+     * @return The checkpoint
+     */
+    private MnistGzipIndex.Checkpoint createCheckpoint()
+    {
+        int length = (int) Math.min(output, WINDOW_SIZE);
+        byte data[] = new byte[length];
+        int start = (windowPosition - length) & (WINDOW_SIZE - 1);
+        int first = Math.min(length, WINDOW_SIZE - start);
+        System.arraycopy(window, start, data, 0, first);
+        System.arraycopy(window, 0, data, first, length - first);
+        long bitPosition = bytesFetched * 8 - bitCount;
+        return new MnistGzipIndex.Checkpoint(output, bitPosition, data);
+    }
+
+    /**
+     * Read the header of the next block, and switch to the state for
+     * decoding its data
+     * 
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private void readBlockHeader() throws IOException
+    {
+        lastBlock = bits(1) == 1;
+        int type = bits(2);
+        switch (type)
+        {
+            case 0:
+                storedHeader();
+                state = STATE_STORED;
+                break;
+            case 1:
+                fixedHeader();
+                state = STATE_CODES;
+                break;
+            case 2:
+                dynamicHeader();
+                state = STATE_CODES;
+                break;
+            default:
+                throw new ZipException("Invalid block type: " + type);
+        }
+    }
+
+    /**
+     * Switch to the state after the current block
+     */
+    private void endBlock()
+    {
+        state = lastBlock ? STATE_END : STATE_HEADER;
+    }
+
+    /**
+     * Read the header of a stored block
+     * 
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private void storedHeader() throws IOException
+    {
+        bits(bitCount & 7);
+        int length = bits(16);
+        int complement = bits(16);
+        if (length != (~complement & 0xFFFF))
+        {
+            throw new ZipException("Invalid stored block length");
+        }
+        storedRemaining = length;
+    }
+
+    /**
+     * Prepare the fixed Huffman codes
+     * 
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private void fixedHeader() throws IOException
+    {
+        for (int s = 0; s < 144; s++)
+        {
+            lengths[s] = 8;
+        }
+        for (int s = 144; s < 256; s++)
+        {
+            lengths[s] = 9;
+        }
+        for (int s = 256; s < 280; s++)
+        {
+            lengths[s] = 7;
+        }
+        for (int s = 280; s < 288; s++)
+        {
+            lengths[s] = 8;
+        }
+        literalCode.build(lengths, 0, 288);
+        for (int s = 0; s < 30; s++)
+        {
+            lengths[s] = 5;
+        }
+        distanceCode.build(lengths, 0, 30);
+    }
+
+    /**
+     * Read the header of a block with dynamic Huffman codes, and build
+     * the codes
+     * 
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private void dynamicHeader() throws IOException
+    {
+        int numLengths = bits(5) + 257;
+        int numDistances = bits(5) + 1;
+        int numCodeLengths = bits(4) + 4;
+        if (numLengths > 286 || numDistances > 30)
+        {
+            throw new ZipException("Invalid dynamic block header");
+        }
+        for (int i = 0; i < 19; i++)
+        {
+            lengths[CODE_LENGTH_ORDER[i]] =
+                i < numCodeLengths ? bits(3) : 0;
+        }
+        codeLengthCode.build(lengths, 0, 19);
+        int n = numLengths + numDistances;
+        int index = 0;
+        while (index < n)
+        {
+            int s = decode(codeLengthCode);
+            if (s < 16)
+            {
+                lengths[index++] = s;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if (s == 16)
+            {
+                if (index == 0)
+                {
+                    throw new ZipException("Invalid repeat of code length");
+                }
+                value = lengths[index - 1];
+                repeat = 3 + bits(2);
+            }
+            else if (s == 17)
+            {
+                repeat = 3 + bits(3);
+            }
+            else
+            {
+                repeat = 11 + bits(7);
+            }
+            if (index + repeat > n)
+            {
+                throw new ZipException("Too many code lengths");
+            }
+            while (repeat-- > 0)
+            {
+                lengths[index++] = value;
+            }
+        }
+        if (lengths[256] == 0)
+        {
+            throw new ZipException("Missing end-of-block code");
+        }
+        literalCode.build(lengths, 0, numLengths);
+        distanceCode.build(lengths, numLengths, numDistances);
+    }
+
+    /**
+     * Decode the literals and length/distance pairs of a block, until
+     * the given number of bytes have been decompressed, or the
+     * end-of-block code was found
+     * 
+     * @param len The maximum number of bytes
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private void codes(int len) throws IOException
+    {
+        int remaining = len;
+        while (remaining > 0)
+        {
+            if (copyRemaining > 0)
+            {
+                int n = Math.min(copyRemaining, remaining);
+                int source = 
+                    (windowPosition - copyDistance) & (WINDOW_SIZE - 1);
+                for (int i = 0; i < n; i++)
+                {
+                    put(window[source] & 0xFF);
+                    source = (source + 1) & (WINDOW_SIZE - 1);
+                }
+                copyRemaining -= n;
+                remaining -= n;
+                continue;
+            }
+            int s = decode(literalCode);
+            if (s < 256)
+            {
+                put(s);
+                remaining--;
+                continue;
+            }
+            if (s == 256)
+            {
+                endBlock();
+                return;
+            }
+            s -= 257;
+            if (s >= 29)
+            {
+                throw new ZipException("Invalid length symbol");
+            }
+            int length = LENGTH_BASE[s] + bits(LENGTH_EXTRA[s]);
+            int d = decode(distanceCode);
+            if (d >= 30)
+            {
+                throw new ZipException("Invalid distance symbol");
+            }
+            int distance = DISTANCE_BASE[d] + bits(DISTANCE_EXTRA[d]);
+            if (distance > output)
+            {
+                throw new ZipException("Invalid distance too far back");
+            }
+            copyRemaining = length;
+            copyDistance = distance;
+        }
+    }
+
+    /**
+     * Decode a symbol with the given code
+     * 
+     * @param huffman The code
+     * @return The symbol
+     * @throws IOException If an IO error occurs, or the data is invalid
+     */
+    private int decode(Huffman huffman) throws IOException
+    {
+        fill(FAST_BITS);
+        int entry = huffman.fast[(int) bitBuffer & ((1 << FAST_BITS) - 1)];
+        int length = entry & 15;
+        if (entry != 0 && length <= bitCount)
+        {
+            bitBuffer >>>= length;
+            bitCount -= length;
+            return entry >>> 4;
+        }
+
+        // Decode the code bit by bit, using the canonical ordering
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int len = 1; len <= MAX_BITS; len++)
+        {
+            code |= bits(1);
+            int count = huffman.count[len];
+            if (code - count < first)
+            {
+                return huffman.symbol[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new ZipException("Invalid Huffman code");
+    }
+
+    /**
+     * Append the given byte to the decompressed data
+     * 
+     * @param b The byte
+     */
+    private void put(int b)
+    {
+        window[windowPosition++] = (byte) b;
+        output++;
+        if (windowPosition == WINDOW_SIZE)
+        {
+            crc.update(window, crcStart, WINDOW_SIZE - crcStart);
+            windowPosition = 0;
+            crcStart = 0;
+        }
+    }
+
+    /**
+     * Read the given number of bits
+     * 
+     * @param n The number of bits, at most 16
+     * @return The bits
+     * @throws IOException If an IO error occurs, or the end of the stream
+     * was reached
+     */
+    private int bits(int n) throws IOException
+    {
+        if (bitCount < n && !fill(n))
+        {
+            throw new EOFException("Unexpected end of GZIP data");
+        }
+        int result = (int) (bitBuffer & ((1L << n) - 1));
+        bitBuffer >>>= n;
+        bitCount -= n;
+        return result;
+    }
+
+    /**
+     * Try to fetch bytes from the input until the bit buffer contains at
+     * least the given number of bits
+     * 
+     * @param n The number of bits
+     * @return Whether the bit buffer contains the given number of bits
+     * @throws IOException If an IO error occurs
+     */
+    private boolean fill(int n) throws IOException
+    {
+        while (bitCount < n)
+        {
+            if (bufferPosition == bufferLimit)
+            {
+                int read = inputStream.read(buffer);
+                if (read < 0)
+                {
+                    return false;
+                }
+                bufferPosition = 0;
+                bufferLimit = read;
+                continue;
+            }
+            bitBuffer |= (long) (buffer[bufferPosition++] & 0xFF) << bitCount;
+            bitCount += 8;
+            bytesFetched++;
+        }
+        return true;
+    }
+}
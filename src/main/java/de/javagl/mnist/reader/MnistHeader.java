@@ -0,0 +1,208 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Package-private class summarizing the information that is contained in
+ * the headers of a pair of MNIST images- and labels files.
+ */
+final class MnistHeader
+{
+    /**
+     * The size of the header of an images file, in bytes
+     */
+    static final int IMAGES_HEADER_SIZE = 16;
+
+    /**
+     * The size of the header of a labels file, in bytes
+     */
+    static final int LABELS_HEADER_SIZE = 8;
+
+    /**
+     * The number of entries
+     */
+    private final int numberOfEntries;
+
+    /**
+     * The number of rows of each image
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of each image
+     */
+    private final int numCols;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param numberOfEntries The number of entries
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     */
+    private MnistHeader(int numberOfEntries, int numRows, int numCols)
+    {
+        this.numberOfEntries = numberOfEntries;
+        this.numRows = numRows;
+        this.numCols = numCols;
+    }
+
+    /**
+     * Read the headers with the given readers. After this method returns,
+     * the readers will be positioned at the first image and the first 
+     * label, respectively.
+     * 
+     * @param imagesIdxReader The images reader
+     * @param labelsIdxReader The labels reader
+     * @return The header
+     * @throws IOException If an IO error occurs, or the headers are not
+     * valid MNIST headers
+     */
+    static MnistHeader read(
+        IdxReader imagesIdxReader, IdxReader labelsIdxReader) 
+            throws IOException
+    {
+        IdxHeader imagesHeader = imagesIdxReader.readHeader();
+        IdxHeader labelsHeader = labelsIdxReader.readHeader();
+        validateMagic(imagesHeader.getMagic(), labelsHeader.getMagic());
+        int numberOfImages = imagesHeader.getDimension(0);
+        int numberOfLabels = labelsHeader.getDimension(0);
+        int numRows = imagesHeader.getDimension(1);
+        int numCols = imagesHeader.getDimension(2);
+        return create(numberOfImages, numberOfLabels, numRows, numCols);
+    }
+
+    /**
+     * Read the headers from the given buffers. The data will be read
+     * with absolute accesses, starting at index 0, and assuming
+     * big-endian byte order. The positions of the given buffers
+     * are not modified.
+     * 
+     * @param imagesBuffer The images buffer
+     * @param labelsBuffer The labels buffer
+     * @return The header
+     * @throws IOException If the buffers are too small, or do not contain
+     * valid MNIST headers
+     */
+    static MnistHeader read(
+        ByteBuffer imagesBuffer, ByteBuffer labelsBuffer) throws IOException
+    {
+        if (imagesBuffer.capacity() < IMAGES_HEADER_SIZE)
+        {
+            throw new IOException("Expected at least " + IMAGES_HEADER_SIZE
+                + " bytes for the images header, but found "
+                + imagesBuffer.capacity());
+        }
+        if (labelsBuffer.capacity() < LABELS_HEADER_SIZE)
+        {
+            throw new IOException("Expected at least " + LABELS_HEADER_SIZE
+                + " bytes for the labels header, but found "
+                + labelsBuffer.capacity());
+        }
+        validateMagic(imagesBuffer.getInt(0), labelsBuffer.getInt(0));
+        int numberOfImages = imagesBuffer.getInt(4);
+        int numberOfLabels = labelsBuffer.getInt(4);
+        int numRows = imagesBuffer.getInt(8);
+        int numCols = imagesBuffer.getInt(12);
+        return create(numberOfImages, numberOfLabels, numRows, numCols);
+    }
+
+    /**
+     * Make sure that the given magic numbers are the ones of MNIST
+     * images- and labels files
+     * 
+     * @param magicImages The magic number of the images
+     * @param magicLabels The magic number of the labels
+     * @throws IOException If the magic numbers are invalid
+     */
+    private static void validateMagic(int magicImages, int magicLabels)
+        throws IOException
+    {
+        if (magicImages != 0x803)
+        {
+            throw new IOException("Expected magic header of 0x803 "
+                + "for images, but found " + magicImages);
+        }
+        if (magicLabels != 0x801)
+        {
+            throw new IOException("Expected magic header of 0x801 "
+                + "for labels, but found " + magicLabels);
+        }
+    }
+
+    /**
+     * Create a header from the given values, after validating them
+     * 
+     * @param numberOfImages The number of images
+     * @param numberOfLabels The number of labels
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     * @return The header
+     * @throws IOException If the values are not consistent
+     */
+    private static MnistHeader create(int numberOfImages, int numberOfLabels,
+        int numRows, int numCols) throws IOException
+    {
+        if (numberOfImages != numberOfLabels)
+        {
+            throw new IOException("Found " + numberOfImages
+                + " images but " + numberOfLabels + " labels");
+        }
+        if (numberOfImages < 0 || numRows <= 0 || numCols <= 0)
+        {
+            throw new IOException("Invalid header: " + numberOfImages
+                + " images with " + numRows + "x" + numCols + " pixels");
+        }
+        if ((long) numRows * numCols > Integer.MAX_VALUE)
+        {
+            throw new IOException("Images with " + numRows + "x" + numCols
+                + " pixels are too large");
+        }
+        return new MnistHeader(numberOfImages, numRows, numCols);
+    }
+
+    /**
+     * Returns the number of entries
+     * 
+     * @return The number of entries
+     */
+    int getNumberOfEntries()
+    {
+        return numberOfEntries;
+    }
+
+    /**
+     * Returns the number of rows of each image
+     * 
+     * @return The number of rows
+     */
+    int getNumRows()
+    {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns of each image
+     * 
+     * @return The number of columns
+     */
+    int getNumCols()
+    {
+        return numCols;
+    }
+
+    /**
+     * Returns the number of bytes (pixels) of each image
+     * 
+     * @return The image size
+     */
+    int getImageSize()
+    {
+        return numRows * numCols;
+    }
+
+}
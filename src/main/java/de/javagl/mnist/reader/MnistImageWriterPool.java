@@ -0,0 +1,215 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.awt.image.RenderedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Package-private class for encoding and writing PNG files on a pool 
+ * of worker threads.<br>
+ * <br>
+ * The number of images that may be pending (queued or being written) 
+ * is limited. When this limit is reached, then {@link #submit} blocks 
+ * until a worker has finished writing an image. If writing an image
+ * fails, then the failure is reported by the next call to 
+ * {@link #submit} or by {@link #close()}.
+ */
+final class MnistImageWriterPool implements Closeable
+{
+    /**
+     * The executor service that writes the images
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * The semaphore that limits the number of pending images
+     */
+    private final Semaphore pending;
+
+    /**
+     * The maximum number of pending images
+     */
+    private final int maxPending;
+
+    /**
+     * The first failure that occurred while writing an image
+     */
+    private volatile IOException failure;
+
+    /**
+     * Whether {@link #close()} was called
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param numberOfThreads The number of worker threads
+     * @param maxPending The maximum number of pending images
+     * @param threadName The name of the worker threads, to which a
+     * number is appended for each thread
+     * @throws IllegalArgumentException If the number of threads or the
+     * maximum number of pending images is not positive
+     */
+    MnistImageWriterPool(int numberOfThreads, int maxPending, 
+        String threadName)
+    {
+        if (numberOfThreads <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfThreads must be positive, but is "
+                + numberOfThreads);
+        }
+        if (maxPending <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The maxPending must be positive, but is " + maxPending);
+        }
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executorService = Executors.newFixedThreadPool(
+            numberOfThreads, r -> 
+        {
+            Thread thread = new Thread(r, 
+                threadName + "-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Submit the given image to be written as a PNG file to the given
+     * path. The image may not be modified after it was submitted. 
+     * 
+     * @param image The image
+     * @param path The path of the PNG file
+     * @throws IOException If a previously submitted image could not be
+     * written, or the calling thread is interrupted while waiting
+     * @throws IllegalStateException If this pool was already closed
+     */
+    void submit(RenderedImage image, Path path) throws IOException
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The pool was already closed");
+        }
+        checkFailure();
+        try
+        {
+            pending.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for the image writers");
+        }
+        try
+        {
+            executorService.execute(() -> 
+            {
+                try
+                {
+                    write(image, path);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    if (failure == null)
+                    {
+                        failure = e instanceof IOException ? (IOException) e
+                            : new IOException("Could not write " + path, e);
+                    }
+                }
+                finally
+                {
+                    pending.release();
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            // The task was not accepted, so it will not release the permit
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the given image as a PNG file to the given path
+     * 
+     * @param image The image
+     * @param path The path
+     * @throws IOException If an IO error occurs
+     */
+    private static void write(RenderedImage image, Path path) 
+        throws IOException
+    {
+        if (!ImageIO.write(image, "png", path.toFile()))
+        {
+            throw new IOException("No PNG writer available for " + path);
+        }
+    }
+
+    /**
+     * Throw the first failure that occurred while writing an image, 
+     * if there was one
+     * 
+     * @throws IOException The failure
+     */
+    private void checkFailure() throws IOException
+    {
+        IOException e = failure;
+        if (e != null)
+        {
+            throw new IOException("Could not write image", e);
+        }
+    }
+
+    /**
+     * Wait until all submitted images have been written, and shut down
+     * the worker threads
+     * 
+     * @throws IOException If an image could not be written, or the
+     * calling thread is interrupted while waiting
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        try
+        {
+            pending.acquire(maxPending);
+            pending.release(maxPending);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            executorService.shutdownNow();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for the image writers");
+        }
+        executorService.shutdown();
+        try
+        {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+}
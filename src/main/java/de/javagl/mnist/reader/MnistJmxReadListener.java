@@ -0,0 +1,303 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Implementation of a {@link MnistReadListener} that summarizes the
+ * {@link MnistReadMetrics} of all reading operations, and offers them 
+ * via JMX, as a {@link MnistReadMetricsMXBean}.<br>
+ * <br>
+ * Example:
+ * <pre><code>
+ * MnistJmxReadListener listener = new MnistJmxReadListener();
+ * listener.register("training");
+ * reader.setReadListener(listener);
+ * </code></pre>
+ * The values will then be shown, for example, in JConsole, under
+ * <code>de.javagl.mnist.reader:type=MnistReadMetrics,name=training</code>.
+ * <br>
+ * <br>
+ * This class is thread-safe.
+ */
+public final class MnistJmxReadListener 
+    implements MnistReadListener, MnistReadMetricsMXBean
+{
+    /**
+     * The domain of the object names
+     */
+    private static final String DOMAIN = "de.javagl.mnist.reader";
+
+    /**
+     * The number of reading operations
+     */
+    private long readCount;
+
+    /**
+     * The total number of entries
+     */
+    private long totalEntries;
+
+    /**
+     * The total number of compressed bytes
+     */
+    private long totalCompressedBytes;
+
+    /**
+     * The total number of decompressed bytes
+     */
+    private long totalDecompressedBytes;
+
+    /**
+     * The total header time, in nanoseconds
+     */
+    private long totalHeaderNanos;
+
+    /**
+     * The total reading time, in nanoseconds
+     */
+    private long totalReadNanos;
+
+    /**
+     * The total IO time, in nanoseconds
+     */
+    private long totalIoNanos;
+
+    /**
+     * The total consumer time, in nanoseconds
+     */
+    private long totalConsumerNanos;
+
+    /**
+     * The total time, in nanoseconds
+     */
+    private long totalNanos;
+
+    /**
+     * The most recent metrics
+     */
+    private MnistReadMetrics lastMetrics;
+
+    /**
+     * The name under which this instance was registered
+     */
+    private ObjectName objectName;
+
+    /**
+     * Default constructor
+     */
+    public MnistJmxReadListener()
+    {
+        // Default constructor
+    }
+
+    /**
+     * Register this instance at the platform MBean server, with an
+     * object name of the form
+     * <code>de.javagl.mnist.reader:type=MnistReadMetrics,name=NAME</code>
+     * 
+     * @param name The name
+     * @return The object name
+     * @throws NullPointerException If the name is <code>null</code>
+     * @throws IllegalStateException If this instance is already 
+     * registered, or the registration fails, for example, because 
+     * the name is invalid or already in use
+     */
+    public synchronized ObjectName register(String name)
+    {
+        Objects.requireNonNull(name, "The name may not be null");
+        if (objectName != null)
+        {
+            throw new IllegalStateException(
+                "The listener is already registered as " + objectName);
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            ObjectName newObjectName = new ObjectName(
+                DOMAIN + ":type=MnistReadMetrics,name=" + name);
+            mBeanServer.registerMBean(this, newObjectName);
+            objectName = newObjectName;
+            return newObjectName;
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException(
+                "Could not register the listener as " + name, e);
+        }
+    }
+
+    /**
+     * Unregister this instance from the platform MBean server. If this
+     * instance is not registered, then nothing is done.
+     * 
+     * @throws IllegalStateException If the unregistration fails
+     */
+    public synchronized void unregister()
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mBeanServer.unregisterMBean(objectName);
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException(
+                "Could not unregister the listener " + objectName, e);
+        }
+        finally
+        {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public synchronized void readCompleted(MnistReadMetrics mnistReadMetrics)
+    {
+        readCount++;
+        totalEntries += mnistReadMetrics.getNumberOfEntries();
+        totalCompressedBytes += mnistReadMetrics.getCompressedBytes();
+        totalDecompressedBytes += mnistReadMetrics.getDecompressedBytes();
+        totalHeaderNanos += mnistReadMetrics.getHeaderNanos();
+        totalReadNanos += mnistReadMetrics.getReadNanos();
+        totalIoNanos += mnistReadMetrics.getIoNanos();
+        totalConsumerNanos += mnistReadMetrics.getConsumerNanos();
+        totalNanos += mnistReadMetrics.getTotalNanos();
+        lastMetrics = mnistReadMetrics;
+    }
+
+    /**
+     * Returns the most recent {@link MnistReadMetrics} that have been
+     * passed to this listener
+     * 
+     * @return The metrics, or <code>null</code> if no reading operation
+     * was completed since this instance was created or reset
+     */
+    public synchronized MnistReadMetrics getLastMetrics()
+    {
+        return lastMetrics;
+    }
+
+    @Override
+    public synchronized long getReadCount()
+    {
+        return readCount;
+    }
+
+    @Override
+    public synchronized long getTotalEntries()
+    {
+        return totalEntries;
+    }
+
+    @Override
+    public synchronized long getTotalCompressedBytes()
+    {
+        return totalCompressedBytes;
+    }
+
+    @Override
+    public synchronized long getTotalDecompressedBytes()
+    {
+        return totalDecompressedBytes;
+    }
+
+    @Override
+    public synchronized double getTotalHeaderMillis()
+    {
+        return toMillis(totalHeaderNanos);
+    }
+
+    @Override
+    public synchronized double getTotalReadMillis()
+    {
+        return toMillis(totalReadNanos);
+    }
+
+    @Override
+    public synchronized double getTotalIoMillis()
+    {
+        return toMillis(totalIoNanos);
+    }
+
+    @Override
+    public synchronized double getTotalConsumerMillis()
+    {
+        return toMillis(totalConsumerNanos);
+    }
+
+    @Override
+    public synchronized double getTotalMillis()
+    {
+        return toMillis(totalNanos);
+    }
+
+    @Override
+    public synchronized double getEntriesPerSecond()
+    {
+        if (totalNanos <= 0)
+        {
+            return 0.0;
+        }
+        return totalEntries * (double) TimeUnit.SECONDS.toNanos(1) 
+            / totalNanos;
+    }
+
+    @Override
+    public synchronized double getLastEntriesPerSecond()
+    {
+        if (lastMetrics == null)
+        {
+            return 0.0;
+        }
+        return lastMetrics.getEntriesPerSecond();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        readCount = 0;
+        totalEntries = 0;
+        totalCompressedBytes = 0;
+        totalDecompressedBytes = 0;
+        totalHeaderNanos = 0;
+        totalReadNanos = 0;
+        totalIoNanos = 0;
+        totalConsumerNanos = 0;
+        totalNanos = 0;
+        lastMetrics = null;
+    }
+
+    /**
+     * Convert the given nanoseconds into milliseconds
+     * 
+     * @param nanos The nanoseconds
+     * @return The milliseconds
+     */
+    private static double toMillis(long nanos)
+    {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "MnistJmxReadListener["
+            + "readCount=" + readCount + ","
+            + "totalEntries=" + totalEntries + ","
+            + "totalCompressedBytes=" + totalCompressedBytes + ","
+            + "totalDecompressedBytes=" + totalDecompressedBytes + "]";
+    }
+}
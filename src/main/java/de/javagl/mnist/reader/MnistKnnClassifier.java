@@ -0,0 +1,558 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A k-nearest-neighbor classifier for MNIST images, based on the squared
+ * Euclidean distance between the raw pixel values.<br>
+ * <br>
+ * The training data is given as a {@link MnistDataBlock}, so that the 
+ * pixels of all training images are stored in one contiguous array. The
+ * distances are computed in blocks: A block of query images is compared 
+ * to one block of training images at a time, which is small enough to 
+ * remain in the cache while it is compared to all queries of the block. 
+ * When multiple queries are classified, the query blocks are processed 
+ * in parallel, in the common fork-join pool. The k nearest neighbors of 
+ * each query are kept in a max-heap that is stored in an 
+ * <code>int</code> array. The computation of a distance is stopped
+ * early when it exceeds the distance of the k-th nearest neighbor that
+ * was found so far.<br>
+ * <br>
+ * The label of a query is the most frequent label among its k nearest
+ * neighbors. If multiple labels are equally frequent, then the one with
+ * the nearest neighbor is chosen.<br>
+ * <br>
+ * Instances of this class are immutable and thread-safe, as long as 
+ * the training data is not modified.
+ */
+public final class MnistKnnClassifier
+{
+    /**
+     * The number of query images in one block
+     */
+    private static final int QUERY_BLOCK_SIZE = 32;
+
+    /**
+     * The number of training images in one block
+     */
+    private static final int TRAINING_BLOCK_SIZE = 256;
+
+    /**
+     * The number of pixels after which the computation of a distance
+     * may be stopped early
+     */
+    private static final int DISTANCE_CHUNK_SIZE = 128;
+
+    /**
+     * The number of distinct label values
+     */
+    private static final int NUMBER_OF_LABEL_VALUES = 256;
+
+    /**
+     * The training data
+     */
+    private final MnistDataBlock trainingData;
+
+    /**
+     * The number of neighbors
+     */
+    private final int k;
+
+    /**
+     * The number of pixels of each image
+     */
+    private final int imageSize;
+
+    /**
+     * Creates a new classifier
+     * 
+     * @param trainingData The training data
+     * @param k The number of neighbors that are considered
+     * @throws NullPointerException If the training data is 
+     * <code>null</code>
+     * @throws IllegalArgumentException If <code>k</code> is not positive,
+     * or larger than the size of the training data
+     */
+    public MnistKnnClassifier(MnistDataBlock trainingData, int k)
+    {
+        this.trainingData = Objects.requireNonNull(
+            trainingData, "The trainingData may not be null");
+        if (k <= 0 || k > trainingData.size())
+        {
+            throw new IllegalArgumentException("The k must be in [1," 
+                + trainingData.size() + "], but is " + k);
+        }
+        this.k = k;
+        this.imageSize = trainingData.getNumRows() * trainingData.getNumCols();
+    }
+
+    /**
+     * Returns the number of neighbors that are considered
+     * 
+     * @return The number of neighbors
+     */
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+     * Returns the indices of the k nearest neighbors of the given image
+     * in the training data, sorted by their distance
+     * 
+     * @param imageData The image data
+     * @param offset The offset of the image in the given array
+     * @return The indices of the nearest neighbors
+     * @throws IndexOutOfBoundsException If the given array is too small
+     */
+    public int[] findNearestNeighbors(byte imageData[], int offset)
+    {
+        checkQuery(imageData, offset);
+        int heapDistances[] = new int[k];
+        int heapIndices[] = new int[k];
+        int heapSizes[] = new int[1];
+        search(imageData, offset, 1, heapDistances, heapIndices, heapSizes);
+        sortHeap(heapDistances, heapIndices, 0, heapSizes[0]);
+        return heapIndices;
+    }
+
+    /**
+     * Classify the given image
+     * 
+     * @param imageData The image data
+     * @param offset The offset of the image in the given array
+     * @return The label
+     * @throws IndexOutOfBoundsException If the given array is too small
+     */
+    public byte classify(byte imageData[], int offset)
+    {
+        checkQuery(imageData, offset);
+        int heapDistances[] = new int[k];
+        int heapIndices[] = new int[k];
+        int heapSizes[] = new int[1];
+        search(imageData, offset, 1, heapDistances, heapIndices, heapSizes);
+        return vote(heapDistances, heapIndices, 0, heapSizes[0], 
+            new int[NUMBER_OF_LABEL_VALUES], new int[NUMBER_OF_LABEL_VALUES]);
+    }
+
+    /**
+     * Classify all entries of the given data, in parallel
+     * 
+     * @param queries The {@link MnistData} to classify
+     * @return The labels, one for each entry of the given data
+     * @throws IllegalArgumentException If the image size of the given 
+     * data is different from the image size of the training data
+     */
+    public byte[] classify(MnistData queries)
+    {
+        if (queries.getNumRows() != trainingData.getNumRows() ||
+            queries.getNumCols() != trainingData.getNumCols())
+        {
+            throw new IllegalArgumentException("Expected images of size "
+                + trainingData.getNumCols() + "x" + trainingData.getNumRows()
+                + ", but found " + queries.getNumCols() + "x" 
+                + queries.getNumRows());
+        }
+        byte result[] = new byte[queries.size()];
+        ForkJoinPool.commonPool().invoke(
+            new ClassifyTask(queries, 0, queries.size(), result));
+        return result;
+    }
+
+    /**
+     * Classify all entries of the given data, and return the fraction
+     * of entries for which the label was classified correctly
+     * 
+     * @param testData The test data
+     * @return The accuracy, in [0,1]
+     * @throws IllegalArgumentException If the image size of the given 
+     * data is different from the image size of the training data
+     */
+    public double evaluate(MnistData testData)
+    {
+        byte labels[] = classify(testData);
+        if (labels.length == 0)
+        {
+            return 0.0;
+        }
+        int correct = 0;
+        for (int i = 0; i < labels.length; i++)
+        {
+            if (labels[i] == testData.getLabel(i))
+            {
+                correct++;
+            }
+        }
+        return (double) correct / labels.length;
+    }
+
+    /**
+     * A task that classifies a range of queries
+     */
+    private final class ClassifyTask extends RecursiveAction
+    {
+        /**
+         * Serial UID
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The queries
+         */
+        private final MnistData queries;
+
+        /**
+         * The start index, inclusive
+         */
+        private final int fromIndex;
+
+        /**
+         * The end index, exclusive
+         */
+        private final int toIndex;
+
+        /**
+         * The array that receives the labels
+         */
+        private final byte result[];
+
+        /**
+         * Creates a new task
+         * 
+         * @param queries The queries
+         * @param fromIndex The start index, inclusive
+         * @param toIndex The end index, exclusive
+         * @param result The array that receives the labels
+         */
+        ClassifyTask(MnistData queries, int fromIndex, int toIndex, 
+            byte result[])
+        {
+            this.queries = queries;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute()
+        {
+            int n = toIndex - fromIndex;
+            if (n > QUERY_BLOCK_SIZE)
+            {
+                // Split at a multiple of the block size
+                int blocks = (n + QUERY_BLOCK_SIZE - 1) / QUERY_BLOCK_SIZE;
+                int middle = fromIndex + (blocks / 2) * QUERY_BLOCK_SIZE;
+                invokeAll(
+                    new ClassifyTask(queries, fromIndex, middle, result),
+                    new ClassifyTask(queries, middle, toIndex, result));
+                return;
+            }
+            byte queryData[] = new byte[n * imageSize];
+            for (int q = 0; q < n; q++)
+            {
+                queries.getImageData(fromIndex + q, queryData, q * imageSize);
+            }
+            int heapDistances[] = new int[n * k];
+            int heapIndices[] = new int[n * k];
+            int heapSizes[] = new int[n];
+            search(queryData, 0, n, heapDistances, heapIndices, heapSizes);
+            int votes[] = new int[NUMBER_OF_LABEL_VALUES];
+            int nearest[] = new int[NUMBER_OF_LABEL_VALUES];
+            for (int q = 0; q < n; q++)
+            {
+                result[fromIndex + q] = vote(heapDistances, heapIndices, 
+                    q * k, heapSizes[q], votes, nearest);
+            }
+        }
+    }
+
+    /**
+     * Find the k nearest neighbors of the given (contiguous) block of 
+     * query images, and store them in the given heaps
+     * 
+     * @param queryData The query images
+     * @param queryOffset The offset of the first query image
+     * @param numberOfQueries The number of query images
+     * @param heapDistances The distances of the heaps, k for each query
+     * @param heapIndices The indices of the heaps, k for each query
+     * @param heapSizes The sizes of the heaps, one for each query
+     */
+    private void search(byte queryData[], int queryOffset, 
+        int numberOfQueries, int heapDistances[], int heapIndices[], 
+        int heapSizes[])
+    {
+        byte trainingImageData[] = trainingData.getImageData();
+        int numberOfTrainingEntries = trainingData.size();
+        for (int t0 = 0; t0 < numberOfTrainingEntries; 
+            t0 += TRAINING_BLOCK_SIZE)
+        {
+            int t1 = Math.min(t0 + TRAINING_BLOCK_SIZE, 
+                numberOfTrainingEntries);
+            for (int q = 0; q < numberOfQueries; q++)
+            {
+                int qOffset = queryOffset + q * imageSize;
+                int heapOffset = q * k;
+                for (int t = t0; t < t1; t++)
+                {
+                    int size = heapSizes[q];
+                    int bound = size < k ? 
+                        Integer.MAX_VALUE : heapDistances[heapOffset];
+                    int distance = squaredDistance(queryData, qOffset, 
+                        trainingImageData, t * imageSize, imageSize, bound);
+                    if (size < k)
+                    {
+                        heapPush(heapDistances, heapIndices, heapOffset, 
+                            size, distance, t);
+                        heapSizes[q] = size + 1;
+                    }
+                    else if (distance < heapDistances[heapOffset])
+                    {
+                        heapReplaceTop(heapDistances, heapIndices, 
+                            heapOffset, size, distance, t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the squared Euclidean distance between two images. The
+     * computation is stopped early when the partial distance is already
+     * greater than or equal to the given bound, because then the image 
+     * can not be one of the nearest neighbors.
+     * 
+     * @param data0 The first array
+     * @param offset0 The offset of the first image
+     * @param data1 The second array
+     * @param offset1 The offset of the second image
+     * @param length The number of pixels
+     * @param bound The bound
+     * @return The squared distance, or a value that is greater than or
+     * equal to the bound
+     */
+    private static int squaredDistance(byte data0[], int offset0, 
+        byte data1[], int offset1, int length, int bound)
+    {
+        int sum = 0;
+        for (int start = 0; start < length; start += DISTANCE_CHUNK_SIZE)
+        {
+            int end = Math.min(start + DISTANCE_CHUNK_SIZE, length);
+            sum += squaredDistance(data0, offset0 + start, 
+                data1, offset1 + start, end - start);
+            if (sum >= bound)
+            {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the squared Euclidean distance between two ranges of
+     * pixels
+     * 
+     * @param data0 The first array
+     * @param offset0 The offset of the first range
+     * @param data1 The second array
+     * @param offset1 The offset of the second range
+     * @param length The number of pixels
+     * @return The squared distance
+     */
+    private static int squaredDistance(byte data0[], int offset0, 
+        byte data1[], int offset1, int length)
+    {
+        // Four independent sums, so that the additions do not form a 
+        // single dependency chain
+        int sum0 = 0;
+        int sum1 = 0;
+        int sum2 = 0;
+        int sum3 = 0;
+        int i = 0;
+        for (; i <= length - 4; i += 4)
+        {
+            int d0 = (data0[offset0 + i] & 0xFF) 
+                - (data1[offset1 + i] & 0xFF);
+            int d1 = (data0[offset0 + i + 1] & 0xFF) 
+                - (data1[offset1 + i + 1] & 0xFF);
+            int d2 = (data0[offset0 + i + 2] & 0xFF) 
+                - (data1[offset1 + i + 2] & 0xFF);
+            int d3 = (data0[offset0 + i + 3] & 0xFF) 
+                - (data1[offset1 + i + 3] & 0xFF);
+            sum0 += d0 * d0;
+            sum1 += d1 * d1;
+            sum2 += d2 * d2;
+            sum3 += d3 * d3;
+        }
+        for (; i < length; i++)
+        {
+            int d = (data0[offset0 + i] & 0xFF) - (data1[offset1 + i] & 0xFF);
+            sum0 += d * d;
+        }
+        return sum0 + sum1 + sum2 + sum3;
+    }
+
+    /**
+     * Determine the label for the neighbors in the specified heap
+     * 
+     * @param heapDistances The distances of the heaps
+     * @param heapIndices The indices of the heaps
+     * @param offset The offset of the heap
+     * @param size The size of the heap
+     * @param votes A temporary array for the number of votes per label
+     * @param nearest A temporary array for the nearest distance per label
+     * @return The label
+     */
+    private byte vote(int heapDistances[], int heapIndices[], int offset, 
+        int size, int votes[], int nearest[])
+    {
+        for (int i = 0; i < size; i++)
+        {
+            int label = trainingData.getLabel(heapIndices[offset + i]) & 0xFF;
+            votes[label] = 0;
+            nearest[label] = Integer.MAX_VALUE;
+        }
+        int bestLabel = 0;
+        int bestVotes = 0;
+        int bestNearest = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++)
+        {
+            int label = trainingData.getLabel(heapIndices[offset + i]) & 0xFF;
+            votes[label]++;
+            nearest[label] = Math.min(nearest[label], 
+                heapDistances[offset + i]);
+        }
+        for (int i = 0; i < size; i++)
+        {
+            int label = trainingData.getLabel(heapIndices[offset + i]) & 0xFF;
+            if (votes[label] > bestVotes || 
+                (votes[label] == bestVotes && nearest[label] < bestNearest))
+            {
+                bestLabel = label;
+                bestVotes = votes[label];
+                bestNearest = nearest[label];
+            }
+        }
+        return (byte) bestLabel;
+    }
+
+    /**
+     * Push the given element onto the specified max-heap
+     * 
+     * @param distances The distances of the heaps
+     * @param indices The indices of the heaps
+     * @param offset The offset of the heap
+     * @param size The current size of the heap
+     * @param distance The distance
+     * @param index The index
+     */
+    private static void heapPush(int distances[], int indices[], 
+        int offset, int size, int distance, int index)
+    {
+        int i = size;
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (distances[offset + parent] >= distance)
+            {
+                break;
+            }
+            distances[offset + i] = distances[offset + parent];
+            indices[offset + i] = indices[offset + parent];
+            i = parent;
+        }
+        distances[offset + i] = distance;
+        indices[offset + i] = index;
+    }
+
+    /**
+     * Replace the top (largest) element of the specified max-heap with
+     * the given element
+     * 
+     * @param distances The distances of the heaps
+     * @param indices The indices of the heaps
+     * @param offset The offset of the heap
+     * @param size The size of the heap
+     * @param distance The distance
+     * @param index The index
+     */
+    private static void heapReplaceTop(int distances[], int indices[], 
+        int offset, int size, int distance, int index)
+    {
+        int i = 0;
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= size)
+            {
+                break;
+            }
+            if (child + 1 < size && 
+                distances[offset + child + 1] > distances[offset + child])
+            {
+                child++;
+            }
+            if (distances[offset + child] <= distance)
+            {
+                break;
+            }
+            distances[offset + i] = distances[offset + child];
+            indices[offset + i] = indices[offset + child];
+            i = child;
+        }
+        distances[offset + i] = distance;
+        indices[offset + i] = index;
+    }
+
+    /**
+     * Sort the elements of the specified max-heap by ascending distance
+     * 
+     * @param distances The distances of the heaps
+     * @param indices The indices of the heaps
+     * @param offset The offset of the heap
+     * @param size The size of the heap
+     */
+    private static void sortHeap(int distances[], int indices[], 
+        int offset, int size)
+    {
+        for (int n = size - 1; n > 0; n--)
+        {
+            int topDistance = distances[offset];
+            int topIndex = indices[offset];
+            heapReplaceTop(distances, indices, offset, n, 
+                distances[offset + n], indices[offset + n]);
+            distances[offset + n] = topDistance;
+            indices[offset + n] = topIndex;
+        }
+    }
+
+    /**
+     * Make sure that the given array contains an image at the given 
+     * offset
+     * 
+     * @param imageData The image data
+     * @param offset The offset
+     * @throws IndexOutOfBoundsException If the array is too small
+     */
+    private void checkQuery(byte imageData[], int offset)
+    {
+        if (offset < 0 || offset > imageData.length - imageSize)
+        {
+            throw new IndexOutOfBoundsException("Expected " + imageSize
+                + " pixels at offset " + offset + ", but the array has a "
+                + "length of " + imageData.length);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistKnnClassifier["
+            + "k=" + k + ","
+            + "trainingData=" + trainingData + "]";
+    }
+}
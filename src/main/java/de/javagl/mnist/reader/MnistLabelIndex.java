@@ -0,0 +1,429 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * An index of the entries of a data set, grouped by their labels.<br>
+ * <br>
+ * The index stores the indices of the entries of each class in a single,
+ * compact <code>int</code> array. It may be created from {@link MnistData}
+ * with {@link #create(MnistData)}, or while the data is read, with a
+ * {@link Builder} that is used as (part of) the consumer of the reading
+ * methods:
+ * <pre><code>
+ * MnistLabelIndex.Builder builder = new MnistLabelIndex.Builder();
+ * mnistReader.readCompressedTraining(inputPath, builder);
+ * MnistLabelIndex labelIndex = builder.build();
+ * </code></pre>
+ * Based on the index, the entries may be split into two parts where each
+ * class has the same share of entries, with
+ * {@link #split(double, long)}, or sampled so that each class occurs
+ * equally often, with {@link #fillBalanced(Random, int[], int, int)}.
+ * <br>
+ * <br>
+ * The labels are interpreted as unsigned values, so there may be up to
+ * 256 classes. Instances of this class are immutable.
+ */
+public final class MnistLabelIndex
+{
+    /**
+     * A consumer for {@link MnistEntry} instances that collects the
+     * indices and labels of the entries, in order to build a
+     * {@link MnistLabelIndex}. Only the index and the label of each
+     * entry are used, so this may also be used with the
+     * <code>...Reusing</code> reading methods.<br>
+     * <br>
+     * This class is not thread-safe.
+     */
+    public static final class Builder implements Consumer<MnistEntry>
+    {
+        /**
+         * The initial capacity for the indices of each class
+         */
+        private static final int INITIAL_CAPACITY = 64;
+
+        /**
+         * The indices of the entries of each class, each with some
+         * unused capacity
+         */
+        private final int indices[][];
+
+        /**
+         * The number of entries of each class
+         */
+        private final int counts[];
+
+        /**
+         * Default constructor
+         */
+        public Builder()
+        {
+            this.indices = new int[MAX_NUMBER_OF_CLASSES][];
+            this.counts = new int[MAX_NUMBER_OF_CLASSES];
+        }
+
+        @Override
+        public void accept(MnistEntry mnistEntry)
+        {
+            add(mnistEntry.getIndex(), mnistEntry.getLabel());
+        }
+
+        /**
+         * Add the entry with the given index and label
+         * 
+         * @param index The index of the entry
+         * @param label The label of the entry
+         */
+        public void add(int index, byte label)
+        {
+            int c = label & 0xFF;
+            int classIndices[] = indices[c];
+            int count = counts[c];
+            if (classIndices == null)
+            {
+                classIndices = new int[INITIAL_CAPACITY];
+                indices[c] = classIndices;
+            }
+            else if (count == classIndices.length)
+            {
+                classIndices = Arrays.copyOf(classIndices, count * 2);
+                indices[c] = classIndices;
+            }
+            classIndices[count] = index;
+            counts[c] = count + 1;
+        }
+
+        /**
+         * Build the {@link MnistLabelIndex} from the entries that have
+         * been added until now
+         * 
+         * @return The {@link MnistLabelIndex}
+         */
+        public MnistLabelIndex build()
+        {
+            int numberOfClasses = 0;
+            long total = 0;
+            for (int c = 0; c < MAX_NUMBER_OF_CLASSES; c++)
+            {
+                if (counts[c] > 0)
+                {
+                    numberOfClasses = c + 1;
+                }
+                total += counts[c];
+            }
+            if (total > Integer.MAX_VALUE - 8)
+            {
+                throw new IllegalStateException(
+                    "Too many entries for an index: " + total);
+            }
+            int offsets[] = new int[numberOfClasses + 1];
+            int allIndices[] = new int[(int) total];
+            for (int c = 0; c < numberOfClasses; c++)
+            {
+                int count = counts[c];
+                if (count > 0)
+                {
+                    System.arraycopy(indices[c], 0,
+                        allIndices, offsets[c], count);
+                }
+                offsets[c + 1] = offsets[c] + count;
+            }
+            return new MnistLabelIndex(allIndices, offsets);
+        }
+    }
+
+    /**
+     * The maximum number of classes
+     */
+    private static final int MAX_NUMBER_OF_CLASSES = 256;
+
+    /**
+     * The indices of the entries of all classes, ordered by class
+     */
+    private final int indices[];
+
+    /**
+     * The offsets of the indices of each class in the indices array. The
+     * indices of class c are stored between offsets[c] (inclusive) and
+     * offsets[c+1] (exclusive).
+     */
+    private final int offsets[];
+
+    /**
+     * The classes that contain at least one entry
+     */
+    private final int nonEmptyClasses[];
+
+    /**
+     * Creates a new instance
+     * 
+     * @param indices The indices of the entries, ordered by class
+     * @param offsets The offsets of the classes
+     */
+    private MnistLabelIndex(int indices[], int offsets[])
+    {
+        this.indices = indices;
+        this.offsets = offsets;
+        int numberOfClasses = offsets.length - 1;
+        int n = 0;
+        int classes[] = new int[numberOfClasses];
+        for (int c = 0; c < numberOfClasses; c++)
+        {
+            if (offsets[c + 1] > offsets[c])
+            {
+                classes[n++] = c;
+            }
+        }
+        this.nonEmptyClasses = Arrays.copyOf(classes, n);
+    }
+
+    /**
+     * Creates the index for the given data, in a single pass over its
+     * labels
+     * 
+     * @param mnistData The {@link MnistData}
+     * @return The {@link MnistLabelIndex}
+     * @throws NullPointerException If the data is <code>null</code>
+     */
+    public static MnistLabelIndex create(MnistData mnistData)
+    {
+        Objects.requireNonNull(mnistData, "The mnistData may not be null");
+        Builder builder = new Builder();
+        int n = mnistData.size();
+        for (int i = 0; i < n; i++)
+        {
+            builder.add(i, mnistData.getLabel(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of classes. This is the largest label that
+     * occurred, plus one. Classes between 0 and this number may still
+     * contain no entries.
+     * 
+     * @return The number of classes
+     */
+    public int getNumberOfClasses()
+    {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the total number of entries in this index
+     * 
+     * @return The number of entries
+     */
+    public int size()
+    {
+        return indices.length;
+    }
+
+    /**
+     * Returns the number of entries with the given label
+     * 
+     * @param label The label
+     * @return The number of entries, which is 0 if the label is not
+     * a valid class
+     */
+    public int getCount(int label)
+    {
+        if (label < 0 || label >= offsets.length - 1)
+        {
+            return 0;
+        }
+        return offsets[label + 1] - offsets[label];
+    }
+
+    /**
+     * Returns the index of the specified entry with the given label
+     * 
+     * @param label The label
+     * @param i The position of the entry among the entries with the
+     * given label, in the order in which they have been added
+     * @return The index of the entry
+     * @throws IndexOutOfBoundsException If the position is negative or
+     * not smaller than the {@link #getCount(int) count} of the label
+     */
+    public int getIndex(int label, int i)
+    {
+        int count = getCount(label);
+        if (i < 0 || i >= count)
+        {
+            throw new IndexOutOfBoundsException(
+                "Index " + i + ", size " + count);
+        }
+        return indices[offsets[label] + i];
+    }
+
+    /**
+     * Returns a new array containing the indices of all entries with
+     * the given label, in the order in which they have been added
+     * 
+     * @param label The label
+     * @return The indices
+     */
+    public int[] getIndices(int label)
+    {
+        int count = getCount(label);
+        if (count == 0)
+        {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(
+            indices, offsets[label], offsets[label] + count);
+    }
+
+    /**
+     * Split the entries into two parts, so that each class contributes
+     * the same fraction of its entries to the first part. For each class,
+     * the given fraction of its entries (rounded to the nearest integer)
+     * is chosen randomly for the first part, and the remaining ones are
+     * assigned to the second part. The indices in each part are sorted
+     * in ascending order.<br>
+     * <br>
+     * The choice depends only on the given seed and the contents of this
+     * index, so the same seed will cause the same split on every machine.
+     * 
+     * @param fraction The fraction of the entries of each class for the
+     * first part
+     * @param seed The seed for the random choice
+     * @return An array containing the indices of the first and the second
+     * part
+     * @throws IllegalArgumentException If the fraction is not in [0,1]
+     */
+    public int[][] split(double fraction, long seed)
+    {
+        if (!(fraction >= 0.0 && fraction <= 1.0))
+        {
+            throw new IllegalArgumentException(
+                "The fraction must be in [0,1], but is " + fraction);
+        }
+        int numberOfClasses = offsets.length - 1;
+        int firstSize = 0;
+        int firstCounts[] = new int[numberOfClasses];
+        for (int c = 0; c < numberOfClasses; c++)
+        {
+            firstCounts[c] = (int) Math.round(fraction * getCount(c));
+            firstSize += firstCounts[c];
+        }
+        int first[] = new int[firstSize];
+        int second[] = new int[indices.length - firstSize];
+
+        // Partial Fisher-Yates shuffle of the indices of each class, in
+        // a copy of the indices. The algorithm of java.util.Random is
+        // part of its specification, so the result is reproducible.
+        int shuffled[] = indices.clone();
+        Random random = new Random(seed);
+        int firstPosition = 0;
+        int secondPosition = 0;
+        for (int c = 0; c < numberOfClasses; c++)
+        {
+            int start = offsets[c];
+            int count = offsets[c + 1] - start;
+            int k = firstCounts[c];
+            for (int i = 0; i < k; i++)
+            {
+                int j = i + random.nextInt(count - i);
+                int t = shuffled[start + i];
+                shuffled[start + i] = shuffled[start + j];
+                shuffled[start + j] = t;
+            }
+            System.arraycopy(shuffled, start, first, firstPosition, k);
+            System.arraycopy(shuffled, start + k,
+                second, secondPosition, count - k);
+            firstPosition += k;
+            secondPosition += count - k;
+        }
+        Arrays.sort(first);
+        Arrays.sort(second);
+        return new int[][] { first, second };
+    }
+
+    /**
+     * Fill the specified part of the given array with indices of entries,
+     * so that each class that contains entries occurs equally often.<br>
+     * <br>
+     * The classes are assigned to the positions in turn, starting at a
+     * random class. So when the length is not a multiple of the number of
+     * (non-empty) classes, then some classes occur once more than the
+     * others. For each position, an entry of the respective class is
+     * chosen randomly (with replacement). Finally, the positions are
+     * shuffled, so that the classes do not occur in a fixed order.<br>
+     * <br>
+     * This method does not allocate any memory, so it may be called
+     * for each batch, with a reused array.
+     * 
+     * @param random The random number generator
+     * @param target The array that will store the indices
+     * @param offset The offset in the target array
+     * @param length The number of indices to write
+     * @throws NullPointerException If the random number generator or
+     * the target array is <code>null</code>
+     * @throws IndexOutOfBoundsException If the offset or the length are
+     * negative, or the length is larger than the remaining size of the
+     * array
+     * @throws IllegalStateException If the index does not contain any
+     * entries
+     */
+    public void fillBalanced(Random random, int target[], int offset,
+        int length)
+    {
+        Objects.requireNonNull(random, "The random may not be null");
+        Objects.requireNonNull(target, "The target may not be null");
+        if (offset < 0 || length < 0 || length > target.length - offset)
+        {
+            throw new IndexOutOfBoundsException("Offset " + offset
+                + ", length " + length + ", size " + target.length);
+        }
+        int numberOfClasses = nonEmptyClasses.length;
+        if (numberOfClasses == 0)
+        {
+            if (length == 0)
+            {
+                return;
+            }
+            throw new IllegalStateException("The index is empty");
+        }
+        int c = random.nextInt(numberOfClasses);
+        for (int i = 0; i < length; i++)
+        {
+            int label = nonEmptyClasses[c];
+            int start = offsets[label];
+            int count = offsets[label + 1] - start;
+            target[offset + i] = indices[start + random.nextInt(count)];
+            c++;
+            if (c == numberOfClasses)
+            {
+                c = 0;
+            }
+        }
+        for (int i = length - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int t = target[offset + i];
+            target[offset + i] = target[offset + j];
+            target[offset + j] = t;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        int numberOfClasses = offsets.length - 1;
+        int counts[] = new int[numberOfClasses];
+        for (int c = 0; c < numberOfClasses; c++)
+        {
+            counts[c] = getCount(c);
+        }
+        return "MnistLabelIndex["
+            + "size=" + indices.length + ","
+            + "counts=" + Arrays.toString(counts) + "]";
+    }
+}
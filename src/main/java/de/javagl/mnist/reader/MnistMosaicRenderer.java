@@ -0,0 +1,457 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A class for rendering pages of MNIST entries into a single image.<br>
+ * <br>
+ * The renderer owns one <code>TYPE_INT_RGB</code> image, which is 
+ * created once and reused for all pages. Each page consists of a grid
+ * of <code>columns x rows</code> tiles, filled in row-major order. The 
+ * images of the entries are scaled by an integer factor (using 
+ * nearest-neighbor sampling), and the label of each entry may be drawn 
+ * into the upper left corner of its tile. The pixels are written 
+ * directly into the data buffer of the image, so rendering a page does 
+ * not allocate any objects.<br>
+ * <br>
+ * This class is not thread-safe. The image should not be accessed by
+ * other threads while a page is rendered.
+ */
+public final class MnistMosaicRenderer
+{
+    /**
+     * The patterns of the digits 0 to 9, for the label overlay. Each
+     * digit consists of 5 rows with 3 pixels. The bits of each pattern 
+     * are the pixels, from the upper left to the lower right.
+     */
+    private static final int DIGIT_PATTERNS[] = 
+    {
+        0b111_101_101_101_111,
+        0b010_110_010_010_111,
+        0b111_001_111_100_111,
+        0b111_001_111_001_111,
+        0b101_101_111_001_001,
+        0b111_100_111_001_111,
+        0b111_100_111_101_111,
+        0b111_001_001_001_001,
+        0b111_101_111_101_111,
+        0b111_101_111_001_111,
+    };
+
+    /**
+     * The width of a digit of the label overlay, in font pixels
+     */
+    private static final int DIGIT_WIDTH = 3;
+
+    /**
+     * The height of a digit of the label overlay, in font pixels
+     */
+    private static final int DIGIT_HEIGHT = 5;
+
+    /**
+     * The number of tiles in each row of a page
+     */
+    private final int columns;
+
+    /**
+     * The number of tiles in each column of a page
+     */
+    private final int rows;
+
+    /**
+     * The number of rows of each entry image
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of each entry image
+     */
+    private final int numCols;
+
+    /**
+     * The scaling factor
+     */
+    private final int scale;
+
+    /**
+     * The image
+     */
+    private final BufferedImage image;
+
+    /**
+     * The pixels of the image
+     */
+    private final int pixels[];
+
+    /**
+     * The lookup table from pixel values to RGB values
+     */
+    private final int lookup[];
+
+    /**
+     * The scratch buffer for the image data of one entry
+     */
+    private final byte scratch[];
+
+    /**
+     * The RGB color of the background of empty tiles
+     */
+    private int backgroundColor;
+
+    /**
+     * The RGB color of the label overlay
+     */
+    private int labelColor;
+
+    /**
+     * Whether the labels are drawn
+     */
+    private boolean labelsVisible;
+
+    /**
+     * Creates a new renderer
+     * 
+     * @param columns The number of tiles in each row of a page
+     * @param rows The number of tiles in each column of a page
+     * @param numRows The number of rows of each entry image
+     * @param numCols The number of columns of each entry image
+     * @param scale The integer scaling factor for the entry images
+     * @throws IllegalArgumentException If any argument is not positive,
+     * or the resulting image would be too large
+     */
+    public MnistMosaicRenderer(int columns, int rows, 
+        int numRows, int numCols, int scale)
+    {
+        if (columns <= 0 || rows <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Invalid page size: " + columns + "x" + rows);
+        }
+        if (numRows <= 0 || numCols <= 0)
+        {
+            throw new IllegalArgumentException(
+                "Invalid image size: " + numRows + "x" + numCols);
+        }
+        if (scale <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The scale must be positive, but is " + scale);
+        }
+        long width = (long) columns * numCols * scale;
+        long height = (long) rows * numRows * scale;
+        if (width * height > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("An image with " + width 
+                + "x" + height + " pixels is too large");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.scale = scale;
+        this.image = new BufferedImage(
+            (int) width, (int) height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = 
+            ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.lookup = new int[256];
+        for (int i = 0; i < 256; i++)
+        {
+            lookup[i] = (i << 16) | (i << 8) | i;
+        }
+        this.scratch = new byte[numRows * numCols];
+        this.backgroundColor = 0x202020;
+        this.labelColor = 0x00FF00;
+        this.labelsVisible = true;
+    }
+
+    /**
+     * Returns the image that the pages are rendered into. This is always
+     * the same instance.
+     * 
+     * @return The image
+     */
+    public BufferedImage getImage()
+    {
+        return image;
+    }
+
+    /**
+     * Returns the number of entries on one page
+     * 
+     * @return The page size
+     */
+    public int getPageSize()
+    {
+        return columns * rows;
+    }
+
+    /**
+     * Set the RGB color of the background of empty tiles
+     * 
+     * @param backgroundColor The color
+     */
+    public void setBackgroundColor(int backgroundColor)
+    {
+        this.backgroundColor = backgroundColor & 0xFFFFFF;
+    }
+
+    /**
+     * Set the RGB color of the label overlay
+     * 
+     * @param labelColor The color
+     */
+    public void setLabelColor(int labelColor)
+    {
+        this.labelColor = labelColor & 0xFFFFFF;
+    }
+
+    /**
+     * Set whether the labels should be drawn
+     * 
+     * @param labelsVisible Whether the labels should be drawn
+     */
+    public void setLabelsVisible(boolean labelsVisible)
+    {
+        this.labelsVisible = labelsVisible;
+    }
+
+    /**
+     * Render the page of entries of the given data that starts at the
+     * given index. Tiles for which there is no entry are filled with the
+     * background color.
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param firstIndex The index of the first entry of the page
+     * @return The image
+     * @throws IllegalArgumentException If the image size of the data
+     * does not match the image size of this renderer
+     * @throws IndexOutOfBoundsException If the first index is negative
+     */
+    public BufferedImage render(MnistData mnistData, int firstIndex)
+    {
+        Objects.requireNonNull(mnistData, "The mnistData may not be null");
+        checkSize(mnistData.getNumRows(), mnistData.getNumCols());
+        if (firstIndex < 0)
+        {
+            throw new IndexOutOfBoundsException(
+                "The firstIndex may not be negative, but is " + firstIndex);
+        }
+        int pageSize = getPageSize();
+        int size = mnistData.size();
+        for (int tile = 0; tile < pageSize; tile++)
+        {
+            int index = firstIndex + tile;
+            if (index >= size || index < 0)
+            {
+                fillTile(tile);
+            }
+            else
+            {
+                mnistData.getImageData(index, scratch, 0);
+                drawTile(tile, scratch, mnistData.getLabel(index));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Render the given entries. Tiles for which there is no entry are 
+     * filled with the background color.
+     * 
+     * @param mnistEntries The entries
+     * @param offset The index of the first entry in the given array
+     * @param count The number of entries. If this is larger than the 
+     * {@link #getPageSize() page size}, then only the first entries will
+     * be rendered.
+     * @return The image
+     * @throws IllegalArgumentException If the image size of an entry
+     * does not match the image size of this renderer
+     * @throws IndexOutOfBoundsException If the offset or count are not
+     * valid for the given array
+     */
+    public BufferedImage render(MnistEntry mnistEntries[], 
+        int offset, int count)
+    {
+        if (offset < 0 || count < 0 || offset > mnistEntries.length - count)
+        {
+            throw new IndexOutOfBoundsException("Invalid range of " + count
+                + " entries at offset " + offset + " for an array of length "
+                + mnistEntries.length);
+        }
+        int pageSize = getPageSize();
+        for (int tile = 0; tile < pageSize; tile++)
+        {
+            if (tile >= count)
+            {
+                fillTile(tile);
+            }
+            else
+            {
+                MnistEntry mnistEntry = mnistEntries[offset + tile];
+                checkSize(mnistEntry.getNumRows(), mnistEntry.getNumCols());
+                drawTile(tile, mnistEntry.getImageData(), 
+                    mnistEntry.getLabel());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Make sure that the given image size matches the one of this 
+     * renderer
+     * 
+     * @param otherNumRows The number of rows
+     * @param otherNumCols The number of columns
+     * @throws IllegalArgumentException If the size does not match
+     */
+    private void checkSize(int otherNumRows, int otherNumCols)
+    {
+        if (otherNumRows != numRows || otherNumCols != numCols)
+        {
+            throw new IllegalArgumentException("Expected an image of size "
+                + numCols + "x" + numRows + ", but found " 
+                + otherNumCols + "x" + otherNumRows);
+        }
+    }
+
+    /**
+     * Fill the specified tile with the background color
+     * 
+     * @param tile The tile
+     */
+    private void fillTile(int tile)
+    {
+        int width = image.getWidth();
+        int tileWidth = numCols * scale;
+        int tileHeight = numRows * scale;
+        int x0 = (tile % columns) * tileWidth;
+        int y0 = (tile / columns) * tileHeight;
+        for (int y = 0; y < tileHeight; y++)
+        {
+            int start = (y0 + y) * width + x0;
+            Arrays.fill(pixels, start, start + tileWidth, backgroundColor);
+        }
+    }
+
+    /**
+     * Draw the given image data and label into the specified tile
+     * 
+     * @param tile The tile
+     * @param imageData The image data
+     * @param label The label
+     */
+    private void drawTile(int tile, byte imageData[], byte label)
+    {
+        int width = image.getWidth();
+        int tileWidth = numCols * scale;
+        int tileHeight = numRows * scale;
+        int x0 = (tile % columns) * tileWidth;
+        int y0 = (tile / columns) * tileHeight;
+        for (int r = 0; r < numRows; r++)
+        {
+            int first = (y0 + r * scale) * width + x0;
+            int source = r * numCols;
+            for (int c = 0; c < numCols; c++)
+            {
+                int rgb = lookup[imageData[source + c] & 0xFF];
+                int target = first + c * scale;
+                for (int s = 0; s < scale; s++)
+                {
+                    pixels[target + s] = rgb;
+                }
+            }
+            for (int s = 1; s < scale; s++)
+            {
+                System.arraycopy(pixels, first, 
+                    pixels, first + s * width, tileWidth);
+            }
+        }
+        if (labelsVisible)
+        {
+            drawLabel(x0 + 1, y0 + 1, label & 0xFF, 
+                Math.max(1, scale / 2), x0 + tileWidth, y0 + tileHeight);
+        }
+    }
+
+    /**
+     * Draw the given label at the given position
+     * 
+     * @param x The x-coordinate of the upper left corner
+     * @param y The y-coordinate of the upper left corner
+     * @param label The label
+     * @param fontScale The size of one pixel of the font
+     * @param maxX The maximum x-coordinate, exclusive
+     * @param maxY The maximum y-coordinate, exclusive
+     */
+    private void drawLabel(int x, int y, int label, int fontScale, 
+        int maxX, int maxY)
+    {
+        int divisor = 1;
+        while (label / divisor >= 10)
+        {
+            divisor *= 10;
+        }
+        int currentX = x;
+        while (divisor > 0)
+        {
+            int digit = (label / divisor) % 10;
+            drawDigit(currentX, y, digit, fontScale, maxX, maxY);
+            currentX += (DIGIT_WIDTH + 1) * fontScale;
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Draw the given digit at the given position
+     * 
+     * @param x The x-coordinate of the upper left corner
+     * @param y The y-coordinate of the upper left corner
+     * @param digit The digit
+     * @param fontScale The size of one pixel of the font
+     * @param maxX The maximum x-coordinate, exclusive
+     * @param maxY The maximum y-coordinate, exclusive
+     */
+    private void drawDigit(int x, int y, int digit, int fontScale, 
+        int maxX, int maxY)
+    {
+        int width = image.getWidth();
+        int pattern = DIGIT_PATTERNS[digit];
+        int bit = DIGIT_WIDTH * DIGIT_HEIGHT - 1;
+        for (int r = 0; r < DIGIT_HEIGHT; r++)
+        {
+            for (int c = 0; c < DIGIT_WIDTH; c++, bit--)
+            {
+                if ((pattern & (1 << bit)) == 0)
+                {
+                    continue;
+                }
+                int px0 = x + c * fontScale;
+                int py0 = y + r * fontScale;
+                int px1 = Math.min(px0 + fontScale, maxX);
+                int py1 = Math.min(py0 + fontScale, maxY);
+                for (int py = py0; py < py1; py++)
+                {
+                    for (int px = px0; px < px1; px++)
+                    {
+                        pixels[py * width + px] = labelColor;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistMosaicRenderer["
+            + "columns=" + columns + ","
+            + "rows=" + rows + ","
+            + "scale=" + scale + "]";
+    }
+}
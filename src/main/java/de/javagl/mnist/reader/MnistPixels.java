@@ -0,0 +1,329 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+/**
+ * Methods for converting the unsigned pixel values of MNIST images into
+ * normalized or standardized <code>float</code> values.<br>
+ * <br>
+ * The methods operate on ranges of arrays, so they can be applied to 
+ * the image data of a single {@link MnistEntry} as well as to the
+ * contiguous image data of all entries of a {@link MnistDataBlock}. 
+ * The inner loops are simple counted loops without branches, which 
+ * allows the JIT to compile them into SIMD instructions.
+ */
+public final class MnistPixels
+{
+    /**
+     * The factor for converting a pixel value into [0,1]
+     */
+    private static final float UNIT_SCALE = 1.0f / 255.0f;
+
+    /**
+     * The factor for converting a pixel value into [-1,1]
+     */
+    private static final float SYMMETRIC_SCALE = 2.0f / 255.0f;
+
+    /**
+     * Convert the given pixel values into values in [0,1]
+     * 
+     * @param source The source array
+     * @param sourceOffset The offset in the source array
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @param length The number of values to convert
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static void toUnitRange(byte source[], int sourceOffset,
+        float target[], int targetOffset, int length)
+    {
+        checkRange(source.length, sourceOffset, length);
+        checkRange(target.length, targetOffset, length);
+        for (int i = 0; i < length; i++)
+        {
+            target[targetOffset + i] = 
+                (source[sourceOffset + i] & 0xFF) * UNIT_SCALE;
+        }
+    }
+
+    /**
+     * Convert the given pixel values into values in [-1,1]
+     * 
+     * @param source The source array
+     * @param sourceOffset The offset in the source array
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @param length The number of values to convert
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static void toSymmetricRange(byte source[], int sourceOffset,
+        float target[], int targetOffset, int length)
+    {
+        checkRange(source.length, sourceOffset, length);
+        checkRange(target.length, targetOffset, length);
+        for (int i = 0; i < length; i++)
+        {
+            target[targetOffset + i] = 
+                (source[sourceOffset + i] & 0xFF) * SYMMETRIC_SCALE - 1.0f;
+        }
+    }
+
+    /**
+     * Standardize the given pixel values, by computing 
+     * <code>(value - mean) / std</code> for each of them. The mean and 
+     * standard deviation are given in the range of the pixel values,
+     * [0,255].
+     * 
+     * @param source The source array
+     * @param sourceOffset The offset in the source array
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @param length The number of values to convert
+     * @param mean The mean
+     * @param std The standard deviation
+     * @throws IllegalArgumentException If the standard deviation is not
+     * positive
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static void standardize(byte source[], int sourceOffset,
+        float target[], int targetOffset, int length, float mean, float std)
+    {
+        if (!(std > 0.0f))
+        {
+            throw new IllegalArgumentException(
+                "The standard deviation must be positive, but is " + std);
+        }
+        checkRange(source.length, sourceOffset, length);
+        checkRange(target.length, targetOffset, length);
+        float scale = 1.0f / std;
+        float bias = -mean * scale;
+        for (int i = 0; i < length; i++)
+        {
+            target[targetOffset + i] = 
+                (source[sourceOffset + i] & 0xFF) * scale + bias;
+        }
+    }
+
+    /**
+     * Standardize the given images with per-pixel statistics, by 
+     * computing <code>(value - mean[p]) / std[p]</code> for each pixel
+     * <code>p</code> of each image. The means and standard deviations 
+     * are given in the range of the pixel values, [0,255], and must have
+     * a length that is equal to the number of pixels of each image. The 
+     * standard deviations must be positive. Pixels that have the same
+     * value in all images (like the border pixels of the MNIST images) 
+     * usually have a standard deviation of 0, and should receive a small 
+     * positive value instead, for example, with
+     * {@link MnistStatistics#createStandardDeviationArray(float)}.
+     * 
+     * @param source The source array
+     * @param sourceOffset The offset in the source array
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @param numberOfImages The number of images to convert
+     * @param mean The per-pixel means
+     * @param std The per-pixel standard deviations
+     * @throws IllegalArgumentException If the lengths of the mean and
+     * standard deviation arrays are different, or any standard deviation
+     * is not positive
+     * @throws IndexOutOfBoundsException If the arrays are too small
+     */
+    public static void standardize(byte source[], int sourceOffset,
+        float target[], int targetOffset, int numberOfImages, 
+        float mean[], float std[])
+    {
+        int imageSize = mean.length;
+        if (std.length != imageSize)
+        {
+            throw new IllegalArgumentException("Expected " + imageSize
+                + " standard deviations, but found " + std.length);
+        }
+        long length = (long) numberOfImages * imageSize;
+        if (numberOfImages < 0 || length > Integer.MAX_VALUE)
+        {
+            throw new IndexOutOfBoundsException(
+                "Invalid number of images: " + numberOfImages);
+        }
+        checkRange(source.length, sourceOffset, (int) length);
+        checkRange(target.length, targetOffset, (int) length);
+        float scale[] = new float[imageSize];
+        float bias[] = new float[imageSize];
+        for (int i = 0; i < imageSize; i++)
+        {
+            if (!(std[i] > 0.0f))
+            {
+                throw new IllegalArgumentException("The standard deviation "
+                    + "must be positive, but is " + std[i] + " for pixel " + i);
+            }
+            scale[i] = 1.0f / std[i];
+            bias[i] = -mean[i] * scale[i];
+        }
+        for (int n = 0; n < numberOfImages; n++)
+        {
+            int s = sourceOffset + n * imageSize;
+            int t = targetOffset + n * imageSize;
+            for (int i = 0; i < imageSize; i++)
+            {
+                target[t + i] = (source[s + i] & 0xFF) * scale[i] + bias[i];
+            }
+        }
+    }
+
+    /**
+     * Convert the pixel values of the given entry into values in [0,1]
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public static void toUnitRange(
+        MnistEntry mnistEntry, float target[], int targetOffset)
+    {
+        byte imageData[] = mnistEntry.getImageData();
+        toUnitRange(imageData, 0, target, targetOffset, imageData.length);
+    }
+
+    /**
+     * Convert the pixel values of the given entry into values in [-1,1]
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the target array is too small
+     */
+    public static void toSymmetricRange(
+        MnistEntry mnistEntry, float target[], int targetOffset)
+    {
+        byte imageData[] = mnistEntry.getImageData();
+        toSymmetricRange(imageData, 0, target, targetOffset, 
+            imageData.length);
+    }
+
+    /**
+     * Convert the pixel values of the entries of the given block, from 
+     * the given start index (inclusive) to the given end index 
+     * (exclusive), into values in [0,1]
+     * 
+     * @param mnistDataBlock The {@link MnistDataBlock}
+     * @param fromIndex The start index
+     * @param toIndex The end index
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the indices are not valid, or
+     * the target array is too small
+     */
+    public static void toUnitRange(MnistDataBlock mnistDataBlock, 
+        int fromIndex, int toIndex, float target[], int targetOffset)
+    {
+        int imageSize = checkIndices(mnistDataBlock, fromIndex, toIndex);
+        toUnitRange(mnistDataBlock.getImageData(), fromIndex * imageSize,
+            target, targetOffset, (toIndex - fromIndex) * imageSize);
+    }
+
+    /**
+     * Convert the pixel values of the entries of the given block, from 
+     * the given start index (inclusive) to the given end index 
+     * (exclusive), into values in [-1,1]
+     * 
+     * @param mnistDataBlock The {@link MnistDataBlock}
+     * @param fromIndex The start index
+     * @param toIndex The end index
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @throws IndexOutOfBoundsException If the indices are not valid, or
+     * the target array is too small
+     */
+    public static void toSymmetricRange(MnistDataBlock mnistDataBlock, 
+        int fromIndex, int toIndex, float target[], int targetOffset)
+    {
+        int imageSize = checkIndices(mnistDataBlock, fromIndex, toIndex);
+        toSymmetricRange(mnistDataBlock.getImageData(), fromIndex * imageSize,
+            target, targetOffset, (toIndex - fromIndex) * imageSize);
+    }
+
+    /**
+     * Standardize the pixel values of the entries of the given block, 
+     * from the given start index (inclusive) to the given end index 
+     * (exclusive), with the given per-pixel statistics. See 
+     * {@link #standardize(byte[], int, float[], int, int, float[], float[])}
+     * for details.
+     * 
+     * @param mnistDataBlock The {@link MnistDataBlock}
+     * @param fromIndex The start index
+     * @param toIndex The end index
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @param mean The per-pixel means
+     * @param std The per-pixel standard deviations
+     * @throws IllegalArgumentException If the lengths of the mean and 
+     * standard deviation arrays are not the image size of the block, or
+     * any standard deviation is not positive
+     * @throws IndexOutOfBoundsException If the indices are not valid, or
+     * the target array is too small
+     */
+    public static void standardize(MnistDataBlock mnistDataBlock, 
+        int fromIndex, int toIndex, float target[], int targetOffset,
+        float mean[], float std[])
+    {
+        int imageSize = checkIndices(mnistDataBlock, fromIndex, toIndex);
+        if (mean.length != imageSize)
+        {
+            throw new IllegalArgumentException("Expected " + imageSize
+                + " means, but found " + mean.length);
+        }
+        standardize(mnistDataBlock.getImageData(), fromIndex * imageSize,
+            target, targetOffset, toIndex - fromIndex, mean, std);
+    }
+
+    /**
+     * Make sure that the given indices are valid for the given block,
+     * and return the image size of the block
+     * 
+     * @param mnistDataBlock The {@link MnistDataBlock}
+     * @param fromIndex The start index
+     * @param toIndex The end index
+     * @return The image size
+     * @throws IndexOutOfBoundsException If the indices are not valid
+     */
+    private static int checkIndices(
+        MnistDataBlock mnistDataBlock, int fromIndex, int toIndex)
+    {
+        int size = mnistDataBlock.size();
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+        {
+            throw new IndexOutOfBoundsException("Invalid range [" 
+                + fromIndex + "," + toIndex + "), size " + size);
+        }
+        return mnistDataBlock.getNumRows() * mnistDataBlock.getNumCols();
+    }
+
+    /**
+     * Make sure that the specified range is valid for an array with
+     * the given length. Checking this once before a loop allows the
+     * JIT to eliminate the bounds checks inside the loop.
+     * 
+     * @param arrayLength The array length
+     * @param offset The offset
+     * @param length The length of the range
+     * @throws IndexOutOfBoundsException If the range is not valid
+     */
+    private static void checkRange(int arrayLength, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset > arrayLength - length)
+        {
+            throw new IndexOutOfBoundsException("Range of length " + length
+                + " at offset " + offset + " is not valid for an array "
+                + "of length " + arrayLength);
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private MnistPixels()
+    {
+        // Private constructor to prevent instantiation
+    }
+}
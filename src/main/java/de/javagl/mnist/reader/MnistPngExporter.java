@@ -0,0 +1,185 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A consumer for {@link MnistEntry} instances that writes each entry as
+ * a PNG file into an output directory.<br>
+ * <br>
+ * The name of each file is <code>digit-IIIII-label-L.png</code>, where
+ * <code>IIIII</code> is the index of the entry (padded with zeros to 
+ * five digits) and <code>L</code> is the label.<br>
+ * <br>
+ * The image data is copied on the calling thread, so this consumer may
+ * also be used with the <code>...Reusing</code> reading methods. The 
+ * images are encoded and written on a pool of worker threads. When these
+ * threads cannot keep up, then {@link #accept(MnistEntry)} blocks, so 
+ * that the number of pending images remains bounded. The exporter must 
+ * be closed in order to wait for all images to be written:
+ * <pre><code>
+ * try (MnistPngExporter exporter = new MnistPngExporter(outputPath))
+ * {
+ *     mnistReader.readCompressedTraining(inputPath, exporter);
+ * }
+ * </code></pre>
+ * This class is not thread-safe.
+ */
+public final class MnistPngExporter 
+    implements Consumer<MnistEntry>, AutoCloseable
+{
+    /**
+     * The number of images that may be pending for each worker thread
+     */
+    private static final int PENDING_PER_THREAD = 16;
+
+    /**
+     * The output directory
+     */
+    private final Path outputDirectoryPath;
+
+    /**
+     * The pool that writes the images
+     */
+    private final MnistImageWriterPool mnistImageWriterPool;
+
+    /**
+     * The number of images that have been submitted
+     */
+    private int numberOfImages;
+
+    /**
+     * Creates a new instance that uses one worker thread for each 
+     * available processor
+     * 
+     * @param outputDirectoryPath The output directory. This will be
+     * created if it does not exist.
+     * @throws IOException If the output directory cannot be created
+     */
+    public MnistPngExporter(Path outputDirectoryPath) throws IOException
+    {
+        this(outputDirectoryPath, 
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance
+     * 
+     * @param outputDirectoryPath The output directory. This will be
+     * created if it does not exist.
+     * @param numberOfThreads The number of worker threads
+     * @throws IOException If the output directory cannot be created
+     * @throws IllegalArgumentException If the number of threads is not
+     * positive
+     */
+    public MnistPngExporter(Path outputDirectoryPath, int numberOfThreads)
+        throws IOException
+    {
+        this.outputDirectoryPath = Objects.requireNonNull(outputDirectoryPath,
+            "The outputDirectoryPath may not be null");
+        if (numberOfThreads <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfThreads must be positive, but is "
+                + numberOfThreads);
+        }
+        Files.createDirectories(outputDirectoryPath);
+        this.mnistImageWriterPool = new MnistImageWriterPool(numberOfThreads,
+            numberOfThreads * PENDING_PER_THREAD, "MnistPngExporter");
+    }
+
+    /**
+     * Submit the given entry to be written as a PNG file. This may block
+     * until there is room for another pending image.
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @throws UncheckedIOException If a previously submitted image could
+     * not be written, or the calling thread was interrupted
+     * @throws IllegalStateException If this exporter was already closed
+     */
+    @Override
+    public void accept(MnistEntry mnistEntry)
+    {
+        BufferedImage image = mnistEntry.createImage();
+        Path path = outputDirectoryPath.resolve(
+            createFileName(mnistEntry.getIndex(), mnistEntry.getLabel()));
+        try
+        {
+            mnistImageWriterPool.submit(image, path);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        numberOfImages++;
+    }
+
+    /**
+     * Returns the number of images that have been submitted to this 
+     * exporter
+     * 
+     * @return The number of images
+     */
+    public int getNumberOfImages()
+    {
+        return numberOfImages;
+    }
+
+    /**
+     * Create the file name for the entry with the given index and label
+     * 
+     * @param index The index
+     * @param label The label
+     * @return The file name
+     */
+    static String createFileName(int index, int label)
+    {
+        StringBuilder sb = new StringBuilder(32);
+        sb.append("digit-");
+        appendPadded(sb, index, 5);
+        sb.append("-label-").append(label).append(".png");
+        return sb.toString();
+    }
+
+    /**
+     * Append the given non-negative value to the given string builder, 
+     * padded with leading zeros to the given number of digits
+     * 
+     * @param sb The string builder
+     * @param value The value
+     * @param digits The minimum number of digits
+     */
+    static void appendPadded(StringBuilder sb, int value, int digits)
+    {
+        int length = 1;
+        for (int v = value / 10; v > 0; v /= 10)
+        {
+            length++;
+        }
+        for (int i = length; i < digits; i++)
+        {
+            sb.append('0');
+        }
+        sb.append(value);
+    }
+
+    /**
+     * Wait until all images have been written, and shut down the worker
+     * threads
+     * 
+     * @throws IOException If an image could not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        mnistImageWriterPool.close();
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A publisher of MNIST entries or batches that only emits elements when
+ * they are requested by its subscribers.<br>
+ * <br>
+ * The {@link Subscriber} and {@link Subscription} interfaces have the 
+ * same methods and the same contract as the ones of the Reactive Streams 
+ * specification (and of <code>java.util.concurrent.Flow</code> in 
+ * Java 9), so they can be adapted to these interfaces with a few lines
+ * of code.<br>
+ * <br>
+ * Each subscription reads the data independently, starting with the 
+ * first entry. All reading and all calls to the subscriber (except for
+ * {@link Subscriber#onSubscribe}) happen in tasks that are submitted to
+ * the executor that was given when the publisher was created. At most 
+ * one such task is active for each subscription at any time. When no 
+ * elements are requested, then no thread is occupied by the 
+ * subscription.
+ * 
+ * @param <T> The type of the published elements
+ */
+public final class MnistPublisher<T>
+{
+    /**
+     * A receiver of the elements of a {@link MnistPublisher}. 
+     * 
+     * @param <T> The type of the elements
+     */
+    public interface Subscriber<T>
+    {
+        /**
+         * Will be called once, before any other method, with the 
+         * subscription that may be used for requesting elements 
+         * 
+         * @param subscription The {@link Subscription}
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Will be called with the next element, at most as often as
+         * elements have been requested
+         * 
+         * @param item The element
+         */
+        void onNext(T item);
+
+        /**
+         * Will be called when an error occurred. No further methods will 
+         * be called after this.
+         * 
+         * @param throwable The error
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Will be called after all elements have been passed to 
+         * {@link #onNext}. No further methods will be called after this.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a {@link MnistPublisher} and a {@link Subscriber}
+     */
+    public interface Subscription
+    {
+        /**
+         * Request the given number of additional elements. Requesting
+         * <code>Long.MAX_VALUE</code> elements means that all elements
+         * are requested. If the given number is not positive, then the
+         * subscriber will receive an <code>IllegalArgumentException</code>
+         * via {@link Subscriber#onError}.
+         * 
+         * @param n The number of elements
+         */
+        void request(long n);
+
+        /**
+         * Cancel the subscription. The subscriber will eventually stop
+         * receiving elements, and the underlying resources will be 
+         * released.
+         */
+        void cancel();
+    }
+
+    /**
+     * Interface for the sources of the published elements
+     * 
+     * @param <T> The type of the elements
+     */
+    private interface Source<T>
+    {
+        /**
+         * Open a new stream of the elements. The stream will be closed
+         * when it is no longer needed.
+         * 
+         * @return The stream
+         * @throws IOException If an IO error occurs
+         */
+        Stream<T> open() throws IOException;
+    }
+
+    /**
+     * The maximum number of elements that are emitted in one task. After
+     * this number of elements, a new task is submitted to the executor, 
+     * so that one subscription does not occupy a thread for too long.
+     */
+    private static final int MAX_ELEMENTS_PER_TASK = 1024;
+
+    /**
+     * The source of the elements
+     */
+    private final Source<T> source;
+
+    /**
+     * The executor that performs the reading and emission
+     */
+    private final Executor executor;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param source The source
+     * @param executor The executor
+     */
+    private MnistPublisher(Source<T> source, Executor executor)
+    {
+        this.source = source;
+        this.executor = Objects.requireNonNull(
+            executor, "The executor may not be null");
+    }
+
+    /**
+     * Creates a publisher for the entries of the given data. The 
+     * entries are created with {@link MnistData#getEntry(int)}.
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param executor The executor
+     * @return The publisher
+     */
+    public static MnistPublisher<MnistEntry> create(
+        MnistData mnistData, Executor executor)
+    {
+        Objects.requireNonNull(mnistData, "The mnistData may not be null");
+        return new MnistPublisher<MnistEntry>(mnistData::stream, executor);
+    }
+
+    /**
+     * Creates a publisher for the entries of the specified decompressed
+     * files. The files are opened as a {@link MnistDataset} for each
+     * subscription.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param executor The executor
+     * @return The publisher
+     */
+    public static MnistPublisher<MnistEntry> createDecompressed(
+        Path imagesFilePath, Path labelsFilePath, Executor executor)
+    {
+        MnistDecompressedReader reader = new MnistDecompressedReader();
+        return new MnistPublisher<MnistEntry>(() -> 
+            reader.streamDecompressed(imagesFilePath, labelsFilePath), 
+            executor);
+    }
+
+    /**
+     * Creates a publisher for the entries of the specified compressed
+     * files. The files are decompressed incrementally, as the entries
+     * are requested.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param executor The executor
+     * @return The publisher
+     */
+    public static MnistPublisher<MnistEntry> createCompressed(
+        Path imagesFilePath, Path labelsFilePath, Executor executor)
+    {
+        MnistCompressedReader reader = new MnistCompressedReader();
+        return new MnistPublisher<MnistEntry>(() -> 
+            reader.streamCompressed(imagesFilePath, labelsFilePath), 
+            executor);
+    }
+
+    /**
+     * Creates a publisher that combines the entries of the given 
+     * publisher into batches. Each batch is a {@link MnistDataBlock}
+     * that contains the given number of entries, except for the last 
+     * one, which may contain fewer entries. Each requested element 
+     * is one batch. The indices of the entries are not preserved.
+     * 
+     * @param entries The publisher of the entries
+     * @param batchSize The batch size
+     * @return The publisher
+     * @throws IllegalArgumentException If the batch size is not positive
+     */
+    public static MnistPublisher<MnistDataBlock> batches(
+        MnistPublisher<MnistEntry> entries, int batchSize)
+    {
+        if (batchSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The batchSize must be positive, but is " + batchSize);
+        }
+        Source<MnistEntry> entrySource = entries.source;
+        return new MnistPublisher<MnistDataBlock>(() -> 
+        {
+            Stream<MnistEntry> stream = entrySource.open();
+            Iterator<MnistDataBlock> iterator = 
+                new BatchIterator(stream.iterator(), batchSize);
+            return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, 
+                    Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(stream::close);
+        }, entries.executor);
+    }
+
+    /**
+     * An iterator that combines entries into {@link MnistDataBlock}
+     * batches
+     */
+    private static final class BatchIterator 
+        implements Iterator<MnistDataBlock>
+    {
+        /**
+         * The iterator over the entries
+         */
+        private final Iterator<MnistEntry> entries;
+
+        /**
+         * The batch size
+         */
+        private final int batchSize;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param entries The iterator over the entries
+         * @param batchSize The batch size
+         */
+        BatchIterator(Iterator<MnistEntry> entries, int batchSize)
+        {
+            this.entries = entries;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return entries.hasNext();
+        }
+
+        @Override
+        public MnistDataBlock next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException("No more batches");
+            }
+            MnistEntry first = entries.next();
+            int numRows = first.getNumRows();
+            int numCols = first.getNumCols();
+            int imageSize = numRows * numCols;
+            byte labels[] = new byte[batchSize];
+            byte imageData[] = new byte[batchSize * imageSize];
+            int count = 0;
+            MnistEntry mnistEntry = first;
+            while (true)
+            {
+                labels[count] = mnistEntry.getLabel();
+                System.arraycopy(mnistEntry.getImageData(), 0, 
+                    imageData, count * imageSize, imageSize);
+                count++;
+                if (count == batchSize || !entries.hasNext())
+                {
+                    break;
+                }
+                mnistEntry = entries.next();
+            }
+            if (count < batchSize)
+            {
+                labels = Arrays.copyOf(labels, count);
+                imageData = Arrays.copyOf(
+                    imageData, count * imageSize);
+            }
+            return new MnistDataBlock(numRows, numCols, labels, imageData);
+        }
+    }
+
+    /**
+     * Subscribe the given subscriber to this publisher. This will call
+     * {@link Subscriber#onSubscribe} on the calling thread. The data will
+     * be opened in the first task that is submitted to the executor, 
+     * after elements have been requested.
+     * 
+     * @param subscriber The {@link Subscriber}
+     */
+    public void subscribe(Subscriber<? super T> subscriber)
+    {
+        Objects.requireNonNull(subscriber, "The subscriber may not be null");
+        MnistSubscription subscription = new MnistSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Implementation of a {@link Subscription}
+     */
+    private final class MnistSubscription implements Subscription, Runnable
+    {
+        /**
+         * The subscriber
+         */
+        private final Subscriber<? super T> subscriber;
+
+        /**
+         * The number of requested elements that have not been emitted
+         */
+        private final AtomicLong requested;
+
+        /**
+         * The number of pending calls to {@link #schedule()}. The task 
+         * is only submitted when this changes from 0 to 1.
+         */
+        private final AtomicInteger pending;
+
+        /**
+         * Whether the subscription was cancelled
+         */
+        private volatile boolean cancelled;
+
+        /**
+         * The error that was caused by requesting an invalid number of
+         * elements, if any
+         */
+        private volatile IllegalArgumentException invalidRequest;
+
+        /**
+         * The stream that provides the elements. Only accessed in
+         * {@link #run()}.
+         */
+        private Stream<T> stream;
+
+        /**
+         * The iterator of the stream. Only accessed in {@link #run()}.
+         */
+        private Iterator<T> iterator;
+
+        /**
+         * Whether the subscription is terminated. Only accessed in 
+         * {@link #run()}.
+         */
+        private boolean terminated;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param subscriber The subscriber
+         */
+        MnistSubscription(Subscriber<? super T> subscriber)
+        {
+            this.subscriber = subscriber;
+            this.requested = new AtomicLong();
+            this.pending = new AtomicInteger();
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                invalidRequest = new IllegalArgumentException(
+                    "The number of requested elements must be positive, "
+                    + "but is " + n);
+            }
+            else
+            {
+                while (true)
+                {
+                    long current = requested.get();
+                    long updated = current + n;
+                    if (updated < 0)
+                    {
+                        updated = Long.MAX_VALUE;
+                    }
+                    if (requested.compareAndSet(current, updated))
+                    {
+                        break;
+                    }
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            schedule();
+        }
+
+        /**
+         * Submit this subscription as a task to the executor, unless 
+         * it is already running
+         */
+        private void schedule()
+        {
+            if (pending.getAndIncrement() == 0)
+            {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            int missed = 1;
+            int emitted = 0;
+            while (true)
+            {
+                if (terminated)
+                {
+                    return;
+                }
+                try
+                {
+                    emitted = drain(emitted);
+                }
+                catch (Throwable t)
+                {
+                    terminate();
+                    subscriber.onError(t);
+                    return;
+                }
+                if (emitted >= MAX_ELEMENTS_PER_TASK)
+                {
+                    // Let other tasks run, and continue in a new task
+                    executor.execute(this);
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0)
+                {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Emit elements while they are requested and available
+         * 
+         * @param emitted The number of elements that have already been
+         * emitted in the current task
+         * @return The number of elements that have been emitted in the
+         * current task
+         * @throws IOException If the data cannot be read
+         */
+        private int drain(int emitted) throws IOException
+        {
+            if (cancelled)
+            {
+                terminate();
+                return emitted;
+            }
+            IllegalArgumentException invalid = invalidRequest;
+            if (invalid != null)
+            {
+                terminate();
+                subscriber.onError(invalid);
+                return emitted;
+            }
+            if (requested.get() == 0)
+            {
+                return emitted;
+            }
+            if (iterator == null)
+            {
+                stream = source.open();
+                iterator = stream.iterator();
+            }
+            int result = emitted;
+            while (requested.get() > 0 && result < MAX_ELEMENTS_PER_TASK)
+            {
+                if (cancelled)
+                {
+                    terminate();
+                    return result;
+                }
+                if (!iterator.hasNext())
+                {
+                    terminate();
+                    subscriber.onComplete();
+                    return result;
+                }
+                T item = iterator.next();
+                if (requested.get() != Long.MAX_VALUE)
+                {
+                    requested.decrementAndGet();
+                }
+                result++;
+                subscriber.onNext(item);
+            }
+            return result;
+        }
+
+        /**
+         * Mark this subscription as terminated, and close the stream
+         */
+        private void terminate()
+        {
+            terminated = true;
+            Stream<T> s = stream;
+            stream = null;
+            iterator = null;
+            if (s != null)
+            {
+                s.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistPublisher[executor=" + executor + "]";
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+/**
+ * A range of entry indices, from an inclusive start index to an exclusive
+ * end index. Instances of this class may be used for reading only a part
+ * of the MNIST data, for example, with 
+ * {@link MnistDecompressedReader#readDecompressedRange(java.nio.file.Path, 
+ * java.nio.file.Path, int, int, java.util.function.Consumer)}.<br>
+ * <br>
+ * The {@link #shard(int, int, int)} method computes the range of one 
+ * shard when the entries are divided among multiple workers, for 
+ * example, for data-parallel training.
+ */
+public final class MnistRange
+{
+    /**
+     * The start index, inclusive
+     */
+    private final int from;
+
+    /**
+     * The end index, exclusive
+     */
+    private final int to;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param from The start index, inclusive
+     * @param to The end index, exclusive
+     */
+    private MnistRange(int from, int to)
+    {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Creates a new range
+     * 
+     * @param from The start index, inclusive
+     * @param to The end index, exclusive
+     * @return The range
+     * @throws IllegalArgumentException If the start index is negative,
+     * or larger than the end index
+     */
+    public static MnistRange of(int from, int to)
+    {
+        if (from < 0 || from > to)
+        {
+            throw new IllegalArgumentException(
+                "Invalid range: [" + from + "," + to + ")");
+        }
+        return new MnistRange(from, to);
+    }
+
+    /**
+     * Computes the range of the specified shard, when the given number
+     * of entries is divided into the given number of shards.<br>
+     * <br>
+     * The shards are contiguous, do not overlap, and together cover all
+     * entries. Their sizes differ by at most 1. Each worker may read its
+     * own shard, without reading the entries of the other shards.
+     * 
+     * @param numberOfEntries The total number of entries
+     * @param shardIndex The index of the shard
+     * @param numberOfShards The number of shards
+     * @return The range of the shard
+     * @throws IllegalArgumentException If the number of entries is 
+     * negative, the number of shards is not positive, or the shard index
+     * is negative or not smaller than the number of shards
+     */
+    public static MnistRange shard(
+        int numberOfEntries, int shardIndex, int numberOfShards)
+    {
+        if (numberOfEntries < 0)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfEntries may not be negative, but is " 
+                    + numberOfEntries);
+        }
+        if (numberOfShards <= 0)
+        {
+            throw new IllegalArgumentException(
+                "The numberOfShards must be positive, but is " 
+                    + numberOfShards);
+        }
+        if (shardIndex < 0 || shardIndex >= numberOfShards)
+        {
+            throw new IllegalArgumentException("The shardIndex must be in [0,"
+                + numberOfShards + "), but is " + shardIndex);
+        }
+        int from = (int) ((long) numberOfEntries * shardIndex 
+            / numberOfShards);
+        int to = (int) ((long) numberOfEntries * (shardIndex + 1) 
+            / numberOfShards);
+        return new MnistRange(from, to);
+    }
+
+    /**
+     * Returns the start index, inclusive
+     * 
+     * @return The start index
+     */
+    public int getFrom()
+    {
+        return from;
+    }
+
+    /**
+     * Returns the end index, exclusive
+     * 
+     * @return The end index
+     */
+    public int getTo()
+    {
+        return to;
+    }
+
+    /**
+     * Returns the number of indices in this range
+     * 
+     * @return The size
+     */
+    public int size()
+    {
+        return to - from;
+    }
+
+    /**
+     * Make sure that this range is contained in the range of indices
+     * of the given number of entries
+     * 
+     * @param numberOfEntries The number of entries
+     * @throws IndexOutOfBoundsException If this range is not contained
+     * in the range of indices of the given number of entries
+     */
+    void validate(int numberOfEntries)
+    {
+        if (to > numberOfEntries)
+        {
+            throw new IndexOutOfBoundsException("Range [" + from + "," + to
+                + ") is out of bounds for " + numberOfEntries + " entries");
+        }
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * from + to;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        if (this == object)
+        {
+            return true;
+        }
+        if (!(object instanceof MnistRange))
+        {
+            return false;
+        }
+        MnistRange other = (MnistRange) object;
+        return from == other.from && to == other.to;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistRange[from=" + from + ",to=" + to + "]";
+    }
+}
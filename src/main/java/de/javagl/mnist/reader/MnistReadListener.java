@@ -0,0 +1,26 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+/**
+ * Interface for classes that want to be informed about the performance
+ * of the reading methods of the {@link MnistCompressedReader} and the
+ * {@link MnistDecompressedReader}.<br>
+ * <br>
+ * A listener may be attached to a reader with 
+ * {@link MnistCompressedReader#setReadListener(MnistReadListener)} or
+ * {@link MnistDecompressedReader#setReadListener(MnistReadListener)}.
+ * It will be called on the thread that called the reading method, 
+ * after all entries have been read successfully.
+ */
+public interface MnistReadListener
+{
+    /**
+     * Will be called when a reading operation has been completed
+     * 
+     * @param mnistReadMetrics The {@link MnistReadMetrics} of the 
+     * reading operation
+     */
+    void readCompleted(MnistReadMetrics mnistReadMetrics);
+}
@@ -0,0 +1,227 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of a single reading operation of a {@link MnistCompressedReader} 
+ * or a {@link MnistDecompressedReader}, as they are passed to a 
+ * {@link MnistReadListener}.<br>
+ * <br>
+ * The total time of the operation is split into the time for reading 
+ * the headers, the time that was spent in the consumer, and the time
+ * that was spent reading the entries. For compressed input, the latter 
+ * includes the time for the decompression. The time that was spent 
+ * in the underlying (compressed or decompressed) input streams is given
+ * as the IO time, so that the decompression time can be estimated as
+ * the difference between the reading time and the IO time.
+ */
+public final class MnistReadMetrics
+{
+    /**
+     * The number of entries
+     */
+    private final int numberOfEntries;
+
+    /**
+     * The number of compressed bytes
+     */
+    private final long compressedBytes;
+
+    /**
+     * The number of decompressed bytes
+     */
+    private final long decompressedBytes;
+
+    /**
+     * The time for reading the headers, in nanoseconds
+     */
+    private final long headerNanos;
+
+    /**
+     * The time for reading the entries, in nanoseconds
+     */
+    private final long readNanos;
+
+    /**
+     * The time spent in the underlying input streams, in nanoseconds
+     */
+    private final long ioNanos;
+
+    /**
+     * The time spent in the consumer, in nanoseconds
+     */
+    private final long consumerNanos;
+
+    /**
+     * The total time, in nanoseconds
+     */
+    private final long totalNanos;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param numberOfEntries The number of entries
+     * @param compressedBytes The number of compressed bytes
+     * @param decompressedBytes The number of decompressed bytes
+     * @param headerNanos The time for reading the headers
+     * @param readNanos The time for reading the entries
+     * @param ioNanos The time spent in the underlying input streams
+     * @param consumerNanos The time spent in the consumer
+     * @param totalNanos The total time
+     */
+    MnistReadMetrics(int numberOfEntries, 
+        long compressedBytes, long decompressedBytes, 
+        long headerNanos, long readNanos, long ioNanos, 
+        long consumerNanos, long totalNanos)
+    {
+        this.numberOfEntries = numberOfEntries;
+        this.compressedBytes = compressedBytes;
+        this.decompressedBytes = decompressedBytes;
+        this.headerNanos = headerNanos;
+        this.readNanos = readNanos;
+        this.ioNanos = ioNanos;
+        this.consumerNanos = consumerNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Returns the number of entries that have been read
+     * 
+     * @return The number of entries
+     */
+    public int getNumberOfEntries()
+    {
+        return numberOfEntries;
+    }
+
+    /**
+     * Returns the number of compressed bytes that have been read. This
+     * is 0 when the input was not compressed.
+     * 
+     * @return The number of compressed bytes
+     */
+    public long getCompressedBytes()
+    {
+        return compressedBytes;
+    }
+
+    /**
+     * Returns the number of decompressed bytes that have been read,
+     * including the headers
+     * 
+     * @return The number of decompressed bytes
+     */
+    public long getDecompressedBytes()
+    {
+        return decompressedBytes;
+    }
+
+    /**
+     * Returns the time that was spent for reading the headers, in
+     * nanoseconds
+     * 
+     * @return The header time
+     */
+    public long getHeaderNanos()
+    {
+        return headerNanos;
+    }
+
+    /**
+     * Returns the time that was spent for reading (and decompressing)
+     * the entries, excluding the time for the headers and the consumer,
+     * in nanoseconds
+     * 
+     * @return The reading time
+     */
+    public long getReadNanos()
+    {
+        return readNanos;
+    }
+
+    /**
+     * Returns the time that was spent in the underlying input streams,
+     * in nanoseconds. For compressed input, these are the streams that
+     * provide the compressed data.
+     * 
+     * @return The IO time
+     */
+    public long getIoNanos()
+    {
+        return ioNanos;
+    }
+
+    /**
+     * Returns the time that was spent in the consumer, in nanoseconds
+     * 
+     * @return The consumer time
+     */
+    public long getConsumerNanos()
+    {
+        return consumerNanos;
+    }
+
+    /**
+     * Returns the total time of the reading operation, in nanoseconds
+     * 
+     * @return The total time
+     */
+    public long getTotalNanos()
+    {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the number of entries that have been read per second, 
+     * based on the total time
+     * 
+     * @return The number of entries per second
+     */
+    public double getEntriesPerSecond()
+    {
+        return perSecond(numberOfEntries);
+    }
+
+    /**
+     * Returns the number of decompressed bytes that have been read per 
+     * second, based on the total time
+     * 
+     * @return The number of bytes per second
+     */
+    public double getDecompressedBytesPerSecond()
+    {
+        return perSecond(decompressedBytes);
+    }
+
+    /**
+     * Returns the given value divided by the total time in seconds
+     * 
+     * @param value The value
+     * @return The value per second
+     */
+    private double perSecond(double value)
+    {
+        if (totalNanos <= 0)
+        {
+            return 0.0;
+        }
+        return value * TimeUnit.SECONDS.toNanos(1) / totalNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistReadMetrics["
+            + "numberOfEntries=" + numberOfEntries + ","
+            + "compressedBytes=" + compressedBytes + ","
+            + "decompressedBytes=" + decompressedBytes + ","
+            + "headerNanos=" + headerNanos + ","
+            + "readNanos=" + readNanos + ","
+            + "ioNanos=" + ioNanos + ","
+            + "consumerNanos=" + consumerNanos + ","
+            + "totalNanos=" + totalNanos + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+/**
+ * The management interface of a {@link MnistJmxReadListener}, summarizing
+ * the {@link MnistReadMetrics} of all reading operations that have been
+ * reported to the listener.
+ */
+public interface MnistReadMetricsMXBean
+{
+    /**
+     * Returns the number of reading operations
+     * 
+     * @return The number of reading operations
+     */
+    long getReadCount();
+
+    /**
+     * Returns the total number of entries that have been read
+     * 
+     * @return The number of entries
+     */
+    long getTotalEntries();
+
+    /**
+     * Returns the total number of compressed bytes that have been read
+     * 
+     * @return The number of compressed bytes
+     */
+    long getTotalCompressedBytes();
+
+    /**
+     * Returns the total number of decompressed bytes that have been read
+     * 
+     * @return The number of decompressed bytes
+     */
+    long getTotalDecompressedBytes();
+
+    /**
+     * Returns the total time that was spent for reading the headers, 
+     * in milliseconds
+     * 
+     * @return The header time
+     */
+    double getTotalHeaderMillis();
+
+    /**
+     * Returns the total time that was spent for reading (and 
+     * decompressing) the entries, in milliseconds
+     * 
+     * @return The reading time
+     * @see MnistReadMetrics#getReadNanos()
+     */
+    double getTotalReadMillis();
+
+    /**
+     * Returns the total time that was spent in the underlying input 
+     * streams, in milliseconds
+     * 
+     * @return The IO time
+     * @see MnistReadMetrics#getIoNanos()
+     */
+    double getTotalIoMillis();
+
+    /**
+     * Returns the total time that was spent in the consumers, in 
+     * milliseconds
+     * 
+     * @return The consumer time
+     */
+    double getTotalConsumerMillis();
+
+    /**
+     * Returns the total time of all reading operations, in milliseconds
+     * 
+     * @return The total time
+     */
+    double getTotalMillis();
+
+    /**
+     * Returns the number of entries per second of all reading operations
+     * 
+     * @return The number of entries per second
+     */
+    double getEntriesPerSecond();
+
+    /**
+     * Returns the number of entries per second of the last reading 
+     * operation
+     * 
+     * @return The number of entries per second
+     */
+    double getLastEntriesPerSecond();
+
+    /**
+     * Reset all values
+     */
+    void reset();
+}
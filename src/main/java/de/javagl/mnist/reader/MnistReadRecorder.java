@@ -0,0 +1,304 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Package-private class for recording the {@link MnistReadMetrics} of
+ * a single reading operation. Instances of this class are only created
+ * when a {@link MnistReadListener} is attached to a reader, so that 
+ * reading without a listener does not cause any overhead except for
+ * <code>null</code> checks.<br>
+ * <br>
+ * The values are recorded by the reading thread, except for the 
+ * pipelined reading mode, where the values of the streams are recorded
+ * by the background threads. These threads are finished before the 
+ * values are read in {@link #completed()}.
+ */
+final class MnistReadRecorder
+{
+    /**
+     * An input stream that counts the number of bytes that are read, 
+     * and the time that is spent for reading them
+     */
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        /**
+         * The number of bytes
+         */
+        private volatile long bytes;
+
+        /**
+         * The time, in nanoseconds
+         */
+        private volatile long nanos;
+
+        /**
+         * Creates a new instance
+         * 
+         * @param inputStream The delegate
+         * @param previous The optional stream that previously provided
+         * the same data, whose counts will be continued
+         */
+        CountingInputStream(InputStream inputStream, 
+            CountingInputStream previous)
+        {
+            super(inputStream);
+            if (previous != null)
+            {
+                this.bytes = previous.bytes;
+                this.nanos = previous.nanos;
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            long before = System.nanoTime();
+            int result = super.read();
+            nanos += System.nanoTime() - before;
+            if (result >= 0)
+            {
+                bytes++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException
+        {
+            long before = System.nanoTime();
+            int result = super.read(b, off, len);
+            nanos += System.nanoTime() - before;
+            if (result > 0)
+            {
+                bytes += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long before = System.nanoTime();
+            long result = super.skip(n);
+            nanos += System.nanoTime() - before;
+            if (result > 0)
+            {
+                bytes += result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The listener
+     */
+    private final MnistReadListener listener;
+
+    /**
+     * The streams that provide the compressed data. When a stream is
+     * replaced, the new stream continues the counts of the previous
+     * one, so that data that is read in several passes is counted
+     * completely.
+     */
+    private final CountingInputStream compressed[];
+
+    /**
+     * The streams that provide the decompressed data. When a stream is
+     * replaced, the new stream continues the counts of the previous
+     * one, so that data that is read in several passes is counted
+     * completely.
+     */
+    private final CountingInputStream decompressed[];
+
+    /**
+     * The start time
+     */
+    private final long startNanos;
+
+    /**
+     * The start time of reading the headers
+     */
+    private volatile long headerStartNanos;
+
+    /**
+     * The time for reading the headers
+     */
+    private volatile long headerNanos;
+
+    /**
+     * The time spent in the consumer
+     */
+    private long consumerNanos;
+
+    /**
+     * The number of entries that have been passed to the consumer
+     */
+    private int numberOfEntries;
+
+    /**
+     * Creates a new instance
+     * 
+     * @param listener The listener
+     */
+    private MnistReadRecorder(MnistReadListener listener)
+    {
+        this.listener = listener;
+        this.compressed = new CountingInputStream[2];
+        this.decompressed = new CountingInputStream[2];
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a new recorder for the given listener, or returns 
+     * <code>null</code> if the given listener is <code>null</code>
+     * 
+     * @param listener The listener
+     * @return The recorder
+     */
+    static MnistReadRecorder create(MnistReadListener listener)
+    {
+        if (listener == null)
+        {
+            return null;
+        }
+        return new MnistReadRecorder(listener);
+    }
+
+    /**
+     * Returns a stream that counts the compressed images data that is 
+     * read from the given stream
+     * 
+     * @param inputStream The stream
+     * @return The counting stream
+     */
+    InputStream compressedImages(InputStream inputStream)
+    {
+        return compressed[0] = 
+            new CountingInputStream(inputStream, compressed[0]);
+    }
+
+    /**
+     * Returns a stream that counts the compressed labels data that is 
+     * read from the given stream
+     * 
+     * @param inputStream The stream
+     * @return The counting stream
+     */
+    InputStream compressedLabels(InputStream inputStream)
+    {
+        return compressed[1] = 
+            new CountingInputStream(inputStream, compressed[1]);
+    }
+
+    /**
+     * Returns a stream that counts the decompressed images data that is 
+     * read from the given stream
+     * 
+     * @param inputStream The stream
+     * @return The counting stream
+     */
+    InputStream decompressedImages(InputStream inputStream)
+    {
+        return decompressed[0] = 
+            new CountingInputStream(inputStream, decompressed[0]);
+    }
+
+    /**
+     * Returns a stream that counts the decompressed labels data that is 
+     * read from the given stream
+     * 
+     * @param inputStream The stream
+     * @return The counting stream
+     */
+    InputStream decompressedLabels(InputStream inputStream)
+    {
+        return decompressed[1] = 
+            new CountingInputStream(inputStream, decompressed[1]);
+    }
+
+    /**
+     * Will be called before the headers are read
+     */
+    void headerStarted()
+    {
+        headerStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Will be called after the headers have been read
+     */
+    void headerCompleted()
+    {
+        headerNanos = System.nanoTime() - headerStartNanos;
+    }
+
+    /**
+     * Returns a consumer that passes all entries to the given consumer,
+     * and records the number of entries and the time that is spent in
+     * the given consumer
+     * 
+     * @param consumer The consumer
+     * @return The recording consumer
+     */
+    Consumer<MnistEntry> wrap(Consumer<? super MnistEntry> consumer)
+    {
+        return mnistEntry -> 
+        {
+            long before = System.nanoTime();
+            consumer.accept(mnistEntry);
+            consumerNanos += System.nanoTime() - before;
+            numberOfEntries++;
+        };
+    }
+
+    /**
+     * Will be called when a block of the given number of entries has 
+     * been read, instead of passing the entries to a consumer
+     * 
+     * @param numberOfEntries The number of entries
+     */
+    void blockCompleted(int numberOfEntries)
+    {
+        this.numberOfEntries = numberOfEntries;
+    }
+
+    /**
+     * Will be called when the reading operation has been completed. This
+     * will pass the resulting {@link MnistReadMetrics} to the listener.
+     */
+    void completed()
+    {
+        long totalNanos = System.nanoTime() - startNanos;
+        long compressedBytes = 0;
+        long decompressedBytes = 0;
+        long ioNanos = 0;
+        for (int i = 0; i < 2; i++)
+        {
+            if (compressed[i] != null)
+            {
+                compressedBytes += compressed[i].bytes;
+                ioNanos += compressed[i].nanos;
+            }
+            if (decompressed[i] != null)
+            {
+                decompressedBytes += decompressed[i].bytes;
+                if (compressed[i] == null)
+                {
+                    ioNanos += decompressed[i].nanos;
+                }
+            }
+        }
+        long readNanos = 
+            Math.max(0, totalNanos - headerNanos - consumerNanos);
+        listener.readCompleted(new MnistReadMetrics(numberOfEntries, 
+            compressedBytes, decompressedBytes, headerNanos, readNanos, 
+            ioNanos, consumerNanos, totalNanos));
+    }
+}
@@ -0,0 +1,865 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Statistics of an MNIST data set: The per-pixel mean, variance, 
+ * minimum and maximum, and the histogram of the labels.<br>
+ * <br>
+ * Instances of this class are created with {@link #compute(MnistData)},
+ * which processes the entries on all cores, or with an 
+ * {@link Accumulator} that receives the entries from one of the 
+ * reading methods. They may be {@link #write(Path) written} to a file 
+ * and {@link #read(Path) read} back, and {@link #computeOrLoad} 
+ * combines both, so that the statistics are only computed once.
+ */
+public final class MnistStatistics
+{
+    /**
+     * The magic number of the statistics file format ("MNST")
+     */
+    private static final int MAGIC = 0x4D4E5354;
+
+    /**
+     * The version of the statistics file format
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The number of distinct label values
+     */
+    private static final int NUMBER_OF_LABEL_VALUES = 256;
+
+    /**
+     * The number of entries that the tasks of {@link #compute(MnistData)}
+     * process sequentially
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 4096;
+
+    /**
+     * The value of the checksum for statistics whose data checksum is
+     * not known
+     */
+    private static final long UNKNOWN_CHECKSUM = -1;
+
+    /**
+     * An accumulator for the statistics of MNIST entries.<br>
+     * <br>
+     * The sums of the pixel values and their squares are accumulated
+     * exactly, as integers, for batches of entries. At the end of each 
+     * batch, they are merged into the running mean and sum of squared 
+     * differences with the parallel variant of Welford's algorithm 
+     * (Chan et al.). The same method is used for {@link #combine 
+     * combining} accumulators, so the result does not depend on how the 
+     * entries have been split between accumulators (except for rounding
+     * errors in the last digits).<br>
+     * <br>
+     * This class is not thread-safe. 
+     */
+    public static final class Accumulator implements Consumer<MnistEntry>
+    {
+        /**
+         * The maximum number of entries that are accumulated as integer
+         * sums, before they are merged into the running statistics. This
+         * ensures that the sums of squares do not overflow an 
+         * <code>int</code>: 255 * 255 * 32768 &lt; 2^31
+         */
+        private static final int BATCH_SIZE = 32768;
+
+        /**
+         * The number of rows of each image
+         */
+        private final int numRows;
+
+        /**
+         * The number of columns of each image
+         */
+        private final int numCols;
+
+        /**
+         * The number of merged entries
+         */
+        private long count;
+
+        /**
+         * The running per-pixel means
+         */
+        private final double mean[];
+
+        /**
+         * The running per-pixel sums of squared differences from the mean
+         */
+        private final double m2[];
+
+        /**
+         * The number of entries in the current batch
+         */
+        private int batchCount;
+
+        /**
+         * The per-pixel sums of the current batch
+         */
+        private final int batchSum[];
+
+        /**
+         * The per-pixel sums of squares of the current batch
+         */
+        private final int batchSumOfSquares[];
+
+        /**
+         * The per-pixel minima
+         */
+        private final int min[];
+
+        /**
+         * The per-pixel maxima
+         */
+        private final int max[];
+
+        /**
+         * The number of occurrences of each label
+         */
+        private final long labelCounts[];
+
+        /**
+         * Creates a new, empty accumulator
+         * 
+         * @param numRows The number of rows of each image
+         * @param numCols The number of columns of each image
+         * @throws IllegalArgumentException If the number of rows or 
+         * columns is not positive
+         */
+        public Accumulator(int numRows, int numCols)
+        {
+            if (numRows <= 0 || numCols <= 0)
+            {
+                throw new IllegalArgumentException(
+                    "Invalid image size: " + numRows + "x" + numCols);
+            }
+            int imageSize = numRows * numCols;
+            this.numRows = numRows;
+            this.numCols = numCols;
+            this.mean = new double[imageSize];
+            this.m2 = new double[imageSize];
+            this.batchSum = new int[imageSize];
+            this.batchSumOfSquares = new int[imageSize];
+            this.min = new int[imageSize];
+            this.max = new int[imageSize];
+            Arrays.fill(min, 255);
+            this.labelCounts = new long[NUMBER_OF_LABEL_VALUES];
+        }
+
+        /**
+         * Add the given entry. The entry itself is not stored, so this 
+         * may also be used with the <code>...Reusing</code> reading 
+         * methods.
+         * 
+         * @param mnistEntry The {@link MnistEntry}
+         * @throws IllegalArgumentException If the size of the image of
+         * the entry does not match the size of this accumulator
+         */
+        @Override
+        public void accept(MnistEntry mnistEntry)
+        {
+            if (mnistEntry.getNumRows() != numRows || 
+                mnistEntry.getNumCols() != numCols)
+            {
+                throw new IllegalArgumentException("Expected an image of "
+                    + "size " + numCols + "x" + numRows + ", but found " 
+                    + mnistEntry.getNumCols() + "x" 
+                    + mnistEntry.getNumRows());
+            }
+            add(mnistEntry.getLabel(), mnistEntry.getImageData(), 0);
+        }
+
+        /**
+         * Add the given image data
+         * 
+         * @param label The label
+         * @param imageData The image data
+         * @param offset The offset of the image in the given array
+         */
+        void add(byte label, byte imageData[], int offset)
+        {
+            int imageSize = mean.length;
+            for (int i = 0; i < imageSize; i++)
+            {
+                int value = imageData[offset + i] & 0xFF;
+                batchSum[i] += value;
+                batchSumOfSquares[i] += value * value;
+                min[i] = Math.min(min[i], value);
+                max[i] = Math.max(max[i], value);
+            }
+            labelCounts[label & 0xFF]++;
+            batchCount++;
+            if (batchCount == BATCH_SIZE)
+            {
+                flush();
+            }
+        }
+
+        /**
+         * Merge the current batch into the running statistics
+         */
+        private void flush()
+        {
+            if (batchCount == 0)
+            {
+                return;
+            }
+            double nb = batchCount;
+            double n = count + nb;
+            for (int i = 0; i < mean.length; i++)
+            {
+                double batchMean = batchSum[i] / nb;
+                double batchM2 = 
+                    batchSumOfSquares[i] - batchSum[i] * batchMean;
+                double delta = batchMean - mean[i];
+                mean[i] += delta * nb / n;
+                m2[i] += batchM2 + delta * delta * count * nb / n;
+            }
+            count += batchCount;
+            batchCount = 0;
+            Arrays.fill(batchSum, 0);
+            Arrays.fill(batchSumOfSquares, 0);
+        }
+
+        /**
+         * Combine the given accumulator into this one. After this call,
+         * this accumulator contains the statistics of the entries of 
+         * both accumulators. The given accumulator may no longer be used.
+         * 
+         * @param other The other accumulator
+         * @throws IllegalArgumentException If the image sizes of the 
+         * accumulators are different
+         */
+        public void combine(Accumulator other)
+        {
+            if (other.numRows != numRows || other.numCols != numCols)
+            {
+                throw new IllegalArgumentException("Cannot combine "
+                    + "statistics for " + numCols + "x" + numRows 
+                    + " and " + other.numCols + "x" + other.numRows 
+                    + " images");
+            }
+            flush();
+            other.flush();
+            if (other.count == 0)
+            {
+                return;
+            }
+            double na = count;
+            double nb = other.count;
+            double n = na + nb;
+            for (int i = 0; i < mean.length; i++)
+            {
+                double delta = other.mean[i] - mean[i];
+                mean[i] += delta * nb / n;
+                m2[i] += other.m2[i] + delta * delta * na * nb / n;
+                min[i] = Math.min(min[i], other.min[i]);
+                max[i] = Math.max(max[i], other.max[i]);
+            }
+            count += other.count;
+            for (int i = 0; i < NUMBER_OF_LABEL_VALUES; i++)
+            {
+                labelCounts[i] += other.labelCounts[i];
+            }
+        }
+
+        /**
+         * Creates the {@link MnistStatistics} from the current state of
+         * this accumulator
+         * 
+         * @return The {@link MnistStatistics}
+         */
+        public MnistStatistics build()
+        {
+            flush();
+            return new MnistStatistics(numRows, numCols, count, 
+                mean.clone(), m2.clone(), min.clone(), max.clone(), 
+                labelCounts.clone(), UNKNOWN_CHECKSUM);
+        }
+    }
+
+    /**
+     * The number of rows of each image
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of each image
+     */
+    private final int numCols;
+
+    /**
+     * The number of entries
+     */
+    private final long count;
+
+    /**
+     * The per-pixel means
+     */
+    private final double mean[];
+
+    /**
+     * The per-pixel sums of squared differences from the mean
+     */
+    private final double m2[];
+
+    /**
+     * The per-pixel minima
+     */
+    private final int min[];
+
+    /**
+     * The per-pixel maxima
+     */
+    private final int max[];
+
+    /**
+     * The number of occurrences of each label
+     */
+    private final long labelCounts[];
+
+    /**
+     * The CRC32 of the image data that the statistics have been computed
+     * from, or {@link #UNKNOWN_CHECKSUM}
+     */
+    private final long checksum;
+
+    /**
+     * Creates a new instance. The arrays are not copied.
+     * 
+     * @param numRows The number of rows
+     * @param numCols The number of columns
+     * @param count The number of entries
+     * @param mean The means
+     * @param m2 The sums of squared differences from the mean
+     * @param min The minima
+     * @param max The maxima
+     * @param labelCounts The label counts
+     * @param checksum The checksum of the image data
+     */
+    private MnistStatistics(int numRows, int numCols, long count, 
+        double mean[], double m2[], int min[], int max[], 
+        long labelCounts[], long checksum)
+    {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.count = count;
+        this.mean = mean;
+        this.m2 = m2;
+        this.min = min;
+        this.max = max;
+        this.labelCounts = labelCounts;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Compute the statistics of all entries of the given data. The 
+     * entries are split into ranges that are processed in parallel,
+     * in the common fork-join pool.
+     * 
+     * @param mnistData The {@link MnistData}
+     * @return The {@link MnistStatistics}
+     */
+    public static MnistStatistics compute(MnistData mnistData)
+    {
+        Objects.requireNonNull(mnistData, "The mnistData may not be null");
+        return ForkJoinPool.commonPool().invoke(
+            new ComputeTask(mnistData, 0, mnistData.size())).build();
+    }
+
+    /**
+     * A task that computes an {@link Accumulator} for a range of entries
+     */
+    private static final class ComputeTask extends RecursiveTask<Accumulator>
+    {
+        /**
+         * Serial UID
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The data
+         */
+        private final MnistData mnistData;
+
+        /**
+         * The start index, inclusive
+         */
+        private final int fromIndex;
+
+        /**
+         * The end index, exclusive
+         */
+        private final int toIndex;
+
+        /**
+         * Creates a new task
+         * 
+         * @param mnistData The data
+         * @param fromIndex The start index, inclusive
+         * @param toIndex The end index, exclusive
+         */
+        ComputeTask(MnistData mnistData, int fromIndex, int toIndex)
+        {
+            this.mnistData = mnistData;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        protected Accumulator compute()
+        {
+            if (toIndex - fromIndex > SEQUENTIAL_THRESHOLD)
+            {
+                int middle = (fromIndex + toIndex) >>> 1;
+                ComputeTask left = 
+                    new ComputeTask(mnistData, fromIndex, middle);
+                ComputeTask right = 
+                    new ComputeTask(mnistData, middle, toIndex);
+                left.fork();
+                Accumulator result = right.compute();
+                result.combine(left.join());
+                return result;
+            }
+            Accumulator accumulator = new Accumulator(
+                mnistData.getNumRows(), mnistData.getNumCols());
+            int imageSize = mnistData.getNumRows() * mnistData.getNumCols();
+            if (mnistData instanceof MnistDataBlock)
+            {
+                MnistDataBlock mnistDataBlock = (MnistDataBlock) mnistData;
+                byte imageData[] = mnistDataBlock.getImageData();
+                for (int i = fromIndex; i < toIndex; i++)
+                {
+                    accumulator.add(mnistDataBlock.getLabel(i), 
+                        imageData, i * imageSize);
+                }
+            }
+            else
+            {
+                byte imageData[] = new byte[imageSize];
+                for (int i = fromIndex; i < toIndex; i++)
+                {
+                    mnistData.getImageData(i, imageData, 0);
+                    accumulator.add(mnistData.getLabel(i), imageData, 0);
+                }
+            }
+            return accumulator;
+        }
+    }
+
+    /**
+     * Returns the statistics of the given data. If the given file 
+     * exists and contains statistics that match the given data, then 
+     * they are read from this file. Otherwise, the statistics are 
+     * {@link #compute(MnistData) computed}, and written to the file.<br>
+     * <br>
+     * The statistics match the data when the number of entries, the 
+     * image size, the label histogram and the CRC32 of the image data 
+     * are equal. The file is written to a temporary file first, and then
+     * moved to the given path atomically, so that concurrent processes 
+     * never read a partially written file. If the file system does not
+     * support atomic moves, then the statistics are not written.
+     * 
+     * @param mnistData The {@link MnistData}
+     * @param statisticsFilePath The path of the statistics file
+     * @return The {@link MnistStatistics}
+     * @throws IOException If an IO error occurs
+     */
+    public static MnistStatistics computeOrLoad(
+        MnistData mnistData, Path statisticsFilePath) throws IOException
+    {
+        Objects.requireNonNull(mnistData, "The mnistData may not be null");
+        long labelCounts[] = new long[NUMBER_OF_LABEL_VALUES];
+        int n = mnistData.size();
+        for (int i = 0; i < n; i++)
+        {
+            labelCounts[mnistData.getLabel(i) & 0xFF]++;
+        }
+        long checksum = computeChecksum(mnistData);
+        try
+        {
+            MnistStatistics stored = read(statisticsFilePath);
+            if (stored.count == n && 
+                stored.numRows == mnistData.getNumRows() &&
+                stored.numCols == mnistData.getNumCols() &&
+                Arrays.equals(stored.labelCounts, labelCounts) &&
+                stored.checksum == checksum)
+            {
+                return stored;
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            // The statistics have not been written yet
+        }
+        catch (IOException e)
+        {
+            // The file is invalid, and will be replaced
+        }
+        MnistStatistics computed = compute(mnistData).withChecksum(checksum);
+        Path parent = statisticsFilePath.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporaryPath = Files.createTempFile(parent, 
+            statisticsFilePath.getFileName().toString(), ".tmp");
+        try
+        {
+            computed.write(temporaryPath);
+            try
+            {
+                Files.move(temporaryPath, statisticsFilePath, 
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                // A plain move could expose a partially written file
+                // to other processes, so the statistics is not stored
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temporaryPath);
+        }
+        return computed;
+    }
+
+    /**
+     * Compute the CRC32 of the image data of all entries of the given 
+     * data
+     * 
+     * @param mnistData The {@link MnistData}
+     * @return The checksum
+     */
+    private static long computeChecksum(MnistData mnistData)
+    {
+        CRC32 crc = new CRC32();
+        if (mnistData instanceof MnistDataBlock)
+        {
+            crc.update(((MnistDataBlock) mnistData).getImageData());
+            return crc.getValue();
+        }
+        int n = mnistData.size();
+        byte imageData[] = 
+            new byte[mnistData.getNumRows() * mnistData.getNumCols()];
+        for (int i = 0; i < n; i++)
+        {
+            mnistData.getImageData(i, imageData, 0);
+            crc.update(imageData);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Returns a copy of these statistics with the given checksum. The 
+     * arrays are shared.
+     * 
+     * @param checksum The checksum of the image data
+     * @return The statistics
+     */
+    private MnistStatistics withChecksum(long checksum)
+    {
+        return new MnistStatistics(numRows, numCols, count, 
+            mean, m2, min, max, labelCounts, checksum);
+    }
+
+    /**
+     * Write these statistics to the given file
+     * 
+     * @param path The path of the file
+     * @throws IOException If an IO error occurs
+     */
+    public void write(Path path) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(path))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numRows);
+            out.writeInt(numCols);
+            out.writeLong(count);
+            out.writeLong(checksum);
+            for (int i = 0; i < mean.length; i++)
+            {
+                out.writeDouble(mean[i]);
+                out.writeDouble(m2[i]);
+                out.writeByte(min[i]);
+                out.writeByte(max[i]);
+            }
+            for (int i = 0; i < NUMBER_OF_LABEL_VALUES; i++)
+            {
+                out.writeLong(labelCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Read statistics from the given file, which must have been written
+     * with {@link #write(Path)}
+     * 
+     * @param path The path of the file
+     * @return The {@link MnistStatistics}
+     * @throws IOException If an IO error occurs, or the file does not
+     * contain valid statistics
+     */
+    public static MnistStatistics read(Path path) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(path))))
+        {
+            int magic = in.readInt();
+            if (magic != MAGIC)
+            {
+                throw new IOException("Expected magic header of 0x"
+                    + Integer.toHexString(MAGIC) + " for statistics, "
+                    + "but found 0x" + Integer.toHexString(magic));
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported version of statistics "
+                    + "file: " + version);
+            }
+            int numRows = in.readInt();
+            int numCols = in.readInt();
+            long count = in.readLong();
+            long checksum = in.readLong();
+            if (numRows <= 0 || numCols <= 0 || 
+                (long) numRows * numCols > Integer.MAX_VALUE || count < 0)
+            {
+                throw new IOException("Invalid statistics header: " + count
+                    + " entries with " + numRows + "x" + numCols 
+                    + " pixels");
+            }
+            int imageSize = numRows * numCols;
+            double mean[] = new double[imageSize];
+            double m2[] = new double[imageSize];
+            int min[] = new int[imageSize];
+            int max[] = new int[imageSize];
+            for (int i = 0; i < imageSize; i++)
+            {
+                mean[i] = in.readDouble();
+                m2[i] = in.readDouble();
+                min[i] = in.readUnsignedByte();
+                max[i] = in.readUnsignedByte();
+            }
+            long labelCounts[] = new long[NUMBER_OF_LABEL_VALUES];
+            for (int i = 0; i < NUMBER_OF_LABEL_VALUES; i++)
+            {
+                labelCounts[i] = in.readLong();
+            }
+            return new MnistStatistics(numRows, numCols, count, 
+                mean, m2, min, max, labelCounts, checksum);
+        }
+    }
+
+    /**
+     * Returns the number of entries
+     * 
+     * @return The number of entries
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of rows of each image
+     * 
+     * @return The number of rows
+     */
+    public int getNumRows()
+    {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns of each image
+     * 
+     * @return The number of columns
+     */
+    public int getNumCols()
+    {
+        return numCols;
+    }
+
+    /**
+     * Returns a new array containing the mean of each pixel, in [0,255]
+     * 
+     * @return The means
+     */
+    public double[] getMeans()
+    {
+        return mean.clone();
+    }
+
+    /**
+     * Returns a new array containing the (population) variance of each 
+     * pixel
+     * 
+     * @return The variances
+     */
+    public double[] getVariances()
+    {
+        double result[] = new double[m2.length];
+        if (count > 0)
+        {
+            for (int i = 0; i < m2.length; i++)
+            {
+                result[i] = m2[i] / count;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new array containing the minimum value of each pixel
+     * 
+     * @return The minima
+     */
+    public int[] getMinima()
+    {
+        return min.clone();
+    }
+
+    /**
+     * Returns a new array containing the maximum value of each pixel
+     * 
+     * @return The maxima
+     */
+    public int[] getMaxima()
+    {
+        return max.clone();
+    }
+
+    /**
+     * Returns the mean of all pixels of all entries
+     * 
+     * @return The mean
+     */
+    public double getOverallMean()
+    {
+        double sum = 0;
+        for (int i = 0; i < mean.length; i++)
+        {
+            sum += mean[i];
+        }
+        return sum / mean.length;
+    }
+
+    /**
+     * Returns the (population) standard deviation of all pixels of all 
+     * entries
+     * 
+     * @return The standard deviation
+     */
+    public double getOverallStandardDeviation()
+    {
+        if (count == 0)
+        {
+            return 0.0;
+        }
+        double overallMean = getOverallMean();
+        double sum = 0;
+        for (int i = 0; i < mean.length; i++)
+        {
+            double delta = mean[i] - overallMean;
+            sum += m2[i] + delta * delta * count;
+        }
+        return Math.sqrt(sum / (count * mean.length));
+    }
+
+    /**
+     * Returns a new array containing the mean of each pixel, as 
+     * <code>float</code> values that may be passed to
+     * {@link MnistPixels#standardize(byte[], int, float[], int, int, 
+     * float[], float[])}
+     * 
+     * @return The means
+     */
+    public float[] createMeanArray()
+    {
+        float result[] = new float[mean.length];
+        for (int i = 0; i < mean.length; i++)
+        {
+            result[i] = (float) mean[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new array containing the (population) standard deviation
+     * of each pixel, as <code>float</code> values that may be passed to
+     * {@link MnistPixels#standardize(byte[], int, float[], int, int, 
+     * float[], float[])}. Standard deviations that are smaller than the 
+     * given minimum are replaced with the minimum. 
+     * 
+     * @param minimum The minimum standard deviation
+     * @return The standard deviations
+     */
+    public float[] createStandardDeviationArray(float minimum)
+    {
+        float result[] = new float[m2.length];
+        for (int i = 0; i < m2.length; i++)
+        {
+            double std = count == 0 ? 0.0 : Math.sqrt(m2[i] / count);
+            result[i] = (float) Math.max(minimum, std);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of entries with the given label
+     * 
+     * @param label The label
+     * @return The number of entries
+     * @throws IndexOutOfBoundsException If the label is not in [0,255]
+     */
+    public long getLabelCount(int label)
+    {
+        return labelCounts[label];
+    }
+
+    /**
+     * Returns a new array containing the number of entries for each of 
+     * the {@link MnistBatchIterator#NUMBER_OF_CLASSES} labels
+     * 
+     * @return The label histogram
+     */
+    public long[] getLabelHistogram()
+    {
+        return Arrays.copyOf(labelCounts, MnistBatchIterator.NUMBER_OF_CLASSES);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MnistStatistics["
+            + "count=" + count + ","
+            + "numRows=" + numRows + ","
+            + "numCols=" + numCols + ","
+            + "mean=" + getOverallMean() + ","
+            + "std=" + getOverallStandardDeviation() + "]";
+    }
+
+}
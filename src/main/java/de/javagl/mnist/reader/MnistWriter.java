@@ -0,0 +1,282 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A class for writing data sets in the MNIST format, consisting of an
+ * images file and a labels file. The resulting files may be read with
+ * the {@link MnistDecompressedReader}, or, when they are compressed, 
+ * with the {@link MnistCompressedReader}.<br>
+ * <br>
+ * The number of entries does not have to be known in advance. It is 
+ * written into the headers of the files when the writer is closed.<br>
+ * <br>
+ * This class is not thread-safe.
+ */
+public final class MnistWriter implements Closeable
+{
+    /**
+     * Creates a new writer for uncompressed files. Existing files will
+     * be overwritten.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param numRows The number of rows of each image
+     * @param numCols The number of columns of each image
+     * @return The writer
+     * @throws IOException If the files cannot be created. In this case,
+     * the images file that may already have been created is deleted.
+     */
+    public static MnistWriter create(Path imagesFilePath, 
+        Path labelsFilePath, int numRows, int numCols) throws IOException
+    {
+        IdxWriter imagesIdxWriter = IdxWriter.create(
+            imagesFilePath, IdxType.UNSIGNED_BYTE, numRows, numCols);
+        IdxWriter labelsIdxWriter = null;
+        try
+        {
+            labelsIdxWriter = IdxWriter.create(
+                labelsFilePath, IdxType.UNSIGNED_BYTE);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            imagesIdxWriter.abort();
+            throw e;
+        }
+        return new MnistWriter(
+            imagesIdxWriter, labelsIdxWriter, numRows, numCols);
+    }
+
+    /**
+     * Creates a new writer for GZIP-compressed files. Existing files will
+     * be overwritten.
+     * 
+     * @param imagesFilePath The path of the images file
+     * @param labelsFilePath The path of the labels file
+     * @param numRows The number of rows of each image
+     * @param numCols The number of columns of each image
+     * @param compressionLevel The compression level, in [0,9], or -1 
+     * for the default compression level
+     * @return The writer
+     * @throws IOException If the files cannot be created. In this case,
+     * the images file that may already have been created is deleted.
+     */
+    public static MnistWriter createCompressed(Path imagesFilePath, 
+        Path labelsFilePath, int numRows, int numCols, int compressionLevel) 
+            throws IOException
+    {
+        IdxWriter imagesIdxWriter = IdxWriter.createCompressed(imagesFilePath,
+            compressionLevel, IdxType.UNSIGNED_BYTE, numRows, numCols);
+        IdxWriter labelsIdxWriter = null;
+        try
+        {
+            labelsIdxWriter = IdxWriter.createCompressed(labelsFilePath, 
+                compressionLevel, IdxType.UNSIGNED_BYTE);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            imagesIdxWriter.abort();
+            throw e;
+        }
+        return new MnistWriter(
+            imagesIdxWriter, labelsIdxWriter, numRows, numCols);
+    }
+
+    /**
+     * The writer for the images
+     */
+    private final IdxWriter imagesIdxWriter;
+
+    /**
+     * The writer for the labels
+     */
+    private final IdxWriter labelsIdxWriter;
+
+    /**
+     * The number of rows of each image
+     */
+    private final int numRows;
+
+    /**
+     * The number of columns of each image
+     */
+    private final int numCols;
+
+    /**
+     * The number of pixels of each image
+     */
+    private final long imageSize;
+
+    /**
+     * A single-element array for writing one label
+     */
+    private final byte label[];
+
+    /**
+     * Creates a new instance
+     * 
+     * @param imagesIdxWriter The writer for the images
+     * @param labelsIdxWriter The writer for the labels
+     * @param numRows The number of rows of each image
+     * @param numCols The number of columns of each image
+     */
+    private MnistWriter(IdxWriter imagesIdxWriter, IdxWriter labelsIdxWriter, 
+        int numRows, int numCols)
+    {
+        this.imagesIdxWriter = imagesIdxWriter;
+        this.labelsIdxWriter = labelsIdxWriter;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.imageSize = (long) numRows * numCols;
+        this.label = new byte[1];
+    }
+
+    /**
+     * Write the given entry. The index of the entry is ignored.
+     * 
+     * @param mnistEntry The {@link MnistEntry}
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the size of the image of the 
+     * entry does not match the size of this writer
+     */
+    public void write(MnistEntry mnistEntry) throws IOException
+    {
+        if (mnistEntry.getNumRows() != numRows || 
+            mnistEntry.getNumCols() != numCols)
+        {
+            throw new IllegalArgumentException("Expected an image with "
+                + numRows + "x" + numCols + " pixels, but found " 
+                + mnistEntry.getNumRows() + "x" + mnistEntry.getNumCols());
+        }
+        write(mnistEntry.getLabel(), mnistEntry.getImageData());
+    }
+
+    /**
+     * Write an entry with the given label and image data
+     * 
+     * @param label The label
+     * @param imageData The image data, with a length of at least 
+     * <code>numRows * numCols</code>
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the image data array is too 
+     * small
+     */
+    public void write(byte label, byte imageData[]) throws IOException
+    {
+        if (imageData.length < imageSize)
+        {
+            throw new IllegalArgumentException("The image data must have "
+                + "a length of at least " + imageSize + ", but has a length "
+                + "of " + imageData.length);
+        }
+        this.label[0] = label;
+        labelsIdxWriter.writeBytes(this.label, 0, 1);
+        imagesIdxWriter.writeBytes(imageData, 0, numRows * numCols);
+    }
+
+    /**
+     * Write the specified number of entries from the given arrays. The
+     * labels will be taken from the given labels array, and the image 
+     * data will be taken from the given image data array, which stores 
+     * the images contiguously, in the same way as a {@link MnistDataBlock}.
+     * 
+     * @param labels The labels
+     * @param imageData The image data
+     * @param count The number of entries to write
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the count is negative, or the
+     * arrays are too small
+     */
+    public void write(byte labels[], byte imageData[], int count) 
+        throws IOException
+    {
+        if (count < 0)
+        {
+            throw new IllegalArgumentException(
+                "The count may not be negative, but is " + count);
+        }
+        if (labels.length < count)
+        {
+            throw new IllegalArgumentException("The labels must have "
+                + "a length of at least " + count + ", but have a length "
+                + "of " + labels.length);
+        }
+        // Note: The division avoids an overflow of count * imageSize
+        if (count > imageData.length / imageSize)
+        {
+            throw new IllegalArgumentException("The image data must have "
+                + "a length of at least " + count + " * " + imageSize 
+                + ", but has a length of " + imageData.length);
+        }
+        labelsIdxWriter.writeBytes(labels, 0, count);
+        imagesIdxWriter.writeBytes(imageData, 0, (int) (count * imageSize));
+    }
+
+    /**
+     * Write all entries of the given {@link MnistDataBlock}
+     * 
+     * @param mnistDataBlock The {@link MnistDataBlock}
+     * @throws IOException If an IO error occurs
+     * @throws IllegalArgumentException If the size of the images of the 
+     * block does not match the size of this writer
+     */
+    public void write(MnistDataBlock mnistDataBlock) throws IOException
+    {
+        if (mnistDataBlock.getNumRows() != numRows || 
+            mnistDataBlock.getNumCols() != numCols)
+        {
+            throw new IllegalArgumentException("Expected images with "
+                + numRows + "x" + numCols + " pixels, but found " 
+                + mnistDataBlock.getNumRows() + "x" 
+                + mnistDataBlock.getNumCols());
+        }
+        write(mnistDataBlock.getLabels(), mnistDataBlock.getImageData(), 
+            mnistDataBlock.size());
+    }
+
+    /**
+     * Finish writing the files. If the files do not contain the same 
+     * number of entries, or the images file cannot be finished, then
+     * both files are deleted.
+     * 
+     * @throws IOException If an IO error occurs, or the files do not
+     * contain the same number of entries
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            long numberOfLabels = labelsIdxWriter.getNumberOfElements();
+            long numberOfPixels = imagesIdxWriter.getNumberOfElements();
+            if (numberOfPixels != numberOfLabels * imageSize)
+            {
+                imagesIdxWriter.abort();
+                throw new IOException("Wrote " + numberOfLabels 
+                    + " labels, but " + numberOfPixels + " pixels, which " 
+                    + "is not the number of pixels for " + numberOfLabels 
+                    + " images");
+            }
+            imagesIdxWriter.close();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                labelsIdxWriter.abort();
+            }
+            catch (IOException a)
+            {
+                e.addSuppressed(a);
+            }
+            throw e;
+        }
+        labelsIdxWriter.close();
+    }
+
+}
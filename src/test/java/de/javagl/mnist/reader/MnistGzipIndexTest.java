@@ -0,0 +1,314 @@
+/*
+ * MnistReader - Copyright (c) 2016-2018 Marco Hutter - http://www.javagl.de
+ */ 
+package de.javagl.mnist.reader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MnistGzipIndex} and the {@link MnistGzipScanner}.
+ * The GZIP data alternates between compressible data, random data, and
+ * data that is written without compression. This causes stored blocks
+ * that follow blocks ending in the middle of a byte.
+ */
+@SuppressWarnings("javadoc")
+public class MnistGzipIndexTest
+{
+    private Path directory;
+    private Path gzipFilePath;
+    private byte data[];
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("MnistGzipIndexTest");
+        gzipFilePath = directory.resolve("data.gz");
+        data = createData(4200000, 0);
+        writeMixedGzip(gzipFilePath, data);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(MnistGzipIndex.resolveIndexFilePath(gzipFilePath));
+        Files.deleteIfExists(gzipFilePath);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testBuildDecodesWholeFile() throws IOException
+    {
+        assertArrayEquals(data, readGzip(gzipFilePath));
+        MnistGzipIndex index = MnistGzipIndex.build(gzipFilePath, 65536);
+        assertEquals(data.length, index.getUncompressedSize());
+        assertEquals(Files.size(gzipFilePath), index.getCompressedSize());
+        assertTrue(index.getNumberOfCheckpoints() > 10);
+    }
+
+    @Test
+    public void testOpenMatchesGzipInputStream() throws IOException
+    {
+        byte expected[] = readGzip(gzipFilePath);
+        MnistGzipIndex index = MnistGzipIndex.build(gzipFilePath, 65536);
+        Random random = new Random(0);
+        for (int i = 0; i < 300; i++)
+        {
+            int offset = i == 0 ? 0 : random.nextInt(expected.length);
+            assertRangeEquals(index, expected, offset,
+                Math.min(70000, expected.length - offset));
+        }
+        try (InputStream inputStream =
+            index.open(gzipFilePath, expected.length))
+        {
+            assertEquals(-1, inputStream.read());
+        }
+    }
+
+    @Test
+    public void testOpenAfterWriteAndRead() throws IOException
+    {
+        byte expected[] = readGzip(gzipFilePath);
+        MnistGzipIndex built = MnistGzipIndex.build(gzipFilePath, 65536);
+        Path indexFilePath = MnistGzipIndex.resolveIndexFilePath(gzipFilePath);
+        built.write(indexFilePath);
+        MnistGzipIndex index = MnistGzipIndex.read(indexFilePath);
+        assertTrue(index.matches(gzipFilePath));
+        assertEquals(built.getNumberOfCheckpoints(),
+            index.getNumberOfCheckpoints());
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++)
+        {
+            int offset = random.nextInt(expected.length);
+            assertRangeEquals(index, expected, offset,
+                Math.min(5000, expected.length - offset));
+        }
+    }
+
+    @Test
+    public void testReadCompressedShardBlockWithIndex() throws IOException
+    {
+        Path imagesFilePath = directory.resolve("images.gz");
+        Path labelsFilePath = directory.resolve("labels.gz");
+        int numberOfEntries = 3000;
+        byte labels[] = createData(numberOfEntries, 1);
+        byte imageData[] = createData(numberOfEntries * 28 * 28, 2);
+        try
+        {
+            writeMixedGzip(imagesFilePath, concat(
+                new byte[] { 0, 0, 8, 3, 0, 0, 0x0B, (byte) 0xB8,
+                    0, 0, 0, 28, 0, 0, 0, 28 }, imageData));
+            writeMixedGzip(labelsFilePath, concat(
+                new byte[] { 0, 0, 8, 1, 0, 0, 0x0B, (byte) 0xB8 }, labels));
+            MnistCompressedReader reader = new MnistCompressedReader();
+            reader.setGzipIndexEnabled(true);
+            for (int s = 0; s < 7; s++)
+            {
+                MnistRange range = MnistRange.shard(numberOfEntries, s, 7);
+                MnistDataBlock block = reader.readCompressedShardBlock(
+                    imagesFilePath, labelsFilePath, s, 7);
+                assertArrayEquals(Arrays.copyOfRange(labels,
+                    range.getFrom(), range.getTo()), block.getLabels());
+                assertArrayEquals(Arrays.copyOfRange(imageData,
+                    range.getFrom() * 784, range.getTo() * 784),
+                    block.getImageData());
+            }
+        }
+        finally
+        {
+            for (Path path : new Path[] { imagesFilePath, labelsFilePath })
+            {
+                Files.deleteIfExists(
+                    MnistGzipIndex.resolveIndexFilePath(path));
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void testReadMetricsIncludeHeaderPass() throws IOException
+    {
+        Path imagesFilePath = directory.resolve("images.gz");
+        Path labelsFilePath = directory.resolve("labels.gz");
+        int numberOfEntries = 3000;
+        try
+        {
+            writeMixedGzip(imagesFilePath, concat(
+                new byte[] { 0, 0, 8, 3, 0, 0, 0x0B, (byte) 0xB8,
+                    0, 0, 0, 28, 0, 0, 0, 28 },
+                createData(numberOfEntries * 28 * 28, 2)));
+            writeMixedGzip(labelsFilePath, concat(
+                new byte[] { 0, 0, 8, 1, 0, 0, 0x0B, (byte) 0xB8 },
+                createData(numberOfEntries, 1)));
+            MnistReadMetrics metrics[] = new MnistReadMetrics[1];
+            MnistCompressedReader reader = new MnistCompressedReader();
+            reader.setGzipIndexEnabled(true);
+            reader.setReadListener(m -> metrics[0] = m);
+            reader.readCompressedShardBlock(
+                imagesFilePath, labelsFilePath, 0, 1);
+
+            // The header pass and the range pass both read the data
+            // from the start, so the compressed data is read twice
+            long fileSizes =
+                Files.size(imagesFilePath) + Files.size(labelsFilePath);
+            assertTrue(metrics[0].getCompressedBytes() > fileSizes);
+            assertEquals(16 + numberOfEntries * 28 * 28 + 8 + numberOfEntries,
+                metrics[0].getDecompressedBytes());
+        }
+        finally
+        {
+            for (Path path : new Path[] { imagesFilePath, labelsFilePath })
+            {
+                Files.deleteIfExists(
+                    MnistGzipIndex.resolveIndexFilePath(path));
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptTrailerIsDetected() throws IOException
+    {
+        byte bytes[] = Files.readAllBytes(gzipFilePath);
+        bytes[bytes.length - 8] ^= 1;
+        Files.write(gzipFilePath, bytes);
+        try
+        {
+            MnistGzipIndex.build(gzipFilePath);
+            fail("Expected a ZipException");
+        }
+        catch (ZipException e)
+        {
+            // Expected
+        }
+    }
+
+    private void assertRangeEquals(MnistGzipIndex index,
+        byte expected[], int offset, int length) throws IOException
+    {
+        byte actual[] = new byte[length];
+        try (InputStream inputStream = index.open(gzipFilePath, offset))
+        {
+            new DataInputStream(inputStream).readFully(actual);
+        }
+        byte expectedRange[] =
+            Arrays.copyOfRange(expected, offset, offset + length);
+        assertArrayEquals("At offset " + offset, expectedRange, actual);
+    }
+
+    /**
+     * Create data that consists of segments that are either random, or
+     * repetitive text
+     */
+    private static byte[] createData(int size, long seed)
+    {
+        Random random = new Random(seed);
+        byte result[] = new byte[size];
+        byte text[] = "The quick brown fox jumps over the lazy dog. "
+            .getBytes();
+        int position = 0;
+        int segment = 0;
+        while (position < size)
+        {
+            int length = Math.min(size - position,
+                1000 + random.nextInt(100000));
+            if (segment % 2 == 0)
+            {
+                for (int i = 0; i < length; i++)
+                {
+                    result[position + i] = text[(position + i) % text.length];
+                }
+            }
+            else
+            {
+                for (int i = 0; i < length; i++)
+                {
+                    result[position + i] = (byte) random.nextInt();
+                }
+            }
+            position += length;
+            segment++;
+        }
+        return result;
+    }
+
+    /**
+     * Write the given data as GZIP, switching the compression level
+     * between the segments, so that stored blocks occur after blocks
+     * with Huffman codes
+     */
+    private static void writeMixedGzip(Path path, byte data[])
+        throws IOException
+    {
+        try (OutputStream outputStream = Files.newOutputStream(path);
+            GZIPOutputStream gzipOutputStream =
+                new GZIPOutputStream(outputStream)
+            {
+                {
+                    int levels[] = {
+                        Deflater.BEST_COMPRESSION, Deflater.NO_COMPRESSION,
+                        Deflater.BEST_SPEED };
+                    int position = 0;
+                    int segment = 0;
+                    while (position < data.length)
+                    {
+                        int length = Math.min(
+                            data.length - position, 37000 + segment * 1000);
+                        def.setLevel(levels[segment % levels.length]);
+                        write(data, position, length);
+                        position += length;
+                        segment++;
+                    }
+                }
+            })
+        {
+            gzipOutputStream.finish();
+        }
+    }
+
+    private static byte[] readGzip(Path path) throws IOException
+    {
+        try (InputStream inputStream =
+            new GZIPInputStream(Files.newInputStream(path)))
+        {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte buffer[] = new byte[65536];
+            while (true)
+            {
+                int read = inputStream.read(buffer);
+                if (read < 0)
+                {
+                    return outputStream.toByteArray();
+                }
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static byte[] concat(byte a[], byte b[])
+    {
+        byte result[] = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -3,23 +3,23 @@
  */ 
 package de.javagl.mnist.reader.test;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.function.Consumer;
-
-import javax.imageio.ImageIO;
 
+import de.javagl.mnist.reader.MnistAtlasExporter;
 import de.javagl.mnist.reader.MnistCompressedReader;
-import de.javagl.mnist.reader.MnistEntry;
+import de.javagl.mnist.reader.MnistPngExporter;
 
 /**
  * An example showing how to use the MNIST reader to read the MNIST
  * input files from a local directory, and write the images as PNG
  * files to a local directory.<br>
  * <br>
+ * The images are written with a {@link MnistPngExporter}, which 
+ * encodes the images on multiple threads. Additionally, the images are 
+ * written into sprite sheets with a {@link MnistAtlasExporter}.<br>
+ * <br>
  * Warning: This will write 70000 images, which is quite a lot, and
  * may take a while...
  */
@@ -40,11 +40,8 @@ public class ReadAndSaveImages
      * Read the MNIST data from a local directory, and store the
      * MNIST images in the given output directory, separated
      * into training and testing images.
-     * The directory is assumed to contain the original MNIST files.<br>
-     * <br>
+     * The directory is assumed to contain the original MNIST files.
      * 
-     * @param inputDirectoryPath The input directory
-     * @param outputDirectoryPath The output directory
      * @throws IOException If an IO error occurs
      */
     private static void readAndSaveImages() throws IOException
@@ -56,65 +53,26 @@ public class ReadAndSaveImages
 
         System.out.println("Creating training images...");
         Path trainOutputPath = outputDirectoryPath.resolve("train");
-        trainOutputPath.toFile().mkdirs();
-        Consumer<MnistEntry> trainConsumer = 
-            mnistEntry -> saveAsImageUnchecked(mnistEntry, trainOutputPath);
-            mnistReader.readCompressedTraining(inputDirectoryPath, trainConsumer);
-
-            System.out.println("Creating testing images...");
-            Path testOutputPath = outputDirectoryPath.resolve("test");
-            testOutputPath.toFile().mkdirs();
-            Consumer<MnistEntry> testConsumer = 
-                mnistEntry -> saveAsImageUnchecked(mnistEntry, testOutputPath);
-                mnistReader.readCompressedTesting(inputDirectoryPath, testConsumer);
-
-    }
-
-    /**
-     * Save the given {@link MnistEntry} as a PNG image file in the specified 
-     * output directory. The file name of the resulting image will be created
-     * based on the index and the label of the entry.
-     *  
-     * @param mnistEntry The {@link MnistEntry}
-     * @param outputDirectoryPath The output directory
-     * @throws IOException If an IO error occurs
-     */
-    private static void saveAsImage(
-        MnistEntry mnistEntry, Path outputDirectoryPath) throws IOException
-    {
-        // Construct the file name, containing the index and the label
-        String indexString = String.format("%05d", mnistEntry.getIndex());
-        String outputFileName =
-            "digit-" + indexString + "-label-" + mnistEntry.getLabel() + ".png";
-
-        // Write the resulting image file
-        Path outputFilePath = outputDirectoryPath.resolve(outputFileName);
-        File outputFile = outputFilePath.toFile();
-        System.out.println("Writing " + outputFile);
-        BufferedImage image = mnistEntry.createImage();
-        ImageIO.write(image, "png", outputFile);
-    }
+        try (MnistPngExporter exporter = new MnistPngExporter(trainOutputPath))
+        {
+            mnistReader.readCompressedTraining(inputDirectoryPath, exporter);
+        }
 
-    /**
-     * Passes the call to {@link #saveAsImage(MnistEntry, Path)}, printing
-     * an error message if an exception is thrown.
-     *  
-     * @param mnistEntry The {@link MnistEntry}
-     * @param outputDirectoryPath The output directory
-     */
-    private static void saveAsImageUnchecked(
-        MnistEntry mnistEntry, Path outputDirectoryPath)
-    {
-        try
+        System.out.println("Creating testing images...");
+        Path testOutputPath = outputDirectoryPath.resolve("test");
+        try (MnistPngExporter exporter = new MnistPngExporter(testOutputPath))
         {
-            saveAsImage(mnistEntry, outputDirectoryPath);
+            mnistReader.readCompressedTesting(inputDirectoryPath, exporter);
         }
-        catch (IOException e)
+
+        System.out.println("Creating training sprite sheets...");
+        Path atlasOutputPath = outputDirectoryPath.resolve("atlas");
+        try (MnistAtlasExporter exporter = 
+            new MnistAtlasExporter(atlasOutputPath, "train", 100, 100))
         {
-            System.err.println(e.getMessage());
+            mnistReader.readCompressedTraining(inputDirectoryPath, exporter);
         }
+        System.out.println("Done");
     }
 
-
-
 }